@@ -0,0 +1,128 @@
+/*
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package su.comp.bk.arch;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedInputStream;
+
+import su.comp.bk.arch.Computer.Configuration;
+import android.util.Log;
+
+/**
+ * Cache of computer state snapshots taken after cold boot (keyed by computer
+ * configuration and ROM set checksum) and after program image loading and starting
+ * (additionally keyed by program image checksum). Restoring cached snapshot
+ * to configured computer avoids emulating boot process at startup.
+ */
+public class BootSnapshotCache {
+
+    private static final String TAG = BootSnapshotCache.class.getName();
+
+    /** Computer uptime to take boot snapshot at (in nanoseconds) */
+    public final static long BOOT_SNAPSHOT_UPTIME = 2000L * Computer.NANOSECS_IN_MSEC;
+
+    // Snapshot file name prefixes and suffix
+    private final static String BOOT_SNAPSHOT_FILE_PREFIX = "boot_";
+    private final static String IMAGE_SNAPSHOT_FILE_PREFIX = "image_";
+    private final static String SNAPSHOT_FILE_SUFFIX = ".bin";
+
+    // Image checksum calculation buffer size (in bytes)
+    private final static int CHECKSUM_BUFFER_SIZE = 010000;
+
+    private final File cacheDirectory;
+
+    public BootSnapshotCache(File cacheDirectory) {
+        this.cacheDirectory = cacheDirectory;
+    }
+
+    /**
+     * Get boot snapshot file for given computer.
+     * @param computer configured {@link Computer}
+     * @return boot snapshot file (may not exist)
+     */
+    public File getBootSnapshotFile(Computer computer) {
+        return getSnapshotFile(BOOT_SNAPSHOT_FILE_PREFIX + getSnapshotKey(computer));
+    }
+
+    /**
+     * Get loaded and started program image snapshot file for given computer.
+     * @param computer configured {@link Computer}
+     * @param imageChecksum program image checksum (see {@link #getImageChecksum(InputStream)})
+     * @return program image snapshot file (may not exist)
+     */
+    public File getImageSnapshotFile(Computer computer, long imageChecksum) {
+        return getSnapshotFile(IMAGE_SNAPSHOT_FILE_PREFIX + getSnapshotKey(computer)
+                + "_" + Long.toHexString(imageChecksum));
+    }
+
+    private static String getSnapshotKey(Computer computer) {
+        Configuration config = computer.getConfiguration();
+        return config.name().toLowerCase() + "_" + Long.toHexString(computer.getRomSetChecksum());
+    }
+
+    private File getSnapshotFile(String snapshotName) {
+        return new File(cacheDirectory, snapshotName + SNAPSHOT_FILE_SUFFIX);
+    }
+
+    /**
+     * Restore cached snapshot to configured computer.
+     * Invalid snapshot file is deleted from cache.
+     * @param computer configured {@link Computer} to restore snapshot to
+     * @param snapshotFile snapshot file
+     * @return <code>true</code> if snapshot was restored, <code>false</code> if snapshot
+     * is not cached or can't be restored (computer must be reset in latter case)
+     */
+    public boolean restore(Computer computer, File snapshotFile) {
+        if (!snapshotFile.isFile()) {
+            return false;
+        }
+        try {
+            InputStream snapshotInput = new BufferedInputStream(
+                    new FileInputStream(snapshotFile));
+            try {
+                computer.restoreState(snapshotInput);
+            } finally {
+                snapshotInput.close();
+            }
+            Log.d(TAG, "restored snapshot: " + snapshotFile.getName());
+            return true;
+        } catch (IOException e) {
+            Log.w(TAG, "can't restore snapshot: " + snapshotFile.getName(), e);
+            snapshotFile.delete();
+        }
+        return false;
+    }
+
+    /**
+     * Calculate program image checksum.
+     * @param imageInput {@link InputStream} to read image data from
+     * @return image checksum (CRC32)
+     * @throws IOException in case of image reading error
+     */
+    public static long getImageChecksum(InputStream imageInput) throws IOException {
+        CheckedInputStream checkedImageInput = new CheckedInputStream(imageInput, new CRC32());
+        byte[] buffer = new byte[CHECKSUM_BUFFER_SIZE];
+        while (checkedImageInput.read(buffer) >= 0) {
+            // Read image data till the end
+        }
+        return checkedImageInput.getChecksum().getValue();
+    }
+
+}
@@ -0,0 +1,331 @@
+/*
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package su.comp.bk.arch;
+
+import java.io.PrintWriter;
+import java.io.Writer;
+import java.util.Arrays;
+
+/**
+ * Bus access statistics. Counts memory reads and writes per 256-byte address space block,
+ * I/O register reads and writes and bus errors by address.
+ * Counters are updated from computer emulation thread without synchronization,
+ * so {@link #getSnapshot(long)} taken from other thread can be slightly inconsistent.
+ */
+public class BusStatistics {
+
+    /** Address space block size (in bytes) */
+    public final static int BLOCK_SIZE = 0400;
+    /** Number of address space blocks */
+    public final static int NUM_BLOCKS = 0200000 / BLOCK_SIZE;
+
+    // Number of I/O registers (words) in I/O registers address space
+    private final static int NUM_IO_REGISTERS = (0200000 - Computer.IO_REGISTERS_MIN_ADDRESS) >> 1;
+    // Number of words in address space
+    private final static int NUM_WORDS = 0200000 >> 1;
+
+    private final long[] blockReads = new long[NUM_BLOCKS];
+    private final long[] blockWrites = new long[NUM_BLOCKS];
+    private final long[] ioRegisterReads = new long[NUM_IO_REGISTERS];
+    private final long[] ioRegisterWrites = new long[NUM_IO_REGISTERS];
+    private final long[] busErrors = new long[NUM_WORDS];
+
+    // CPU time of statistics collection start (in clock ticks)
+    private long startCpuTime;
+
+    /**
+     * Bus access statistics snapshot.
+     */
+    public static class Snapshot {
+        private final long elapsedCpuTime;
+        private final long[] blockReads;
+        private final long[] blockWrites;
+        private final long[] ioRegisterReads;
+        private final long[] ioRegisterWrites;
+        private final long[] busErrors;
+
+        Snapshot(long elapsedCpuTime, long[] blockReads, long[] blockWrites,
+                long[] ioRegisterReads, long[] ioRegisterWrites, long[] busErrors) {
+            this.elapsedCpuTime = elapsedCpuTime;
+            this.blockReads = blockReads;
+            this.blockWrites = blockWrites;
+            this.ioRegisterReads = ioRegisterReads;
+            this.ioRegisterWrites = ioRegisterWrites;
+            this.busErrors = busErrors;
+        }
+
+        /**
+         * Get difference between this snapshot and given earlier snapshot.
+         * @param previous earlier snapshot of the same statistics
+         * @return snapshot with counters accumulated since given snapshot
+         */
+        public Snapshot since(Snapshot previous) {
+            return new Snapshot(elapsedCpuTime - previous.elapsedCpuTime,
+                    subtract(blockReads, previous.blockReads),
+                    subtract(blockWrites, previous.blockWrites),
+                    subtract(ioRegisterReads, previous.ioRegisterReads),
+                    subtract(ioRegisterWrites, previous.ioRegisterWrites),
+                    subtract(busErrors, previous.busErrors));
+        }
+
+        private static long[] subtract(long[] a, long[] b) {
+            long[] result = new long[a.length];
+            for (int i = 0; i < a.length; i++) {
+                result[i] = a[i] - b[i];
+            }
+            return result;
+        }
+
+        private static long sum(long[] values) {
+            long result = 0;
+            for (long value : values) {
+                result += value;
+            }
+            return result;
+        }
+
+        /**
+         * Get CPU time elapsed during statistics collection.
+         * @return elapsed CPU time (in clock ticks)
+         */
+        public long getElapsedCpuTime() {
+            return elapsedCpuTime;
+        }
+
+        /**
+         * Get number of reads from given address space block.
+         * @param blockIndex block index (address / {@link BusStatistics#BLOCK_SIZE})
+         * @return number of block reads
+         */
+        public long getBlockReads(int blockIndex) {
+            return blockReads[blockIndex];
+        }
+
+        /**
+         * Get number of writes to given address space block.
+         * @param blockIndex block index (address / {@link BusStatistics#BLOCK_SIZE})
+         * @return number of block writes
+         */
+        public long getBlockWrites(int blockIndex) {
+            return blockWrites[blockIndex];
+        }
+
+        /**
+         * Get number of reads from I/O register at given address.
+         * @param address I/O register address
+         * @return number of register reads
+         */
+        public long getIoRegisterReads(int address) {
+            return ioRegisterReads[getIoRegisterIndex(address)];
+        }
+
+        /**
+         * Get number of writes to I/O register at given address.
+         * @param address I/O register address
+         * @return number of register writes
+         */
+        public long getIoRegisterWrites(int address) {
+            return ioRegisterWrites[getIoRegisterIndex(address)];
+        }
+
+        /**
+         * Get number of bus errors on access to given address.
+         * @param address address to get bus errors number
+         * @return number of bus errors
+         */
+        public long getBusErrors(int address) {
+            return busErrors[(address & 0177777) >> 1];
+        }
+
+        /**
+         * Get total number of successful bus reads.
+         * @return total bus reads number
+         */
+        public long getTotalReads() {
+            return sum(blockReads);
+        }
+
+        /**
+         * Get total number of successful bus writes.
+         * @return total bus writes number
+         */
+        public long getTotalWrites() {
+            return sum(blockWrites);
+        }
+
+        /**
+         * Get total number of bus errors.
+         * @return total bus errors number
+         */
+        public long getTotalBusErrors() {
+            return sum(busErrors);
+        }
+
+        /**
+         * Get addresses of most accessed I/O registers.
+         * @param maxCount maximum number of addresses to return
+         * @return accessed I/O register addresses in access number descending order
+         */
+        public int[] getMostAccessedIoRegisters(int maxCount) {
+            return getMostAccessedIndexes(ioRegisterReads, ioRegisterWrites, maxCount,
+                    Computer.IO_REGISTERS_MIN_ADDRESS, 2);
+        }
+
+        /**
+         * Get indexes of most accessed address space blocks.
+         * @param maxCount maximum number of indexes to return
+         * @return accessed block indexes in access number descending order
+         */
+        public int[] getMostAccessedBlocks(int maxCount) {
+            return getMostAccessedIndexes(blockReads, blockWrites, maxCount, 0, 1);
+        }
+
+        private static int[] getMostAccessedIndexes(long[] reads, long[] writes, int maxCount,
+                int base, int scale) {
+            int[] result = new int[maxCount];
+            long[] resultCounts = new long[maxCount];
+            int resultCount = 0;
+            for (int i = 0; i < reads.length; i++) {
+                long count = reads[i] + writes[i];
+                if (count <= 0) {
+                    continue;
+                }
+                int pos = resultCount;
+                while (pos > 0 && resultCounts[pos - 1] < count) {
+                    pos--;
+                }
+                if (pos < maxCount) {
+                    int moveCount = Math.min(resultCount, maxCount - 1) - pos;
+                    System.arraycopy(result, pos, result, pos + 1, moveCount);
+                    System.arraycopy(resultCounts, pos, resultCounts, pos + 1, moveCount);
+                    result[pos] = base + i * scale;
+                    resultCounts[pos] = count;
+                    resultCount = Math.min(resultCount + 1, maxCount);
+                }
+            }
+            return Arrays.copyOf(result, resultCount);
+        }
+
+        /**
+         * Write human-readable statistics report.
+         * @param writer {@link Writer} to write report to
+         */
+        public void writeReport(Writer writer) {
+            PrintWriter out = new PrintWriter(writer);
+            long totalReads = getTotalReads();
+            long totalWrites = getTotalWrites();
+            long totalAccesses = Math.max(1, totalReads + totalWrites);
+            out.printf("CPU ticks: %d, reads: %d, writes: %d, bus errors: %d%n",
+                    elapsedCpuTime, totalReads, totalWrites, getTotalBusErrors());
+            out.println("I/O registers (address: reads/writes, % of bus accesses):");
+            for (int address : getMostAccessedIoRegisters(NUM_IO_REGISTERS)) {
+                long reads = getIoRegisterReads(address);
+                long writes = getIoRegisterWrites(address);
+                out.printf("%06o: %d/%d, %.2f%%%n", address, reads, writes,
+                        100f * (reads + writes) / totalAccesses);
+            }
+            out.println("Address space blocks (start address: reads/writes):");
+            for (int blockIndex : getMostAccessedBlocks(NUM_BLOCKS)) {
+                out.printf("%06o: %d/%d%n", blockIndex * BLOCK_SIZE,
+                        getBlockReads(blockIndex), getBlockWrites(blockIndex));
+            }
+            out.println("Bus errors (address: count):");
+            for (int wordIndex = 0; wordIndex < busErrors.length; wordIndex++) {
+                if (busErrors[wordIndex] > 0) {
+                    out.printf("%06o: %d%n", wordIndex << 1, busErrors[wordIndex]);
+                }
+            }
+            out.flush();
+        }
+    }
+
+    /**
+     * Create bus statistics.
+     * @param cpuTime statistics collection start CPU time (in clock ticks)
+     */
+    public BusStatistics(long cpuTime) {
+        reset(cpuTime);
+    }
+
+    /**
+     * Reset all counters.
+     * @param cpuTime statistics collection start CPU time (in clock ticks)
+     */
+    public void reset(long cpuTime) {
+        startCpuTime = cpuTime;
+        Arrays.fill(blockReads, 0L);
+        Arrays.fill(blockWrites, 0L);
+        Arrays.fill(ioRegisterReads, 0L);
+        Arrays.fill(ioRegisterWrites, 0L);
+        Arrays.fill(busErrors, 0L);
+    }
+
+    /**
+     * Get statistics snapshot.
+     * @param cpuTime current CPU time (in clock ticks)
+     * @return {@link Snapshot} with current counter values
+     */
+    public Snapshot getSnapshot(long cpuTime) {
+        return new Snapshot(cpuTime - startCpuTime, blockReads.clone(), blockWrites.clone(),
+                ioRegisterReads.clone(), ioRegisterWrites.clone(), busErrors.clone());
+    }
+
+    private static int getIoRegisterIndex(int address) {
+        return ((address & 0177777) - Computer.IO_REGISTERS_MIN_ADDRESS) >> 1;
+    }
+
+    void countMemoryRead(int address) {
+        blockReads[(address & 0177777) >> 8]++;
+    }
+
+    void countMemoryWrite(int address) {
+        blockWrites[(address & 0177777) >> 8]++;
+    }
+
+    void countIoRegisterRead(int address) {
+        countMemoryRead(address);
+        ioRegisterReads[getIoRegisterIndex(address)]++;
+    }
+
+    void countIoRegisterWrite(int address) {
+        countMemoryWrite(address);
+        ioRegisterWrites[getIoRegisterIndex(address)]++;
+    }
+
+    void countMemoryBlockRead(int address, int length) {
+        countBlockAccesses(blockReads, address, length);
+    }
+
+    void countMemoryBlockWrite(int address, int length) {
+        countBlockAccesses(blockWrites, address, length);
+    }
+
+    // Count block transfer as word accesses to each address space block it covers
+    private static void countBlockAccesses(long[] blockAccesses, int address, int length) {
+        int endAddress = address + length;
+        int blockAddress = address & ~1;
+        while (blockAddress < endAddress) {
+            int blockEndAddress = Math.min((blockAddress | (BLOCK_SIZE - 1)) + 1, endAddress);
+            blockAccesses[(blockAddress & 0177777) >> 8] +=
+                    (blockEndAddress - blockAddress + 1) >> 1;
+            blockAddress = blockEndAddress;
+        }
+    }
+
+    void countBusError(int address) {
+        busErrors[(address & 0177777) >> 1]++;
+    }
+
+}
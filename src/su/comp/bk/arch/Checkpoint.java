@@ -0,0 +1,138 @@
+/*
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package su.comp.bk.arch;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedOutputStream;
+
+import su.comp.bk.arch.Computer.Configuration;
+import su.comp.bk.arch.memory.RandomAccessMemory;
+
+/**
+ * Computer state checkpoint. Checkpoint is captured by {@link Computer#createCheckpoint()}
+ * in two phases: CPU, device and memory mapping states are serialized at once, while
+ * RAM data arrays are shared with RAM pages (which copy their data on first write), so
+ * checkpoint can be written from background thread while computer is running.
+ * Checkpoint must be released after writing by {@link #release()}.
+ */
+public class Checkpoint {
+
+    /** State data magic number ("BKST") */
+    final static int STATE_MAGIC = 0x424b5354;
+    /** State data format version */
+    final static int STATE_VERSION = 1;
+
+    private final Configuration configuration;
+
+    // Serialized CPU, device and memory mapping states
+    private final ByteArrayOutputStream stateBuffer = new ByteArrayOutputStream();
+    private final DataOutputStream stateOutput = new DataOutputStream(stateBuffer);
+
+    // Shared RAM data entries (in state data order)
+    private final List<SharedMemoryData> sharedMemoryDataList =
+            new ArrayList<SharedMemoryData>();
+
+    private boolean isReleased;
+
+    private static class SharedMemoryData {
+        final RandomAccessMemory memory;
+        final short[] data;
+        // State buffer position to insert RAM data state at
+        final int statePosition;
+
+        SharedMemoryData(RandomAccessMemory memory, int statePosition) {
+            this.memory = memory;
+            this.data = memory.shareData();
+            this.statePosition = statePosition;
+        }
+    }
+
+    Checkpoint(Configuration configuration) {
+        this.configuration = configuration;
+    }
+
+    /**
+     * Get checkpoint computer configuration.
+     * @return computer {@link Configuration}
+     */
+    public Configuration getConfiguration() {
+        return configuration;
+    }
+
+    DataOutput getStateOutput() {
+        return stateOutput;
+    }
+
+    void addMemory(RandomAccessMemory memory) {
+        sharedMemoryDataList.add(new SharedMemoryData(memory, stateBuffer.size()));
+    }
+
+    /**
+     * Write checkpoint state data (without header and checksum).
+     * @param out {@link DataOutput} to write state data to
+     * @throws IOException in case of state data writing error
+     */
+    public synchronized void writeData(DataOutput out) throws IOException {
+        if (isReleased) {
+            throw new IllegalStateException("Checkpoint is released");
+        }
+        byte[] stateData = stateBuffer.toByteArray();
+        int statePosition = 0;
+        for (SharedMemoryData sharedMemoryData : sharedMemoryDataList) {
+            out.write(stateData, statePosition, sharedMemoryData.statePosition - statePosition);
+            statePosition = sharedMemoryData.statePosition;
+            sharedMemoryData.memory.saveState(out, sharedMemoryData.data);
+        }
+        out.write(stateData, statePosition, stateData.length - statePosition);
+    }
+
+    /**
+     * Write checkpoint in computer state format (header, state data and CRC32 checksum).
+     * @param outputStream {@link OutputStream} to write checkpoint to
+     * @throws IOException in case of checkpoint writing error
+     */
+    public void write(OutputStream outputStream) throws IOException {
+        CheckedOutputStream checkedOutputStream = new CheckedOutputStream(outputStream,
+                new CRC32());
+        DataOutputStream out = new DataOutputStream(checkedOutputStream);
+        out.writeInt(STATE_MAGIC);
+        out.writeShort(STATE_VERSION);
+        out.writeUTF(configuration.name());
+        writeData(out);
+        out.flush();
+        out.writeInt((int) checkedOutputStream.getChecksum().getValue());
+        out.flush();
+    }
+
+    /**
+     * Release shared RAM data arrays. Checkpoint can't be written after release.
+     */
+    public synchronized void release() {
+        if (!isReleased) {
+            isReleased = true;
+            for (SharedMemoryData sharedMemoryData : sharedMemoryDataList) {
+                sharedMemoryData.memory.releaseData(sharedMemoryData.data);
+            }
+        }
+    }
+
+}
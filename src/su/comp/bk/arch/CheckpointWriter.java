@@ -0,0 +1,172 @@
+/*
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package su.comp.bk.arch;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import android.util.Log;
+
+/**
+ * Background computer state checkpoint writer. Checkpoints are written to state files
+ * from separate thread, so emulation is not stalled while state is serialized.
+ * If new checkpoint is submitted while previous one for the same file is still not
+ * written, previous checkpoint is dropped. State file is replaced only after checkpoint
+ * is written completely.
+ */
+public class CheckpointWriter implements Runnable {
+
+    private static final String TAG = CheckpointWriter.class.getName();
+
+    private final File stateFile;
+
+    private final Thread writerThread;
+
+    // Checkpoints to write, by state file (in submission order)
+    private final Map<File, Checkpoint> pendingCheckpoints =
+            new LinkedHashMap<File, Checkpoint>();
+    // Checkpoint write in progress flag
+    private boolean isWriting;
+    // Writer closing flag
+    private boolean isClosing;
+
+    public CheckpointWriter(File stateFile) {
+        this.stateFile = stateFile;
+        this.writerThread = new Thread(this, "CheckpointWriterThread");
+        writerThread.start();
+    }
+
+    /**
+     * Get default state file to write checkpoints to.
+     * @return state file
+     */
+    public File getStateFile() {
+        return stateFile;
+    }
+
+    /**
+     * Submit checkpoint for writing to default state file.
+     * @param checkpoint {@link Checkpoint} to write (released after writing)
+     */
+    public void submit(Checkpoint checkpoint) {
+        submit(checkpoint, stateFile);
+    }
+
+    /**
+     * Submit checkpoint for writing to given state file.
+     * @param checkpoint {@link Checkpoint} to write (released after writing)
+     * @param file state file to write checkpoint to
+     */
+    public synchronized void submit(Checkpoint checkpoint, File file) {
+        if (isClosing) {
+            checkpoint.release();
+            throw new IllegalStateException("Checkpoint writer is closed");
+        }
+        Checkpoint pendingCheckpoint = pendingCheckpoints.remove(file);
+        if (pendingCheckpoint != null) {
+            Log.d(TAG, "dropping unwritten checkpoint for file: " + file);
+            pendingCheckpoint.release();
+        }
+        pendingCheckpoints.put(file, checkpoint);
+        notifyAll();
+    }
+
+    /**
+     * Wait until all submitted checkpoints are written.
+     * @throws InterruptedException if waiting thread was interrupted
+     */
+    public synchronized void flush() throws InterruptedException {
+        while (!pendingCheckpoints.isEmpty() || isWriting) {
+            wait();
+        }
+    }
+
+    /**
+     * Write all submitted checkpoints and stop writer thread.
+     */
+    public void close() {
+        synchronized (this) {
+            isClosing = true;
+            notifyAll();
+        }
+        while (writerThread.isAlive()) {
+            try {
+                writerThread.join();
+            } catch (InterruptedException e) {
+            }
+        }
+    }
+
+    @Override
+    public void run() {
+        Log.d(TAG, "checkpoint writer thread started");
+        while (true) {
+            File file;
+            Checkpoint checkpoint;
+            synchronized (this) {
+                while (pendingCheckpoints.isEmpty() && !isClosing) {
+                    try {
+                        wait();
+                    } catch (InterruptedException e) {
+                    }
+                }
+                if (pendingCheckpoints.isEmpty()) {
+                    break;
+                }
+                Iterator<Map.Entry<File, Checkpoint>> pendingCheckpointIterator =
+                        pendingCheckpoints.entrySet().iterator();
+                Map.Entry<File, Checkpoint> pendingCheckpoint = pendingCheckpointIterator.next();
+                pendingCheckpointIterator.remove();
+                file = pendingCheckpoint.getKey();
+                checkpoint = pendingCheckpoint.getValue();
+                isWriting = true;
+            }
+            try {
+                write(checkpoint, file);
+            } catch (IOException e) {
+                Log.e(TAG, "can't write checkpoint to file: " + file, e);
+            } finally {
+                checkpoint.release();
+                synchronized (this) {
+                    isWriting = false;
+                    notifyAll();
+                }
+            }
+        }
+        Log.d(TAG, "checkpoint writer thread stopped");
+    }
+
+    private static void write(Checkpoint checkpoint, File stateFile) throws IOException {
+        long startTime = System.nanoTime();
+        File tempStateFile = new File(stateFile.getPath() + ".tmp");
+        OutputStream stateOutput = new BufferedOutputStream(new FileOutputStream(tempStateFile));
+        try {
+            checkpoint.write(stateOutput);
+        } finally {
+            stateOutput.close();
+        }
+        if (!tempStateFile.renameTo(stateFile)) {
+            throw new IOException("Can't rename " + tempStateFile + " to " + stateFile);
+        }
+        Log.d(TAG, "checkpoint written in " + (System.nanoTime() - startTime) / 1000 + "us");
+    }
+
+}
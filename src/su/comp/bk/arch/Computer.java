@@ -18,15 +18,20 @@
  */
 package su.comp.bk.arch;
 
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutput;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedInputStream;
 
 import org.apache.commons.lang.ArrayUtils;
 
 import android.content.res.Resources;
-import android.os.Bundle;
 import android.util.Log;
 
 import su.comp.bk.R;
@@ -43,6 +48,7 @@ import su.comp.bk.arch.io.Timer;
 import su.comp.bk.arch.io.VideoController;
 import su.comp.bk.arch.io.VideoControllerManager;
 import su.comp.bk.arch.memory.Memory;
+import su.comp.bk.arch.memory.MemoryScanner;
 import su.comp.bk.arch.memory.PagedMemory;
 import su.comp.bk.arch.memory.RandomAccessMemory;
 import su.comp.bk.arch.memory.RandomAccessMemory.Type;
@@ -55,18 +61,46 @@ public class Computer implements Runnable {
 
     private static final String TAG = Computer.class.getName();
 
-    // State save/restore: Computer uptime (in nanoseconds)
-    private static final String STATE_UPTIME = Computer.class.getName() + "#uptime";
-
     /** Bus error constant */
     public final static int BUS_ERROR = -1;
 
     // Computer configuration
     private Configuration configuration;
 
+    // Checksum of ROM data loaded while configuring
+    private final CRC32 romSetChecksum = new CRC32();
+
     // Memory table mapped by 8KB blocks
     private final Memory[] memoryTable = new Memory[8];
 
+    // Bus access memory table mapped by 8KB blocks (same as memory table, but blocks
+    // with set watchpoints are replaced by watchpoint checking memory accessors)
+    private final Memory[] accessMemoryTable = new Memory[8];
+
+    /** Watchpoint type: memory read access */
+    public final static int WATCHPOINT_READ = 1;
+    /** Watchpoint type: memory write access */
+    public final static int WATCHPOINT_WRITE = 2;
+    /** Watchpoint type: memory read or write access */
+    public final static int WATCHPOINT_ACCESS = WATCHPOINT_READ | WATCHPOINT_WRITE;
+
+    // Read watchpoints bitmap (one bit per memory word)
+    private final int[] readWatchpoints = new int[02000];
+    // Write watchpoints bitmap (one bit per memory word)
+    private final int[] writeWatchpoints = new int[02000];
+    // Number of watched words per 8KB memory block
+    private final int[] blockWatchpointCounts = new int[8];
+    // Number of watched words in I/O registers space
+    private int ioWatchpointsCount;
+
+    private OnWatchpointListener onWatchpointListener;
+
+    // Watchpoint break was requested by watchpoint listener flag
+    private boolean isWatchpointBreakRequested;
+
+    // Bus access statistics (null if statistics collection is disabled)
+    private BusStatistics busStatistics;
+
     // CPU implementation reference
     private final Cpu cpu;
 
@@ -82,6 +116,18 @@ public class Computer implements Runnable {
     // Audio output reference
     private AudioOutput audioOutput;
 
+    // RAM scanner reference
+    private MemoryScanner memoryScanner;
+
+    // Rewind buffer reference
+    private RewindBuffer rewindBuffer;
+
+    // Run-ahead reference (<code>null</code> if run-ahead is disabled)
+    private RunAhead runAhead;
+
+    // Video frame period (in CPU clock ticks, equal to system timer period)
+    private long videoFrameCpuTicks;
+
     // FLoppy controller reference (<code>null</code> if no floppy controller attached)
     private FloppyController floppyController;
 
@@ -125,6 +171,23 @@ public class Computer implements Runnable {
 
     // Computer uptime (in nanoseconds)
     private long uptime;
+    // Real time computer uptime to sync CPU time with (in nanoseconds)
+    private long realUptime;
+    // Computer uptime is advanced by CPU time (instead of real time) flag
+    private boolean isDeterministicUptime;
+    // Computer runs as fast as possible (without waiting for real time) flag
+    private volatile boolean isUnthrottled;
+    // Audio output was muted for unthrottled run flag
+    private boolean isAudioMutedForUnthrottledRun;
+
+    // External input journal
+    private final InputJournal inputJournal;
+
+    // Host input events queue (drained from emulation thread)
+    private final InputQueue inputQueue = new InputQueue(this);
+
+    // Monitor EMT calls high-level emulator
+    private final EmtEmulator emtEmulator = new EmtEmulator(this);
 
     public enum Configuration {
         /** BK0010 - monitor only */
@@ -173,8 +236,209 @@ public class Computer implements Runnable {
         }
     }
 
+    /**
+     * Memory watchpoints event listener interface.
+     */
+    public interface OnWatchpointListener {
+        /**
+         * Called on memory or I/O register access to watched address.
+         * @param computer computer object reference
+         * @param isWriteAccess <code>true</code> if watched address was written,
+         * <code>false</code> if read
+         * @param isByteMode <code>true</code> for byte access, <code>false</code> for word access
+         * @param address accessed address
+         * @param value read or written value
+         * @param pc value of PC register at access time (points after accessing instruction
+         * code word, or its operand word for index addressing modes)
+         * @param cpuTime CPU time of access (in clock ticks)
+         * @return <code>true</code> to stop computer at the end of currently executed
+         * instruction, <code>false</code> to continue execution
+         */
+        boolean onWatchpoint(Computer computer, boolean isWriteAccess, boolean isByteMode,
+                int address, int value, int pc, long cpuTime);
+    }
+
+    /**
+     * Watchpoint checking memory accessor. Used in bus access memory table instead of
+     * memory blocks with at least one watched address, so memory blocks without watchpoints
+     * are accessed directly.
+     */
+    protected class WatchpointMemory implements Memory {
+        private final Memory watchedMemory;
+
+        WatchpointMemory(Memory watchedMemory) {
+            this.watchedMemory = watchedMemory;
+        }
+
+        Memory getWatchedMemory() {
+            return watchedMemory;
+        }
+
+        @Override
+        public String getId() {
+            return watchedMemory.getId();
+        }
+
+        @Override
+        public int getStartAddress() {
+            return watchedMemory.getStartAddress();
+        }
+
+        @Override
+        public int getSize() {
+            return watchedMemory.getSize();
+        }
+
+        @Override
+        public short[] getData() {
+            return watchedMemory.getData();
+        }
+
+        @Override
+        public int read(boolean isByteMode, int address) {
+            int value = watchedMemory.read(isByteMode, address);
+            if (isWatchpointSet(readWatchpoints, address)) {
+                handleWatchpoint(false, isByteMode, address, value);
+            }
+            return value;
+        }
+
+        @Override
+        public boolean write(boolean isByteMode, int address, int value) {
+            if (isWatchpointSet(writeWatchpoints, address)) {
+                handleWatchpoint(true, isByteMode, address, value);
+            }
+            return watchedMemory.write(isByteMode, address, value);
+        }
+
+        @Override
+        public int readBlock(int address, byte[] buffer, int offset, int length) {
+            // Read block by bytes to check watchpoints
+            int count = 0;
+            while (count < length && isRelatedAddress(address + count)) {
+                buffer[offset + count] = (byte) read(true, address + count);
+                count++;
+            }
+            return count;
+        }
+
+        @Override
+        public int writeBlock(int address, byte[] buffer, int offset, int length) {
+            // Write block by bytes to check watchpoints
+            int count = 0;
+            while (count < length && isRelatedAddress(address + count)
+                    && write(true, address + count, buffer[offset + count])) {
+                count++;
+            }
+            return count;
+        }
+
+        @Override
+        public boolean isRelatedAddress(int address) {
+            return watchedMemory.isRelatedAddress(address);
+        }
+
+        @Override
+        public void saveState(DataOutput out) throws IOException {
+            watchedMemory.saveState(out);
+        }
+
+        @Override
+        public void restoreState(DataInput in) throws IOException {
+            watchedMemory.restoreState(in);
+        }
+    }
+
+    /**
+     * Lazily restored RAM state decoding memory accessor. Used in bus access memory table
+     * instead of memory blocks with RAM pages which state is not decoded yet, so RAM page
+     * state is decoded on first access to it and memory blocks without pending RAM pages
+     * are accessed directly.
+     */
+    protected class StateRestoreMemory implements Memory {
+        private final int memoryBlockIdx;
+        private final Memory restoredMemory;
+
+        StateRestoreMemory(int memoryBlockIdx, Memory restoredMemory) {
+            this.memoryBlockIdx = memoryBlockIdx;
+            this.restoredMemory = restoredMemory;
+        }
+
+        private void restorePendingState() {
+            Memory memory = memoryTable[memoryBlockIdx];
+            Memory memoryPage = (memory instanceof PagedMemory)
+                    ? ((PagedMemory) memory).getActivePage() : memory;
+            if (isStateRestorePending(memoryPage)) {
+                ((RandomAccessMemory) memoryPage).restorePendingState();
+            }
+            if (!isStateRestorePending(memory)) {
+                updateAccessMemoryTable(memoryBlockIdx);
+            }
+        }
+
+        @Override
+        public String getId() {
+            return restoredMemory.getId();
+        }
+
+        @Override
+        public int getStartAddress() {
+            return restoredMemory.getStartAddress();
+        }
+
+        @Override
+        public int getSize() {
+            return restoredMemory.getSize();
+        }
+
+        @Override
+        public short[] getData() {
+            return restoredMemory.getData();
+        }
+
+        @Override
+        public int read(boolean isByteMode, int address) {
+            restorePendingState();
+            return restoredMemory.read(isByteMode, address);
+        }
+
+        @Override
+        public boolean write(boolean isByteMode, int address, int value) {
+            restorePendingState();
+            return restoredMemory.write(isByteMode, address, value);
+        }
+
+        @Override
+        public int readBlock(int address, byte[] buffer, int offset, int length) {
+            restorePendingState();
+            return restoredMemory.readBlock(address, buffer, offset, length);
+        }
+
+        @Override
+        public int writeBlock(int address, byte[] buffer, int offset, int length) {
+            restorePendingState();
+            return restoredMemory.writeBlock(address, buffer, offset, length);
+        }
+
+        @Override
+        public boolean isRelatedAddress(int address) {
+            return restoredMemory.isRelatedAddress(address);
+        }
+
+        @Override
+        public void saveState(DataOutput out) throws IOException {
+            restoredMemory.saveState(out);
+        }
+
+        @Override
+        public void restoreState(DataInput in) throws IOException {
+            restoredMemory.restoreState(in);
+        }
+    }
+
     public Computer() {
         this.cpu = new Cpu(this);
+        this.inputJournal = new InputJournal(this);
     }
 
     /**
@@ -277,6 +541,12 @@ public class Computer implements Runnable {
         // Add audio output
         audioOutput = new AudioOutput(this, config.isMemoryManagerPresent());
         addDevice(audioOutput);
+        // Add RAM scanner
+        memoryScanner = new MemoryScanner(this, getRandomAccessMemoryList());
+        addDevice(memoryScanner);
+        // Add rewind buffer
+        rewindBuffer = new RewindBuffer(this);
+        addDevice(rewindBuffer);
     }
 
     /**
@@ -295,6 +565,82 @@ public class Computer implements Runnable {
         return this.configuration;
     }
 
+    /**
+     * Get checksum of all ROM data loaded while configuring this computer. Checksum
+     * identifies ROM set, so it can be used to key cached computer states.
+     * @return ROM set checksum (CRC32)
+     */
+    public long getRomSetChecksum() {
+        return romSetChecksum.getValue();
+    }
+
+    /**
+     * Get all RAM pages of this computer, including pages not mapped to CPU address space.
+     * @return list of {@link RandomAccessMemory} pages
+     */
+    public List<RandomAccessMemory> getRandomAccessMemoryList() {
+        List<RandomAccessMemory> memoryList = new ArrayList<RandomAccessMemory>();
+        for (Memory memory : getStatefulMemoryList()) {
+            if (memory instanceof RandomAccessMemory) {
+                memoryList.add((RandomAccessMemory) memory);
+            }
+        }
+        return memoryList;
+    }
+
+    /**
+     * Get RAM scanner.
+     * @return {@link MemoryScanner} reference or <code>null</code> if computer
+     * is not configured
+     */
+    public MemoryScanner getMemoryScanner() {
+        return memoryScanner;
+    }
+
+    /**
+     * Get rewind buffer.
+     * @return {@link RewindBuffer} reference or <code>null</code> if computer
+     * is not configured
+     */
+    public RewindBuffer getRewindBuffer() {
+        return rewindBuffer;
+    }
+
+    /**
+     * Set number of video frames to run ahead. On each video frame, computer state is saved,
+     * given number of frames is emulated ahead with current input, resulting video frame
+     * is captured for displaying and computer state is rolled back.
+     * @param frames number of frames to run ahead (0 to disable run-ahead)
+     */
+    public synchronized void setRunAheadFrames(int frames) {
+        if (frames > 0) {
+            runAhead = new RunAhead(this, frames);
+        } else {
+            runAhead = null;
+            if (videoController != null) {
+                // Replace last frame emulated ahead with current one
+                videoController.publishFrame();
+            }
+        }
+    }
+
+    /**
+     * Get run-ahead.
+     * @return {@link RunAhead} reference or <code>null</code> if run-ahead is disabled
+     */
+    public RunAhead getRunAhead() {
+        return runAhead;
+    }
+
+    /**
+     * Check is computer is running ahead now (so executed operations will be rolled back).
+     * @return <code>true</code> if computer is running ahead
+     */
+    public boolean isRunningAhead() {
+        RunAhead runAhead = this.runAhead;
+        return (runAhead != null) && runAhead.isRunningAhead();
+    }
+
     private List<Memory> getStatefulMemoryList() {
         List<Memory> statefulMemoryList = new ArrayList<Memory>();
         for (int memoryBlockIdx = 0; memoryBlockIdx < memoryTable.length; memoryBlockIdx++) {
@@ -320,51 +666,158 @@ public class Computer implements Runnable {
     }
 
     /**
-     * Save computer state.
-     * @param resources Android {@link Resources} object reference
-     * @param outState {@link Bundle} to save state
+     * Save computer state. State is saved in binary format with header (containing
+     * state format version and computer configuration) and CRC32 checksum trailer.
+     * @param outputStream {@link OutputStream} to save state to
+     * @throws IOException in case of error while state saving
+     */
+    public synchronized void saveState(OutputStream outputStream) throws IOException {
+        Checkpoint checkpoint = createCheckpoint();
+        try {
+            checkpoint.write(outputStream);
+        } finally {
+            checkpoint.release();
+        }
+    }
+
+    /**
+     * Create computer state checkpoint. Only CPU, device and memory mapping states
+     * are serialized here, so checkpoint creation doesn't stall emulation for a long time.
+     * RAM data is shared with checkpoint and serialized on checkpoint writing.
+     * @return created {@link Checkpoint} (must be released after writing)
+     * @throws IOException in case of error while state serialization
      */
-    public synchronized void saveState(Resources resources, Bundle outState) {
-        // Save computer configuration
-        outState.putString(Configuration.class.getName(), getConfiguration().name());
+    public synchronized Checkpoint createCheckpoint() throws IOException {
+        Checkpoint checkpoint = new Checkpoint(getConfiguration());
+        writeStateData(checkpoint.getStateOutput(), checkpoint);
+        return checkpoint;
+    }
+
+    /**
+     * Write computer uptime, memory mapping, CPU and device states.
+     * @param out {@link DataOutput} to write state data to
+     * @param checkpoint {@link Checkpoint} to add RAM data to (at its place in state data),
+     * or <code>null</code> to not save RAM data
+     * @throws IOException in case of error while state data writing
+     */
+    void writeStateData(DataOutput out, Checkpoint checkpoint) throws IOException {
         // Save computer uptime
-        outState.putLong(STATE_UPTIME, getUptime());
+        out.writeLong(getUptime());
         // Save RAM data
         for (Memory memory: getStatefulMemoryList()) {
-            memory.saveState(outState);
+            if (memory instanceof RandomAccessMemory) {
+                if (checkpoint != null) {
+                    checkpoint.addMemory((RandomAccessMemory) memory);
+                }
+            } else {
+                memory.saveState(out);
+            }
         }
         // Save CPU state
-        getCpu().saveState(outState);
+        getCpu().saveState(out);
         // Save device states
         for (Device device : deviceList) {
-            device.saveState(outState);
+            device.saveState(out);
         }
     }
 
     /**
      * Restore computer state.
      * @param resources Android {@link Resources} object reference
-     * @param inState {@link Bundle} to restore state
+     * @param inputStream {@link InputStream} to restore state from
      * @throws Exception in case of error while state restoring
      */
-    public synchronized void restoreState(Resources resources, Bundle inState) throws Exception {
+    public synchronized void restoreState(Resources resources, InputStream inputStream)
+            throws Exception {
+        CheckedInputStream checkedInputStream = new CheckedInputStream(inputStream,
+                new CRC32());
+        DataInputStream in = new DataInputStream(checkedInputStream);
         // Restore computer configuration
-        Configuration config = Configuration.valueOf(inState
-                .getString(Configuration.class.getName()));
-        configure(resources, config);
+        configure(resources, readStateHeader(in));
+        readStateData(in);
+        checkStateChecksum(checkedInputStream, in);
+    }
+
+    /**
+     * Restore computer state to already configured computer.
+     * @param inputStream {@link InputStream} to restore state from
+     * @throws IOException in case of error while state restoring or if state data
+     * was saved with different computer configuration
+     */
+    public synchronized void restoreState(InputStream inputStream) throws IOException {
+        CheckedInputStream checkedInputStream = new CheckedInputStream(inputStream,
+                new CRC32());
+        DataInputStream in = new DataInputStream(checkedInputStream);
+        Configuration config = readStateHeader(in);
+        if (config != getConfiguration()) {
+            throw new IOException("State data configuration mismatch: " + config);
+        }
+        readStateData(in);
+        checkStateChecksum(checkedInputStream, in);
+    }
+
+    private static Configuration readStateHeader(DataInput in) throws IOException {
+        if (in.readInt() != Checkpoint.STATE_MAGIC) {
+            throw new IOException("Invalid state data");
+        }
+        int stateVersion = in.readUnsignedShort();
+        if (stateVersion != Checkpoint.STATE_VERSION) {
+            throw new IOException("Unsupported state data version: " + stateVersion);
+        }
+        try {
+            return Configuration.valueOf(in.readUTF());
+        } catch (IllegalArgumentException e) {
+            throw new IOException("Invalid state data configuration", e);
+        }
+    }
+
+    private static void checkStateChecksum(CheckedInputStream checkedInputStream,
+            DataInput in) throws IOException {
+        int checksum = (int) checkedInputStream.getChecksum().getValue();
+        if (in.readInt() != checksum) {
+            throw new IOException("State data checksum mismatch");
+        }
+    }
+
+    /**
+     * Read computer uptime, RAM, CPU and device states. Computer must be
+     * configured with the same configuration the state data was written with.
+     * @param in {@link DataInput} to read state data from
+     * @throws IOException in case of error while state data reading
+     */
+    protected void readStateData(DataInput in) throws IOException {
+        readStateData(in, true, true);
+    }
+
+    /**
+     * Read computer uptime, memory mapping, CPU and device states.
+     * @param in {@link DataInput} to read state data from
+     * @param isRamDataIncluded <code>true</code> if state data includes RAM data,
+     * <code>false</code> if RAM data is to be restored separately
+     * @param isDevicesInitRequired <code>true</code> to initialize CPU and devices before
+     * restoring their states, <code>false</code> to keep device states not saved in
+     * state data (i.e. pressed keyboard buttons)
+     * @throws IOException in case of error while state data reading
+     */
+    void readStateData(DataInput in, boolean isRamDataIncluded, boolean isDevicesInitRequired)
+            throws IOException {
         // Restore computer uptime
-        setUptime(inState.getLong(STATE_UPTIME));
-        // Initialize CPU and devices
-        cpu.initDevices();
+        setUptime(in.readLong());
+        if (isDevicesInitRequired) {
+            // Initialize CPU and devices
+            cpu.initDevices();
+        }
         // Restore RAM data
         for (Memory memory: getStatefulMemoryList()) {
-            memory.restoreState(inState);
+            if (isRamDataIncluded || !(memory instanceof RandomAccessMemory)) {
+                memory.restoreState(in);
+            }
         }
         // Restore CPU state
-        getCpu().restoreState(inState);
+        getCpu().restoreState(in);
         // Restore device states
         for (Device device : deviceList) {
-            device.restoreState(inState);
+            device.restoreState(in);
         }
     }
 
@@ -383,6 +836,7 @@ public class Computer implements Runnable {
     public void setClockFrequency(int clockFrequency) {
         this.clockFrequency = clockFrequency;
         this.syncUptimeThresholdCpuTicks = nanosToCpuTime(SYNC_UPTIME_THRESHOLD);
+        this.videoFrameCpuTicks = nanosToCpuTime(RunAhead.FRAME_PERIOD);
     }
 
     private void addReadOnlyMemory(Resources resources, int romDataResId, String romId, int address)
@@ -404,6 +858,7 @@ public class Computer implements Runnable {
         for (int romDataResId : romDataResIds) {
             romData = ArrayUtils.addAll(romData, loadRawResourceData(resources, romDataResId));
         }
+        romSetChecksum.update(romData);
         return romData;
     }
 
@@ -437,6 +892,14 @@ public class Computer implements Runnable {
         return videoController;
     }
 
+    /**
+     * Get {@link AudioOutput} reference.
+     * @return audio output reference
+     */
+    public AudioOutput getAudioOutput() {
+        return audioOutput;
+    }
+
     /**
      * Get {@link KeyboardController} reference.
      * @return keyboard controller reference
@@ -467,6 +930,7 @@ public class Computer implements Runnable {
      */
     public void setUptime(long uptime) {
         this.uptime = uptime;
+        this.realUptime = uptime;
     }
 
     /**
@@ -488,7 +952,10 @@ public class Computer implements Runnable {
             memoryBlocksCount++;
         }
         for (int memoryBlockIdx = 0; memoryBlockIdx < memoryBlocksCount; memoryBlockIdx++) {
-            memoryTable[memoryStartBlock + memoryBlockIdx] = memory;
+            int memoryTableIdx = memoryStartBlock + memoryBlockIdx;
+            memoryTable[memoryTableIdx] = memory;
+            accessMemoryTable[memoryTableIdx] = (blockWatchpointCounts[memoryTableIdx] > 0)
+                    ? new WatchpointMemory(memory) : memory;
         }
         // Correct devices start address, if needed
         int memoryEndAddress = memory.getStartAddress() + (memory.getSize() << 1);
@@ -526,11 +993,218 @@ public class Computer implements Runnable {
         return (address >= 0) && (getMemory(address) instanceof ReadOnlyMemory);
     }
 
+    /**
+     * Get CPU address space address of given memory (i.e. RAM page) address.
+     * @param memory {@link Memory} to get address in
+     * @param memoryAddress memory address
+     * @return mapped address or -1 if given memory is not currently mapped to
+     * CPU address space
+     */
+    public int getMappedAddress(Memory memory, int memoryAddress) {
+        for (Memory memoryBlock : memoryTable) {
+            if (memoryBlock == memory) {
+                return memoryAddress;
+            }
+            if (memoryBlock instanceof PagedMemory
+                    && ((PagedMemory) memoryBlock).getActivePage() == memory) {
+                return memoryBlock.getStartAddress() + memoryAddress - memory.getStartAddress();
+            }
+        }
+        return -1;
+    }
+
     private Memory getMemory(int address) {
         Memory memory = memoryTable[address >> 13];
         return (memory != null && memory.isRelatedAddress(address)) ? memory : null;
     }
 
+    private Memory getAccessMemory(int address) {
+        Memory memory = accessMemoryTable[address >> 13];
+        return (memory != null && memory.isRelatedAddress(address)) ? memory : null;
+    }
+
+    /**
+     * Set memory watchpoints event listener.
+     * @param listener {@link OnWatchpointListener} to set (or <code>null</code> to remove)
+     */
+    public void setOnWatchpointListener(OnWatchpointListener listener) {
+        this.onWatchpointListener = listener;
+    }
+
+    /**
+     * Get memory watchpoints event listener.
+     * @return {@link OnWatchpointListener} or <code>null</code> if not set
+     */
+    public OnWatchpointListener getOnWatchpointListener() {
+        return onWatchpointListener;
+    }
+
+    /**
+     * Set watchpoint at given address. Watchpoints are set per word, so byte watchpoints
+     * at even and odd address of the same word are equal.
+     * @param address address to watch (0000000-0177777)
+     * @param type watchpoint type ({@link #WATCHPOINT_READ}, {@link #WATCHPOINT_WRITE}
+     * or {@link #WATCHPOINT_ACCESS})
+     */
+    public synchronized void addWatchpoint(int address, int type) {
+        updateWatchpoint(address, type, true);
+    }
+
+    /**
+     * Remove watchpoint of given type at given address.
+     * @param address watched address (0000000-0177777)
+     * @param type watchpoint type ({@link #WATCHPOINT_READ}, {@link #WATCHPOINT_WRITE}
+     * or {@link #WATCHPOINT_ACCESS})
+     */
+    public synchronized void removeWatchpoint(int address, int type) {
+        updateWatchpoint(address, type, false);
+    }
+
+    /**
+     * Remove all set watchpoints.
+     */
+    public synchronized void clearWatchpoints() {
+        for (int address = 0; address < 0200000; address += 2) {
+            updateWatchpoint(address, WATCHPOINT_ACCESS, false);
+        }
+    }
+
+    /**
+     * Check is watchpoint of given type set at given address.
+     * @param address address to check (0000000-0177777)
+     * @param type watchpoint type ({@link #WATCHPOINT_READ} or {@link #WATCHPOINT_WRITE})
+     * @return <code>true</code> if watchpoint of given type is set, <code>false</code> otherwise
+     */
+    public boolean isWatchpointSet(int address, int type) {
+        return ((type & WATCHPOINT_READ) != 0 && isWatchpointSet(readWatchpoints, address))
+                || ((type & WATCHPOINT_WRITE) != 0 && isWatchpointSet(writeWatchpoints, address));
+    }
+
+    private static boolean isWatchpointSet(int[] watchpoints, int address) {
+        int wordIndex = (address & 0177777) >> 1;
+        return (watchpoints[wordIndex >> 5] & (1 << (wordIndex & 037))) != 0;
+    }
+
+    private static boolean setWatchpointState(int[] watchpoints, int address, boolean isSet) {
+        int wordIndex = (address & 0177777) >> 1;
+        int bitMask = 1 << (wordIndex & 037);
+        boolean wasSet = (watchpoints[wordIndex >> 5] & bitMask) != 0;
+        if (isSet) {
+            watchpoints[wordIndex >> 5] |= bitMask;
+        } else {
+            watchpoints[wordIndex >> 5] &= ~bitMask;
+        }
+        return wasSet;
+    }
+
+    private void updateWatchpoint(int address, int type, boolean isSet) {
+        boolean wasWatched = isWatchpointSet(address, WATCHPOINT_ACCESS);
+        if ((type & WATCHPOINT_READ) != 0) {
+            setWatchpointState(readWatchpoints, address, isSet);
+        }
+        if ((type & WATCHPOINT_WRITE) != 0) {
+            setWatchpointState(writeWatchpoints, address, isSet);
+        }
+        boolean isWatched = isWatchpointSet(address, WATCHPOINT_ACCESS);
+        if (wasWatched != isWatched) {
+            int countDelta = isWatched ? 1 : -1;
+            int memoryBlockIdx = (address & 0177777) >> 13;
+            blockWatchpointCounts[memoryBlockIdx] += countDelta;
+            if ((address & 0177777) >= IO_REGISTERS_MIN_ADDRESS) {
+                ioWatchpointsCount += countDelta;
+            }
+            updateAccessMemoryTable(memoryBlockIdx);
+        }
+    }
+
+    /**
+     * Check is any watchpoint set.
+     * @return <code>true</code> if any watchpoint set
+     */
+    boolean isAnyWatchpointSet() {
+        for (int watchpointsCount : blockWatchpointCounts) {
+            if (watchpointsCount > 0) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void updateAccessMemoryTable(int memoryBlockIdx) {
+        Memory memory = memoryTable[memoryBlockIdx];
+        Memory accessMemory = memory;
+        if (memory != null && blockWatchpointCounts[memoryBlockIdx] > 0) {
+            accessMemory = new WatchpointMemory(memory);
+        }
+        if (isStateRestorePending(memory)) {
+            accessMemory = new StateRestoreMemory(memoryBlockIdx, accessMemory);
+        }
+        accessMemoryTable[memoryBlockIdx] = accessMemory;
+    }
+
+    private static boolean isStateRestorePending(Memory memory) {
+        if (memory instanceof RandomAccessMemory) {
+            return ((RandomAccessMemory) memory).isStateRestorePending();
+        }
+        if (memory instanceof PagedMemory) {
+            for (Memory memoryPage : ((PagedMemory) memory).getPages()) {
+                if (isStateRestorePending(memoryPage)) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    private void handleWatchpoint(boolean isWriteAccess, boolean isByteMode, int address,
+            int value) {
+        OnWatchpointListener listener = onWatchpointListener;
+        if (listener != null && listener.onWatchpoint(this, isWriteAccess, isByteMode, address,
+                value, cpu.readRegister(false, Cpu.PC), cpu.getTime())) {
+            isWatchpointBreakRequested = true;
+        }
+    }
+
+    /**
+     * Enable or disable bus access statistics collection. Statistics counters are reset
+     * on each enabling.
+     * @param isEnabled <code>true</code> to enable statistics collection,
+     * <code>false</code> to disable
+     */
+    public synchronized void setBusStatisticsEnabled(boolean isEnabled) {
+        Log.d(TAG, "bus statistics collection " + (isEnabled ? "enabled" : "disabled"));
+        busStatistics = isEnabled ? new BusStatistics(cpu.getTime()) : null;
+    }
+
+    /**
+     * Check is bus access statistics collection enabled.
+     * @return <code>true</code> if bus access statistics collection is enabled
+     */
+    public boolean isBusStatisticsEnabled() {
+        return (busStatistics != null);
+    }
+
+    /**
+     * Get bus access statistics snapshot.
+     * @return {@link BusStatistics.Snapshot} or <code>null</code> if statistics
+     * collection is disabled
+     */
+    public BusStatistics.Snapshot getBusStatisticsSnapshot() {
+        BusStatistics stats = busStatistics;
+        return (stats != null) ? stats.getSnapshot(cpu.getTime()) : null;
+    }
+
+    /**
+     * Check is computer stop was requested by watchpoint listener during last executed
+     * instruction. Request flag is cleared after check.
+     * @return <code>true</code> if watchpoint break was requested, <code>false</code> otherwise
+     */
+    public boolean checkWatchpointBreak() {
+        boolean isBreakRequested = isWatchpointBreakRequested;
+        isWatchpointBreakRequested = false;
+        return isBreakRequested;
+    }
+
     /**
      * Get I/O devices start address.
      * @return I/O devices start address value
@@ -565,6 +1239,7 @@ public class Computer implements Runnable {
      * Reset computer state.
      */
     public synchronized void reset() {
+        inputJournal.recordReset();
         getCpu().reset();
     }
 
@@ -577,6 +1252,7 @@ public class Computer implements Runnable {
      */
     public int readMemory(boolean isByteMode, int address) {
         int readValue = BUS_ERROR;
+        BusStatistics stats = busStatistics;
         // First check for I/O registers
         if (address >= getDevicesStartAddress()) {
             List<Device> subdevices = getDevices(address);
@@ -593,14 +1269,26 @@ public class Computer implements Runnable {
                     // Concatenate this subdevice state value with values of other subdevices
                     readValue |= (subdeviceState & (isByteMode ? 0377 : 0177777));
                 }
+                if (ioWatchpointsCount > 0 && isWatchpointSet(readWatchpoints, address)) {
+                    handleWatchpoint(false, isByteMode, address, readValue);
+                }
+                if (stats != null) {
+                    stats.countIoRegisterRead(address);
+                }
             }
         } else {
             // Check for memory at given address
-            Memory memory = getMemory(address);
+            Memory memory = getAccessMemory(address);
             if (memory != null) {
                 readValue = memory.read(isByteMode, address);
+                if (stats != null) {
+                    stats.countMemoryRead(address);
+                }
             }
         }
+        if (readValue == BUS_ERROR && stats != null) {
+            stats.countBusError(address);
+        }
         return readValue;
     }
 
@@ -614,28 +1302,139 @@ public class Computer implements Runnable {
      */
     public boolean writeMemory(boolean isByteMode, int address, int value) {
         boolean isWritten = false;
+        BusStatistics stats = busStatistics;
         // First check for I/O registers
         if (address >= getDevicesStartAddress()) {
             List<Device> devices = getDevices(address);
             if (devices != null) {
+                if (ioWatchpointsCount > 0 && isWatchpointSet(writeWatchpoints, address)) {
+                    handleWatchpoint(true, isByteMode, address, value);
+                }
                 long cpuClock = getCpu().getTime();
                 for (Device device: devices) {
                     if (device.write(cpuClock, isByteMode, address, value)) {
                         isWritten = true;
                     }
                 }
-
+                if (isWritten && stats != null) {
+                    stats.countIoRegisterWrite(address);
+                }
             }
         } else {
             // Check for memory at given address
-            Memory memory = getMemory(address);
+            Memory memory = getAccessMemory(address);
             if (memory != null) {
                 isWritten = memory.write(isByteMode, address, value);
+                if (isWritten && stats != null) {
+                    stats.countMemoryWrite(address);
+                }
             }
         }
+        if (!isWritten && stats != null) {
+            stats.countBusError(address);
+        }
         return isWritten;
     }
 
+    /**
+     * Read block of bytes from memory or I/O devices mapped to given address range.
+     * Memory is read by blocks, I/O device registers are read by words (or by bytes
+     * for odd addresses and range end).
+     * @param address address to start reading from
+     * @param buffer buffer to read data to
+     * @param offset buffer offset to read data to
+     * @param length number of bytes to read
+     * @return number of bytes read, if less than requested length, then location
+     * (address + returned value) is not mapped
+     */
+    public int readBlock(int address, byte[] buffer, int offset, int length) {
+        int count = 0;
+        while (count < length) {
+            int blockAddress = address + count;
+            int blockCount;
+            if (blockAddress > 0177777) {
+                break;
+            } else if (blockAddress >= getDevicesStartAddress()) {
+                boolean isByteMode = (blockAddress & 1) != 0 || (length - count) < 2;
+                int value = readMemory(isByteMode, blockAddress);
+                if (value == BUS_ERROR) {
+                    break;
+                }
+                buffer[offset + count] = (byte) value;
+                if (!isByteMode) {
+                    buffer[offset + count + 1] = (byte) (value >> 8);
+                }
+                blockCount = isByteMode ? 1 : 2;
+            } else {
+                Memory memory = getAccessMemory(blockAddress);
+                blockCount = (memory == null) ? 0 : memory.readBlock(blockAddress, buffer,
+                        offset + count, Math.min(length - count,
+                                getDevicesStartAddress() - blockAddress));
+                BusStatistics stats = busStatistics;
+                if (blockCount == 0) {
+                    if (stats != null) {
+                        stats.countBusError(blockAddress);
+                    }
+                    break;
+                }
+                if (stats != null) {
+                    stats.countMemoryBlockRead(blockAddress, blockCount);
+                }
+            }
+            count += blockCount;
+        }
+        return count;
+    }
+
+    /**
+     * Write block of bytes to memory or I/O devices mapped to given address range.
+     * Memory is written by blocks, I/O device registers are written by words (or by bytes
+     * for odd addresses and range end).
+     * @param address address to start writing to
+     * @param buffer buffer with data to write
+     * @param offset buffer offset of data to write
+     * @param length number of bytes to write
+     * @return number of bytes written, if less than requested length, then location
+     * (address + returned value) is not mapped or not writable
+     */
+    public int writeBlock(int address, byte[] buffer, int offset, int length) {
+        int count = 0;
+        while (count < length) {
+            int blockAddress = address + count;
+            int blockCount;
+            if (blockAddress > 0177777) {
+                break;
+            } else if (blockAddress >= getDevicesStartAddress()) {
+                boolean isByteMode = (blockAddress & 1) != 0 || (length - count) < 2;
+                int value = buffer[offset + count] & 0377;
+                if (!isByteMode) {
+                    value |= (buffer[offset + count + 1] & 0377) << 8;
+                }
+                if (!writeMemory(isByteMode, blockAddress, value)) {
+                    break;
+                }
+                blockCount = isByteMode ? 1 : 2;
+            } else {
+                Memory memory = getAccessMemory(blockAddress);
+                blockCount = (memory == null) ? 0 : memory.writeBlock(blockAddress, buffer,
+                        offset + count, Math.min(length - count,
+                                getDevicesStartAddress() - blockAddress));
+                BusStatistics stats = busStatistics;
+                if (blockCount == 0) {
+                    if (stats != null) {
+                        stats.countBusError(blockAddress);
+                    }
+                    break;
+                }
+                if (stats != null) {
+                    stats.countMemoryBlockWrite(blockAddress, blockCount);
+                }
+            }
+            count += blockCount;
+        }
+        return count;
+    }
+
     /**
      * Start computer.
      */
@@ -698,12 +1497,37 @@ public class Computer implements Runnable {
     public synchronized void resume() {
         Log.d(TAG, "resuming computer");
         lastUptimeSyncTimestamp = System.nanoTime();
-        lastCpuTimeSyncTimestamp = cpu.getTime();
+        if (!isDeterministicUptime) {
+            lastCpuTimeSyncTimestamp = cpu.getTime();
+        }
         isPaused = false;
         audioOutput.resume();
         this.notifyAll();
     }
 
+    /**
+     * Set RAM pages state restored by
+     * {@link RandomAccessMemory#restoreStateLazily(java.nio.ByteBuffer)} to be decoded
+     * on first bus access to each RAM page. Must be called with computer lock held.
+     */
+    void setMemoryStateRestorePending() {
+        for (int memoryBlockIdx = 0; memoryBlockIdx < memoryTable.length; memoryBlockIdx++) {
+            updateAccessMemoryTable(memoryBlockIdx);
+        }
+    }
+
+    /**
+     * Decode all lazily restored RAM pages state (if any).
+     */
+    public synchronized void restorePendingMemoryStates() {
+        for (RandomAccessMemory memory : getRandomAccessMemoryList()) {
+            memory.restorePendingState();
+        }
+        for (int memoryBlockIdx = 0; memoryBlockIdx < memoryTable.length; memoryBlockIdx++) {
+            updateAccessMemoryTable(memoryBlockIdx);
+        }
+    }
+
     /**
      * Release computer resources.
      */
@@ -749,14 +1573,161 @@ public class Computer implements Runnable {
         return nanosecs * clockFrequency / NANOSECS_IN_MSEC;
     }
 
+    /**
+     * Set computer uptime source. Deterministic uptime is advanced by executed CPU time
+     * (computer is still synced with real time), so timer tasks are run with the same
+     * uptime values on each run from the same state.
+     * @param isDeterministicUptime <code>true</code> to advance uptime by CPU time,
+     * <code>false</code> to advance uptime by real time
+     */
+    public synchronized void setDeterministicUptime(boolean isDeterministicUptime) {
+        this.isDeterministicUptime = isDeterministicUptime;
+        this.realUptime = uptime;
+    }
+
+    /**
+     * Check is computer uptime advanced by CPU time.
+     * @return <code>true</code> if uptime is advanced by CPU time, <code>false</code>
+     * if uptime is advanced by real time
+     */
+    public boolean isDeterministicUptime() {
+        return isDeterministicUptime;
+    }
+
+    /**
+     * Set computer unthrottled mode. In unthrottled mode computer runs as fast as
+     * possible without waiting for real time, audio output is muted.
+     * @param isUnthrottled <code>true</code> to run computer unthrottled,
+     * <code>false</code> to sync CPU time with real time
+     */
+    public void setUnthrottled(boolean isUnthrottled) {
+        this.isUnthrottled = isUnthrottled;
+    }
+
+    /**
+     * Check is computer running unthrottled (set by {@link #setUnthrottled(boolean)}).
+     * @return <code>true</code> if computer is running unthrottled
+     */
+    public boolean isUnthrottled() {
+        return isUnthrottled;
+    }
+
+    private void checkUnthrottledRunAudio(boolean isUnthrottledRun) {
+        if (audioOutput == null || isUnthrottledRun == isAudioMutedForUnthrottledRun) {
+            return;
+        }
+        if (!isUnthrottledRun) {
+            audioOutput.setMuted(false);
+            isAudioMutedForUnthrottledRun = false;
+        } else if (!audioOutput.isMuted()) {
+            audioOutput.setMuted(true);
+            isAudioMutedForUnthrottledRun = true;
+        }
+    }
+
+    /**
+     * Get CPU time of last CPU time and uptime sync.
+     * @return last sync CPU time (in clock ticks)
+     */
+    long getLastSyncCpuTime() {
+        return lastCpuTimeSyncTimestamp;
+    }
+
+    /**
+     * Set CPU time of last CPU time and uptime sync.
+     * @param cpuTime last sync CPU time (in clock ticks)
+     */
+    void setLastSyncCpuTime(long cpuTime) {
+        lastCpuTimeSyncTimestamp = cpuTime;
+    }
+
+    /**
+     * Get external input journal.
+     * @return {@link InputJournal} reference
+     */
+    public InputJournal getInputJournal() {
+        return inputJournal;
+    }
+
+    /**
+     * Get host input events queue. Queued events are applied from emulation thread
+     * at CPU time/uptime sync boundaries.
+     * @return {@link InputQueue} reference
+     */
+    public InputQueue getInputQueue() {
+        return inputQueue;
+    }
+
+    /**
+     * Get BK0010 monitor EMT calls high-level emulator.
+     * @return {@link EmtEmulator} reference
+     */
+    public EmtEmulator getEmtEmulator() {
+        return emtEmulator;
+    }
+
+    /**
+     * Execute CPU instructions until given CPU time is reached. In real time sync mode
+     * computer uptime is synced with real time (and posted input events are applied)
+     * at uptime sync thresholds, execution is also stopped if computer is paused or
+     * stopped. Otherwise uptime is advanced by CPU time without syncing with real time,
+     * timer tasks are run at the same CPU times as with deterministic uptime in real
+     * time sync mode.
+     * @param cpuTime CPU time to execute until (in clock ticks)
+     * @param isRealTimeSync <code>true</code> to sync uptime with real time,
+     * <code>false</code> to advance uptime by CPU time
+     */
+    void executeInstructionsUntil(long cpuTime, boolean isRealTimeSync) {
+        while (cpu.getTime() < cpuTime) {
+            cpu.executeNextOperation();
+            if (keyboardController != null) {
+                keyboardController.checkAutotype();
+            }
+            if (isRealTimeSync) {
+                if (isWatchpointBreakRequested && checkWatchpointBreak()) {
+                    Log.d(TAG, "watchpoint break, PC: 0" + Integer.toOctalString(
+                            cpu.readRegister(false, Cpu.PC)));
+                    pause();
+                }
+                checkSyncUptime();
+                if (runAhead != null) {
+                    runAhead.checkFrame();
+                }
+                if (isPaused || !isRunning) {
+                    break;
+                }
+            } else {
+                long cpuTimeElapsed = cpu.getTime() - lastCpuTimeSyncTimestamp;
+                if (cpuTimeElapsed >= syncUptimeThresholdCpuTicks) {
+                    doTimerTasks();
+                    setUptime(uptime + cpuTimeToNanos(cpuTimeElapsed));
+                    lastCpuTimeSyncTimestamp = cpu.getTime();
+                }
+            }
+        }
+    }
+
     /**
      * Check is time to sync CPU time with computer uptime.
      */
     public void checkSyncUptime() {
         long cpuTimeUptimeDifference = cpu.getTime() - lastCpuTimeSyncTimestamp;
         if (cpuTimeUptimeDifference >= syncUptimeThresholdCpuTicks) {
-            doSyncUptime();
             doTimerTasks();
+            checkVideoFrame();
+            doSyncUptime();
+            // Apply input events posted before and while waiting for sync
+            inputQueue.drain();
+        }
+    }
+
+    /**
+     * Publish current video frame to render if next video frame boundary is passed.
+     * Frames are published by run-ahead if it's enabled.
+     */
+    private void checkVideoFrame() {
+        if (videoController != null && runAhead == null) {
+            videoController.checkFrame(cpu.getTime(), videoFrameCpuTicks);
         }
     }
 
@@ -774,10 +1745,21 @@ public class Computer implements Runnable {
      */
     public void doSyncUptime() {
         long timestamp = System.nanoTime();
-        uptime += timestamp - lastUptimeSyncTimestamp;
+        realUptime += timestamp - lastUptimeSyncTimestamp;
         lastUptimeSyncTimestamp = timestamp;
+        boolean isUnthrottledRun = isUnthrottled();
+        checkUnthrottledRunAudio(isUnthrottledRun);
+        if (isUnthrottledRun) {
+            // Real time uptime follows CPU time, so there is no wait for real time
+            realUptime = Math.max(realUptime, getCpuTimeNanos());
+        }
+        if (isDeterministicUptime) {
+            uptime += cpuTimeToNanos(cpu.getTime() - lastCpuTimeSyncTimestamp);
+        } else {
+            uptime = realUptime;
+        }
         lastCpuTimeSyncTimestamp = cpu.getTime();
-        long uptimeCpuTimeDifference = getCpuTimeNanos() - uptime;
+        long uptimeCpuTimeDifference = getCpuTimeNanos() - realUptime;
         uptimeCpuTimeDifference = (uptimeCpuTimeDifference > 0) ? uptimeCpuTimeDifference : 1L;
         long uptimeCpuTimeDifferenceMillis = uptimeCpuTimeDifference / NANOSECS_IN_MSEC;
         int uptimeCpuTimeDifferenceNanos = (int) (uptimeCpuTimeDifference % NANOSECS_IN_MSEC);
@@ -801,8 +1783,7 @@ public class Computer implements Runnable {
                     }
                     Log.d(TAG, "computer resumed");
                 } else {
-                    cpu.executeNextOperation();
-                    checkSyncUptime();
+                    executeInstructionsUntil(Long.MAX_VALUE, true);
                 }
             }
         }
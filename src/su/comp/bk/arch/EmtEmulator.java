@@ -0,0 +1,397 @@
+/*
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package su.comp.bk.arch;
+
+import su.comp.bk.arch.cpu.Cpu;
+
+/**
+ * High-level emulator of BK0010 monitor text output EMT calls (EMT 16 - print char,
+ * EMT 20 - print string). Emulated calls are performed natively with exactly the same
+ * video memory, monitor variables, stack and registers changes as made by monitor ROM
+ * routines, and with approximate execution time of these routines. Calls with hooked
+ * EMT vector and calls which ROM handles by its rarely used code paths (control
+ * characters, color mode, line wrapping and screen scrolling, etc.) are passed to ROM.
+ */
+public class EmtEmulator {
+
+    /** Monitor EMT dispatcher address */
+    public final static int EMT_DISPATCHER_ADDRESS = 0100112;
+
+    // Monitor EMT handlers table address
+    private final static int EMT_TABLE_ADDRESS = 0100000;
+    // Monitor EMT dispatcher return address (from EMT handler call)
+    private final static int EMT_DISPATCHER_RETURN_ADDRESS = 0100134;
+
+    // EMT 16 (print char) number and handler address
+    private final static int EMT_PRINT_CHAR = 016;
+    private final static int EMT_PRINT_CHAR_HANDLER_ADDRESS = 0102234;
+    // EMT 20 (print string) number and handler address
+    private final static int EMT_PRINT_STRING = 020;
+    private final static int EMT_PRINT_STRING_HANDLER_ADDRESS = 0107050;
+    // EMT 20 handler print loop address
+    private final static int PRINT_STRING_LOOP_ADDRESS = 0107064;
+    // EMT 20 handler return address (from print char routine call)
+    private final static int PRINT_STRING_RETURN_ADDRESS = 0107072;
+
+    // Return addresses left on stack by print char routine subroutine calls
+    private final static int PRINT_CHAR_SAVE_REGS_RETURN_ADDRESS = 0102240;
+    private final static int PRINT_CHAR_CURSOR_RETURN_ADDRESS = 0102412;
+    private final static int GLYPH_NEXT_LINE_RETURN_ADDRESS = 0103040;
+    private final static int CURSOR_NEXT_LINE_RETURN_ADDRESS = 0103304;
+    // Print char routine stack depth (in bytes, from its return address)
+    private final static int PRINT_CHAR_STACK_DEPTH = 020;
+
+    // Monitor font address (for char code offset by 020)
+    private final static int FONT_ADDRESS = 0112036;
+    // Monitor font glyph size (in bytes)
+    private final static int GLYPH_SIZE = 10;
+    // Cursor height (in lines)
+    private final static int CURSOR_HEIGHT = 10;
+
+    // Monitor variables addresses
+    private final static int VAR_COLOR_MODE = 040;
+    private final static int VAR_UNDERLINE_MODE = 044;
+    private final static int VAR_INVERSE_MODE = 045;
+    private final static int VAR_CHAR_MODE = 050;
+    private final static int VAR_CURSOR_HIDDEN = 056;
+    private final static int VAR_CURSOR_RECALCULATE = 0152;
+    private final static int VAR_CURSOR_POSITION = 0156;
+    private final static int VAR_CURSOR_ADDRESS = 0160;
+    private final static int VAR_CHAR_WIDTH = 0162;
+    private final static int VAR_VIDEO_MEMORY_SIZE = 0206;
+    private final static int VAR_SCREEN_INVERSE = 0212;
+    private final static int VAR_UNDERLINE_DATA = 0214;
+    private final static int VAR_PRINTED_CHARS = 0222;
+    // Monitor variables area end address
+    private final static int VARS_END_ADDRESS = 0300;
+
+    // Video memory start and end addresses
+    private final static int VIDEO_MEMORY_START_ADDRESS = 040000;
+    private final static int VIDEO_MEMORY_END_ADDRESS = 0100000;
+    // Video memory line length (in bytes)
+    private final static int VIDEO_LINE_LENGTH = 0100;
+
+    // Approximate print char routine execution time (in CPU clock ticks)
+    private final static int PRINT_CHAR_EXECUTION_TIME = 5800;
+    // Approximate EMT dispatching execution time (in CPU clock ticks)
+    private final static int DISPATCH_EXECUTION_TIME = 260;
+    // Approximate EMT 20 per char loop execution time (in CPU clock ticks)
+    private final static int PRINT_STRING_LOOP_EXECUTION_TIME = 330;
+
+    private final Computer computer;
+
+    // Calls emulation enabled flag
+    private volatile boolean isEnabled;
+
+    // Emulated calls counter
+    private long emulatedCallCount;
+    // Emulated printed chars counter
+    private long emulatedCharCount;
+
+    // Print char routine row addresses (glyph rows, then cursor rows)
+    private final int[] glyphAddresses = new int[GLYPH_SIZE];
+    private final int[] cursorAddresses = new int[CURSOR_HEIGHT];
+
+    public EmtEmulator(Computer computer) {
+        this.computer = computer;
+    }
+
+    /**
+     * Check EMT calls emulation is enabled.
+     * @return <code>true</code> if supported EMT calls are performed natively,
+     * <code>false</code> if all EMT calls are performed by ROM
+     */
+    public boolean isEnabled() {
+        return isEnabled;
+    }
+
+    /**
+     * Enable or disable EMT calls emulation.
+     * @param isEnabled <code>true</code> to perform supported EMT calls natively,
+     * <code>false</code> to perform all EMT calls by ROM
+     */
+    public void setEnabled(boolean isEnabled) {
+        this.isEnabled = isEnabled;
+    }
+
+    /**
+     * Get number of EMT calls performed natively.
+     * @return emulated calls count
+     */
+    public long getEmulatedCallCount() {
+        return emulatedCallCount;
+    }
+
+    /**
+     * Get number of chars printed natively.
+     * @return emulated printed chars count
+     */
+    public long getEmulatedCharCount() {
+        return emulatedCharCount;
+    }
+
+    /**
+     * EMT trap handler. Must be called after EMT trap vector is loaded, i.e. with CPU
+     * state at monitor EMT dispatcher entry.
+     * @param cpu {@link Cpu} reference
+     * @return <code>true</code> if EMT call was performed natively (CPU state is at
+     * return from trap or at ROM routine continuation point), <code>false</code> if
+     * EMT call must be performed by ROM (CPU state is not changed)
+     */
+    public boolean onEmtTrap(Cpu cpu) {
+        if (!isEnabled || cpu.readRegister(false, Cpu.PC) != EMT_DISPATCHER_ADDRESS
+                || !computer.isReadOnlyMemoryAddress(EMT_DISPATCHER_ADDRESS)
+                || (cpu.getPswState() & (Cpu.PSW_FLAG_P | Cpu.PSW_FLAG_T)) != Cpu.PSW_FLAG_P) {
+            // EMT vector is hooked or EMT handler is interruptible
+            return false;
+        }
+        int sp = cpu.readRegister(false, Cpu.SP);
+        if (sp >= VIDEO_MEMORY_START_ADDRESS) {
+            return false;
+        }
+        // Get EMT number the same way as monitor EMT dispatcher does
+        int pushedPc = computer.readMemory(false, sp);
+        int emtOpcode = (pushedPc != Computer.BUS_ERROR)
+                ? computer.readMemory(false, pushedPc - 2) : Computer.BUS_ERROR;
+        if (emtOpcode == Computer.BUS_ERROR) {
+            return false;
+        }
+        int emtNumber = emtOpcode & 0377;
+        int emtHandlerAddress = computer.readMemory(false, EMT_TABLE_ADDRESS + emtNumber);
+        boolean isEmulated = false;
+        switch (emtNumber) {
+            case EMT_PRINT_CHAR:
+                isEmulated = (emtHandlerAddress == EMT_PRINT_CHAR_HANDLER_ADDRESS)
+                        && emulatePrintChar(cpu, sp);
+                break;
+            case EMT_PRINT_STRING:
+                isEmulated = (emtHandlerAddress == EMT_PRINT_STRING_HANDLER_ADDRESS)
+                        && emulatePrintString(cpu, sp);
+                break;
+            default:
+                break;
+        }
+        if (isEmulated) {
+            emulatedCallCount++;
+        }
+        return isEmulated;
+    }
+
+    /**
+     * Emulate EMT 16 (print char from R0).
+     * @param cpu {@link Cpu} reference
+     * @param sp stack pointer value at EMT dispatcher entry
+     * @return <code>true</code> if call was emulated, <code>false</code> if not
+     */
+    private boolean emulatePrintChar(Cpu cpu, int sp) {
+        int charCode = cpu.readRegister(true, Cpu.R0);
+        if (!preparePrintChar(charCode, sp - 4)) {
+            return false;
+        }
+        // EMT dispatcher saved R5 and return address
+        writeWord(sp - 2, cpu.readRegister(false, Cpu.R5));
+        writeWord(sp - 4, EMT_DISPATCHER_RETURN_ADDRESS);
+        printChar(cpu, charCode, sp - 4, cpu.readRegister(false, Cpu.R0),
+                cpu.readRegister(false, Cpu.R1), cpu.readRegister(false, Cpu.R2),
+                cpu.readRegister(false, Cpu.R3));
+        addExecutionTime(cpu, DISPATCH_EXECUTION_TIME);
+        cpu.returnFromTrap(false);
+        return true;
+    }
+
+    /**
+     * Emulate EMT 20 (print string from address in R1, R2 low byte is string length,
+     * R2 high byte is string terminator char). If some string char can't be printed
+     * natively, CPU state is set to continue printing by ROM EMT 20 print loop.
+     * @param cpu {@link Cpu} reference
+     * @param sp stack pointer value at EMT dispatcher entry
+     * @return <code>true</code> if at least one string char was printed natively,
+     * <code>false</code> if not
+     */
+    private boolean emulatePrintString(Cpu cpu, int sp) {
+        int r0 = cpu.readRegister(false, Cpu.R0);
+        int r1 = cpu.readRegister(false, Cpu.R1);
+        int r2 = cpu.readRegister(true, Cpu.R2);
+        int r3 = ((r2 << 8) | cpu.readRegister(false, Cpu.R2) >> 8) & 0177777;
+        if (r2 == 0) {
+            return false;
+        }
+        // EMT dispatcher and EMT 20 handler saved registers (ROM saves them the same way
+        // before printing first char, so it's safe to save them before passing call to ROM)
+        writeWord(sp - 2, cpu.readRegister(false, Cpu.R5));
+        writeWord(sp - 4, EMT_DISPATCHER_RETURN_ADDRESS);
+        writeWord(sp - 6, r0);
+        writeWord(sp - 8, cpu.readRegister(false, Cpu.R3));
+        int printRoutineStackAddress = sp - 10;
+        int printedCharCount = 0;
+        boolean isPrinted = false;
+        while (!isPrinted) {
+            int charCode = computer.readMemory(true, r1);
+            if (charCode == Computer.BUS_ERROR) {
+                break;
+            }
+            writeWord(printRoutineStackAddress, PRINT_STRING_RETURN_ADDRESS);
+            if (!preparePrintChar(charCode, printRoutineStackAddress)) {
+                break;
+            }
+            r0 = (byte) charCode & 0177777;
+            r1 = (r1 + 1) & 0177777;
+            printChar(cpu, charCode, printRoutineStackAddress, r0, r1, r2, r3);
+            addExecutionTime(cpu, PRINT_STRING_LOOP_EXECUTION_TIME);
+            printedCharCount++;
+            isPrinted = (charCode == (r3 & 0377)) || --r2 == 0;
+        }
+        if (printedCharCount == 0) {
+            return false;
+        }
+        cpu.writeRegister(false, Cpu.R1, r1);
+        cpu.writeRegister(false, Cpu.R2, r2);
+        addExecutionTime(cpu, DISPATCH_EXECUTION_TIME);
+        if (isPrinted) {
+            cpu.returnFromTrap(false);
+        } else {
+            // Continue printing from next string char by ROM
+            cpu.writeRegister(false, Cpu.R0, r0);
+            cpu.writeRegister(false, Cpu.R3, r3);
+            cpu.writeRegister(false, Cpu.R5, EMT_PRINT_STRING_HANDLER_ADDRESS);
+            cpu.writeRegister(false, Cpu.SP, sp - 8);
+            cpu.writeRegister(false, Cpu.PC, PRINT_STRING_LOOP_ADDRESS);
+        }
+        return true;
+    }
+
+    /**
+     * Check given char can be printed natively and calculate print char routine
+     * glyph and cursor rows addresses.
+     * @param charCode char code to print
+     * @param stackAddress print char routine return address location
+     * @return <code>true</code> if char can be printed natively, <code>false</code>
+     * if char must be printed by ROM
+     */
+    private boolean preparePrintChar(int charCode, int stackAddress) {
+        if (charCode < 040 || (charCode >= 0200 && charCode < 0240)
+                || stackAddress - PRINT_CHAR_STACK_DEPTH < VARS_END_ADDRESS
+                || readByte(VAR_CHAR_MODE) != 0 || readByte(VAR_COLOR_MODE) != 0
+                || readByte(VAR_CURSOR_RECALCULATE) != 0) {
+            // Control chars, color mode and special modes are handled by ROM
+            return false;
+        }
+        int charWidth = readWord(VAR_CHAR_WIDTH);
+        if (((readWord(VAR_CURSOR_POSITION) + charWidth) & 077) == 0) {
+            // Cursor moves to next line (and screen possibly scrolls)
+            return false;
+        }
+        int videoMemorySize = readWord(VAR_VIDEO_MEMORY_SIZE);
+        int address = readWord(VAR_CURSOR_ADDRESS);
+        for (int row = 0; row < GLYPH_SIZE; row++) {
+            if (address < VIDEO_MEMORY_START_ADDRESS || address >= VIDEO_MEMORY_END_ADDRESS) {
+                return false;
+            }
+            glyphAddresses[row] = address;
+            address = getNextLineAddress(address, videoMemorySize);
+        }
+        address = ((readWord(VAR_CURSOR_ADDRESS) + charWidth) & 0177777) & ~1;
+        for (int row = 0; row < CURSOR_HEIGHT; row++) {
+            if (address < VIDEO_MEMORY_START_ADDRESS || address >= VIDEO_MEMORY_END_ADDRESS) {
+                return false;
+            }
+            cursorAddresses[row] = address;
+            address = getNextLineAddress(address, videoMemorySize);
+        }
+        return true;
+    }
+
+    /**
+     * Print char (prepared using {@link #preparePrintChar(int, int)}) the same way
+     * as monitor print char routine does.
+     * @param cpu {@link Cpu} reference
+     * @param charCode char code to print
+     * @param stackAddress print char routine return address location
+     * @param r0 R0 value at print char routine entry
+     * @param r1 R1 value at print char routine entry
+     * @param r2 R2 value at print char routine entry
+     * @param r3 R3 value at print char routine entry
+     */
+    private void printChar(Cpu cpu, int charCode, int stackAddress,
+            int r0, int r1, int r2, int r3) {
+        // Registers saved by print char routine
+        writeWord(stackAddress - 2, cpu.readRegister(false, Cpu.R4));
+        writeWord(stackAddress - 4, r3);
+        writeWord(stackAddress - 6, r2);
+        writeWord(stackAddress - 8, r1);
+        writeWord(stackAddress - 10, r0);
+        writeWord(stackAddress - 12, PRINT_CHAR_SAVE_REGS_RETURN_ADDRESS);
+        writeWord(stackAddress - 14, PRINT_CHAR_CURSOR_RETURN_ADDRESS);
+        writeWord(stackAddress - 16, GLYPH_NEXT_LINE_RETURN_ADDRESS);
+        writeWord(VAR_PRINTED_CHARS, readWord(VAR_PRINTED_CHARS) + 1);
+        // Draw char glyph
+        int glyphAddress = FONT_ADDRESS + (charCode - ((charCode < 0200) ? 020 : 060))
+                * GLYPH_SIZE;
+        int inverseMask = (readByte(VAR_INVERSE_MODE) != 0) ? 0377 : 0;
+        if (readWord(VAR_SCREEN_INVERSE) != 0) {
+            inverseMask ^= 0377;
+        }
+        for (int row = 0; row < GLYPH_SIZE; row++) {
+            writeByte(glyphAddresses[row], readByte(glyphAddress + row) ^ inverseMask);
+        }
+        if (readByte(VAR_UNDERLINE_MODE) != 0) {
+            writeByte(glyphAddresses[GLYPH_SIZE - 1], readByte(VAR_UNDERLINE_DATA));
+        }
+        // Move cursor
+        int charWidth = readWord(VAR_CHAR_WIDTH);
+        writeWord(VAR_CURSOR_POSITION, readWord(VAR_CURSOR_POSITION) + charWidth);
+        int cursorAddress = readWord(VAR_CURSOR_ADDRESS) + charWidth;
+        writeWord(VAR_CURSOR_ADDRESS, cursorAddress);
+        // Draw cursor
+        if (readByte(VAR_CURSOR_HIDDEN) == 0) {
+            int cursorMask = ((cursorAddress & 1) != 0) ? 0177400 : 0377;
+            for (int row = 0; row < CURSOR_HEIGHT; row++) {
+                writeWord(cursorAddresses[row], readWord(cursorAddresses[row]) ^ cursorMask);
+            }
+            writeWord(stackAddress - 16, CURSOR_NEXT_LINE_RETURN_ADDRESS);
+        }
+        emulatedCharCount++;
+        addExecutionTime(cpu, PRINT_CHAR_EXECUTION_TIME);
+    }
+
+    private static int getNextLineAddress(int address, int videoMemorySize) {
+        address = (address + VIDEO_LINE_LENGTH) & 0177777;
+        if ((address & 0100000) != 0) {
+            address = (address - videoMemorySize) & 0177777;
+        }
+        return address;
+    }
+
+    private static void addExecutionTime(Cpu cpu, int executionTime) {
+        cpu.setTime(cpu.getTime() + executionTime);
+    }
+
+    private int readByte(int address) {
+        return computer.readMemory(true, address);
+    }
+
+    private int readWord(int address) {
+        return computer.readMemory(false, address);
+    }
+
+    private void writeByte(int address, int value) {
+        computer.writeMemory(true, address, value);
+    }
+
+    private void writeWord(int address, int value) {
+        computer.writeMemory(false, address, value);
+    }
+
+}
@@ -0,0 +1,458 @@
+/*
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package su.comp.bk.arch;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.zip.CRC32;
+
+import su.comp.bk.arch.io.FloppyController;
+import su.comp.bk.arch.io.FloppyController.FloppyDriveIdentifier;
+import su.comp.bk.arch.io.KeyboardController;
+import su.comp.bk.arch.io.PeripheralPort;
+import su.comp.bk.arch.io.PeripheralPort.JoystickButton;
+import su.comp.bk.arch.memory.RandomAccessMemory;
+import android.util.Log;
+
+/**
+ * External input journal. While recording, every external input (keyboard keys,
+ * joystick buttons, disk mounts, computer resets and state changes made by emulator
+ * itself, i.e. tape operations) is stamped with CPU time it was applied at and appended
+ * to journal. Journal starts with computer state snapshot and ends with RAM checksum,
+ * so replaying journal from snapshot (with uptime advanced by CPU time) can be checked
+ * to produce the same final RAM state.
+ * <p>Journal format: header (magic number and format version), computer state snapshot
+ * (see {@link Computer#saveState(java.io.OutputStream)}), last uptime sync CPU time
+ * and events. Each event is stored as CPU time delta from previous event (unsigned
+ * variable-length integer), event type byte and event data.</p>
+ */
+public class InputJournal {
+
+    private static final String TAG = InputJournal.class.getName();
+
+    /** Journal magic number ("BKIJ") */
+    final static int JOURNAL_MAGIC = 0x424b494a;
+    /** Journal format version */
+    final static int JOURNAL_VERSION = 1;
+
+    // Event types
+    private final static int EVENT_END = 0;
+    private final static int EVENT_KEY_PRESS = 1;
+    private final static int EVENT_KEY_RELEASE = 2;
+    private final static int EVENT_STOP_BUTTON_PRESS = 3;
+    private final static int EVENT_JOYSTICK_BUTTON = 4;
+    private final static int EVENT_DISK_MOUNT = 5;
+    private final static int EVENT_DISK_UNMOUNT = 6;
+    private final static int EVENT_RESET = 7;
+    private final static int EVENT_STATE = 8;
+
+    private final Computer computer;
+
+    // Journal output stream (null if journal is not recording)
+    private DataOutputStream journalOutput;
+    // Last recorded event CPU time (in clock ticks)
+    private long lastEventCpuTime;
+    // Recorded events number
+    private int eventCount;
+
+    InputJournal(Computer computer) {
+        this.computer = computer;
+    }
+
+    /**
+     * Check is journal recording.
+     * @return <code>true</code> if journal is recording
+     */
+    public synchronized boolean isRecording() {
+        return journalOutput != null;
+    }
+
+    /**
+     * Get number of events recorded since recording start.
+     * @return recorded events number
+     */
+    public synchronized int getEventCount() {
+        return eventCount;
+    }
+
+    /**
+     * Start journal recording. Computer state snapshot is written to journal and
+     * computer uptime is switched to be advanced by CPU time.
+     * @param outputStream {@link OutputStream} to write journal to
+     * (closed when recording is stopped)
+     * @throws IOException in case of journal writing error
+     */
+    public void startRecording(OutputStream outputStream) throws IOException {
+        synchronized (computer) {
+            synchronized (this) {
+                if (isRecording()) {
+                    throw new IllegalStateException("Input journal is already recording");
+                }
+                DataOutputStream out = new DataOutputStream(
+                        new BufferedOutputStream(outputStream));
+                out.writeInt(JOURNAL_MAGIC);
+                out.writeShort(JOURNAL_VERSION);
+                computer.saveState(out);
+                out.writeLong(computer.getLastSyncCpuTime());
+                computer.setDeterministicUptime(true);
+                journalOutput = out;
+                lastEventCpuTime = computer.getCpu().getTime();
+                eventCount = 0;
+                Log.d(TAG, "input journal recording started");
+            }
+        }
+    }
+
+    /**
+     * Stop journal recording. Final RAM checksum is written to journal and
+     * journal output stream is closed.
+     * @return final RAM checksum
+     * @throws IOException in case of journal writing error
+     */
+    public long stopRecording() throws IOException {
+        synchronized (computer) {
+            synchronized (this) {
+                if (!isRecording()) {
+                    throw new IllegalStateException("Input journal is not recording");
+                }
+                long ramChecksum = getRamChecksum(computer);
+                DataOutputStream out = journalOutput;
+                journalOutput = null;
+                computer.setDeterministicUptime(false);
+                try {
+                    writeEventHeader(out, EVENT_END);
+                    out.writeLong(ramChecksum);
+                } finally {
+                    out.close();
+                }
+                Log.d(TAG, "input journal recording stopped, events: " + eventCount);
+                return ramChecksum;
+            }
+        }
+    }
+
+    /**
+     * Record BK keyboard key press or release.
+     * @param bkKeyCode pressed key code (ignored for key release)
+     * @param isPressed <code>true</code> if key was pressed, <code>false</code> if released
+     */
+    public synchronized void recordKey(int bkKeyCode, boolean isPressed) {
+        if (isRecording()) {
+            try {
+                if (isPressed) {
+                    writeEventHeader(journalOutput, EVENT_KEY_PRESS);
+                    journalOutput.writeByte(bkKeyCode);
+                } else {
+                    writeEventHeader(journalOutput, EVENT_KEY_RELEASE);
+                }
+            } catch (IOException e) {
+                handleRecordingError(e);
+            }
+        }
+    }
+
+    /**
+     * Record BK keyboard STOP button press.
+     */
+    public synchronized void recordStopButtonPress() {
+        if (isRecording()) {
+            try {
+                writeEventHeader(journalOutput, EVENT_STOP_BUTTON_PRESS);
+            } catch (IOException e) {
+                handleRecordingError(e);
+            }
+        }
+    }
+
+    /**
+     * Record joystick button press or release.
+     * @param joystickButton pressed or released {@link JoystickButton}
+     * @param isPressed <code>true</code> if button was pressed, <code>false</code> if released
+     */
+    public synchronized void recordJoystickButton(JoystickButton joystickButton,
+            boolean isPressed) {
+        if (isRecording()) {
+            try {
+                writeEventHeader(journalOutput, EVENT_JOYSTICK_BUTTON);
+                journalOutput.writeByte((joystickButton.ordinal() << 1) | (isPressed ? 1 : 0));
+            } catch (IOException e) {
+                handleRecordingError(e);
+            }
+        }
+    }
+
+    /**
+     * Record disk image mount.
+     * @param diskImageFileUri mounted disk image file URI
+     * @param drive {@link FloppyDriveIdentifier} of drive disk image is mounted to
+     * @param isReadOnly <code>true</code> if disk image is mounted read only
+     */
+    public synchronized void recordDiskMount(String diskImageFileUri,
+            FloppyDriveIdentifier drive, boolean isReadOnly) {
+        if (isRecording()) {
+            try {
+                writeEventHeader(journalOutput, EVENT_DISK_MOUNT);
+                journalOutput.writeByte(drive.ordinal());
+                journalOutput.writeBoolean(isReadOnly);
+                journalOutput.writeUTF(diskImageFileUri);
+            } catch (IOException e) {
+                handleRecordingError(e);
+            }
+        }
+    }
+
+    /**
+     * Record disk image unmount.
+     * @param drive {@link FloppyDriveIdentifier} of drive disk image is unmounted from
+     */
+    public synchronized void recordDiskUnmount(FloppyDriveIdentifier drive) {
+        if (isRecording()) {
+            try {
+                writeEventHeader(journalOutput, EVENT_DISK_UNMOUNT);
+                journalOutput.writeByte(drive.ordinal());
+            } catch (IOException e) {
+                handleRecordingError(e);
+            }
+        }
+    }
+
+    /**
+     * Record computer reset.
+     */
+    public synchronized void recordReset() {
+        if (isRecording()) {
+            try {
+                writeEventHeader(journalOutput, EVENT_RESET);
+            } catch (IOException e) {
+                handleRecordingError(e);
+            }
+        }
+    }
+
+    /**
+     * Record whole computer state. Used to record state changes not expressed with
+     * other events (i.e. tape operations or state rewinding).
+     */
+    public void recordState() {
+        synchronized (computer) {
+            synchronized (this) {
+                if (isRecording()) {
+                    try {
+                        ByteArrayOutputStream stateBuffer = new ByteArrayOutputStream();
+                        Checkpoint checkpoint = computer.createCheckpoint();
+                        try {
+                            checkpoint.writeData(new DataOutputStream(stateBuffer));
+                        } finally {
+                            checkpoint.release();
+                        }
+                        writeEventHeader(journalOutput, EVENT_STATE);
+                        journalOutput.writeInt(stateBuffer.size());
+                        stateBuffer.writeTo(journalOutput);
+                    } catch (IOException e) {
+                        handleRecordingError(e);
+                    }
+                }
+            }
+        }
+    }
+
+    private void writeEventHeader(DataOutputStream out, int eventType) throws IOException {
+        long cpuTime = computer.getCpu().getTime();
+        writeVarLong(out, cpuTime - lastEventCpuTime);
+        out.writeByte(eventType);
+        lastEventCpuTime = cpuTime;
+        eventCount++;
+    }
+
+    private void handleRecordingError(IOException e) {
+        Log.e(TAG, "input journal recording error, recording is stopped", e);
+        try {
+            journalOutput.close();
+        } catch (IOException ce) {
+        }
+        journalOutput = null;
+        computer.setDeterministicUptime(false);
+    }
+
+    /**
+     * Replay journal. Computer state is restored from journal snapshot (computer
+     * must be configured with the same configuration the journal was recorded with),
+     * then computer is run with uptime advanced by CPU time and journal events are
+     * applied at CPU times they were recorded at. Computer must not be running.
+     * @param inputStream {@link InputStream} to read journal from
+     * @return final RAM checksum
+     * @throws IOException in case of journal reading error or if final RAM checksum
+     * doesn't match recorded one
+     */
+    public long replay(InputStream inputStream) throws IOException {
+        if (isRecording()) {
+            throw new IllegalStateException("Input journal is recording");
+        }
+        DataInputStream in = new DataInputStream(inputStream);
+        if (in.readInt() != JOURNAL_MAGIC) {
+            throw new IOException("Invalid input journal data");
+        }
+        int journalVersion = in.readUnsignedShort();
+        if (journalVersion != JOURNAL_VERSION) {
+            throw new IOException("Unsupported input journal version: " + journalVersion);
+        }
+        synchronized (computer) {
+            computer.restoreState(in);
+            computer.setLastSyncCpuTime(in.readLong());
+            long eventCpuTime = computer.getCpu().getTime();
+            int replayedEventCount = 0;
+            while (true) {
+                eventCpuTime += readVarLong(in);
+                computer.executeInstructionsUntil(eventCpuTime, false);
+                int eventType = in.readUnsignedByte();
+                if (eventType == EVENT_END) {
+                    long recordedRamChecksum = in.readLong();
+                    long ramChecksum = getRamChecksum(computer);
+                    Log.d(TAG, "input journal replayed, events: " + replayedEventCount);
+                    if (ramChecksum != recordedRamChecksum) {
+                        throw new IOException("Replayed RAM checksum mismatch");
+                    }
+                    return ramChecksum;
+                }
+                applyEvent(eventType, in);
+                replayedEventCount++;
+            }
+        }
+    }
+
+    private void applyEvent(int eventType, DataInput in) throws IOException {
+        switch (eventType) {
+            case EVENT_KEY_PRESS:
+                getKeyboardController().applyKey(in.readUnsignedByte(), true);
+                break;
+            case EVENT_KEY_RELEASE:
+                getKeyboardController().applyKey(0, false);
+                break;
+            case EVENT_STOP_BUTTON_PRESS:
+                getKeyboardController().applyStopButtonPress();
+                break;
+            case EVENT_JOYSTICK_BUTTON:
+                int joystickEventData = in.readUnsignedByte();
+                PeripheralPort peripheralPort = computer.getPeripheralPort();
+                if (peripheralPort == null) {
+                    throw new IOException("Peripheral port is not present");
+                }
+                peripheralPort.applyJoystickButton(
+                        JoystickButton.values()[joystickEventData >> 1],
+                        (joystickEventData & 1) != 0);
+                break;
+            case EVENT_DISK_MOUNT:
+                FloppyDriveIdentifier mountDrive = FloppyDriveIdentifier.values()[
+                        in.readUnsignedByte()];
+                boolean isReadOnly = in.readBoolean();
+                String diskImageFileUri = in.readUTF();
+                try {
+                    getFloppyController().mountDiskImage(diskImageFileUri, mountDrive,
+                            isReadOnly);
+                } catch (IOException e) {
+                    throw e;
+                } catch (Exception e) {
+                    throw new IOException("Can't mount disk image: " + diskImageFileUri, e);
+                }
+                break;
+            case EVENT_DISK_UNMOUNT:
+                FloppyDriveIdentifier unmountDrive = FloppyDriveIdentifier.values()[
+                        in.readUnsignedByte()];
+                try {
+                    getFloppyController().unmountDiskImage(unmountDrive);
+                } catch (IOException e) {
+                    throw e;
+                } catch (Exception e) {
+                    throw new IOException("Can't unmount disk image", e);
+                }
+                break;
+            case EVENT_RESET:
+                computer.reset();
+                break;
+            case EVENT_STATE:
+                byte[] stateData = new byte[in.readInt()];
+                in.readFully(stateData);
+                // Devices are not initialized to keep their states not saved in state data
+                computer.readStateData(new DataInputStream(new ByteArrayInputStream(stateData)),
+                        true, false);
+                break;
+            default:
+                throw new IOException("Invalid input journal event type: " + eventType);
+        }
+    }
+
+    private KeyboardController getKeyboardController() throws IOException {
+        KeyboardController keyboardController = computer.getKeyboardController();
+        if (keyboardController == null) {
+            throw new IOException("Keyboard controller is not present");
+        }
+        return keyboardController;
+    }
+
+    private FloppyController getFloppyController() throws IOException {
+        FloppyController floppyController = computer.getFloppyController();
+        if (floppyController == null) {
+            throw new IOException("Floppy controller is not present");
+        }
+        return floppyController;
+    }
+
+    /**
+     * Calculate checksum of all computer RAM pages data.
+     * @param computer {@link Computer} to calculate RAM checksum
+     * @return RAM checksum (CRC32)
+     */
+    public static long getRamChecksum(Computer computer) {
+        CRC32 checksum = new CRC32();
+        for (RandomAccessMemory memory : computer.getRandomAccessMemoryList()) {
+            for (short value : memory.getData()) {
+                checksum.update(value);
+                checksum.update(value >> 8);
+            }
+        }
+        return checksum.getValue();
+    }
+
+    private static void writeVarLong(DataOutputStream out, long value) throws IOException {
+        while ((value & ~0177L) != 0) {
+            out.writeByte((int) (value & 0177) | 0200);
+            value >>>= 7;
+        }
+        out.writeByte((int) value);
+    }
+
+    private static long readVarLong(DataInput in) throws IOException {
+        long value = 0;
+        int shift = 0;
+        int data;
+        do {
+            if (shift > 63) {
+                throw new IOException("Invalid input journal event time");
+            }
+            data = in.readUnsignedByte();
+            value |= (long) (data & 0177) << shift;
+            shift += 7;
+        } while ((data & 0200) != 0);
+        return value;
+    }
+
+}
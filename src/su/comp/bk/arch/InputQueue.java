@@ -0,0 +1,207 @@
+/*
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package su.comp.bk.arch;
+
+import su.comp.bk.arch.io.KeyboardController;
+import su.comp.bk.arch.io.PeripheralPort;
+import su.comp.bk.arch.io.PeripheralPort.JoystickButton;
+import android.util.Log;
+
+/**
+ * Lock-free single producer/single consumer ring of timestamped host input events.
+ * Events are posted from UI thread (the only producer) and drained by computer
+ * emulation thread at CPU time/uptime sync boundaries, so keyboard and joystick
+ * registers and interrupt requests are changed only from emulation thread
+ * and input is applied at well-defined CPU time.
+ */
+public class InputQueue {
+
+    private static final String TAG = InputQueue.class.getName();
+
+    /** Queue capacity (in events, power of two) */
+    public final static int CAPACITY = 0400;
+
+    // Event index to ring position mask
+    private final static int INDEX_MASK = CAPACITY - 1;
+
+    // Input latency averaging factor (as divider)
+    private final static int AVERAGING_FACTOR = 16;
+
+    // Event types (event data is packed with type to single int value)
+    private final static int EVENT_KEY_PRESS = 1;
+    private final static int EVENT_KEY_RELEASE = 2;
+    private final static int EVENT_STOP_BUTTON_PRESS = 3;
+    private final static int EVENT_JOYSTICK_BUTTON = 4;
+    // Event type shift in packed event value
+    private final static int EVENT_TYPE_SHIFT = 16;
+    // Event data mask in packed event value
+    private final static int EVENT_DATA_MASK = 0177777;
+
+    private final Computer computer;
+
+    // Packed events and their post timestamps (in nanoseconds, host time)
+    private final int[] events = new int[CAPACITY];
+    private final long[] eventTimestamps = new long[CAPACITY];
+
+    // Next event index to write (changed by producer only)
+    private volatile int writeIndex;
+    // Next event index to read (changed by consumer only)
+    private volatile int readIndex;
+
+    // Statistics: last and average input latency (in nanoseconds)
+    private volatile long lastInputLatency;
+    private volatile long averageInputLatency;
+    // Statistics: number of events dropped due to queue overflow
+    private volatile long droppedEventCount;
+
+    InputQueue(Computer computer) {
+        this.computer = computer;
+    }
+
+    /**
+     * Post BK keyboard key press/release event.
+     * @param bkKeyCode pressed key code (ignored for key release)
+     * @param isPressed <code>true</code> if key was pressed, <code>false</code> if released
+     * @return <code>true</code> if event was posted, <code>false</code> if queue is full
+     */
+    public boolean postKey(int bkKeyCode, boolean isPressed) {
+        return isPressed ? post(EVENT_KEY_PRESS, bkKeyCode & 0377) : post(EVENT_KEY_RELEASE, 0);
+    }
+
+    /**
+     * Post BK keyboard STOP button press event.
+     * @return <code>true</code> if event was posted, <code>false</code> if queue is full
+     */
+    public boolean postStopButtonPress() {
+        return post(EVENT_STOP_BUTTON_PRESS, 0);
+    }
+
+    /**
+     * Post joystick button press/release event.
+     * @param joystickButton pressed/released {@link JoystickButton}
+     * @param isPressed <code>true</code> if button was pressed, <code>false</code> if released
+     * @return <code>true</code> if event was posted, <code>false</code> if queue is full
+     */
+    public boolean postJoystickButton(JoystickButton joystickButton, boolean isPressed) {
+        return post(EVENT_JOYSTICK_BUTTON, (joystickButton.ordinal() << 1) | (isPressed ? 1 : 0));
+    }
+
+    private boolean post(int eventType, int eventData) {
+        int index = writeIndex;
+        if (index - readIndex >= CAPACITY) {
+            droppedEventCount++;
+            Log.w(TAG, "input queue is full, event dropped: " + eventType);
+            return false;
+        }
+        events[index & INDEX_MASK] = (eventType << EVENT_TYPE_SHIFT) | eventData;
+        eventTimestamps[index & INDEX_MASK] = System.nanoTime();
+        // Publish event to consumer
+        writeIndex = index + 1;
+        return true;
+    }
+
+    /**
+     * Check are there posted events not drained yet.
+     * @return <code>true</code> if queue has pending events, <code>false</code> otherwise
+     */
+    public boolean isEventPending() {
+        return readIndex != writeIndex;
+    }
+
+    /**
+     * Get number of posted events not drained yet.
+     * @return pending events number
+     */
+    public int getPendingEventCount() {
+        return writeIndex - readIndex;
+    }
+
+    /**
+     * Apply all pending events. Must be called from computer emulation thread only.
+     */
+    void drain() {
+        int index = readIndex;
+        int endIndex = writeIndex;
+        if (index == endIndex) {
+            return;
+        }
+        long drainTimestamp = System.nanoTime();
+        while (index != endIndex) {
+            int event = events[index & INDEX_MASK];
+            long inputLatency = drainTimestamp - eventTimestamps[index & INDEX_MASK];
+            lastInputLatency = inputLatency;
+            averageInputLatency += (inputLatency - averageInputLatency) / AVERAGING_FACTOR;
+            applyEvent(event >>> EVENT_TYPE_SHIFT, event & EVENT_DATA_MASK);
+            index++;
+        }
+        // Release drained events ring positions to producer
+        readIndex = index;
+        RunAhead runAhead = computer.getRunAhead();
+        if (runAhead != null) {
+            runAhead.onInputApplied();
+        }
+    }
+
+    private void applyEvent(int eventType, int eventData) {
+        KeyboardController keyboardController = computer.getKeyboardController();
+        PeripheralPort peripheralPort = computer.getPeripheralPort();
+        switch (eventType) {
+            case EVENT_KEY_PRESS:
+            case EVENT_KEY_RELEASE:
+                if (keyboardController != null) {
+                    keyboardController.applyKey(eventData, eventType == EVENT_KEY_PRESS);
+                }
+                break;
+            case EVENT_STOP_BUTTON_PRESS:
+                if (keyboardController != null) {
+                    keyboardController.applyStopButtonPress();
+                }
+                break;
+            case EVENT_JOYSTICK_BUTTON:
+                if (peripheralPort != null) {
+                    peripheralPort.applyJoystickButton(JoystickButton.values()[eventData >> 1],
+                            (eventData & 1) != 0);
+                }
+                break;
+            default:
+                break;
+        }
+    }
+
+    /**
+     * Get last drained event input latency (time from event posting to applying).
+     * @return last input latency (in nanoseconds)
+     */
+    public long getLastInputLatency() {
+        return lastInputLatency;
+    }
+
+    /**
+     * Get average input latency (time from event posting to applying).
+     * @return average input latency (in nanoseconds)
+     */
+    public long getAverageInputLatency() {
+        return averageInputLatency;
+    }
+
+    /**
+     * Get number of events dropped due to queue overflow.
+     * @return dropped events number
+     */
+    public long getDroppedEventCount() {
+        return droppedEventCount;
+    }
+
+}
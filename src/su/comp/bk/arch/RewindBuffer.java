@@ -0,0 +1,469 @@
+/*
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package su.comp.bk.arch;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+
+import su.comp.bk.arch.io.Device;
+import su.comp.bk.arch.memory.RandomAccessMemory;
+import su.comp.bk.arch.state.RunLengthCodec;
+import android.util.Log;
+
+/**
+ * Rewind buffer. Keeps ring buffer of computer state snapshots taken periodically
+ * (every few video frames). Each snapshot stores only RAM blocks changed since previous
+ * snapshot (XORed with previous block data and run-length encoded), full RAM data is
+ * stored in keyframe snapshots. Oldest snapshots are dropped when maximum snapshots
+ * number or memory budget is exceeded. Snapshots are taken from computer emulation
+ * thread, snapshot restoring must be done when computer is paused. Snapshots taking
+ * is disabled by default, since it costs RAM scan on each snapshot and up to
+ * memory budget of heap.
+ */
+public class RewindBuffer implements Device {
+
+    private static final String TAG = RewindBuffer.class.getName();
+
+    /** Default snapshot interval (in nanoseconds, five 50 Hz video frames) */
+    public final static long DEFAULT_SNAPSHOT_INTERVAL = 100L * Computer.NANOSECS_IN_MSEC;
+    /** Default maximum number of snapshots (30 seconds of rewind) */
+    public final static int DEFAULT_MAX_SNAPSHOTS = 300;
+    /** Default number of snapshots between keyframes */
+    public final static int DEFAULT_KEYFRAME_INTERVAL = 25;
+    /** Default snapshots memory budget (in bytes) */
+    public final static int DEFAULT_MEMORY_BUDGET = 4 * 1024 * 1024;
+
+    /** RAM block size (in words) */
+    public final static int BLOCK_SIZE = 0400;
+
+    private final static int[] ADDRESSES = {};
+
+    private final Computer computer;
+
+    private final long snapshotInterval;
+    private final int keyframeInterval;
+    private final int memoryBudget;
+
+    // Snapshots ring buffer
+    private final Snapshot[] snapshots;
+    // Oldest snapshot index in ring buffer
+    private int firstSnapshotIndex;
+    // Number of snapshots in ring buffer
+    private int snapshotCount;
+    // Total snapshots size (in bytes)
+    private int totalSize;
+    // Number of snapshots taken since last keyframe
+    private int keyframeSnapshotCount;
+    // Last restored snapshot number (-1 if no snapshot was restored since last one taken)
+    private int restoredSnapshotNumber = -1;
+
+    private boolean isEnabled;
+
+    // Last snapshot uptime (in nanoseconds)
+    private long lastSnapshotUptime = -1L;
+
+    // RAM pages and their data at the time of last snapshot (or last restored snapshot)
+    private final RandomAccessMemory[] memories;
+    private final short[][] referenceData;
+
+    // Reusable block encoding/decoding buffer
+    private final short[] blockBuffer = new short[BLOCK_SIZE];
+
+    private final ByteArrayOutputStream stateBuffer = new ByteArrayOutputStream();
+
+    /**
+     * Computer state snapshot.
+     */
+    private static class Snapshot {
+        final long uptime;
+        final boolean isKeyframe;
+        // Computer state data without RAM data
+        final byte[] state;
+        // RAM data (all pages for keyframe, changed blocks XORed with previous data otherwise)
+        final byte[] memoryData;
+        // Changed block indexes (null for keyframe)
+        final int[] blockIndexes;
+
+        Snapshot(long uptime, boolean isKeyframe, byte[] state, byte[] memoryData,
+                int[] blockIndexes) {
+            this.uptime = uptime;
+            this.isKeyframe = isKeyframe;
+            this.state = state;
+            this.memoryData = memoryData;
+            this.blockIndexes = blockIndexes;
+        }
+
+        int getSize() {
+            return state.length + memoryData.length
+                    + (blockIndexes != null ? blockIndexes.length * 4 : 0);
+        }
+    }
+
+    /**
+     * Create rewind buffer with default parameters.
+     * @param computer {@link Computer} to take snapshots of
+     */
+    public RewindBuffer(Computer computer) {
+        this(computer, DEFAULT_SNAPSHOT_INTERVAL, DEFAULT_MAX_SNAPSHOTS,
+                DEFAULT_KEYFRAME_INTERVAL, DEFAULT_MEMORY_BUDGET);
+    }
+
+    /**
+     * Create rewind buffer.
+     * @param computer {@link Computer} to take snapshots of
+     * @param snapshotInterval interval between snapshots (in nanoseconds of computer uptime)
+     * @param maxSnapshots maximum number of snapshots to keep
+     * @param keyframeInterval number of snapshots between keyframes
+     * @param memoryBudget maximum total snapshots size (in bytes)
+     */
+    public RewindBuffer(Computer computer, long snapshotInterval, int maxSnapshots,
+            int keyframeInterval, int memoryBudget) {
+        this.computer = computer;
+        this.snapshotInterval = snapshotInterval;
+        this.snapshots = new Snapshot[maxSnapshots];
+        this.keyframeInterval = keyframeInterval;
+        this.memoryBudget = memoryBudget;
+        List<RandomAccessMemory> memoryList = computer.getRandomAccessMemoryList();
+        this.memories = memoryList.toArray(new RandomAccessMemory[memoryList.size()]);
+        this.referenceData = new short[memories.length][];
+    }
+
+    /**
+     * Check is snapshots taking enabled.
+     * @return <code>true</code> if snapshots taking enabled
+     */
+    public boolean isEnabled() {
+        return isEnabled;
+    }
+
+    /**
+     * Enable or disable snapshots taking. Taken snapshots are cleared on disabling.
+     * @param isEnabled <code>true</code> to enable snapshots taking
+     */
+    public void setEnabled(boolean isEnabled) {
+        synchronized (computer) {
+            this.isEnabled = isEnabled;
+            if (!isEnabled) {
+                clear();
+            }
+        }
+    }
+
+    /**
+     * Clear all taken snapshots.
+     */
+    public void clear() {
+        synchronized (computer) {
+            Arrays.fill(snapshots, null);
+            firstSnapshotIndex = 0;
+            snapshotCount = 0;
+            totalSize = 0;
+            restoredSnapshotNumber = -1;
+            lastSnapshotUptime = -1L;
+        }
+    }
+
+    /**
+     * Get number of taken snapshots.
+     * @return snapshots number
+     */
+    public int getSnapshotCount() {
+        synchronized (computer) {
+            return snapshotCount;
+        }
+    }
+
+    /**
+     * Get total size of taken snapshots.
+     * @return snapshots size (in bytes)
+     */
+    public int getTotalSize() {
+        synchronized (computer) {
+            return totalSize;
+        }
+    }
+
+    /**
+     * Get snapshot computer uptime.
+     * @param snapshotNumber snapshot number (0 is the oldest snapshot)
+     * @return snapshot uptime (in nanoseconds)
+     */
+    public long getSnapshotUptime(int snapshotNumber) {
+        synchronized (computer) {
+            return getSnapshot(snapshotNumber).uptime;
+        }
+    }
+
+    private Snapshot getSnapshot(int snapshotNumber) {
+        if (snapshotNumber < 0 || snapshotNumber >= snapshotCount) {
+            throw new IndexOutOfBoundsException("Invalid snapshot number: " + snapshotNumber);
+        }
+        return snapshots[(firstSnapshotIndex + snapshotNumber) % snapshots.length];
+    }
+
+    /**
+     * Take computer state snapshot.
+     * @throws IOException in case of state serialization error
+     */
+    public void takeSnapshot() throws IOException {
+        synchronized (computer) {
+            if (restoredSnapshotNumber >= 0) {
+                // Drop snapshots taken after restored one
+                while (snapshotCount > restoredSnapshotNumber + 1) {
+                    dropSnapshot(snapshotCount - 1);
+                }
+                restoredSnapshotNumber = -1;
+            }
+            if (snapshotCount == snapshots.length) {
+                dropOldestSnapshots();
+            }
+            boolean isKeyframe = (snapshotCount == 0)
+                    || (keyframeSnapshotCount >= keyframeInterval - 1);
+            long uptime = computer.getUptime();
+            stateBuffer.reset();
+            DataOutputStream out = new DataOutputStream(stateBuffer);
+            computer.writeStateData(out, null);
+            byte[] state = stateBuffer.toByteArray();
+            stateBuffer.reset();
+            int[] blockIndexes = isKeyframe ? writeKeyframeMemoryData(out)
+                    : writeChangedMemoryData(out);
+            byte[] memoryData = stateBuffer.toByteArray();
+            addSnapshot(new Snapshot(uptime, isKeyframe, state, memoryData, blockIndexes));
+            keyframeSnapshotCount = isKeyframe ? 0 : keyframeSnapshotCount + 1;
+            lastSnapshotUptime = uptime;
+        }
+    }
+
+    private int[] writeKeyframeMemoryData(DataOutput out) throws IOException {
+        for (int memoryIndex = 0; memoryIndex < memories.length; memoryIndex++) {
+            RandomAccessMemory memory = memories[memoryIndex];
+            short[] data = memory.getData();
+            memory.saveState(out, data);
+            referenceData[memoryIndex] = data.clone();
+        }
+        return null;
+    }
+
+    private int[] writeChangedMemoryData(DataOutput out) throws IOException {
+        int[] blockIndexes = new int[0];
+        int blockCount = 0;
+        int blockIndexBase = 0;
+        for (int memoryIndex = 0; memoryIndex < memories.length; memoryIndex++) {
+            short[] data = memories[memoryIndex].getData();
+            short[] reference = referenceData[memoryIndex];
+            for (int blockStart = 0; blockStart < data.length; blockStart += BLOCK_SIZE) {
+                int blockLength = Math.min(BLOCK_SIZE, data.length - blockStart);
+                int idx = blockStart;
+                int blockEnd = blockStart + blockLength;
+                while (idx < blockEnd && data[idx] == reference[idx]) {
+                    idx++;
+                }
+                if (idx < blockEnd) {
+                    for (idx = 0; idx < blockLength; idx++) {
+                        short value = data[blockStart + idx];
+                        blockBuffer[idx] = (short) (value ^ reference[blockStart + idx]);
+                        reference[blockStart + idx] = value;
+                    }
+                    RunLengthCodec.encode(out, blockBuffer, 0, blockLength);
+                    if (blockCount == blockIndexes.length) {
+                        blockIndexes = Arrays.copyOf(blockIndexes, blockCount * 2 + 8);
+                    }
+                    blockIndexes[blockCount++] = blockIndexBase + blockStart / BLOCK_SIZE;
+                }
+            }
+            blockIndexBase += (data.length + BLOCK_SIZE - 1) / BLOCK_SIZE;
+        }
+        return Arrays.copyOf(blockIndexes, blockCount);
+    }
+
+    private void addSnapshot(Snapshot snapshot) {
+        snapshots[(firstSnapshotIndex + snapshotCount) % snapshots.length] = snapshot;
+        snapshotCount++;
+        totalSize += snapshot.getSize();
+        while (totalSize > memoryBudget && dropOldestSnapshots()) {
+            // Drop until memory budget is exceeded
+        }
+    }
+
+    private void dropSnapshot(int snapshotNumber) {
+        int index = (firstSnapshotIndex + snapshotNumber) % snapshots.length;
+        totalSize -= snapshots[index].getSize();
+        snapshots[index] = null;
+        snapshotCount--;
+        if (snapshotNumber == 0) {
+            firstSnapshotIndex = (firstSnapshotIndex + 1) % snapshots.length;
+        }
+    }
+
+    /**
+     * Drop oldest keyframe with all following non-keyframe snapshots.
+     * @return <code>true</code> if snapshots were dropped, <code>false</code> if
+     * only one keyframe left in buffer
+     */
+    private boolean dropOldestSnapshots() {
+        int nextKeyframeNumber = 1;
+        while (nextKeyframeNumber < snapshotCount
+                && !getSnapshot(nextKeyframeNumber).isKeyframe) {
+            nextKeyframeNumber++;
+        }
+        if (nextKeyframeNumber == snapshotCount) {
+            if (snapshotCount < snapshots.length) {
+                return false;
+            }
+            // Buffer is full and has single keyframe, drop all snapshots
+            Log.d(TAG, "no keyframes to drop, clearing rewind buffer");
+        }
+        for (int i = 0; i < nextKeyframeNumber; i++) {
+            dropSnapshot(0);
+        }
+        return true;
+    }
+
+    /**
+     * Restore computer state from snapshot. Computer must be paused. Snapshots taken after
+     * restored one are kept until next snapshot is taken, so restoring can be repeated
+     * with any snapshot (i.e. for scrubbing).
+     * @param snapshotNumber snapshot number (0 is the oldest snapshot)
+     * @throws IOException in case of state restoring error
+     */
+    public void restoreSnapshot(int snapshotNumber) throws IOException {
+        synchronized (computer) {
+            Snapshot snapshot = getSnapshot(snapshotNumber);
+            int keyframeNumber = snapshotNumber;
+            while (!getSnapshot(keyframeNumber).isKeyframe) {
+                keyframeNumber--;
+            }
+            // Restore keyframe RAM data
+            DataInputStream in = new DataInputStream(new ByteArrayInputStream(
+                    getSnapshot(keyframeNumber).memoryData));
+            for (int memoryIndex = 0; memoryIndex < memories.length; memoryIndex++) {
+                memories[memoryIndex].restoreState(in);
+                referenceData[memoryIndex] = memories[memoryIndex].getData().clone();
+            }
+            // Apply changed RAM blocks
+            for (int number = keyframeNumber + 1; number <= snapshotNumber; number++) {
+                applyChangedMemoryData(getSnapshot(number));
+            }
+            for (int memoryIndex = 0; memoryIndex < memories.length; memoryIndex++) {
+                memories[memoryIndex].putData(referenceData[memoryIndex]);
+            }
+            // Restore CPU, device and memory mapping states
+            computer.readStateData(new DataInputStream(new ByteArrayInputStream(
+                    snapshot.state)), false, true);
+            keyframeSnapshotCount = snapshotNumber - keyframeNumber;
+            restoredSnapshotNumber = snapshotNumber;
+            lastSnapshotUptime = snapshot.uptime;
+            computer.getInputJournal().recordState();
+        }
+    }
+
+    private void applyChangedMemoryData(Snapshot snapshot) throws IOException {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(
+                snapshot.memoryData));
+        int memoryIndex = 0;
+        int blockIndexBase = 0;
+        for (int blockIndex : snapshot.blockIndexes) {
+            while (blockIndex - blockIndexBase >= getBlockCount(memoryIndex)) {
+                blockIndexBase += getBlockCount(memoryIndex++);
+            }
+            short[] reference = referenceData[memoryIndex];
+            int blockStart = (blockIndex - blockIndexBase) * BLOCK_SIZE;
+            int blockLength = Math.min(BLOCK_SIZE, reference.length - blockStart);
+            RunLengthCodec.decode(in, blockBuffer, 0, blockLength);
+            for (int idx = 0; idx < blockLength; idx++) {
+                reference[blockStart + idx] ^= blockBuffer[idx];
+            }
+        }
+    }
+
+    private int getBlockCount(int memoryIndex) {
+        return (memories[memoryIndex].getSize() + BLOCK_SIZE - 1) / BLOCK_SIZE;
+    }
+
+    /**
+     * Rewind computer state to previous snapshot. Computer must be paused.
+     * If computer uptime is past last taken (or restored) snapshot, that snapshot
+     * is restored, otherwise snapshot preceding it.
+     * @return <code>true</code> if computer state was rewound, <code>false</code>
+     * if there is no snapshot to rewind to
+     * @throws IOException in case of state restoring error
+     */
+    public boolean rewind() throws IOException {
+        synchronized (computer) {
+            int snapshotNumber = (restoredSnapshotNumber >= 0) ? restoredSnapshotNumber
+                    : snapshotCount - 1;
+            if (snapshotNumber >= 0
+                    && computer.getUptime() <= getSnapshot(snapshotNumber).uptime) {
+                snapshotNumber--;
+            }
+            if (snapshotNumber < 0) {
+                return false;
+            }
+            restoreSnapshot(snapshotNumber);
+            return true;
+        }
+    }
+
+    @Override
+    public int[] getAddresses() {
+        return ADDRESSES;
+    }
+
+    @Override
+    public void init(long cpuTime) {
+        // Do nothing
+    }
+
+    @Override
+    public void saveState(DataOutput out) {
+        // Do nothing
+    }
+
+    @Override
+    public void restoreState(DataInput in) {
+        // Do nothing
+    }
+
+    @Override
+    public void timer(long uptime) {
+        if (isEnabled && !computer.isRunningAhead() && (lastSnapshotUptime < 0
+                || uptime - lastSnapshotUptime >= snapshotInterval)) {
+            try {
+                takeSnapshot();
+            } catch (IOException e) {
+                Log.e(TAG, "can't take rewind snapshot", e);
+                clear();
+            }
+        }
+    }
+
+    @Override
+    public int read(long cpuTime, int address) {
+        return 0;
+    }
+
+    @Override
+    public boolean write(long cpuTime, boolean isByteMode, int address, int value) {
+        return false;
+    }
+
+}
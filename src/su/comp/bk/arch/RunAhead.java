@@ -0,0 +1,273 @@
+/*
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package su.comp.bk.arch;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.List;
+
+import su.comp.bk.arch.io.AudioOutput;
+import su.comp.bk.arch.io.FloppyController;
+import su.comp.bk.arch.io.KeyboardController;
+import su.comp.bk.arch.io.SystemTimer;
+import su.comp.bk.arch.io.VideoController;
+import su.comp.bk.arch.memory.RandomAccessMemory;
+import android.util.Log;
+
+/**
+ * Run-ahead mode implementation. On each video frame computer state is saved to memory,
+ * given number of frames is emulated ahead with current input, resulting video frame
+ * is captured for displaying and computer state is rolled back, so displayed frame is
+ * ahead of real emulation. Run-ahead is skipped while floppy drive motor is started
+ * (disk image writes can't be rolled back), autotype text is typing (typed key codes
+ * can't be rolled back) or watchpoints are set.
+ */
+public class RunAhead {
+
+    private static final String TAG = RunAhead.class.getName();
+
+    /** Video frame period (in nanoseconds, equal to system timer period) */
+    public final static long FRAME_PERIOD = Computer.NANOSECS_IN_MSEC * 1000L
+            / SystemTimer.TIMER_FREQUENCY;
+
+    // Run-ahead time averaging factor (as divider)
+    private final static int AVERAGING_FACTOR = 16;
+
+    private final Computer computer;
+
+    private final int frames;
+
+    // Video frame period (in CPU clock ticks)
+    private final long frameCpuTicks;
+    // Last video frame end time (in CPU clock ticks, frame boundaries are multiples
+    // of frame period, -1 if no frames are run ahead yet)
+    private long lastFrameEndCpuTime = -1L;
+
+    // RAM pages and their saved data
+    private final RandomAccessMemory[] memories;
+    private final short[][] savedMemoryData;
+
+    // Saved computer state (without RAM data) and last uptime sync CPU time
+    private final ByteArrayOutputStream stateBuffer = new ByteArrayOutputStream();
+    private long savedLastSyncCpuTime;
+
+    // Input applied and not displayed in run-ahead frame yet flag, input applying
+    // timestamp (in nanoseconds) and CPU time (in clock ticks)
+    private boolean isInputLatencyPending;
+    private long inputAppliedTimestamp;
+    private long inputAppliedCpuTime;
+
+    private volatile boolean isRunningAhead;
+
+    // Statistics: last and average run-ahead time (in nanoseconds)
+    private volatile long lastRunAheadTime;
+    private volatile long averageRunAheadTime;
+    // Statistics: number of run-ahead and skipped frames
+    private volatile long runAheadFrameCount;
+    private volatile long skippedFrameCount;
+    // Statistics: last and average measured input latency reduction (in nanoseconds)
+    private volatile long lastLatencyReduction;
+    private volatile long averageLatencyReduction;
+
+    RunAhead(Computer computer, int frames) {
+        this.computer = computer;
+        this.frames = frames;
+        this.frameCpuTicks = computer.nanosToCpuTime(FRAME_PERIOD);
+        List<RandomAccessMemory> memoryList = computer.getRandomAccessMemoryList();
+        this.memories = memoryList.toArray(new RandomAccessMemory[memoryList.size()]);
+        this.savedMemoryData = new short[memories.length][];
+        for (int memoryIndex = 0; memoryIndex < memories.length; memoryIndex++) {
+            savedMemoryData[memoryIndex] = new short[memories[memoryIndex].getSize()];
+        }
+    }
+
+    /**
+     * Get number of frames to run ahead.
+     * @return number of frames to run ahead
+     */
+    public int getFrames() {
+        return frames;
+    }
+
+    /**
+     * Get average input latency reduction achieved by running ahead. Latency reduction
+     * is measured for each applied input as emulated time from input applying to the end
+     * of first run-ahead frame displaying it minus real time from input applying to this
+     * frame publishing.
+     * @return average latency reduction (in nanoseconds)
+     */
+    public long getLatencyReduction() {
+        return averageLatencyReduction;
+    }
+
+    /**
+     * Get last measured input latency reduction achieved by running ahead.
+     * @return last latency reduction (in nanoseconds)
+     */
+    public long getLastLatencyReduction() {
+        return lastLatencyReduction;
+    }
+
+    /**
+     * Notify input events were applied. Called from computer emulation thread.
+     */
+    void onInputApplied() {
+        if (!isInputLatencyPending) {
+            isInputLatencyPending = true;
+            inputAppliedTimestamp = System.nanoTime();
+            inputAppliedCpuTime = computer.getCpu().getTime();
+        }
+    }
+
+    private void checkInputLatency(long aheadFrameEndCpuTime) {
+        if (isInputLatencyPending && aheadFrameEndCpuTime > inputAppliedCpuTime) {
+            isInputLatencyPending = false;
+            long latencyReduction = computer.cpuTimeToNanos(aheadFrameEndCpuTime
+                    - inputAppliedCpuTime) - (System.nanoTime() - inputAppliedTimestamp);
+            lastLatencyReduction = latencyReduction;
+            averageLatencyReduction += (latencyReduction - averageLatencyReduction)
+                    / AVERAGING_FACTOR;
+        }
+    }
+
+    /**
+     * Get last frame run-ahead time (including state saving and restoring).
+     * @return last run-ahead time (in nanoseconds)
+     */
+    public long getLastRunAheadTime() {
+        return lastRunAheadTime;
+    }
+
+    /**
+     * Get average frame run-ahead time (including state saving and restoring).
+     * @return average run-ahead time (in nanoseconds)
+     */
+    public long getAverageRunAheadTime() {
+        return averageRunAheadTime;
+    }
+
+    /**
+     * Get number of frames emulated with run-ahead.
+     * @return run-ahead frames number
+     */
+    public long getRunAheadFrameCount() {
+        return runAheadFrameCount;
+    }
+
+    /**
+     * Get number of frames emulated without run-ahead.
+     * @return skipped frames number
+     */
+    public long getSkippedFrameCount() {
+        return skippedFrameCount;
+    }
+
+    /**
+     * Check is computer running ahead now.
+     * @return <code>true</code> if computer is running ahead
+     */
+    public boolean isRunningAhead() {
+        return isRunningAhead;
+    }
+
+    /**
+     * Check for video frame start and run ahead if new frame is started.
+     * Called from computer emulation thread.
+     */
+    void checkFrame() {
+        long cpuTime = computer.getCpu().getTime();
+        long frameEndCpuTime = cpuTime - cpuTime % frameCpuTicks;
+        if (frameEndCpuTime != lastFrameEndCpuTime) {
+            lastFrameEndCpuTime = frameEndCpuTime;
+            try {
+                runAheadFrame(frameEndCpuTime);
+            } catch (IOException e) {
+                Log.e(TAG, "run-ahead error", e);
+                computer.setRunAheadFrames(0);
+            }
+        }
+    }
+
+    private boolean isRunAheadPossible() {
+        FloppyController floppyController = computer.getFloppyController();
+        KeyboardController keyboardController = computer.getKeyboardController();
+        return (floppyController == null || !floppyController.isMotorStarted())
+                && (keyboardController == null || !keyboardController.isAutotypeActive())
+                && !computer.isAnyWatchpointSet();
+    }
+
+    private void runAheadFrame(long frameEndCpuTime) throws IOException {
+        VideoController videoController = computer.getVideoController();
+        if (!isRunAheadPossible()) {
+            if (videoController != null) {
+                videoController.publishFrame(frameEndCpuTime - frameCpuTicks, frameEndCpuTime);
+            }
+            skippedFrameCount++;
+            return;
+        }
+        long startTime = System.nanoTime();
+        AudioOutput audioOutput = computer.getAudioOutput();
+        saveState();
+        isRunningAhead = true;
+        // Audio output can be muted already (i.e. in unthrottled mode)
+        boolean isAudioMuted = (audioOutput != null) && audioOutput.isMuted();
+        if (audioOutput != null) {
+            audioOutput.setMuted(true);
+        }
+        try {
+            long aheadFrameEndCpuTime = frameEndCpuTime + frames * frameCpuTicks;
+            computer.executeInstructionsUntil(aheadFrameEndCpuTime, false);
+            if (videoController != null) {
+                videoController.publishFrame(aheadFrameEndCpuTime - frameCpuTicks,
+                        aheadFrameEndCpuTime);
+            }
+            checkInputLatency(aheadFrameEndCpuTime);
+        } finally {
+            restoreState();
+            if (audioOutput != null) {
+                audioOutput.setMuted(isAudioMuted);
+            }
+            isRunningAhead = false;
+        }
+        long runAheadTime = System.nanoTime() - startTime;
+        lastRunAheadTime = runAheadTime;
+        averageRunAheadTime += (runAheadTime - averageRunAheadTime) / AVERAGING_FACTOR;
+        runAheadFrameCount++;
+    }
+
+    private void saveState() throws IOException {
+        for (int memoryIndex = 0; memoryIndex < memories.length; memoryIndex++) {
+            short[] data = memories[memoryIndex].getData();
+            System.arraycopy(data, 0, savedMemoryData[memoryIndex], 0, data.length);
+        }
+        stateBuffer.reset();
+        computer.writeStateData(new DataOutputStream(stateBuffer), null);
+        savedLastSyncCpuTime = computer.getLastSyncCpuTime();
+    }
+
+    private void restoreState() throws IOException {
+        for (int memoryIndex = 0; memoryIndex < memories.length; memoryIndex++) {
+            memories[memoryIndex].putData(savedMemoryData[memoryIndex]);
+        }
+        // Devices are not initialized to keep current input state
+        computer.readStateData(new DataInputStream(new ByteArrayInputStream(
+                stateBuffer.toByteArray())), false, false);
+        computer.setLastSyncCpuTime(savedLastSyncCpuTime);
+    }
+
+}
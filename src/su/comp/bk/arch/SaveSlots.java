@@ -0,0 +1,423 @@
+/*
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package su.comp.bk.arch;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.List;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedInputStream;
+import java.util.zip.CheckedOutputStream;
+
+import su.comp.bk.arch.Computer.Configuration;
+import su.comp.bk.arch.io.VideoController;
+import su.comp.bk.arch.memory.RandomAccessMemory;
+import android.util.Log;
+
+/**
+ * Numbered computer state save slots. Slot file contains header (computer configuration,
+ * save time, computer uptime and video frame thumbnail), CPU, device and memory mapping
+ * states, RAM pages table with page state data offsets and checksums and RAM pages
+ * state data. Slot is loaded by restoring CPU and device states at once (after all
+ * slot data checksums are verified), while RAM pages are restored lazily from
+ * memory-mapped slot file on first access. Slot header can be read
+ * without reading slot state data.
+ */
+public class SaveSlots {
+
+    private static final String TAG = SaveSlots.class.getName();
+
+    /** Number of save slots */
+    public final static int NUM_SLOTS = 8;
+
+    /** Slot thumbnail width (in pixels) */
+    public final static int THUMBNAIL_WIDTH = 128;
+    /** Slot thumbnail height (in pixels) */
+    public final static int THUMBNAIL_HEIGHT = 64;
+
+    // Slot data magic number ("BKSS")
+    private final static int SLOT_MAGIC = 0x424b5353;
+    // Slot data format version
+    private final static int SLOT_VERSION = 2;
+
+    // Slot file name prefix and suffixes
+    private final static String SLOT_FILE_PREFIX = "slot_";
+    private final static String SLOT_FILE_SUFFIX = ".bin";
+    private final static String TEMP_FILE_SUFFIX = ".tmp";
+
+    private final File slotsDirectory;
+
+    /**
+     * Save slot header info.
+     */
+    public static class SlotInfo {
+        private final int slotIndex;
+        private final Configuration configuration;
+        private final long saveTime;
+        private final long uptime;
+        private final int thumbnailWidth;
+        private final int thumbnailHeight;
+        private final int[] thumbnailPixels;
+
+        SlotInfo(int slotIndex, Configuration configuration, long saveTime, long uptime,
+                int thumbnailWidth, int thumbnailHeight, int[] thumbnailPixels) {
+            this.slotIndex = slotIndex;
+            this.configuration = configuration;
+            this.saveTime = saveTime;
+            this.uptime = uptime;
+            this.thumbnailWidth = thumbnailWidth;
+            this.thumbnailHeight = thumbnailHeight;
+            this.thumbnailPixels = thumbnailPixels;
+        }
+
+        public int getSlotIndex() {
+            return slotIndex;
+        }
+
+        /**
+         * Get computer configuration slot state was saved with.
+         * @return computer {@link Configuration}
+         */
+        public Configuration getConfiguration() {
+            return configuration;
+        }
+
+        /**
+         * Get slot save time.
+         * @return slot save time (in milliseconds since epoch)
+         */
+        public long getSaveTime() {
+            return saveTime;
+        }
+
+        /**
+         * Get saved computer uptime.
+         * @return computer uptime (in nanoseconds)
+         */
+        public long getUptime() {
+            return uptime;
+        }
+
+        public int getThumbnailWidth() {
+            return thumbnailWidth;
+        }
+
+        public int getThumbnailHeight() {
+            return thumbnailHeight;
+        }
+
+        /**
+         * Get slot thumbnail pixels.
+         * @return thumbnail pixels (ARGB) or <code>null</code> if slot has no thumbnail
+         */
+        public int[] getThumbnailPixels() {
+            return thumbnailPixels;
+        }
+    }
+
+    public SaveSlots(File slotsDirectory) {
+        this.slotsDirectory = slotsDirectory;
+    }
+
+    /**
+     * Get save slot file.
+     * @param slotIndex slot index (from 0 to {@link #NUM_SLOTS} - 1)
+     * @return slot file (may not exist)
+     */
+    public File getSlotFile(int slotIndex) {
+        if (slotIndex < 0 || slotIndex >= NUM_SLOTS) {
+            throw new IllegalArgumentException("Invalid save slot index: " + slotIndex);
+        }
+        return new File(slotsDirectory, SLOT_FILE_PREFIX + slotIndex + SLOT_FILE_SUFFIX);
+    }
+
+    /**
+     * Read save slot header info.
+     * @param slotIndex slot index
+     * @return slot {@link SlotInfo} or <code>null</code> if slot is empty
+     * @throws IOException in case of slot file reading error or invalid slot data
+     */
+    public SlotInfo readSlotInfo(int slotIndex) throws IOException {
+        File slotFile = getSlotFile(slotIndex);
+        if (!slotFile.isFile()) {
+            return null;
+        }
+        DataInputStream in = new DataInputStream(new BufferedInputStream(
+                new FileInputStream(slotFile)));
+        try {
+            return readSlotHeader(in, slotIndex);
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * Read all save slots header info. Invalid slots are treated as empty.
+     * @return array of {@link SlotInfo} for every slot (<code>null</code> for empty slots)
+     */
+    public SlotInfo[] readSlotInfos() {
+        SlotInfo[] slotInfos = new SlotInfo[NUM_SLOTS];
+        for (int slotIndex = 0; slotIndex < NUM_SLOTS; slotIndex++) {
+            try {
+                slotInfos[slotIndex] = readSlotInfo(slotIndex);
+            } catch (IOException e) {
+                Log.w(TAG, "can't read save slot " + slotIndex + " info", e);
+            }
+        }
+        return slotInfos;
+    }
+
+    private static SlotInfo readSlotHeader(DataInput in, int slotIndex) throws IOException {
+        if (in.readInt() != SLOT_MAGIC) {
+            throw new IOException("Invalid save slot data");
+        }
+        int slotVersion = in.readUnsignedShort();
+        if (slotVersion != SLOT_VERSION) {
+            throw new IOException("Unsupported save slot data version: " + slotVersion);
+        }
+        Configuration configuration;
+        try {
+            configuration = Configuration.valueOf(in.readUTF());
+        } catch (IllegalArgumentException e) {
+            throw new IOException("Invalid save slot configuration", e);
+        }
+        long saveTime = in.readLong();
+        long uptime = in.readLong();
+        int thumbnailWidth = in.readUnsignedShort();
+        int thumbnailHeight = in.readUnsignedShort();
+        int[] thumbnailPixels = null;
+        if (thumbnailWidth > 0 && thumbnailHeight > 0) {
+            thumbnailPixels = new int[thumbnailWidth * thumbnailHeight];
+            for (int i = 0; i < thumbnailPixels.length; i++) {
+                thumbnailPixels[i] = in.readInt();
+            }
+        }
+        return new SlotInfo(slotIndex, configuration, saveTime, uptime,
+                thumbnailWidth, thumbnailHeight, thumbnailPixels);
+    }
+
+    /**
+     * Save computer state to slot. CPU, device and memory mapping states and video frame
+     * thumbnail are captured at once, while RAM data arrays are shared with RAM pages
+     * and written after that, so this method can be called from background thread
+     * while computer is running.
+     * @param computer configured {@link Computer} to save state of
+     * @param slotIndex slot index
+     * @throws IOException in case of slot file writing error
+     */
+    public void save(Computer computer, int slotIndex) throws IOException {
+        File slotFile = getSlotFile(slotIndex);
+        Configuration configuration;
+        long uptime;
+        int[] thumbnailPixels = null;
+        ByteArrayOutputStream stateBuffer = new ByteArrayOutputStream();
+        List<RandomAccessMemory> memoryPages;
+        short[][] memoryPagesData;
+        synchronized (computer) {
+            configuration = computer.getConfiguration();
+            uptime = computer.getUptime();
+            VideoController videoController = computer.getVideoController();
+            if (videoController != null) {
+                thumbnailPixels = new int[THUMBNAIL_WIDTH * THUMBNAIL_HEIGHT];
+                videoController.getThumbnailPixels(thumbnailPixels,
+                        THUMBNAIL_WIDTH, THUMBNAIL_HEIGHT);
+            }
+            computer.writeStateData(new DataOutputStream(stateBuffer), null);
+            memoryPages = computer.getRandomAccessMemoryList();
+            memoryPagesData = new short[memoryPages.size()][];
+            for (int i = 0; i < memoryPagesData.length; i++) {
+                memoryPagesData[i] = memoryPages.get(i).shareData();
+            }
+        }
+        try {
+            // Encode RAM pages state data
+            byte[][] memoryPagesStateData = new byte[memoryPagesData.length][];
+            for (int i = 0; i < memoryPagesData.length; i++) {
+                ByteArrayOutputStream pageBuffer = new ByteArrayOutputStream();
+                memoryPages.get(i).saveState(new DataOutputStream(pageBuffer),
+                        memoryPagesData[i]);
+                memoryPagesStateData[i] = pageBuffer.toByteArray();
+            }
+            // Slot is written to temporary file and renamed, so previous slot file
+            // is kept intact while its RAM pages can be still mapped to memory
+            File tempSlotFile = new File(slotsDirectory, slotFile.getName() + TEMP_FILE_SUFFIX);
+            FileOutputStream slotOutput = new FileOutputStream(tempSlotFile);
+            try {
+                writeSlot(slotOutput, configuration, uptime, thumbnailPixels,
+                        stateBuffer.toByteArray(), memoryPagesStateData);
+            } finally {
+                slotOutput.close();
+            }
+            if (!tempSlotFile.renameTo(slotFile)) {
+                tempSlotFile.delete();
+                throw new IOException("Can't write save slot file: " + slotFile);
+            }
+            Log.d(TAG, "saved slot " + slotIndex);
+        } finally {
+            for (int i = 0; i < memoryPagesData.length; i++) {
+                memoryPages.get(i).releaseData(memoryPagesData[i]);
+            }
+        }
+    }
+
+    private static void writeSlot(FileOutputStream slotOutput, Configuration configuration,
+            long uptime, int[] thumbnailPixels, byte[] stateData,
+            byte[][] memoryPagesStateData) throws IOException {
+        ByteArrayOutputStream headerBuffer = new ByteArrayOutputStream();
+        CheckedOutputStream checkedHeaderOutput = new CheckedOutputStream(headerBuffer,
+                new CRC32());
+        DataOutputStream out = new DataOutputStream(checkedHeaderOutput);
+        out.writeInt(SLOT_MAGIC);
+        out.writeShort(SLOT_VERSION);
+        out.writeUTF(configuration.name());
+        out.writeLong(System.currentTimeMillis());
+        out.writeLong(uptime);
+        if (thumbnailPixels != null) {
+            out.writeShort(THUMBNAIL_WIDTH);
+            out.writeShort(THUMBNAIL_HEIGHT);
+            for (int pixel : thumbnailPixels) {
+                out.writeInt(pixel);
+            }
+        } else {
+            out.writeShort(0);
+            out.writeShort(0);
+        }
+        out.writeInt(stateData.length);
+        out.write(stateData);
+        // RAM pages table (page state data offsets in slot file, lengths and checksums)
+        out.writeShort(memoryPagesStateData.length);
+        int pageOffset = out.size() + memoryPagesStateData.length * 12 + 4;
+        for (byte[] pageStateData : memoryPagesStateData) {
+            out.writeInt(pageOffset);
+            out.writeInt(pageStateData.length);
+            CRC32 pageChecksum = new CRC32();
+            pageChecksum.update(pageStateData);
+            out.writeInt((int) pageChecksum.getValue());
+            pageOffset += pageStateData.length;
+        }
+        out.flush();
+        out.writeInt((int) checkedHeaderOutput.getChecksum().getValue());
+        out.flush();
+        BufferedOutputStream slotBufferedOutput = new BufferedOutputStream(slotOutput);
+        headerBuffer.writeTo(slotBufferedOutput);
+        for (byte[] pageStateData : memoryPagesStateData) {
+            slotBufferedOutput.write(pageStateData);
+        }
+        slotBufferedOutput.flush();
+    }
+
+    /**
+     * Load computer state from slot. CPU, device and memory mapping states are restored
+     * at once, RAM pages are restored from memory-mapped slot file on first access.
+     * @param computer {@link Computer} to load state to (must be configured with
+     * the same configuration the slot was saved with)
+     * @param slotIndex slot index
+     * @return loaded slot {@link SlotInfo}
+     * @throws IOException in case of slot file reading error, invalid slot data or
+     * computer configuration mismatch
+     */
+    public SlotInfo load(Computer computer, int slotIndex) throws IOException {
+        File slotFile = getSlotFile(slotIndex);
+        FileInputStream slotInput = new FileInputStream(slotFile);
+        try {
+            CheckedInputStream checkedSlotInput = new CheckedInputStream(
+                    new BufferedInputStream(slotInput), new CRC32());
+            DataInputStream in = new DataInputStream(checkedSlotInput);
+            SlotInfo slotInfo = readSlotHeader(in, slotIndex);
+            byte[] stateData = new byte[in.readInt()];
+            in.readFully(stateData);
+            int numMemoryPages = in.readUnsignedShort();
+            int[] pageOffsets = new int[numMemoryPages];
+            int[] pageLengths = new int[numMemoryPages];
+            int[] pageChecksums = new int[numMemoryPages];
+            for (int i = 0; i < numMemoryPages; i++) {
+                pageOffsets[i] = in.readInt();
+                pageLengths[i] = in.readInt();
+                pageChecksums[i] = in.readInt();
+            }
+            int checksum = (int) checkedSlotInput.getChecksum().getValue();
+            if (in.readInt() != checksum) {
+                throw new IOException("Save slot data checksum mismatch");
+            }
+            FileChannel slotChannel = slotInput.getChannel();
+            long slotFileSize = slotChannel.size();
+            for (int i = 0; i < numMemoryPages; i++) {
+                if (pageOffsets[i] < 0 || pageLengths[i] < 0
+                        || (long) pageOffsets[i] + pageLengths[i] > slotFileSize) {
+                    throw new IOException("Invalid save slot RAM page " + i + " data offset");
+                }
+            }
+            // Mapped buffer stays valid after slot file closing
+            ByteBuffer slotData = slotChannel.map(FileChannel.MapMode.READ_ONLY,
+                    0, slotFileSize);
+            // RAM pages state data is verified before computer state is changed,
+            // so lazy RAM pages decoding doesn't fail on corrupted slot file
+            ByteBuffer[] pagesStateData = new ByteBuffer[numMemoryPages];
+            for (int i = 0; i < numMemoryPages; i++) {
+                ByteBuffer pageStateData = slotData.duplicate();
+                pageStateData.position(pageOffsets[i]);
+                pageStateData.limit(pageOffsets[i] + pageLengths[i]);
+                pagesStateData[i] = pageStateData.slice();
+                if (getChecksum(pagesStateData[i].duplicate()) != pageChecksums[i]) {
+                    throw new IOException("Save slot RAM page " + i + " data checksum mismatch");
+                }
+            }
+            synchronized (computer) {
+                if (slotInfo.getConfiguration() != computer.getConfiguration()) {
+                    throw new IOException("Save slot configuration mismatch: "
+                            + slotInfo.getConfiguration());
+                }
+                List<RandomAccessMemory> memoryPages = computer.getRandomAccessMemoryList();
+                if (memoryPages.size() != numMemoryPages) {
+                    throw new IOException("Save slot RAM pages number mismatch: "
+                            + numMemoryPages);
+                }
+                computer.readStateData(new DataInputStream(new ByteArrayInputStream(
+                        stateData)), false, true);
+                for (int i = 0; i < numMemoryPages; i++) {
+                    memoryPages.get(i).restoreStateLazily(pagesStateData[i]);
+                }
+                computer.setMemoryStateRestorePending();
+            }
+            Log.d(TAG, "loaded slot " + slotIndex);
+            return slotInfo;
+        } finally {
+            slotInput.close();
+        }
+    }
+
+    private static int getChecksum(ByteBuffer data) {
+        CRC32 checksum = new CRC32();
+        byte[] buffer = new byte[4096];
+        while (data.hasRemaining()) {
+            int length = Math.min(buffer.length, data.remaining());
+            data.get(buffer, 0, length);
+            checksum.update(buffer, 0, length);
+        }
+        return (int) checksum.getValue();
+    }
+
+}
@@ -0,0 +1,224 @@
+/*
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package su.comp.bk.arch;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayDeque;
+import java.util.Deque;
+
+import su.comp.bk.arch.io.VideoController;
+import android.util.Log;
+
+/**
+ * Video recorder. Every frame published by {@link VideoController} is captured as
+ * indexed frame (videoRAM words of displayed lines and line palettes) and appended
+ * to recording from background writer thread, so emulation thread never waits for
+ * recording output. If writer thread can't keep up, frames are dropped (and replaced
+ * by previous frame while export).
+ * <p>Recording format: header (magic number, format version, frame period in
+ * nanoseconds) and frames. Frame data words ({@link #FRAME_DATA_LENGTH} indexed frame
+ * data words followed by {@link VideoController#VIDEO_BUFFER_HEIGHT} line palette words)
+ * are delta encoded against previous frame (initially all zero). Each frame is stored as
+ * number of dropped frames before it and pairs of unchanged words run length and changed
+ * words run length with changed words values, until all frame data words are covered.
+ * Run lengths are unsigned variable-length integers.</p>
+ */
+public class VideoRecorder implements VideoController.OnFramePublishedListener, Runnable {
+
+    private static final String TAG = VideoRecorder.class.getName();
+
+    /** Recording magic number ("BKVR") */
+    final static int RECORDING_MAGIC = 0x424b5652;
+    /** Recording format version */
+    final static int RECORDING_VERSION = 1;
+
+    /** Indexed frame data length (in words) */
+    final static int FRAME_DATA_LENGTH = VideoController.VIDEO_BUFFER_HEIGHT
+            * VideoController.INDEXED_FRAME_LINE_LENGTH;
+    /** Frame data length with line palettes (in words) */
+    final static int FRAME_LENGTH = FRAME_DATA_LENGTH + VideoController.VIDEO_BUFFER_HEIGHT;
+
+    // Number of frame buffers to queue captured frames for writing
+    private final static int NUM_FRAME_BUFFERS = 8;
+
+    private final DataOutputStream recordingOutput;
+
+    private final Thread writerThread;
+
+    // Free frame buffers
+    private final Deque<short[]> freeFrameBuffers = new ArrayDeque<short[]>();
+    // Captured frame buffers to write and number of frames dropped before them
+    private final Deque<short[]> capturedFrameBuffers = new ArrayDeque<short[]>();
+    private final Deque<Integer> capturedFrameDropCounts = new ArrayDeque<Integer>();
+    // Number of frames dropped since last captured frame
+    private int pendingDroppedFrameCount;
+
+    // Previous written frame (used by writer thread only)
+    private final short[] previousFrame = new short[FRAME_LENGTH];
+
+    // Captured and dropped frames counters
+    private int capturedFrameCount;
+    private int droppedFrameCount;
+    // Recorder closing flag
+    private boolean isClosing;
+    // Recording write error (null if no error occurred)
+    private IOException writeError;
+
+    /**
+     * Create video recorder and start writer thread.
+     * @param outputStream {@link OutputStream} to write recording to
+     * (closed when recorder is closed)
+     * @param framePeriod recorded frames period (in nanoseconds)
+     * @throws IOException in case of recording header writing error
+     */
+    public VideoRecorder(OutputStream outputStream, long framePeriod) throws IOException {
+        recordingOutput = new DataOutputStream(new BufferedOutputStream(outputStream));
+        recordingOutput.writeInt(RECORDING_MAGIC);
+        recordingOutput.writeShort(RECORDING_VERSION);
+        recordingOutput.writeLong(framePeriod);
+        for (int i = 0; i < NUM_FRAME_BUFFERS; i++) {
+            freeFrameBuffers.add(new short[FRAME_LENGTH]);
+        }
+        writerThread = new Thread(this, "VideoRecorderWriterThread");
+        writerThread.start();
+    }
+
+    @Override
+    public synchronized void onFramePublished(short[] indexedFrameData, int[] linePalettes) {
+        if (isClosing) {
+            return;
+        }
+        short[] frame = freeFrameBuffers.poll();
+        if (frame == null) {
+            // Writer thread can't keep up, drop frame
+            pendingDroppedFrameCount++;
+            droppedFrameCount++;
+            return;
+        }
+        System.arraycopy(indexedFrameData, 0, frame, 0, FRAME_DATA_LENGTH);
+        for (int line = 0; line < VideoController.VIDEO_BUFFER_HEIGHT; line++) {
+            frame[FRAME_DATA_LENGTH + line] = (short) linePalettes[line];
+        }
+        capturedFrameBuffers.add(frame);
+        capturedFrameDropCounts.add(pendingDroppedFrameCount);
+        pendingDroppedFrameCount = 0;
+        capturedFrameCount++;
+        notifyAll();
+    }
+
+    public synchronized int getCapturedFrameCount() {
+        return capturedFrameCount;
+    }
+
+    public synchronized int getDroppedFrameCount() {
+        return droppedFrameCount;
+    }
+
+    /**
+     * Write all captured frames, stop writer thread and close recording output.
+     * @throws IOException in case of recording writing error
+     */
+    public void close() throws IOException {
+        synchronized (this) {
+            isClosing = true;
+            notifyAll();
+        }
+        while (writerThread.isAlive()) {
+            try {
+                writerThread.join();
+            } catch (InterruptedException e) {
+            }
+        }
+        try {
+            recordingOutput.close();
+        } catch (IOException e) {
+            if (writeError == null) {
+                writeError = e;
+            }
+        }
+        Log.d(TAG, "video recording closed, frames captured: " + capturedFrameCount
+                + ", dropped: " + droppedFrameCount);
+        if (writeError != null) {
+            throw writeError;
+        }
+    }
+
+    @Override
+    public void run() {
+        while (true) {
+            short[] frame;
+            int dropCount;
+            synchronized (this) {
+                while (capturedFrameBuffers.isEmpty() && !isClosing) {
+                    try {
+                        wait();
+                    } catch (InterruptedException e) {
+                    }
+                }
+                if (capturedFrameBuffers.isEmpty()) {
+                    break;
+                }
+                frame = capturedFrameBuffers.poll();
+                dropCount = capturedFrameDropCounts.poll();
+            }
+            try {
+                if (writeError == null) {
+                    writeFrame(frame, dropCount);
+                }
+            } catch (IOException e) {
+                Log.e(TAG, "can't write video recording frame", e);
+                writeError = e;
+            } finally {
+                synchronized (this) {
+                    freeFrameBuffers.add(frame);
+                }
+            }
+        }
+    }
+
+    private void writeFrame(short[] frame, int dropCount) throws IOException {
+        DataOutputStream out = recordingOutput;
+        writeVarInt(out, dropCount);
+        int position = 0;
+        while (position < FRAME_LENGTH) {
+            int unchangedStart = position;
+            while (position < FRAME_LENGTH && frame[position] == previousFrame[position]) {
+                position++;
+            }
+            int changedStart = position;
+            while (position < FRAME_LENGTH && frame[position] != previousFrame[position]) {
+                position++;
+            }
+            writeVarInt(out, changedStart - unchangedStart);
+            writeVarInt(out, position - changedStart);
+            for (int i = changedStart; i < position; i++) {
+                out.writeShort(frame[i]);
+            }
+        }
+        System.arraycopy(frame, 0, previousFrame, 0, FRAME_LENGTH);
+    }
+
+    private static void writeVarInt(DataOutputStream out, int value) throws IOException {
+        while ((value & ~0177) != 0) {
+            out.writeByte((value & 0177) | 0200);
+            value >>>= 7;
+        }
+        out.writeByte(value);
+    }
+
+}
@@ -0,0 +1,144 @@
+/*
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package su.comp.bk.arch;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+
+import su.comp.bk.arch.io.VideoController;
+
+/**
+ * Video recording reader. Decodes frames written by {@link VideoRecorder}.
+ */
+public class VideoRecordingReader {
+
+    private final DataInputStream recordingInput;
+
+    private final long framePeriod;
+
+    // Current frame data (indexed frame data words followed by line palette words)
+    private final short[] frame = new short[VideoRecorder.FRAME_LENGTH];
+    // Number of frames dropped before current frame
+    private int droppedFrameCount;
+
+    /**
+     * Create video recording reader and read recording header.
+     * @param inputStream {@link InputStream} to read recording from
+     * @throws IOException in case of recording reading error or invalid recording header
+     */
+    public VideoRecordingReader(InputStream inputStream) throws IOException {
+        recordingInput = new DataInputStream(new BufferedInputStream(inputStream));
+        if (recordingInput.readInt() != VideoRecorder.RECORDING_MAGIC) {
+            throw new IOException("Invalid video recording magic number");
+        }
+        int recordingVersion = recordingInput.readUnsignedShort();
+        if (recordingVersion != VideoRecorder.RECORDING_VERSION) {
+            throw new IOException("Unsupported video recording version: " + recordingVersion);
+        }
+        framePeriod = recordingInput.readLong();
+    }
+
+    /**
+     * Get recorded frames period.
+     * @return frame period (in nanoseconds)
+     */
+    public long getFramePeriod() {
+        return framePeriod;
+    }
+
+    /**
+     * Read next frame.
+     * @return <code>true</code> if frame is read, <code>false</code> if recording end
+     * is reached
+     * @throws IOException in case of recording reading error
+     */
+    public boolean readFrame() throws IOException {
+        int frameDroppedCount;
+        try {
+            frameDroppedCount = readVarInt();
+        } catch (EOFException e) {
+            return false;
+        }
+        int position = 0;
+        while (position < VideoRecorder.FRAME_LENGTH) {
+            position += readVarInt();
+            int changedCount = readVarInt();
+            if (position + changedCount > VideoRecorder.FRAME_LENGTH) {
+                throw new IOException("Invalid video recording frame data");
+            }
+            for (int i = 0; i < changedCount; i++) {
+                frame[position++] = recordingInput.readShort();
+            }
+        }
+        if (position != VideoRecorder.FRAME_LENGTH) {
+            throw new IOException("Invalid video recording frame data");
+        }
+        droppedFrameCount = frameDroppedCount;
+        return true;
+    }
+
+    /**
+     * Get number of frames dropped while recording before current frame.
+     * @return dropped frames number
+     */
+    public int getDroppedFrameCount() {
+        return droppedFrameCount;
+    }
+
+    /**
+     * Get current frame indexed frame data word.
+     * @param index word index (see {@link VideoController#getIndexedFrameData()})
+     * @return indexed frame data word
+     */
+    public int getIndexedFrameDataWord(int index) {
+        return frame[index] & 0177777;
+    }
+
+    /**
+     * Get current frame line palette.
+     * @param line frame line
+     * @return line palette (see {@link VideoController#getIndexedFrameLinePalette(int)})
+     */
+    public int getLinePalette(int line) {
+        return frame[VideoRecorder.FRAME_DATA_LENGTH + line];
+    }
+
+    /**
+     * Close recording input.
+     * @throws IOException in case of recording input closing error
+     */
+    public void close() throws IOException {
+        recordingInput.close();
+    }
+
+    private int readVarInt() throws IOException {
+        int value = 0;
+        int shift = 0;
+        int data;
+        do {
+            if (shift > 31) {
+                throw new IOException("Invalid video recording run length");
+            }
+            data = recordingInput.readUnsignedByte();
+            value |= (data & 0177) << shift;
+            shift += 7;
+        } while ((data & 0200) != 0);
+        return value;
+    }
+
+}
@@ -18,7 +18,10 @@
  */
 package su.comp.bk.arch.cpu;
 
-import android.os.Bundle;
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
 import android.util.Log;
 import su.comp.bk.arch.Computer;
 import su.comp.bk.arch.cpu.addressing.AddressingMode;
@@ -85,11 +88,12 @@ import su.comp.bk.arch.cpu.opcode.TrapOpcode;
 import su.comp.bk.arch.cpu.opcode.TstOpcode;
 import su.comp.bk.arch.cpu.opcode.WaitOpcode;
 import su.comp.bk.arch.cpu.opcode.XorOpcode;
+import su.comp.bk.arch.state.StatefulEntity;
 
 /**
  * PDP-11 compatible 1801VM1 CPU implementation.
  */
-public class Cpu {
+public class Cpu implements StatefulEntity {
 
     private static final String TAG = Cpu.class.getName();
 
@@ -149,31 +153,6 @@ public class Cpu {
     /** IRQ2 vector address */
     public static final int TRAP_IRQ2 = 0100;
 
-    // State save/restore: CPU time (in clock ticks)
-    private static final String STATE_TIME =
-            Cpu.class.getName() + "#time";
-    // State save/restore: Reserved opcode was fetched flag
-    private static final String STATE_RESERVED_OPCODE =
-            Cpu.class.getName() + "#reserved_opcode";
-    // State save/restore: Interrupt request waiting flag
-    private static final String STATE_IRQ_WAIT =
-            Cpu.class.getName() + "#irq_wait";
-    // State save/restore: Deferred trace trap flag
-    private static final String STATE_DEFERRED_TRACE_TRAP =
-            Cpu.class.getName() + "#deferred_trace_trap";
-    // State save/restore: CPU is in HALT mode flag
-    private static final String STATE_HALT_MODE =
-            Cpu.class.getName() + "#halt_mode";
-    // State save/restore: Bus error caused flag
-    private static final String STATE_BUS_ERROR =
-            Cpu.class.getName() + "#bus_error";
-    // State save/restore: Registers data
-    private static final String STATE_REGISTERS =
-            Cpu.class.getName() + "#registers";
-    // State save/restore: Processor status word data
-    private static final String STATE_PSW =
-            Cpu.class.getName() + "#psw";
-
     // First radial interrupt (IRQ1) requested
     private boolean isIrq1Requested;
 
@@ -442,43 +421,52 @@ public class Cpu {
         }
     }
 
-    /**
-     * Save CPU state.
-     * @param outState {@link Bundle} to save state
-     */
-    public void saveState(Bundle outState) {
+    @Override
+    public void saveState(DataOutput out) throws IOException {
         // Save PSW
-        outState.putInt(STATE_PSW, getPswState());
+        out.writeShort(getPswState());
         // Save registers
-        outState.putShortArray(STATE_REGISTERS, getRegisters());
+        for (short register : getRegisters()) {
+            out.writeShort(register);
+        }
         // Save state flags
-        outState.putBoolean(STATE_BUS_ERROR, isBusError());
-        outState.putBoolean(STATE_HALT_MODE, isHaltMode());
-        outState.putBoolean(STATE_DEFERRED_TRACE_TRAP, isDeferredTraceTrap());
-        outState.putBoolean(STATE_IRQ_WAIT, isInterruptWaitMode());
-        outState.putBoolean(STATE_RESERVED_OPCODE, isReservedOpcodeFetched());
+        out.writeBoolean(isBusError());
+        out.writeBoolean(isHaltMode());
+        out.writeBoolean(isDeferredTraceTrap());
+        out.writeBoolean(isInterruptWaitMode());
+        out.writeBoolean(isReservedOpcodeFetched());
+        // Save pending interrupt requests
+        out.writeBoolean(isIrq1Requested);
+        out.writeBoolean(isIrq2Requested);
+        out.writeBoolean(isVirqRequested);
+        out.writeShort(virqAddress);
         // Save CPU time
-        outState.putLong(STATE_TIME, getTime());
+        out.writeLong(getTime());
     }
 
-    /**
-     * Restore CPU state.
-     * @param inState {@link Bundle} to restore state
-     * @throws Exception in case of error while state restoring
-     */
-    public void restoreState(Bundle inState) throws Exception {
+    @Override
+    public void restoreState(DataInput in) throws IOException {
         // Restore PSW
-        setPswState(inState.getInt(STATE_PSW));
+        setPswState(in.readUnsignedShort());
         // Restore registers
-        putRegisters(inState.getShortArray(STATE_REGISTERS));
+        short[] registersState = new short[registers.length];
+        for (int i = 0; i < registersState.length; i++) {
+            registersState[i] = in.readShort();
+        }
+        putRegisters(registersState);
         // Restore state flags
-        setBusError(inState.getBoolean(STATE_BUS_ERROR));
-        setHaltMode(inState.getBoolean(STATE_HALT_MODE));
-        setDeferredTraceTrap(inState.getBoolean(STATE_DEFERRED_TRACE_TRAP));
-        setInterruptWaitMode(inState.getBoolean(STATE_IRQ_WAIT));
-        setReservedOpcodeFetched(inState.getBoolean(STATE_RESERVED_OPCODE));
+        setBusError(in.readBoolean());
+        setHaltMode(in.readBoolean());
+        setDeferredTraceTrap(in.readBoolean());
+        setInterruptWaitMode(in.readBoolean());
+        setReservedOpcodeFetched(in.readBoolean());
+        // Restore pending interrupt requests
+        isIrq1Requested = in.readBoolean();
+        isIrq2Requested = in.readBoolean();
+        isVirqRequested = in.readBoolean();
+        virqAddress = in.readUnsignedShort();
         // Restore CPU time
-        setTime(inState.getLong(STATE_TIME));
+        setTime(in.readLong());
     }
 
     /**
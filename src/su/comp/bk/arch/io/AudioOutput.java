@@ -18,13 +18,15 @@
  */
 package su.comp.bk.arch.io;
 
+import java.io.DataInput;
+import java.io.DataOutput;
+
 import su.comp.bk.arch.Computer;
 import su.comp.bk.arch.cpu.Cpu;
 import su.comp.bk.arch.cpu.opcode.BaseOpcode;
 import android.media.AudioFormat;
 import android.media.AudioManager;
 import android.media.AudioTrack;
-import android.os.Bundle;
 import android.util.Log;
 
 /**
@@ -73,6 +75,9 @@ public class AudioOutput implements Device, Runnable {
 
     private int lastOutputState;
 
+    // Audio output muted flag (output state changes are ignored while muted)
+    private boolean isMuted;
+
     private final boolean isBk0011mMode;
 
     public AudioOutput(Computer computer, boolean isBk0011m) {
@@ -143,13 +148,30 @@ public class AudioOutput implements Device, Runnable {
         player.release();
     }
 
+    /**
+     * Mute or unmute audio output. Output state changes are not tracked while
+     * muted (i.e. while running ahead).
+     * @param isMuted <code>true</code> to mute audio output
+     */
+    public void setMuted(boolean isMuted) {
+        this.isMuted = isMuted;
+    }
+
+    /**
+     * Check is audio output muted.
+     * @return <code>true</code> if audio output is muted
+     */
+    public boolean isMuted() {
+        return isMuted;
+    }
+
     @Override
-    public void saveState(Bundle outState) {
+    public void saveState(DataOutput out) {
         // Do nothing
     }
 
     @Override
-    public void restoreState(Bundle inState) {
+    public void restoreState(DataInput in) {
         // Do nothing
     }
 
@@ -161,6 +183,9 @@ public class AudioOutput implements Device, Runnable {
     @Override
     public boolean write(long cpuTime, boolean isByteMode, int address, int value) {
         if (!isBk0011mMode || (value & BK0011M_ENABLE_BIT) == 0) {
+            if (isMuted) {
+                return true;
+            }
             int outputState = value & OUTPUT_BIT;
             if ((outputState ^ lastOutputState) != 0) {
                 putPcmTimestamp(cpuTime);
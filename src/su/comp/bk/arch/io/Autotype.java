@@ -0,0 +1,137 @@
+/*
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package su.comp.bk.arch.io;
+
+import java.util.Arrays;
+
+import su.comp.bk.arch.io.KeyboardController.BkButton;
+
+/**
+ * Keyboard autotype text. Host text is converted to BK keyboard key codes (KOI-7) with
+ * Russian/Latin mode switch codes inserted where needed. Key codes are injected by
+ * {@link KeyboardController} from computer emulation thread as soon as the program
+ * has read previous key code from keyboard data register.
+ */
+public class Autotype {
+
+    // Key codes to type
+    private final int[] keyCodes;
+    // Number of typed key codes (changed from emulation thread only)
+    private int typedKeyCodeCount;
+    // Latin mode state after all key codes are typed
+    private final boolean isLatinModeAtEnd;
+
+    private volatile boolean isCancelled;
+
+    /**
+     * Create autotype text.
+     * @param text host text to type (characters not present on BK keyboard are skipped)
+     * @param isLatinMode current keyboard Latin mode state
+     */
+    public Autotype(String text, boolean isLatinMode) {
+        int[] codes = new int[text.length() * 2];
+        int codeCount = 0;
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            int keyCode;
+            // Required mode: Latin (TRUE), Russian (FALSE) or any (null)
+            Boolean isLatinModeRequired = null;
+            if (c == '\n') {
+                keyCode = BkButton.ENTER.getBkKeyCode();
+            } else if (c == '\t') {
+                keyCode = BkButton.TAB.getBkKeyCode();
+            } else if (c >= 040 && c < 0100) {
+                // Digits, punctuation and space are typed in both modes
+                keyCode = c;
+            } else if (c >= 0100 && c < 0177) {
+                keyCode = c;
+                isLatinModeRequired = Boolean.TRUE;
+            } else {
+                keyCode = getCyrillicKeyCode(c);
+                isLatinModeRequired = (keyCode >= 0) ? Boolean.FALSE : null;
+            }
+            if (keyCode < 0) {
+                continue;
+            }
+            if (isLatinModeRequired != null && isLatinModeRequired != isLatinMode) {
+                isLatinMode = isLatinModeRequired;
+                codes[codeCount++] = (isLatinMode ? BkButton.LAT : BkButton.RUS)
+                        .getBkKeyCode();
+            }
+            codes[codeCount++] = keyCode;
+        }
+        this.keyCodes = Arrays.copyOf(codes, codeCount);
+        this.isLatinModeAtEnd = isLatinMode;
+    }
+
+    private static int getCyrillicKeyCode(char c) {
+        if (c == 'Ё') {
+            c = 'Е';
+        } else if (c == 'ё') {
+            c = 'е';
+        }
+        BkButton bkButton = BkButton.getByCyrillicLetter(c);
+        if (bkButton == null) {
+            return -1;
+        }
+        // Uppercase Cyrillic letters have KOI-7 codes 0140-0177, lowercase - 0100-0137
+        int keyCode = bkButton.getBkKeyCode();
+        return Character.isUpperCase(c) ? (keyCode | 040) : keyCode;
+    }
+
+    /**
+     * Get key codes to type.
+     * @return key codes array
+     */
+    public int[] getKeyCodes() {
+        return keyCodes;
+    }
+
+    /**
+     * Get keyboard Latin mode state after all key codes are typed.
+     * @return <code>true</code> for Latin mode, <code>false</code> for Russian mode
+     */
+    public boolean isLatinModeAtEnd() {
+        return isLatinModeAtEnd;
+    }
+
+    /**
+     * Get number of already typed key codes.
+     * @return typed key codes number
+     */
+    public int getTypedKeyCodeCount() {
+        return typedKeyCodeCount;
+    }
+
+    /**
+     * Check is all key codes are typed or autotype is cancelled.
+     * @return <code>true</code> if autotype is finished
+     */
+    public boolean isFinished() {
+        return isCancelled || typedKeyCodeCount >= keyCodes.length;
+    }
+
+    /**
+     * Cancel typing of remaining key codes.
+     */
+    public void cancel() {
+        isCancelled = true;
+    }
+
+    int nextKeyCode() {
+        return keyCodes[typedKeyCodeCount++];
+    }
+
+}
@@ -18,12 +18,12 @@
  */
 package su.comp.bk.arch.io;
 
-import android.os.Bundle;
+import su.comp.bk.arch.state.StatefulEntity;
 
 /**
  * I/O device interface.
  */
-public interface Device {
+public interface Device extends StatefulEntity {
     /**
      * Get addresses this device is mapped to.
      * @return array of register addresses this device is mapped to (in range 0160000-0177776)
@@ -36,18 +36,6 @@ public interface Device {
      */
     void init(long cpuTime);
 
-    /**
-     * Save device state.
-     * @param outState {@link Bundle} to save device state
-     */
-    void saveState(Bundle outState);
-
-    /**
-     * Read device state.
-     * @param inState {@link Bundle} to restore device state
-     */
-    void restoreState(Bundle inState);
-
     /**
      * Do timer task.
      * @param cpuTime current CPU time (in clock ticks)
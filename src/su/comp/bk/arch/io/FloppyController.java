@@ -21,7 +21,10 @@ package su.comp.bk.arch.io;
 
 import static su.comp.bk.arch.Computer.NANOSECS_IN_MSEC;
 
+import java.io.DataInput;
+import java.io.DataOutput;
 import java.io.File;
+import java.io.IOException;
 import java.io.RandomAccessFile;
 import java.net.URI;
 import java.nio.ByteBuffer;
@@ -30,7 +33,6 @@ import java.nio.channels.FileChannel;
 
 import su.comp.bk.arch.Computer;
 import su.comp.bk.util.Crc16;
-import android.os.Bundle;
 import android.util.Log;
 
 /**
@@ -107,45 +109,7 @@ public class FloppyController implements Device {
 
     private final static int[] ADDRESSES = { CONTROL_REGISTER_ADDRESS, DATA_REGISTER_ADDRESS };
 
-    // State save/restore: Synchronous read flag state
-    private static final String STATE_SYNCHRONOUS_READ = FloppyController.class.getName() +
-            "#synch_read";
-    // State save/restore: Marker found flag state
-    private static final String STATE_MARKER_FOUND = FloppyController.class.getName() +
-            "#marker_found";
-    // State save/restore: Data ready flag state
-    private static final String STATE_DATA_READY = FloppyController.class.getName() +
-            "#data_ready";
-    // State save/restore: Data ready read position
-    private static final String STATE_DATA_READY_READ_POSITION = FloppyController.class.getName() +
-            "#data_ready_read_position";
-    // State save/restore: CRC correct flag state
-    private static final String STATE_CRC_CORRECT = FloppyController.class.getName() +
-            "#crc_correct";
-    // State save/restore: Last data register read time
-    private static final String STATE_LAST_DATA_REGISTER_READ_TIME = FloppyController.class.getName() +
-            "#last_data_register_read_time";
-    // State save/restore: Last controller access time
-    private static final String STATE_LAST_ACCESS_TIME = FloppyController.class.getName() +
-            "#last_access_time";
-    // State save/restore: Selected floppy drive
-    private static final String STATE_SELECTED_FLOPPY_DRIVE = FloppyController.class.getName() +
-            "#selected_floppy_drive";
-    // State save/restore: Motor started flag state
-    private static final String STATE_MOTOR_STARTED = FloppyController.class.getName() +
-            "#motor_started";
-    // State save/restore: Drive disk image file URI
-    private static final String STATE_DRIVE_IMAGE_FILE_URI = FloppyDrive.class.getName() +
-            "#disk_image_file_uri";
-    // State save/restore: Drive disk image read only flag
-    private static final String STATE_DRIVE_IMAGE_READ_ONLY = FloppyDrive.class.getName() +
-            "#disk_image_read_only";
-    // State save/restore: Drive track number
-    private static final String STATE_DRIVE_TRACK_NUMBER = FloppyDrive.class.getName() +
-            "#track_number";
-    // State save/restore: Drive track side
-    private static final String STATE_DRIVE_TRACK_SIDE = FloppyDrive.class.getName() +
-            "#track_side";
+    private final Computer computer;
 
     // CPU clock ticks per track
     protected final long clockTicksPerTrack;
@@ -743,6 +707,7 @@ public class FloppyController implements Device {
     }
 
     public FloppyController(Computer computer) {
+        this.computer = computer;
         this.clockTicksPerTrack = computer.nanosToCpuTime(NANOSECS_PER_TRACK);
         this.clockTicksPerWord = computer.nanosToCpuTime(NANOSECS_PER_TRACK / WORDS_PER_TRACK);
         this.clockTicksPerIndexHole = computer.nanosToCpuTime(NANOSECS_PER_INDEX_HOLE);
@@ -780,53 +745,56 @@ public class FloppyController implements Device {
     }
 
     @Override
-    public synchronized void saveState(Bundle outState) {
-        outState.putSerializable(STATE_SELECTED_FLOPPY_DRIVE, getSelectedFloppyDriveIdentifier());
-        outState.putBoolean(STATE_SYNCHRONOUS_READ, isSynchronousReadState());
-        outState.putBoolean(STATE_MARKER_FOUND, isMarkerFound());
-        outState.putBoolean(STATE_DATA_READY, isDataReady());
-        outState.putInt(STATE_DATA_READY_READ_POSITION, getDataReadyReadPosition());
-        outState.putBoolean(STATE_CRC_CORRECT, isCrcCorrect());
-        outState.putLong(STATE_LAST_DATA_REGISTER_READ_TIME, getLastDataRegisterReadCpuTime());
-        outState.putLong(STATE_LAST_ACCESS_TIME, getLastAccessCpuTime());
-        outState.putBoolean(STATE_MOTOR_STARTED, isMotorStarted());
+    public synchronized void saveState(DataOutput out) throws IOException {
+        FloppyDriveIdentifier selectedDriveIdentifier = getSelectedFloppyDriveIdentifier();
+        out.writeByte(selectedDriveIdentifier != null ? selectedDriveIdentifier.ordinal() : -1);
+        out.writeBoolean(isSynchronousReadState());
+        out.writeBoolean(isMarkerFound());
+        out.writeBoolean(isDataReady());
+        out.writeInt(getDataReadyReadPosition());
+        out.writeBoolean(isCrcCorrect());
+        out.writeLong(getLastDataRegisterReadCpuTime());
+        out.writeLong(getLastAccessCpuTime());
+        out.writeBoolean(isMotorStarted());
         for (FloppyDriveIdentifier driveIdentifier : FloppyDriveIdentifier.values()) {
             FloppyDrive drive = getFloppyDrive(driveIdentifier);
-            outState.putString(getFloppyDriveStateKey(STATE_DRIVE_IMAGE_FILE_URI, driveIdentifier),
-                    drive.getMountedDiskImageFileUri());
-            outState.putBoolean(getFloppyDriveStateKey(STATE_DRIVE_IMAGE_READ_ONLY, driveIdentifier),
-                    drive.isMountedDiskImageReadOnly());
-            outState.putInt(getFloppyDriveStateKey(STATE_DRIVE_TRACK_NUMBER, driveIdentifier),
-                    drive.getCurrentTrackNumber());
-            outState.putSerializable(getFloppyDriveStateKey(STATE_DRIVE_TRACK_SIDE, driveIdentifier),
-                    drive.getCurrentTrackSide());
+            String diskImageFileUri = drive.getMountedDiskImageFileUri();
+            out.writeBoolean(diskImageFileUri != null);
+            if (diskImageFileUri != null) {
+                out.writeUTF(diskImageFileUri);
+                out.writeBoolean(drive.isMountedDiskImageReadOnly());
+            }
+            out.writeByte(drive.getCurrentTrackNumber());
+            out.writeByte(drive.getCurrentTrackSide().ordinal());
         }
     }
 
     @Override
-    public synchronized void restoreState(Bundle inState) {
-        selectFloppyDrive((FloppyDriveIdentifier) inState.getSerializable(STATE_SELECTED_FLOPPY_DRIVE));
-        setSynchronousReadState(inState.getBoolean(STATE_SYNCHRONOUS_READ));
-        setMarkerFound(inState.getBoolean(STATE_MARKER_FOUND));
-        setDataReady(inState.getBoolean(STATE_DATA_READY));
-        setDataReadyReadPosition(inState.getInt(STATE_DATA_READY_READ_POSITION));
-        setCrcCorrect(inState.getBoolean(STATE_CRC_CORRECT));
-        setLastDataRegisterReadCpuTime(inState.getLong(STATE_LAST_DATA_REGISTER_READ_TIME));
-        setLastAccessCpuTime(inState.getLong(STATE_LAST_ACCESS_TIME));
-        setMotorStarted(inState.getBoolean(STATE_MOTOR_STARTED));
+    public synchronized void restoreState(DataInput in) throws IOException {
+        int selectedDriveIndex = in.readByte();
+        selectFloppyDrive(selectedDriveIndex >= 0
+                ? FloppyDriveIdentifier.values()[selectedDriveIndex] : null);
+        setSynchronousReadState(in.readBoolean());
+        setMarkerFound(in.readBoolean());
+        setDataReady(in.readBoolean());
+        setDataReadyReadPosition(in.readInt());
+        setCrcCorrect(in.readBoolean());
+        setLastDataRegisterReadCpuTime(in.readLong());
+        setLastAccessCpuTime(in.readLong());
+        setMotorStarted(in.readBoolean());
         for (FloppyDriveIdentifier driveIdentifier : FloppyDriveIdentifier.values()) {
             FloppyDrive drive = getFloppyDrive(driveIdentifier);
-            int driveTrackNumber = inState.getInt(getFloppyDriveStateKey(
-                    STATE_DRIVE_TRACK_NUMBER, driveIdentifier));
-            FloppyDriveSide driveTrackSide = (FloppyDriveSide) inState.getSerializable(
-                    getFloppyDriveStateKey(STATE_DRIVE_TRACK_SIDE, driveIdentifier));
+            String diskImageFileUri = in.readBoolean() ? in.readUTF() : null;
+            boolean isDiskImageReadOnly = (diskImageFileUri != null) && in.readBoolean();
+            int driveTrackNumber = in.readUnsignedByte();
+            FloppyDriveSide driveTrackSide = FloppyDriveSide.values()[in.readUnsignedByte()];
             drive.setCurrentTrack(driveTrackNumber, driveTrackSide);
-            String diskImageFileUri = inState.getString(getFloppyDriveStateKey(
-                    STATE_DRIVE_IMAGE_FILE_URI, driveIdentifier));
-            if (diskImageFileUri != null) {
+            // Keep already mounted disk image (state is restored on each run-ahead rollback)
+            if (diskImageFileUri != null && !(diskImageFileUri.equals(
+                    drive.getMountedDiskImageFileUri())
+                    && isDiskImageReadOnly == drive.isMountedDiskImageReadOnly())) {
                 try {
-                    drive.mountDiskImage(diskImageFileUri, inState.getBoolean(
-                            getFloppyDriveStateKey(STATE_DRIVE_IMAGE_READ_ONLY,driveIdentifier)));
+                    drive.mountDiskImage(diskImageFileUri, isDiskImageReadOnly);
                 } catch (Exception e) {
                     Log.e(TAG, "can't remount disk file image: " + diskImageFileUri, e);
                     try {
@@ -838,11 +806,6 @@ public class FloppyController implements Device {
         }
     }
 
-    private static String getFloppyDriveStateKey(String stateKey,
-            FloppyDriveIdentifier driveIdentifier) {
-        return stateKey + ":" + driveIdentifier.name();
-    }
-
     @Override
     public synchronized int read(long cpuTime, int address) {
         setLastAccessCpuTime(cpuTime);
@@ -1096,6 +1059,7 @@ public class FloppyController implements Device {
     public synchronized void mountDiskImage(String diskImageFileUri, FloppyDriveIdentifier drive,
             boolean isReadOnly) throws Exception {
         getFloppyDrive(drive).mountDiskImage(diskImageFileUri, isReadOnly);
+        computer.getInputJournal().recordDiskMount(diskImageFileUri, drive, isReadOnly);
     }
 
     /**
@@ -1105,6 +1069,7 @@ public class FloppyController implements Device {
      */
     public synchronized void unmountDiskImage(FloppyDriveIdentifier drive) throws Exception {
         getFloppyDrive(drive).unmountDiskImage();
+        computer.getInputJournal().recordDiskUnmount(drive);
     }
 
     /**
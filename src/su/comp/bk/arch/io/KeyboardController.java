@@ -18,12 +18,16 @@
  */
 package su.comp.bk.arch.io;
 
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicReference;
+
 import su.comp.bk.R;
 import su.comp.bk.arch.Computer;
 import su.comp.bk.arch.cpu.Cpu;
 import su.comp.bk.ui.keyboard.ModifierButton;
 import android.annotation.SuppressLint;
-import android.os.Bundle;
 import android.util.Log;
 import android.view.KeyEvent;
 import android.view.MotionEvent;
@@ -72,13 +76,6 @@ public class KeyboardController implements Device, OnTouchListener {
     // Constant: No code generated by controller for given BK key
     private final static int BK_KEY_CODE_NONE = -1;
 
-    // State save/restore: Status register value
-    private static final String STATE_STATUS_REGISTER =
-            KeyboardController.class.getName() + "#status_reg";
-    // State save/restore: STOP button is blocked flag value
-    private static final String STATE_STOP_BUTTON_ENABLED_FLAG =
-            KeyboardController.class.getName() + "#stop_button_enabled";
-
     // Low register modifier key codes lookup table
     private static final byte[] lowRegisterKeyCodeTable = new byte[256];
 
@@ -115,6 +112,13 @@ public class KeyboardController implements Device, OnTouchListener {
     // Last button press timestamp (in CPU clock ticks)
     private long lastButtonPressTimestamp = -1L;
 
+    // Active autotype text (set from UI thread, typed from emulation thread)
+    private final AtomicReference<Autotype> autotype = new AtomicReference<Autotype>();
+    // Autotype text being typed (picked up on timer, accessed from emulation thread only)
+    private Autotype typingAutotype;
+    // Autotype key was pressed and not released yet flag
+    private boolean isAutotypeKeyPressed;
+
     private final Computer computer;
 
     private final boolean isComputerBk11m;
@@ -163,49 +167,49 @@ public class KeyboardController implements Device, OnTouchListener {
 
         // Buttons - third row
         TAB(0211, KeyEvent.KEYCODE_TAB),  // Tabulation (ТАБ)
-        J(0112, KeyEvent.KEYCODE_J),  // Й J
-        C(0103, KeyEvent.KEYCODE_C),  // Ц C
-        U(0125, KeyEvent.KEYCODE_U),  // У U
-        K(0113, KeyEvent.KEYCODE_K),  // К K
-        E(0105, KeyEvent.KEYCODE_E),  // Е E
-        N(0116, KeyEvent.KEYCODE_N),  // Н N
-        G(0107, KeyEvent.KEYCODE_G),  // Г G
-        LEFT_BRACKET(0133, KeyEvent.KEYCODE_LEFT_BRACKET),  // Ш [
-        RIGHT_BRACKET(0135, KeyEvent.KEYCODE_RIGHT_BRACKET),  // Щ ]
-        Z(0132, KeyEvent.KEYCODE_Z),  // З Z
-        H(0110, KeyEvent.KEYCODE_H),  // Х H
+        J(0112, KeyEvent.KEYCODE_J, 'Й'),  // Й J
+        C(0103, KeyEvent.KEYCODE_C, 'Ц'),  // Ц C
+        U(0125, KeyEvent.KEYCODE_U, 'У'),  // У U
+        K(0113, KeyEvent.KEYCODE_K, 'К'),  // К K
+        E(0105, KeyEvent.KEYCODE_E, 'Е'),  // Е E
+        N(0116, KeyEvent.KEYCODE_N, 'Н'),  // Н N
+        G(0107, KeyEvent.KEYCODE_G, 'Г'),  // Г G
+        LEFT_BRACKET(0133, KeyEvent.KEYCODE_LEFT_BRACKET, 'Ш'),  // Ш [
+        RIGHT_BRACKET(0135, KeyEvent.KEYCODE_RIGHT_BRACKET, 'Щ'),  // Щ ]
+        Z(0132, KeyEvent.KEYCODE_Z, 'З'),  // З Z
+        H(0110, KeyEvent.KEYCODE_H, 'Х'),  // Х H
         COLON(0072, KeyEvent.KEYCODE_APOSTROPHE),  // : *
-        RIGHT_CURLY_BRACKET(0137, KeyEvent.KEYCODE_GRAVE),  // Ъ }
+        RIGHT_CURLY_BRACKET(0137, KeyEvent.KEYCODE_GRAVE, 'Ъ'),  // Ъ }
         LINE_RETURN(0023, KeyEvent.KEYCODE_PAGE_DOWN), // ВС
 
         // Buttons - fourth row
         CTRL_SYMBOL(BK_KEY_CODE_NONE, KeyEvent.KEYCODE_CTRL_LEFT),  // Control symbol (СУ)
-        F(0106, KeyEvent.KEYCODE_F),  // Ф F
-        Y(0131, KeyEvent.KEYCODE_Y),  // Ы Y
-        W(0127, KeyEvent.KEYCODE_W),  // В W
-        A(0101, KeyEvent.KEYCODE_A),  // А A
-        P(0120, KeyEvent.KEYCODE_P),  // П P
-        R(0122, KeyEvent.KEYCODE_R),  // Р R
-        O(0117, KeyEvent.KEYCODE_O),  // О O
-        L(0114, KeyEvent.KEYCODE_L),  // Л L
-        D(0104, KeyEvent.KEYCODE_D),  // Д D
-        V(0126, KeyEvent.KEYCODE_V),  // Ж V
-        BACKSLASH(0134, KeyEvent.KEYCODE_BACKSLASH),  // Э Backslash
+        F(0106, KeyEvent.KEYCODE_F, 'Ф'),  // Ф F
+        Y(0131, KeyEvent.KEYCODE_Y, 'Ы'),  // Ы Y
+        W(0127, KeyEvent.KEYCODE_W, 'В'),  // В W
+        A(0101, KeyEvent.KEYCODE_A, 'А'),  // А A
+        P(0120, KeyEvent.KEYCODE_P, 'П'),  // П P
+        R(0122, KeyEvent.KEYCODE_R, 'Р'),  // Р R
+        O(0117, KeyEvent.KEYCODE_O, 'О'),  // О O
+        L(0114, KeyEvent.KEYCODE_L, 'Л'),  // Л L
+        D(0104, KeyEvent.KEYCODE_D, 'Д'),  // Д D
+        V(0126, KeyEvent.KEYCODE_V, 'Ж'),  // Ж V
+        BACKSLASH(0134, KeyEvent.KEYCODE_BACKSLASH, 'Э'),  // Э Backslash
         PERIOD(0056, KeyEvent.KEYCODE_PERIOD),  // . >
         ENTER(0012, KeyEvent.KEYCODE_ENTER),  // ENTER
 
         // Buttons - fifth row
         UPPERCASE(BK_KEY_CODE_NONE, KEY_CODE_NONE),  // Uppercase mode (ЗАГЛ)
         LOWERCASE(BK_KEY_CODE_NONE, KEY_CODE_NONE),  // Lowercase mode (СТР)
-        Q(0121, KeyEvent.KEYCODE_Q),  // Я Q
-        ACCENT(0136, KeyEvent.KEYCODE_SLASH),  // Ч ^
-        S(0123, KeyEvent.KEYCODE_S),  // С S
-        M(0115, KeyEvent.KEYCODE_M),  // М M
-        I(0111, KeyEvent.KEYCODE_I),  // И I
-        T(0124, KeyEvent.KEYCODE_T),  // Т T
-        X(0130, KeyEvent.KEYCODE_X),  // Ь X
-        B(0102, KeyEvent.KEYCODE_B),  // Б B
-        COMMERCIAL_AT(0100, KeyEvent.KEYCODE_DPAD_CENTER),  // Ю @
+        Q(0121, KeyEvent.KEYCODE_Q, 'Я'),  // Я Q
+        ACCENT(0136, KeyEvent.KEYCODE_SLASH, 'Ч'),  // Ч ^
+        S(0123, KeyEvent.KEYCODE_S, 'С'),  // С S
+        M(0115, KeyEvent.KEYCODE_M, 'М'),  // М M
+        I(0111, KeyEvent.KEYCODE_I, 'И'),  // И I
+        T(0124, KeyEvent.KEYCODE_T, 'Т'),  // Т T
+        X(0130, KeyEvent.KEYCODE_X, 'Ь'),  // Ь X
+        B(0102, KeyEvent.KEYCODE_B, 'Б'),  // Б B
+        COMMERCIAL_AT(0100, KeyEvent.KEYCODE_DPAD_CENTER, 'Ю'),  // Ю @
         COMMA(0054, KeyEvent.KEYCODE_COMMA),  // , <
 
         // Buttons - sixth row and arrows block
@@ -220,10 +224,17 @@ public class KeyboardController implements Device, OnTouchListener {
 
         private final int bkKeyCode;
         private final int androidKeyCode;
+        // Uppercase Cyrillic letter typed in Russian mode (0 if none)
+        private final char cyrillicLetter;
 
         BkButton(int bkKeyCode, int androidKeyCode) {
+            this(bkKeyCode, androidKeyCode, (char) 0);
+        }
+
+        BkButton(int bkKeyCode, int androidKeyCode, char cyrillicLetter) {
             this.bkKeyCode = bkKeyCode;
             this.androidKeyCode = androidKeyCode;
+            this.cyrillicLetter = cyrillicLetter;
         }
 
         public int getBkKeyCode() {
@@ -234,6 +245,23 @@ public class KeyboardController implements Device, OnTouchListener {
             return androidKeyCode;
         }
 
+        public char getCyrillicLetter() {
+            return cyrillicLetter;
+        }
+
+        public static BkButton getByCyrillicLetter(char cyrillicLetter) {
+            BkButton result = null;
+            char upperCaseLetter = Character.toUpperCase(cyrillicLetter);
+            for (BkButton code: values()) {
+                if (code.getCyrillicLetter() != 0 &&
+                        code.getCyrillicLetter() == upperCaseLetter) {
+                    result = code;
+                    break;
+                }
+            }
+            return result;
+        }
+
         public static BkButton getByAndroidKeyCode(int androidKeyCode) {
             BkButton result = null;
             for (BkButton code: values()) {
@@ -340,7 +368,71 @@ public class KeyboardController implements Device, OnTouchListener {
 
     @Override
     public void timer(long cpuTime) {
-        // Do nothing
+        if (typingAutotype == null) {
+            typingAutotype = autotype.get();
+        }
+        checkAutotype();
+    }
+
+    /**
+     * Start typing given text. Text is typed as fast as the program reads typed key codes,
+     * previous autotype text typing is cancelled. Must be called from UI thread only.
+     * @param text text to type
+     * @return started {@link Autotype} text
+     */
+    public Autotype startAutotype(String text) {
+        Autotype newAutotype = new Autotype(text, isLatinMode());
+        // Keyboard mode is switched by typed key codes
+        setLatinMode(newAutotype.isLatinModeAtEnd());
+        Autotype oldAutotype = autotype.getAndSet(newAutotype);
+        if (oldAutotype != null) {
+            oldAutotype.cancel();
+        }
+        return newAutotype;
+    }
+
+    /**
+     * Cancel typing of active autotype text, if any.
+     */
+    public void cancelAutotype() {
+        Autotype currentAutotype = autotype.get();
+        if (currentAutotype != null) {
+            currentAutotype.cancel();
+        }
+    }
+
+    /**
+     * Check is autotype text typing is active.
+     * @return <code>true</code> if autotype text is typing, <code>false</code> otherwise
+     */
+    public boolean isAutotypeActive() {
+        Autotype currentAutotype = autotype.get();
+        return currentAutotype != null && !currentAutotype.isFinished();
+    }
+
+    /**
+     * Type next autotype key code if previous key code was read by the program.
+     * Called from emulation thread after each executed instruction. Autotype text
+     * started from UI thread is picked up on timer only (next to input queue draining),
+     * then key codes are injected at the first instruction boundary after the program
+     * reads previous key code, so input journal replay is deterministic.
+     */
+    public void checkAutotype() {
+        Autotype currentAutotype = typingAutotype;
+        if (currentAutotype == null || isStatusRegisterDataReady()) {
+            return;
+        }
+        if (currentAutotype.isFinished()) {
+            autotype.compareAndSet(currentAutotype, null);
+            typingAutotype = null;
+            if (isAutotypeKeyPressed) {
+                isAutotypeKeyPressed = false;
+                applyKey(0, false);
+            }
+        } else {
+            isAutotypeKeyPressed = true;
+            applyKey(currentAutotype.nextKeyCode(), true);
+        }
     }
 
     protected int getLowRegisterKeyCode(int keyCode) {
@@ -379,7 +471,6 @@ public class KeyboardController implements Device, OnTouchListener {
     protected void setButtonPressed(long cpuTime, boolean isPressed) {
         this.isButtonPressed = isPressed;
         if (isPressed) {
-            this.wasButtonPressed = true;
             this.lastButtonPressTimestamp = cpuTime;
         }
     }
@@ -518,13 +609,15 @@ public class KeyboardController implements Device, OnTouchListener {
     }
 
     /**
-     * Handle BK keyboard button key press/release.
+     * Handle BK keyboard button key press/release. Must be called from UI thread only
+     * (as the only {@link su.comp.bk.arch.InputQueue} producer), resulting key
+     * press/release is applied to keyboard controller from computer emulation thread.
      * @param bkButton {@link BkButton} to handle
      * @param isPressed <code>true</code> if button was pressed, <code>false</code> if released
      * @return <code>true</code> if key code was handled by keyboard controller,
      * <code>false</code> otherwise
      */
-    public synchronized boolean handleBkButton(BkButton bkButton, boolean isPressed) {
+    public boolean handleBkButton(BkButton bkButton, boolean isPressed) {
         boolean isKeyCodeHandled = false;
         if (bkButton != null) {
             int bkKeyCode = bkButton.getBkKeyCode();
@@ -545,18 +638,17 @@ public class KeyboardController implements Device, OnTouchListener {
                         bkKeyCode = getLowRegisterKeyCode(bkKeyCode);
                     }
                 }
-                // Set button pressed state
-                setButtonPressed(computer.getCpu().getTime(), isPressed);
-                // Write new key code to data register only if previous key code was read
-                if (isPressed && !isStatusRegisterDataReady()) {
-                    writeDataRegister(isAr2Pressed() ? (bkKeyCode | 0200) : bkKeyCode);
+                if (isPressed) {
+                    this.wasButtonPressed = true;
                 }
+                computer.getInputQueue().postKey(isAr2Pressed() ? (bkKeyCode | 0200) : bkKeyCode,
+                        isPressed);
             } else {
                 // Handle special buttons
                 switch (bkButton) {
                     case STOP:
-                        if (isPressed && isStopButtonEnabled()) {
-                            computer.getCpu().requestIrq1();
+                        if (isPressed) {
+                            computer.getInputQueue().postStopButtonPress();
                         }
                         break;
                     case LOW_REGISTER:
@@ -599,6 +691,31 @@ public class KeyboardController implements Device, OnTouchListener {
         return isKeyCodeHandled;
     }
 
+    /**
+     * Apply BK keyboard key press/release. Must be called from computer emulation thread.
+     * @param bkKeyCode pressed key code (ignored for key release)
+     * @param isPressed <code>true</code> if key was pressed, <code>false</code> if released
+     */
+    public void applyKey(int bkKeyCode, boolean isPressed) {
+        computer.getInputJournal().recordKey(bkKeyCode, isPressed);
+        // Set button pressed state
+        setButtonPressed(computer.getCpu().getTime(), isPressed);
+        // Write new key code to data register only if previous key code was read
+        if (isPressed && !isStatusRegisterDataReady()) {
+            writeDataRegister(bkKeyCode);
+        }
+    }
+
+    /**
+     * Apply BK keyboard STOP button press. Must be called from computer emulation thread.
+     */
+    public void applyStopButtonPress() {
+        computer.getInputJournal().recordStopButtonPress();
+        if (isStopButtonEnabled()) {
+            computer.getCpu().requestIrq1();
+        }
+    }
+
     private static boolean isLetterButton(int bkKeyCode) {
         return ('A' <= bkKeyCode && bkKeyCode <= 'Z') || ('a' <= bkKeyCode && bkKeyCode <= 'z')
                 || (bkKeyCode == 0137) || (bkKeyCode == 0177) // Ъ
@@ -607,17 +724,22 @@ public class KeyboardController implements Device, OnTouchListener {
     }
 
     @Override
-    public void saveState(Bundle outState) {
-        // Save VIRQ mask state from status register
-        outState.putInt(STATE_STATUS_REGISTER, readStatusRegister() & STATUS_VIRQ_MASK);
-        // Save STOP button enabled flag state
-        outState.putBoolean(STATE_STOP_BUTTON_ENABLED_FLAG, isStopButtonEnabled());
+    public void saveState(DataOutput out) throws IOException {
+        out.writeShort(readStatusRegister());
+        out.writeShort(dataRegister);
+        out.writeBoolean(isStopButtonEnabled());
+        out.writeBoolean(isLatinMode());
+        out.writeBoolean(isUppercaseMode());
     }
 
     @Override
-    public void restoreState(Bundle inState) {
-        writeStatusRegister(inState.getInt(STATE_STATUS_REGISTER));
-        setStopButtonEnabled(inState.getBoolean(STATE_STOP_BUTTON_ENABLED_FLAG));
+    public void restoreState(DataInput in) throws IOException {
+        // Data ready VIRQ request state is restored by CPU
+        statusRegister = in.readUnsignedShort() & (STATUS_VIRQ_MASK | STATUS_DATA_READY);
+        dataRegister = in.readUnsignedShort();
+        setStopButtonEnabled(in.readBoolean());
+        setLatinMode(in.readBoolean());
+        setUppercaseMode(in.readBoolean());
     }
 
 }
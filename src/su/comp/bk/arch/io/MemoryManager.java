@@ -19,9 +19,11 @@
  */
 package su.comp.bk.arch.io;
 
+import java.io.DataInput;
+import java.io.DataOutput;
+
 import su.comp.bk.arch.cpu.Cpu;
 import su.comp.bk.arch.memory.PagedMemory;
-import android.os.Bundle;
 
 /**
  * BK-0011M memory manager.
@@ -72,15 +74,13 @@ public class MemoryManager implements Device {
     }
 
     @Override
-    public void saveState(Bundle outState) {
-        // TODO Auto-generated method stub
-
+    public void saveState(DataOutput out) {
+        // Do nothing, active pages are saved by paged memories
     }
 
     @Override
-    public void restoreState(Bundle inState) {
-        // TODO Auto-generated method stub
-
+    public void restoreState(DataInput in) {
+        // Do nothing
     }
 
     @Override
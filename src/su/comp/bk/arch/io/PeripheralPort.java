@@ -18,8 +18,11 @@
  */
 package su.comp.bk.arch.io;
 
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
 import su.comp.bk.arch.Computer;
-import android.os.Bundle;
 import android.util.Log;
 import android.view.MotionEvent;
 import android.view.View;
@@ -110,24 +113,24 @@ public class PeripheralPort implements Device, OnTouchListener {
     }
 
     @Override
-    public void saveState(Bundle outState) {
-        // Do nothing
+    public void saveState(DataOutput out) throws IOException {
+        out.writeShort(getState());
     }
 
     @Override
-    public void restoreState(Bundle inState) {
-        // Do nothing
+    public void restoreState(DataInput in) throws IOException {
+        setState(in.readUnsignedShort());
     }
 
     private void resetState(long cpuTime) {
         setState(0);
     }
 
-    private synchronized int getState() {
+    private int getState() {
         return state;
     }
 
-    private synchronized void setState(int state) {
+    private void setState(int state) {
         this.state = state;
     }
 
@@ -176,6 +179,16 @@ public class PeripheralPort implements Device, OnTouchListener {
     }
 
     private void handleJoystickButton(JoystickButton joystickButton, boolean isPressed) {
+        computer.getInputQueue().postJoystickButton(joystickButton, isPressed);
+    }
+
+    /**
+     * Apply joystick button press/release. Must be called from computer emulation thread.
+     * @param joystickButton {@link JoystickButton} to apply
+     * @param isPressed <code>true</code> if button was pressed, <code>false</code> if released
+     */
+    public void applyJoystickButton(JoystickButton joystickButton, boolean isPressed) {
+        computer.getInputJournal().recordJoystickButton(joystickButton, isPressed);
         int currentState = getState();
         if (isPressed) {
             setState(currentState | joystickButton.getJoystickButtonMask());
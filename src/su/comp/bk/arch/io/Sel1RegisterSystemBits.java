@@ -18,7 +18,10 @@
  */
 package su.comp.bk.arch.io;
 
-import android.os.Bundle;
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
 import su.comp.bk.arch.cpu.Cpu;
 
 /**
@@ -75,13 +78,13 @@ public class Sel1RegisterSystemBits implements Device {
 
 
     @Override
-    public void saveState(Bundle outState) {
-        // TODO
+    public void saveState(DataOutput out) throws IOException {
+        out.writeShort(state);
     }
 
     @Override
-    public void restoreState(Bundle inState) {
-        // TODO
+    public void restoreState(DataInput in) throws IOException {
+        state = in.readUnsignedShort();
     }
 
 }
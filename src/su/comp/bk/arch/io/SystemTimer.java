@@ -19,9 +19,12 @@
  */
 package su.comp.bk.arch.io;
 
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
 import su.comp.bk.arch.Computer;
 import su.comp.bk.arch.cpu.Cpu;
-import android.os.Bundle;
 
 /**
  * BK0011 system timer (50 Hz, connected to CPU IRQ2 pin).
@@ -39,12 +42,6 @@ public class SystemTimer implements Device {
     /** Timer state enabled flag */
     public final static int STATE_ENABLED_FLAG = (1 << 14);
 
-    // State save/restore: Timer interrupt enabled state
-    private static final String STATE_IRQ_ENABLED = SystemTimer.class.getName() + "#irq_enabled";
-    // State save/restore: Last timer event timestamp
-    private static final String STATE_LAST_TIMER_EVENT_TIMESTAMP = SystemTimer.class.getName() +
-            "#last_timer_event_timestamp";
-
     private final Cpu cpu;
 
     private final long timerPeriod;
@@ -89,15 +86,15 @@ public class SystemTimer implements Device {
     }
 
     @Override
-    public void saveState(Bundle outState) {
-        outState.putBoolean(STATE_IRQ_ENABLED, isInterruptEnabled());
-        outState.putLong(STATE_LAST_TIMER_EVENT_TIMESTAMP, getLastTimerEventTimestamp());
+    public void saveState(DataOutput out) throws IOException {
+        out.writeBoolean(isInterruptEnabled());
+        out.writeLong(getLastTimerEventTimestamp());
     }
 
     @Override
-    public void restoreState(Bundle inState) {
-        setInterruptEnabled(inState.getBoolean(STATE_IRQ_ENABLED));
-        setLastTimerEventTimestamp(inState.getLong(STATE_LAST_TIMER_EVENT_TIMESTAMP));
+    public void restoreState(DataInput in) throws IOException {
+        setInterruptEnabled(in.readBoolean());
+        setLastTimerEventTimestamp(in.readLong());
     }
 
     @Override
@@ -18,7 +18,9 @@
  */
 package su.comp.bk.arch.io;
 
-import android.os.Bundle;
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
 
 /**
  * K1801VM1 on-chip timer (legacy of K1801VE1 MCU).
@@ -64,19 +66,6 @@ public class Timer implements Device {
     /** CPU clock prescaler divide ratio */
     public final static int PRESCALER = 128;
 
-    // State save/restore: Preset register value
-    private static final String STATE_PRESET_REGISTER = Timer.class.getName() +
-            "#preset_reg";
-    // State save/restore: Control register value
-    private static final String STATE_CONTROL_REGISTER = Timer.class.getName() +
-            "#control_reg";
-    // State save/restore: Last timer settings change time (in CPU clock ticks)
-    private static final String STATE_SETTINGS_CHANGE_TIME = Timer.class.getName() +
-            "#settings_change_time";
-    // State save/restore: Counter start value
-    private static final String STATE_COUNTER_START_VALUE = Timer.class.getName() +
-            "#counter_start_value";
-
     private final static int[] ADDRESSES = {
         PRESET_REGISTER_ADDRESS, COUNTER_REGISTER_ADDRESS, CONTROL_REGISTER_ADDRESS
     };
@@ -118,19 +107,19 @@ public class Timer implements Device {
     }
 
     @Override
-    public void saveState(Bundle outState) {
-        outState.putInt(STATE_PRESET_REGISTER, presetRegister);
-        outState.putInt(STATE_CONTROL_REGISTER, controlRegister);
-        outState.putInt(STATE_COUNTER_START_VALUE, counterStartValue);
-        outState.putLong(STATE_SETTINGS_CHANGE_TIME, settingsChangeTime);
+    public void saveState(DataOutput out) throws IOException {
+        out.writeShort(presetRegister);
+        out.writeShort(controlRegister);
+        out.writeShort(counterStartValue);
+        out.writeLong(settingsChangeTime);
     }
 
     @Override
-    public void restoreState(Bundle inState) {
-        presetRegister = inState.getInt(STATE_PRESET_REGISTER);
-        controlRegister = inState.getInt(STATE_CONTROL_REGISTER);
-        counterStartValue = inState.getInt(STATE_COUNTER_START_VALUE);
-        settingsChangeTime = inState.getLong(STATE_SETTINGS_CHANGE_TIME);
+    public void restoreState(DataInput in) throws IOException {
+        presetRegister = in.readUnsignedShort();
+        controlRegister = in.readUnsignedShort();
+        counterStartValue = in.readUnsignedShort();
+        settingsChangeTime = in.readLong();
     }
 
     @Override
@@ -18,10 +18,16 @@
  */
 package su.comp.bk.arch.io;
 
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
 import su.comp.bk.arch.memory.Memory;
-import android.graphics.Bitmap;
+import su.comp.bk.arch.memory.PagedMemory;
 import android.graphics.Color;
-import android.os.Bundle;
 
 /**
  * BK-0010 video output controller (К1801ВП1-037).
@@ -87,28 +93,93 @@ public class VideoController implements Device {
         { Color.BLACK, Color.CYAN, Color.GREEN, Color.WHITE }
     };
 
-    // Current color palette index
-    private int colorPaletteIndex = 0;
-    // Active color palette index
-    private int activeColorPaletteIndex = 0;
-
-    // VideoRAM data byte to corresponding pixels lookup table
-    private final int[] videoDataToPixelsTable = new int[8 * 256];
-
-    // State save/restore: color/bw mode flag value
-    private static final String STATE_COLOR_MODE =
-            VideoController.class.getName() + "#color_mode";
-
-    // State save/restore: scroll register value
-    private static final String STATE_SCROLL_REGISTER =
-            VideoController.class.getName() + "#scroll_reg";
+    /** Indexed frame palette of black and white mode lines (color mode lines palette
+     * is color palette index) */
+    public final static int INDEXED_FRAME_PALETTE_BW = PIXEL_PALETTES_COLOR.length;
+    /** Indexed frame line length (in videoRAM words) */
+    public final static int INDEXED_FRAME_LINE_LENGTH = SCREEN_SCANLINE_LENGTH;
+
+    // VideoRAM data byte to corresponding pixels (ARGB) lookup tables for color mode
+    // palettes and black and white mode (indexed by indexed frame palette)
+    private final static int[][] VIDEO_DATA_TO_PIXELS_TABLES =
+            new int[INDEXED_FRAME_PALETTE_BW + 1][];
+    // VideoRAM data byte to corresponding pixels (RGB_565) lookup tables
+    private final static short[][] VIDEO_DATA_TO_RGB565_PIXELS_TABLES =
+            new short[INDEXED_FRAME_PALETTE_BW + 1][];
+
+    static {
+        for (int paletteIndex = 0; paletteIndex < PIXEL_PALETTES_COLOR.length; paletteIndex++) {
+            VIDEO_DATA_TO_PIXELS_TABLES[paletteIndex] = createVideoDataToPixelsTable(
+                    PIXEL_PALETTES_COLOR[paletteIndex], SCREEN_BPP_COLOR, PIXEL_MASK_COLOR,
+                    SCREEN_PPW_COLOR, PIXELS_PER_SCREEN_PIXEL_COLOR);
+        }
+        VIDEO_DATA_TO_PIXELS_TABLES[INDEXED_FRAME_PALETTE_BW] =
+                createVideoDataToPixelsTable(PIXEL_PALETTE_BW, SCREEN_BPP_BW, PIXEL_MASK_BW,
+                        SCREEN_PPW_BW, PIXELS_PER_SCREEN_PIXEL_BW);
+        for (int palette = 0; palette < VIDEO_DATA_TO_PIXELS_TABLES.length; palette++) {
+            int[] table = VIDEO_DATA_TO_PIXELS_TABLES[palette];
+            short[] rgb565Table = new short[table.length];
+            for (int i = 0; i < table.length; i++) {
+                rgb565Table[i] = toRgb565(table[i]);
+            }
+            VIDEO_DATA_TO_RGB565_PIXELS_TABLES[palette] = rgb565Table;
+        }
+    }
 
-    // State save/restore: palette index value
-    private static final String STATE_PALETTE_INDEX =
-            VideoController.class.getName() + "#palette_index";
+    // Current color palette index
+    private volatile int colorPaletteIndex = 0;
+
+    // Current videoRAM data byte to corresponding pixels lookup table index
+    private volatile int videoDataToPixelsTableIndex;
+
+    /** Raster mode: total scan lines per frame (including vertical blanking) */
+    public final static int RASTER_FRAME_LINES = 320;
+    // Raster state log maximum size (further register changes in frame are applied
+    // from the frame end)
+    private final static int RASTER_STATE_LOG_SIZE = 256;
+    // Raster state bit fields: scroll register value (bits 0-9), pixels lookup table
+    // index (bits 10-14), video memory page index (bits 15-16), first scan line (bits 17-25)
+    private final static int RASTER_STATE_SCROLL_REGISTER_MASK = EXTMEM_CONTROL_BIT | 0377;
+    private final static int RASTER_STATE_PIXELS_TABLE_SHIFT = 10;
+    private final static int RASTER_STATE_PIXELS_TABLE_MASK = 037;
+    private final static int RASTER_STATE_PAGE_SHIFT = 15;
+    private final static int RASTER_STATE_PAGE_MASK = 3;
+    private final static int RASTER_STATE_LINE_SHIFT = 17;
+    private final static int RASTER_STATE_LINE_MASK = 0777;
+
+    // Raster mode flag: true to apply video registers state per scan line
+    private volatile boolean isRasterMode;
+    // Raster state log: video registers state before each change in current frame
+    // and CPU time of change (used by emulation thread only)
+    private final int[] rasterStateLog = new int[RASTER_STATE_LOG_SIZE];
+    private final long[] rasterStateLogCpuTimes = new long[RASTER_STATE_LOG_SIZE];
+    private int rasterStateLogLength;
+    // Last published frame end CPU time (in clock ticks, -1 if no frames published
+    // by frame clock yet)
+    private long lastFrameEndCpuTime = -1L;
+
+    // Number of frame buffers (published frames are triple buffered)
+    private final static int NUM_FRAME_BUFFERS = 3;
+    // Frame buffers exchange state: published frame buffer index mask
+    private final static int FRAME_BUFFER_INDEX_MASK = 3;
+    // Frame buffers exchange state: published frame is not taken for rendering flag
+    private final static int FRAME_BUFFER_UPDATED = 4;
+
+    // Frame buffers video data (per video memory page)
+    private final short[][][] frameBufferVideoData;
+    // Frame buffers raster states (one state per scan lines range with the same
+    // video registers state, ordered by first scan line)
+    private final int[][] frameBufferRasterStates = new int[NUM_FRAME_BUFFERS][];
+    private final int[] frameBufferRasterStateCounts = new int[NUM_FRAME_BUFFERS];
+    // Frame buffer index to publish next frame to (used by emulation thread only)
+    private int publishingFrameBufferIndex = 0;
+    // Frame buffers exchange state: last published frame buffer index and updated flag
+    private final AtomicInteger frameBufferExchangeState = new AtomicInteger(1);
+    // Frame buffer index to render frame from (used by rendering thread only)
+    private int renderingFrameBufferIndex = 2;
 
     // Screen mode flag: true for color mode, false for black and white mode
-    private boolean isColorMode;
+    private volatile boolean isColorMode;
 
     // Scroll register value
     private int scrollRegister;
@@ -116,29 +187,82 @@ public class VideoController implements Device {
     // Video memory reference
     private final Memory videoMemory;
 
-    // Video buffer width (in pixels)
-    private final static int VIDEO_BUFFER_WIDTH = 512;
-    // Video buffer height (in pixels)
-    private final static int VIDEO_BUFFER_HEIGHT = 256;
+    /** Video buffer width (in pixels) */
+    public final static int VIDEO_BUFFER_WIDTH = 512;
+    /** Video buffer height (in pixels) */
+    public final static int VIDEO_BUFFER_HEIGHT = 256;
     // Video buffer pixels per videoRAM word
     private final static int VIDEO_BUFFER_PIXELS_PER_WORD = Short.SIZE;
-    // Video buffer bitmap object
-    private final Bitmap videoBuffer;
+    // Video buffer output format flag: true for RGB_565 pixels, false for ARGB pixels
+    private volatile boolean isVideoBufferRgb565;
+    // Video buffer pixels (ARGB or RGB_565, allocated on first rendering in given format)
+    private int[] videoBuffer;
+    private short[] videoBufferRgb565;
+
+    // Video buffer line rendered as blank (not displayed video data line)
+    private final static int BLANK_LINE = -1;
+    // Indexed frame: video data rendered to video buffer lines (blank lines are zeroed)
+    private final short[] renderedVideoData =
+            new short[VIDEO_BUFFER_HEIGHT * SCREEN_SCANLINE_LENGTH];
+    // Video data line numbers and indexed frame palettes rendered to video buffer lines
+    private final int[] renderedVideoDataLines = new int[VIDEO_BUFFER_HEIGHT];
+    private final int[] renderedLinePalettes = new int[VIDEO_BUFFER_HEIGHT];
+    // Video data, video data line numbers and palettes of last taken frame buffer lines
+    // (used by rendering thread only)
+    private final short[][] renderingLineVideoData = new short[VIDEO_BUFFER_HEIGHT][];
+    private final int[] renderingVideoDataLines = new int[VIDEO_BUFFER_HEIGHT];
+    private final int[] renderingLinePalettes = new int[VIDEO_BUFFER_HEIGHT];
+    // Video buffer invalidation flag: true if video buffer must be fully redrawn
+    private final AtomicBoolean isVideoBufferInvalid = new AtomicBoolean(true);
+    // Number of scan lines redrawn while last video buffer rendering
+    private int lastRenderedLineCount;
+
+    /**
+     * Published frames listener.
+     */
+    public interface OnFramePublishedListener {
+        /**
+         * Called from emulation thread for each published frame. Given arrays are reused
+         * for next frames, so listener must copy needed data before returning and must
+         * not wait for anything.
+         * @param indexedFrameData published frame as indexed frame data (see
+         * {@link VideoController#getIndexedFrameData()})
+         * @param linePalettes published frame indexed frame line palettes (see
+         * {@link VideoController#getIndexedFrameLinePalette(int)})
+         */
+        void onFramePublished(short[] indexedFrameData, int[] linePalettes);
+    }
+
+    // Published frames listener (used by emulation thread only)
+    private OnFramePublishedListener onFramePublishedListener;
+    // Published frame lines video data, video data line numbers and palettes,
+    // and published frame indexed frame data (used by emulation thread only)
+    private short[][] publishedLineVideoData;
+    private int[] publishedVideoDataLines;
+    private int[] publishedLinePalettes;
+    private short[] publishedIndexedFrameData;
 
     public VideoController(Memory videoMemory) {
         this.videoMemory = videoMemory;
-        this.videoBuffer = Bitmap.createBitmap(VIDEO_BUFFER_WIDTH, VIDEO_BUFFER_HEIGHT,
-                Bitmap.Config.ARGB_8888);
         writeScrollRegister(SCROLL_EXTMEM_VALUE);
         setColorMode(true);
+        int numPages = (videoMemory instanceof PagedMemory)
+                ? ((PagedMemory) videoMemory).getPages().length : 1;
+        frameBufferVideoData = new short[NUM_FRAME_BUFFERS][numPages][];
+        for (int frameBufferIndex = 0; frameBufferIndex < NUM_FRAME_BUFFERS;
+                frameBufferIndex++) {
+            frameBufferRasterStates[frameBufferIndex] = new int[RASTER_STATE_LOG_SIZE + 1];
+        }
+        publishFrame();
     }
 
     public int getColorPaletteIndex() {
         return colorPaletteIndex;
     }
 
-    void setColorPaletteIndex(int paletteIndex) {
+    synchronized void setColorPaletteIndex(int paletteIndex) {
         this.colorPaletteIndex = paletteIndex;
+        updateVideoDataToPixelsTable();
     }
 
     public boolean isColorMode() {
@@ -147,78 +271,532 @@ public class VideoController implements Device {
 
     public synchronized void setColorMode(boolean isColorMode) {
         this.isColorMode = isColorMode;
-        activeColorPaletteIndex = colorPaletteIndex;
         updateVideoDataToPixelsTable();
     }
 
     private void updateVideoDataToPixelsTable() {
-        synchronized (videoDataToPixelsTable) {
-            int pixelTabIdx = 0;
-            int bitsPerPixel = isColorMode ? SCREEN_BPP_COLOR : SCREEN_BPP_BW;
-            int[] pixelPalette = isColorMode ? PIXEL_PALETTES_COLOR[activeColorPaletteIndex]
-                    : PIXEL_PALETTE_BW;
-            int pixelMask = isColorMode ? PIXEL_MASK_COLOR : PIXEL_MASK_BW;
-            int pixelsPerByte = (isColorMode ? SCREEN_PPW_COLOR : SCREEN_PPW_BW) / 2;
-            int pixelsPerScreenPixel = isColorMode ? PIXELS_PER_SCREEN_PIXEL_COLOR
-                    : PIXELS_PER_SCREEN_PIXEL_BW;
-            for (int videoDataByte = 0; videoDataByte < 256; videoDataByte++) {
-                for (int videoDataBytePixelIndex = 0; videoDataBytePixelIndex < pixelsPerByte;
-                        videoDataBytePixelIndex++) {
-                    int pixelPaletteIndex = (videoDataByte >>> (videoDataBytePixelIndex
-                            * bitsPerPixel)) & pixelMask;
-                    int pixelColor = pixelPalette[pixelPaletteIndex];
-                    for (int pixelIndex = 0; pixelIndex < pixelsPerScreenPixel; pixelIndex++) {
-                        videoDataToPixelsTable[pixelTabIdx++] = pixelColor;
-                    }
+        videoDataToPixelsTableIndex = isColorMode ? colorPaletteIndex
+                : INDEXED_FRAME_PALETTE_BW;
+    }
+
+    public boolean isRasterMode() {
+        return isRasterMode;
+    }
+
+    /**
+     * Set raster mode. In raster mode video registers (scroll register, palette and
+     * screen page) changes are stamped with CPU time and applied to published frame
+     * from the corresponding scan line, so split screen effects are displayed.
+     * @param isRasterMode <code>true</code> to enable raster mode,
+     * <code>false</code> to apply video registers state at frame end to whole frame
+     */
+    public void setRasterMode(boolean isRasterMode) {
+        this.isRasterMode = isRasterMode;
+    }
+
+    /**
+     * Record current video registers state to raster state log before registers change.
+     * Must be called from emulation thread only.
+     * @param cpuTime CPU time of video registers change (in clock ticks)
+     */
+    void recordRasterState(long cpuTime) {
+        if (isRasterMode && rasterStateLogLength < RASTER_STATE_LOG_SIZE) {
+            rasterStateLog[rasterStateLogLength] = getRasterState();
+            rasterStateLogCpuTimes[rasterStateLogLength] = cpuTime;
+            rasterStateLogLength++;
+        }
+    }
+
+    private int getRasterState() {
+        // First page is displayed if no active page is selected yet
+        int pageIndex = (videoMemory instanceof PagedMemory)
+                ? Math.max(0, ((PagedMemory) videoMemory).getActivePageIndex()) : 0;
+        return readScrollRegister() | (videoDataToPixelsTableIndex
+                << RASTER_STATE_PIXELS_TABLE_SHIFT) | (pageIndex << RASTER_STATE_PAGE_SHIFT);
+    }
+
+    private static int getRasterStateFirstLine(int rasterState) {
+        return (rasterState >>> RASTER_STATE_LINE_SHIFT) & RASTER_STATE_LINE_MASK;
+    }
+
+    private static int getRasterStatePageIndex(int rasterState) {
+        return (rasterState >>> RASTER_STATE_PAGE_SHIFT) & RASTER_STATE_PAGE_MASK;
+    }
+
+    private static short toRgb565(int color) {
+        // ARGB color red, green and blue components are truncated to 5, 6 and 5 bits
+        return (short) (((color >> 8) & 0xf800) | ((color >> 5) & 0x07e0)
+                | ((color >> 3) & 0x001f));
+    }
+
+    private static int[] createVideoDataToPixelsTable(int[] pixelPalette, int bitsPerPixel,
+            int pixelMask, int pixelsPerWord, int pixelsPerScreenPixel) {
+        int[] table = new int[8 * 256];
+        int pixelTabIdx = 0;
+        int pixelsPerByte = pixelsPerWord / 2;
+        for (int videoDataByte = 0; videoDataByte < 256; videoDataByte++) {
+            for (int videoDataBytePixelIndex = 0; videoDataBytePixelIndex < pixelsPerByte;
+                    videoDataBytePixelIndex++) {
+                int pixelPaletteIndex = (videoDataByte >>> (videoDataBytePixelIndex
+                        * bitsPerPixel)) & pixelMask;
+                int pixelColor = pixelPalette[pixelPaletteIndex];
+                for (int pixelIndex = 0; pixelIndex < pixelsPerScreenPixel; pixelIndex++) {
+                    table[pixelTabIdx++] = pixelColor;
                 }
             }
         }
+        return table;
+    }
+
+    /**
+     * Invalidate video buffer, it will be fully redrawn while next rendering.
+     */
+    public void invalidateVideoBuffer() {
+        isVideoBufferInvalid.set(true);
     }
 
-    public Bitmap getVideoBuffer() {
+    public boolean isVideoBufferRgb565() {
+        return isVideoBufferRgb565;
+    }
+
+    /**
+     * Set video buffer output format. Video buffer is fully redrawn in new format
+     * while next rendering.
+     * @param isRgb565 <code>true</code> to render video buffer as RGB_565 pixels,
+     * <code>false</code> to render video buffer as ARGB pixels
+     */
+    public void setVideoBufferRgb565(boolean isRgb565) {
+        this.isVideoBufferRgb565 = isRgb565;
+        invalidateVideoBuffer();
+    }
+
+    /**
+     * Get video buffer ARGB pixels, updated by {@link #renderVideoBuffer()} if RGB_565
+     * output format is not set.
+     * @return video buffer pixels (ARGB, {@link #VIDEO_BUFFER_WIDTH} pixels per line,
+     * {@link #VIDEO_BUFFER_HEIGHT} lines) or <code>null</code> if video buffer was not
+     * rendered in ARGB format yet
+     */
+    public int[] getVideoBuffer() {
         return videoBuffer;
     }
 
-    public Bitmap renderVideoBuffer() {
-        short[] videoData;
-        synchronized (this) {
-            videoData = videoMemory.getData();
-            if (activeColorPaletteIndex != colorPaletteIndex) {
-                if (isColorMode) {
-                    activeColorPaletteIndex = colorPaletteIndex;
-                    updateVideoDataToPixelsTable();
+    /**
+     * Get video buffer RGB_565 pixels, updated by {@link #renderVideoBuffer()} if RGB_565
+     * output format is set.
+     * @return video buffer pixels (RGB_565, {@link #VIDEO_BUFFER_WIDTH} pixels per line,
+     * {@link #VIDEO_BUFFER_HEIGHT} lines) or <code>null</code> if video buffer was not
+     * rendered in RGB_565 format yet
+     */
+    public short[] getVideoBufferRgb565() {
+        return videoBufferRgb565;
+    }
+
+    /**
+     * Get indexed frame data, updated by {@link #renderVideoBuffer()}. Indexed frame
+     * contains videoRAM data of displayed scan lines ({@link #INDEXED_FRAME_LINE_LENGTH}
+     * words per line, {@link #VIDEO_BUFFER_HEIGHT} lines, blank lines are zeroed), with
+     * 2 bits per pixel in color mode lines and 1 bit per pixel in black and white mode
+     * lines (low bits are displayed first). Must be called from rendering thread only.
+     * @return indexed frame data
+     */
+    public short[] getIndexedFrameData() {
+        return renderedVideoData;
+    }
+
+    /**
+     * Get indexed frame line palette. Must be called from rendering thread only.
+     * @param line indexed frame line (0 - {@link #VIDEO_BUFFER_HEIGHT} - 1)
+     * @return color palette index for color mode line or {@link #INDEXED_FRAME_PALETTE_BW}
+     * for black and white mode line
+     */
+    public int getIndexedFrameLinePalette(int line) {
+        return renderedLinePalettes[line];
+    }
+
+    /**
+     * Get indexed frame palette colors.
+     * @param palette indexed frame palette (color palette index or
+     * {@link #INDEXED_FRAME_PALETTE_BW})
+     * @return palette colors (ARGB), indexed by pixel value
+     */
+    public static int[] getIndexedFramePaletteColors(int palette) {
+        return (palette == INDEXED_FRAME_PALETTE_BW ? PIXEL_PALETTE_BW
+                : PIXEL_PALETTES_COLOR[palette]).clone();
+    }
+
+    /**
+     * Publish current video memory data and video registers state as completed video
+     * frame to render. Video registers changes recorded in raster mode are discarded.
+     * Must be called from emulation thread only, never waits for rendering thread.
+     */
+    public void publishFrame() {
+        publishFrame(0L, 0L);
+    }
+
+    /**
+     * Publish completed video frame if given CPU time has passed the next frame boundary.
+     * Frame boundaries are multiples of the frame period on the CPU time clock (the same
+     * timebase as system timer IRQ2), so video registers changed at a fixed time after
+     * frame start are applied from the same scan line in every frame. Must be called
+     * from emulation thread only.
+     * @param cpuTime current CPU time (in clock ticks)
+     * @param frameCpuTicks frame period (in clock ticks)
+     * @return <code>true</code> if frame was published, <code>false</code> otherwise
+     */
+    public boolean checkFrame(long cpuTime, long frameCpuTicks) {
+        long frameEndCpuTime = cpuTime - cpuTime % frameCpuTicks;
+        if (frameEndCpuTime == lastFrameEndCpuTime) {
+            return false;
+        }
+        publishFrame(frameEndCpuTime - frameCpuTicks, frameEndCpuTime);
+        lastFrameEndCpuTime = frameEndCpuTime;
+        return true;
+    }
+
+    /**
+     * Publish current video memory data as completed video frame to render. In raster
+     * mode video registers changes during frame are applied from the scan lines
+     * corresponding to their CPU time, otherwise video registers state at frame end
+     * is applied to whole frame. Video registers changes recorded after frame end are
+     * kept for the next frame. Must be called from emulation thread only, never waits
+     * for rendering thread.
+     * @param frameStartCpuTime frame start CPU time (in clock ticks)
+     * @param frameEndCpuTime frame end CPU time (in clock ticks)
+     */
+    public void publishFrame(long frameStartCpuTime, long frameEndCpuTime) {
+        int[] frameRasterStates = frameBufferRasterStates[publishingFrameBufferIndex];
+        int frameRasterStateCount = 0;
+        int firstLine = 0;
+        long frameCpuTicks = frameEndCpuTime - frameStartCpuTime;
+        int logIndex = 0;
+        if (frameCpuTicks > 0) {
+            for (; logIndex < rasterStateLogLength
+                    && rasterStateLogCpuTimes[logIndex] < frameEndCpuTime; logIndex++) {
+                // State before change is applied up to the scan line of change
+                long lineCpuTicks = rasterStateLogCpuTimes[logIndex] - frameStartCpuTime;
+                int lastLine = (lineCpuTicks <= 0) ? 0 : (int) Math.min(VIDEO_BUFFER_HEIGHT,
+                        lineCpuTicks * RASTER_FRAME_LINES / frameCpuTicks);
+                if (lastLine > firstLine) {
+                    frameRasterStateCount = addFrameRasterState(frameRasterStates,
+                            frameRasterStateCount, rasterStateLog[logIndex], firstLine);
+                    firstLine = lastLine;
                 }
             }
+        } else {
+            logIndex = rasterStateLogLength;
+        }
+        // State at frame end is the state before first change after frame end (if any)
+        int frameEndRasterState = (logIndex < rasterStateLogLength)
+                ? rasterStateLog[logIndex] : getRasterState();
+        rasterStateLogLength -= logIndex;
+        System.arraycopy(rasterStateLog, logIndex, rasterStateLog, 0, rasterStateLogLength);
+        System.arraycopy(rasterStateLogCpuTimes, logIndex, rasterStateLogCpuTimes, 0,
+                rasterStateLogLength);
+        if (firstLine < VIDEO_BUFFER_HEIGHT) {
+            frameRasterStateCount = addFrameRasterState(frameRasterStates,
+                    frameRasterStateCount, frameEndRasterState, firstLine);
+        }
+        frameBufferRasterStateCounts[publishingFrameBufferIndex] = frameRasterStateCount;
+        // Copy video data of used video memory pages only
+        short[][] framePagesVideoData = frameBufferVideoData[publishingFrameBufferIndex];
+        int copiedPagesMask = 0;
+        for (int i = 0; i < frameRasterStateCount; i++) {
+            int pageIndex = getRasterStatePageIndex(frameRasterStates[i]);
+            if ((copiedPagesMask & (1 << pageIndex)) == 0) {
+                copiedPagesMask |= (1 << pageIndex);
+                short[] videoData = (videoMemory instanceof PagedMemory)
+                        ? ((PagedMemory) videoMemory).getPage(pageIndex).getData()
+                        : videoMemory.getData();
+                short[] frameVideoData = framePagesVideoData[pageIndex];
+                if (frameVideoData == null || frameVideoData.length != videoData.length) {
+                    frameVideoData = new short[videoData.length];
+                    framePagesVideoData[pageIndex] = frameVideoData;
+                }
+                System.arraycopy(videoData, 0, frameVideoData, 0, videoData.length);
+            }
+        }
+        if (onFramePublishedListener != null) {
+            notifyFramePublished(publishingFrameBufferIndex);
+        }
+        // Swap published frame buffer with the last published one
+        publishingFrameBufferIndex = frameBufferExchangeState.getAndSet(
+                publishingFrameBufferIndex | FRAME_BUFFER_UPDATED) & FRAME_BUFFER_INDEX_MASK;
+    }
+
+    /**
+     * Set published frames listener. Must be called from emulation thread only
+     * (or while computer is paused).
+     * @param listener listener to set (<code>null</code> to remove listener)
+     */
+    public void setOnFramePublishedListener(OnFramePublishedListener listener) {
+        if (listener != null && publishedIndexedFrameData == null) {
+            publishedLineVideoData = new short[VIDEO_BUFFER_HEIGHT][];
+            publishedVideoDataLines = new int[VIDEO_BUFFER_HEIGHT];
+            publishedLinePalettes = new int[VIDEO_BUFFER_HEIGHT];
+            publishedIndexedFrameData = new short[VIDEO_BUFFER_HEIGHT * SCREEN_SCANLINE_LENGTH];
+        }
+        this.onFramePublishedListener = listener;
+    }
+
+    private void notifyFramePublished(int frameBufferIndex) {
+        resolveFrameLines(frameBufferIndex, publishedLineVideoData, publishedVideoDataLines,
+                publishedLinePalettes);
+        for (int line = 0; line < VIDEO_BUFFER_HEIGHT; line++) {
+            int indexedFrameDataOffset = line * SCREEN_SCANLINE_LENGTH;
+            int videoDataLine = publishedVideoDataLines[line];
+            if (videoDataLine != BLANK_LINE) {
+                System.arraycopy(publishedLineVideoData[line],
+                        videoDataLine * SCREEN_SCANLINE_LENGTH, publishedIndexedFrameData,
+                        indexedFrameDataOffset, SCREEN_SCANLINE_LENGTH);
+            } else {
+                Arrays.fill(publishedIndexedFrameData, indexedFrameDataOffset,
+                        indexedFrameDataOffset + SCREEN_SCANLINE_LENGTH, (short) 0);
+            }
+        }
+        onFramePublishedListener.onFramePublished(publishedIndexedFrameData,
+                publishedLinePalettes);
+    }
+
+    private static int addFrameRasterState(int[] frameRasterStates, int frameRasterStateCount,
+            int rasterState, int firstLine) {
+        // Adjacent scan lines ranges with the same state are merged
+        if (frameRasterStateCount > 0 && (frameRasterStates[frameRasterStateCount - 1]
+                & ~(RASTER_STATE_LINE_MASK << RASTER_STATE_LINE_SHIFT)) == rasterState) {
+            return frameRasterStateCount;
+        }
+        frameRasterStates[frameRasterStateCount] = rasterState
+                | (firstLine << RASTER_STATE_LINE_SHIFT);
+        return frameRasterStateCount + 1;
+    }
+
+    /**
+     * Take last published frame buffer for rendering (if it was updated after previous
+     * taking). Must be called from rendering thread only, never waits for emulation thread.
+     * @return <code>true</code> if new published frame buffer is taken,
+     * <code>false</code> if frame buffer is the same as previously taken
+     */
+    private boolean takePublishedFrameBuffer() {
+        if ((frameBufferExchangeState.get() & FRAME_BUFFER_UPDATED) != 0) {
+            renderingFrameBufferIndex = frameBufferExchangeState.getAndSet(
+                    renderingFrameBufferIndex) & FRAME_BUFFER_INDEX_MASK;
+            return true;
         }
-        videoBuffer.eraseColor(Color.BLACK);
-        int videoDataOffset;
+        return false;
+    }
+
+    /**
+     * Get current video memory data (active page data for paged video memory).
+     * @return video memory data as words
+     */
+    public short[] getVideoData() {
+        return videoMemory.getData();
+    }
+
+    /**
+     * Get video memory data line currently displayed at given screen line
+     * (according to current scroll register value).
+     * @param screenLine screen line (0 - top screen line)
+     * @return displayed video memory data line (data line length is
+     * {@link #INDEXED_FRAME_LINE_LENGTH} words) or -1 if screen line is blank
+     */
+    public int getDisplayedVideoDataLine(int screenLine) {
+        int scrollRegister = readScrollRegister();
+        if (isFullFrameMode(scrollRegister)) {
+            return (screenLine + scrollRegister - SCROLL_BASE_VALUE) & (VIDEO_BUFFER_HEIGHT - 1);
+        }
+        return (screenLine < SCREEN_HEIGHT_EXTMEM) ? (screenLine + SCROLL_EXTMEM_VALUE
+                - SCROLL_BASE_VALUE) & (VIDEO_BUFFER_HEIGHT - 1) : -1;
+    }
+
+    /**
+     * Get current video frame thumbnail. Thumbnail pixels are sampled from current
+     * video memory data as rendered to video buffer.
+     * @param pixels array to put thumbnail pixels (ARGB) to
+     * @param width thumbnail width (in pixels)
+     * @param height thumbnail height (in pixels)
+     */
+    public void getThumbnailPixels(int[] pixels, int width, int height) {
+        short[] videoData = videoMemory.getData();
+        int scrollRegister = readScrollRegister();
+        int firstVisibleLine;
         int scrollShift;
-        if (isFullFrameMode()) {
-            videoDataOffset = 0;
-            scrollShift = (readScrollRegister() - SCROLL_BASE_VALUE) & 0377;
+        if (isFullFrameMode(scrollRegister)) {
+            firstVisibleLine = 0;
+            scrollShift = (scrollRegister - SCROLL_BASE_VALUE) & 0377;
         } else {
-            videoDataOffset = videoData.length - SCREEN_HEIGHT_EXTMEM * SCREEN_SCANLINE_LENGTH;
+            firstVisibleLine = VIDEO_BUFFER_HEIGHT - SCREEN_HEIGHT_EXTMEM;
             scrollShift = (SCROLL_EXTMEM_VALUE - SCROLL_BASE_VALUE) & 0377;
         }
-        int videoBufferX;
-        int videoBufferY;
-        synchronized (videoDataToPixelsTable) {
-            for (int videoDataIdx = videoDataOffset; videoDataIdx < videoData.length;
-                    videoDataIdx++) {
-                int videoDataWord = videoData[videoDataIdx];
-                if (videoDataWord != 0) {
-                    videoBufferX = (videoDataIdx % SCREEN_SCANLINE_LENGTH) * VIDEO_BUFFER_PIXELS_PER_WORD;
-                    videoBufferY = (videoDataIdx / SCREEN_SCANLINE_LENGTH - scrollShift)
-                            & (VIDEO_BUFFER_HEIGHT - 1);
-                    videoBuffer.setPixels(videoDataToPixelsTable, (videoDataWord & 0377) << 3,
-                            VIDEO_BUFFER_WIDTH, videoBufferX, videoBufferY, 8, 1);
-                    videoBufferX += 8;
-                    videoBuffer.setPixels(videoDataToPixelsTable, ((videoDataWord >> 8) & 0377) << 3,
-                            VIDEO_BUFFER_WIDTH, videoBufferX, videoBufferY, 8, 1);
+        int[] pixelsTable = VIDEO_DATA_TO_PIXELS_TABLES[videoDataToPixelsTableIndex];
+        for (int y = 0; y < height; y++) {
+            int videoDataLine = (y * VIDEO_BUFFER_HEIGHT / height + scrollShift)
+                    & (VIDEO_BUFFER_HEIGHT - 1);
+            for (int x = 0; x < width; x++) {
+                int pixel = Color.BLACK;
+                if (videoDataLine >= firstVisibleLine) {
+                    int videoBufferX = x * VIDEO_BUFFER_WIDTH / width;
+                    int videoDataWord = videoData[videoDataLine * SCREEN_SCANLINE_LENGTH
+                            + videoBufferX / VIDEO_BUFFER_PIXELS_PER_WORD];
+                    // Low byte pixels are displayed first
+                    int videoDataByte = ((videoBufferX & 8) == 0 ? videoDataWord
+                            : videoDataWord >> 8) & 0377;
+                    pixel = pixelsTable[(videoDataByte << 3) + (videoBufferX & 7)];
                 }
+                pixels[y * width + x] = pixel;
             }
         }
-        return videoBuffer;
+    }
+
+    /**
+     * Render last published video frame to indexed frame and video buffer. Only lines
+     * with changed video data, video data line (after scroll register value change) or
+     * palette (after palette or mode change) are updated in indexed frame, and only
+     * updated lines are expanded from indexed frame to video buffer pixels. Nothing is
+     * checked if no frame was published since previous rendering.
+     * @return <code>true</code> if video buffer pixels were changed,
+     * <code>false</code> if video buffer is the same as after previous rendering
+     */
+    public boolean renderVideoBuffer() {
+        boolean isFrameBufferTaken = takePublishedFrameBuffer();
+        boolean isFullRedraw = isVideoBufferInvalid.getAndSet(false);
+        if (!isFrameBufferTaken && !isFullRedraw) {
+            // Frame buffer is already rendered
+            lastRenderedLineCount = 0;
+            return false;
+        }
+        boolean isRgb565 = isVideoBufferRgb565;
+        if (isRgb565 && videoBufferRgb565 == null) {
+            videoBufferRgb565 = new short[VIDEO_BUFFER_WIDTH * VIDEO_BUFFER_HEIGHT];
+        } else if (!isRgb565 && videoBuffer == null) {
+            videoBuffer = new int[VIDEO_BUFFER_WIDTH * VIDEO_BUFFER_HEIGHT];
+        }
+        resolveFrameLines(renderingFrameBufferIndex, renderingLineVideoData,
+                renderingVideoDataLines, renderingLinePalettes);
+        boolean isBlankLineRendered = false;
+        int renderedLineCount = 0;
+        for (int videoBufferY = 0; videoBufferY < VIDEO_BUFFER_HEIGHT; videoBufferY++) {
+            int videoDataLine = renderingVideoDataLines[videoBufferY];
+            int palette = renderingLinePalettes[videoBufferY];
+            int renderedVideoDataOffset = videoBufferY * SCREEN_SCANLINE_LENGTH;
+            if (videoDataLine != BLANK_LINE) {
+                short[] videoData = renderingLineVideoData[videoBufferY];
+                int videoDataOffset = videoDataLine * SCREEN_SCANLINE_LENGTH;
+                if (isFullRedraw || renderedVideoDataLines[videoBufferY] != videoDataLine
+                        || renderedLinePalettes[videoBufferY] != palette
+                        || !isRenderedVideoDataLine(videoData, videoDataOffset, videoBufferY)) {
+                    renderedVideoDataLines[videoBufferY] = videoDataLine;
+                    renderedLinePalettes[videoBufferY] = palette;
+                    System.arraycopy(videoData, videoDataOffset, renderedVideoData,
+                            renderedVideoDataOffset, SCREEN_SCANLINE_LENGTH);
+                    expandIndexedFrameLine(videoBufferY, isRgb565);
+                    renderedLineCount++;
+                }
+            } else if (isFullRedraw || renderedVideoDataLines[videoBufferY] != BLANK_LINE) {
+                // Blank line pixels are zero (black in all palettes)
+                renderedVideoDataLines[videoBufferY] = BLANK_LINE;
+                renderedLinePalettes[videoBufferY] = palette;
+                Arrays.fill(renderedVideoData, renderedVideoDataOffset,
+                        renderedVideoDataOffset + SCREEN_SCANLINE_LENGTH, (short) 0);
+                expandIndexedFrameLine(videoBufferY, isRgb565);
+                isBlankLineRendered = true;
+            }
+        }
+        lastRenderedLineCount = renderedLineCount;
+        return isFullRedraw || isBlankLineRendered || renderedLineCount > 0;
+    }
+
+    /**
+     * Resolve video data, video data line and palette of each video buffer line
+     * of frame buffer from frame raster states.
+     * @param frameBufferIndex frame buffer index
+     * @param lineVideoData array to put video data (of displayed screen page) to
+     * @param videoDataLines array to put video data line numbers to ({@link #BLANK_LINE}
+     * for not displayed lines)
+     * @param linePalettes array to put indexed frame palettes to
+     */
+    private void resolveFrameLines(int frameBufferIndex, short[][] lineVideoData,
+            int[] videoDataLines, int[] linePalettes) {
+        short[][] framePagesVideoData = frameBufferVideoData[frameBufferIndex];
+        int[] frameRasterStates = frameBufferRasterStates[frameBufferIndex];
+        int frameRasterStateCount = frameBufferRasterStateCounts[frameBufferIndex];
+        for (int i = 0; i < frameRasterStateCount; i++) {
+            int rasterState = frameRasterStates[i];
+            int firstLine = getRasterStateFirstLine(rasterState);
+            int lastLine = (i < frameRasterStateCount - 1)
+                    ? getRasterStateFirstLine(frameRasterStates[i + 1]) : VIDEO_BUFFER_HEIGHT;
+            short[] videoData = framePagesVideoData[getRasterStatePageIndex(rasterState)];
+            int palette = (rasterState >>> RASTER_STATE_PIXELS_TABLE_SHIFT)
+                    & RASTER_STATE_PIXELS_TABLE_MASK;
+            int scrollRegister = rasterState & RASTER_STATE_SCROLL_REGISTER_MASK;
+            int visibleLines;
+            int scrollShift;
+            if (isFullFrameMode(scrollRegister)) {
+                visibleLines = VIDEO_BUFFER_HEIGHT;
+                scrollShift = (scrollRegister - SCROLL_BASE_VALUE) & 0377;
+            } else {
+                visibleLines = SCREEN_HEIGHT_EXTMEM;
+                scrollShift = (SCROLL_EXTMEM_VALUE - SCROLL_BASE_VALUE) & 0377;
+            }
+            for (int videoBufferY = firstLine; videoBufferY < lastLine; videoBufferY++) {
+                lineVideoData[videoBufferY] = videoData;
+                videoDataLines[videoBufferY] = (videoBufferY < visibleLines)
+                        ? (videoBufferY + scrollShift) & (VIDEO_BUFFER_HEIGHT - 1) : BLANK_LINE;
+                linePalettes[videoBufferY] = palette;
+            }
+        }
+    }
+
+    /**
+     * Get number of scan lines redrawn while last video buffer rendering.
+     * @return redrawn scan lines count (0 if video buffer was not changed)
+     */
+    public int getLastRenderedLineCount() {
+        return lastRenderedLineCount;
+    }
+
+    /**
+     * Check video data scan line is the same as rendered to video buffer line.
+     * @param videoData video data to check
+     * @param videoDataOffset scan line video data offset (in words)
+     * @param videoBufferY video buffer line to check
+     * @return <code>true</code> if scan line video data is not changed since
+     * rendering, <code>false</code> otherwise
+     */
+    private boolean isRenderedVideoDataLine(short[] videoData, int videoDataOffset,
+            int videoBufferY) {
+        int renderedVideoDataOffset = videoBufferY * SCREEN_SCANLINE_LENGTH;
+        for (int i = 0; i < SCREEN_SCANLINE_LENGTH; i++) {
+            if (videoData[videoDataOffset + i] != renderedVideoData[renderedVideoDataOffset + i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Expand indexed frame line to video buffer pixels using line palette.
+     * @param videoBufferY video buffer line to expand
+     * @param isRgb565 <code>true</code> to expand line to RGB_565 pixels,
+     * <code>false</code> to expand line to ARGB pixels
+     */
+    private void expandIndexedFrameLine(int videoBufferY, boolean isRgb565) {
+        int palette = renderedLinePalettes[videoBufferY];
+        Object pixelsTable = isRgb565 ? VIDEO_DATA_TO_RGB565_PIXELS_TABLES[palette]
+                : VIDEO_DATA_TO_PIXELS_TABLES[palette];
+        Object pixels = isRgb565 ? videoBufferRgb565 : videoBuffer;
+        int videoBufferOffset = videoBufferY * VIDEO_BUFFER_WIDTH;
+        int videoDataOffset = videoBufferY * SCREEN_SCANLINE_LENGTH;
+        for (int videoDataIdx = videoDataOffset; videoDataIdx < videoDataOffset
+                + SCREEN_SCANLINE_LENGTH; videoDataIdx++) {
+            int videoDataWord = renderedVideoData[videoDataIdx];
+            // Low byte pixels are displayed first
+            System.arraycopy(pixelsTable, (videoDataWord & 0377) << 3,
+                    pixels, videoBufferOffset, 8);
+            System.arraycopy(pixelsTable, ((videoDataWord >> 8) & 0377) << 3,
+                    pixels, videoBufferOffset + 8, 8);
+            videoBufferOffset += VIDEO_BUFFER_PIXELS_PER_WORD;
+        }
     }
 
     @Override
@@ -237,21 +815,22 @@ public class VideoController implements Device {
     }
 
     @Override
-    public void saveState(Bundle outState) {
-        outState.putInt(STATE_SCROLL_REGISTER, scrollRegister);
-        outState.putInt(STATE_PALETTE_INDEX, getColorPaletteIndex());
-        outState.putBoolean(STATE_COLOR_MODE, isColorMode());
+    public void saveState(DataOutput out) throws IOException {
+        out.writeShort(scrollRegister);
+        out.writeByte(getColorPaletteIndex());
+        out.writeBoolean(isColorMode());
     }
 
     @Override
-    public void restoreState(Bundle inState) {
-        scrollRegister = inState.getInt(STATE_SCROLL_REGISTER);
-        setColorPaletteIndex(inState.getInt(STATE_PALETTE_INDEX));
-        setColorMode(inState.getBoolean(STATE_COLOR_MODE));
+    public void restoreState(DataInput in) throws IOException {
+        rasterStateLogLength = 0;
+        scrollRegister = in.readUnsignedShort();
+        setColorPaletteIndex(in.readUnsignedByte() & 017);
+        setColorMode(in.readBoolean());
     }
 
-    private boolean isFullFrameMode() {
-        return (readScrollRegister() & EXTMEM_CONTROL_BIT) != 0;
+    private static boolean isFullFrameMode(int scrollRegister) {
+        return (scrollRegister & EXTMEM_CONTROL_BIT) != 0;
     }
 
     private void writeScrollRegister(int value) {
@@ -279,6 +858,7 @@ public class VideoController implements Device {
         } else {
             registerValue = value;
         }
+        recordRasterState(cpuTime);
         writeScrollRegister(registerValue);
         return true;
     }
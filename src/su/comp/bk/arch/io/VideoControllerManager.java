@@ -19,8 +19,11 @@
  */
 package su.comp.bk.arch.io;
 
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
 import su.comp.bk.arch.memory.PagedMemory;
-import android.os.Bundle;
 
 /**
  * BK-0011M video output controller manager.
@@ -37,10 +40,6 @@ public class VideoControllerManager implements Device {
 
     private final static int[] ADDRESSES = { PALETTE_REGISTER_ADDRESS };
 
-    // State save/restore: video page index value
-    private static final String STATE_VIDEO_PAGE_INDEX =
-            VideoControllerManager.class.getName() + "#video_page_index";
-
     private final VideoController videoController;
 
     private final PagedMemory pagedVideoMemory;
@@ -72,13 +71,13 @@ public class VideoControllerManager implements Device {
     }
 
     @Override
-    public void saveState(Bundle outState) {
-        outState.putInt(STATE_VIDEO_PAGE_INDEX, pagedVideoMemory.getActivePageIndex());
+    public void saveState(DataOutput out) throws IOException {
+        out.writeByte(pagedVideoMemory.getActivePageIndex());
     }
 
     @Override
-    public void restoreState(Bundle inState) {
-        pagedVideoMemory.setActivePageIndex(inState.getInt(STATE_VIDEO_PAGE_INDEX));
+    public void restoreState(DataInput in) throws IOException {
+        pagedVideoMemory.setActivePageIndex(in.readUnsignedByte() & 1);
     }
 
     @Override
@@ -90,6 +89,7 @@ public class VideoControllerManager implements Device {
     @Override
     public boolean write(long cpuTime, boolean isByteMode, int address, int value) {
         if (!isByteMode) {
+            videoController.recordRasterState(cpuTime);
             setVideoControllerConfiguration(value);
             return true;
         }
@@ -97,12 +97,10 @@ public class VideoControllerManager implements Device {
     }
 
     private void setVideoControllerConfiguration(int paletteRegisterValue) {
-        synchronized (videoController) {
-            pagedVideoMemory.setActivePageIndex((paletteRegisterValue
-                    & SCREEN_PAGE_SELECT_BIT) != 0 ? 1 : 0);
-            videoController.setColorPaletteIndex((paletteRegisterValue
-                    >> SCREEN_PALETTE_MASK_SHIFT_BITS) & 017);
-        }
+        pagedVideoMemory.setActivePageIndex((paletteRegisterValue
+                & SCREEN_PAGE_SELECT_BIT) != 0 ? 1 : 0);
+        videoController.setColorPaletteIndex((paletteRegisterValue
+                >> SCREEN_PALETTE_MASK_SHIFT_BITS) & 017);
     }
 
 }
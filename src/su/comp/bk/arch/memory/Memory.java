@@ -18,12 +18,12 @@
  */
 package su.comp.bk.arch.memory;
 
-import android.os.Bundle;
+import su.comp.bk.arch.state.StatefulEntity;
 
 /**
  * Memory (RAM/ROM) interface.
  */
-public interface Memory {
+public interface Memory extends StatefulEntity {
     /**
      * Get this memory ID string.
      * @return memory ID
@@ -69,23 +69,31 @@ public interface Memory {
     boolean write(boolean isByteMode, int address, int value);
 
     /**
-     * Check is given address related to this memory.
-     * @param address absolute address to check (0000000-0177777)
-     * @return <code>true</code> if given address is related to this memory,
-     * <code>false</code> otherwise
+     * Read block of bytes from memory. Reading stops at the end of this memory.
+     * @param address absolute address to start reading from (0000000-0177777)
+     * @param buffer buffer to read data to
+     * @param offset buffer offset to read data to
+     * @param length number of bytes to read
+     * @return number of bytes read
      */
-    boolean isRelatedAddress(int address);
-
+    int readBlock(int address, byte[] buffer, int offset, int length);
 
     /**
-     * Save memory state.
-     * @param outState {@link Bundle} to save memory state
+     * Write block of bytes to memory. Writing stops at the end of this memory.
+     * @param address absolute address to start writing to (0000000-0177777)
+     * @param buffer buffer with data to write
+     * @param offset buffer offset of data to write
+     * @param length number of bytes to write
+     * @return number of bytes written
      */
-    void saveState(Bundle outState);
+    int writeBlock(int address, byte[] buffer, int offset, int length);
 
     /**
-     * Read memory state.
-     * @param inState {@link Bundle} to restore memory state
+     * Check is given address related to this memory.
+     * @param address absolute address to check (0000000-0177777)
+     * @return <code>true</code> if given address is related to this memory,
+     * <code>false</code> otherwise
      */
-    void restoreState(Bundle inState);
+    boolean isRelatedAddress(int address);
+
 }
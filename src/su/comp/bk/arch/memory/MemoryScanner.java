@@ -0,0 +1,415 @@
+/*
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package su.comp.bk.arch.memory;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.util.Arrays;
+import java.util.List;
+
+import su.comp.bk.arch.Computer;
+import su.comp.bk.arch.io.Device;
+
+/**
+ * Incremental RAM search engine. Search space is formed by all RAM pages (including
+ * pages not currently mapped to CPU address space), search positions are byte (in byte mode)
+ * or word (in word mode) offsets in search space. Candidate positions set is narrowed
+ * by comparing current RAM values with values from previous search pass snapshot.
+ * Found values can be pinned (rewritten on each computer timer tick via computer bus write
+ * path, or directly to RAM page if it is not currently mapped to CPU address space).
+ */
+public class MemoryScanner implements Device {
+
+    private final static int[] ADDRESSES = {};
+
+    /**
+     * Search pass conditions.
+     */
+    public enum Condition {
+        /** Value is equal to given value */
+        EQUAL,
+        /** Value is not equal to given value */
+        NOT_EQUAL,
+        /** Value is changed since previous pass */
+        CHANGED,
+        /** Value is not changed since previous pass */
+        UNCHANGED,
+        /** Value is increased since previous pass */
+        INCREASED,
+        /** Value is decreased since previous pass */
+        DECREASED,
+        /** Value is increased by given value since previous pass */
+        INCREASED_BY,
+        /** Value is decreased by given value since previous pass */
+        DECREASED_BY
+    }
+
+    private final Computer computer;
+
+    // Searched RAM pages
+    private final RandomAccessMemory[] pages;
+    // Search space word offsets of RAM pages
+    private final int[] pageWordOffsets;
+    // Search space size (in words)
+    private final int searchSpaceSize;
+
+    // RAM pages data snapshot taken at previous search pass
+    private final short[][] snapshot;
+    // Candidate positions bitset
+    private long[] candidates;
+    // Number of candidate positions
+    private int candidateCount;
+    // Search mode: true for byte mode, false for word mode
+    private boolean isByteMode;
+
+    // Pinned value search space byte offsets
+    private int[] pinOffsets = new int[0];
+    // Pinned values
+    private int[] pinValues = new int[0];
+    // Pinned values mode flags: true for byte values, false for word values
+    private boolean[] pinByteModes = new boolean[0];
+
+    /**
+     * Create memory scanner for given RAM pages.
+     * @param computer {@link Computer} to write pinned values with
+     * @param pages list of RAM pages to search in
+     */
+    public MemoryScanner(Computer computer, List<RandomAccessMemory> pages) {
+        this.computer = computer;
+        this.pages = pages.toArray(new RandomAccessMemory[pages.size()]);
+        this.pageWordOffsets = new int[this.pages.length];
+        this.snapshot = new short[this.pages.length][];
+        int size = 0;
+        for (int pageIndex = 0; pageIndex < this.pages.length; pageIndex++) {
+            pageWordOffsets[pageIndex] = size;
+            size += this.pages[pageIndex].getSize();
+        }
+        this.searchSpaceSize = size;
+    }
+
+    /**
+     * Get search space size.
+     * @return search space size (in bytes)
+     */
+    public int getSearchSpaceSize() {
+        return searchSpaceSize << 1;
+    }
+
+    /**
+     * Start new search. Takes RAM snapshot and marks all positions as candidates.
+     * @param isByteMode <code>true</code> to search byte values, <code>false</code>
+     * to search word values
+     */
+    public synchronized void start(boolean isByteMode) {
+        this.isByteMode = isByteMode;
+        int positionCount = isByteMode ? (searchSpaceSize << 1) : searchSpaceSize;
+        candidates = new long[(positionCount + 63) >> 6];
+        Arrays.fill(candidates, -1L);
+        if ((positionCount & 63) != 0) {
+            candidates[candidates.length - 1] = (1L << (positionCount & 63)) - 1;
+        }
+        candidateCount = positionCount;
+        takeSnapshot();
+    }
+
+    /**
+     * Check is search started.
+     * @return <code>true</code> if search is started
+     */
+    public synchronized boolean isStarted() {
+        return (candidates != null);
+    }
+
+    /**
+     * Check search mode.
+     * @return <code>true</code> if searching byte values, <code>false</code> if word values
+     */
+    public synchronized boolean isByteMode() {
+        return isByteMode;
+    }
+
+    private void takeSnapshot() {
+        for (int pageIndex = 0; pageIndex < pages.length; pageIndex++) {
+            short[] pageData = pages[pageIndex].getData();
+            if (snapshot[pageIndex] == null) {
+                snapshot[pageIndex] = new short[pageData.length];
+            }
+            System.arraycopy(pageData, 0, snapshot[pageIndex], 0, pageData.length);
+        }
+    }
+
+    /**
+     * Narrow candidate positions set using given condition. RAM snapshot is retaken
+     * after narrowing, so next pass compares values with values at this pass.
+     * @param condition search pass {@link Condition}
+     * @param value value to compare with (for {@link Condition#EQUAL},
+     * {@link Condition#NOT_EQUAL}, {@link Condition#INCREASED_BY} and
+     * {@link Condition#DECREASED_BY} conditions, ignored otherwise)
+     * @return number of candidates left
+     */
+    public synchronized int narrow(Condition condition, int value) {
+        if (candidates == null) {
+            throw new IllegalStateException("Search is not started");
+        }
+        int valueMask = isByteMode ? 0377 : 0177777;
+        value &= valueMask;
+        int count = 0;
+        int positionShift = isByteMode ? 1 : 0;
+        for (int pageIndex = 0; pageIndex < pages.length; pageIndex++) {
+            short[] currentData = pages[pageIndex].getData();
+            short[] previousData = snapshot[pageIndex];
+            int pageStart = pageWordOffsets[pageIndex] << positionShift;
+            int pageEnd = pageStart + (currentData.length << positionShift);
+            for (int bitsIndex = pageStart >> 6; bitsIndex <= (pageEnd - 1) >> 6; bitsIndex++) {
+                int bitsStart = bitsIndex << 6;
+                // Mask out bits of positions not belonging to this page
+                long pageBitsMask = -1L;
+                if (bitsStart < pageStart) {
+                    pageBitsMask &= -1L << (pageStart - bitsStart);
+                }
+                if (bitsStart + 64 > pageEnd) {
+                    pageBitsMask &= (1L << (pageEnd - bitsStart)) - 1;
+                }
+                long bits = candidates[bitsIndex] & pageBitsMask;
+                long remainingBits = bits;
+                while (bits != 0) {
+                    int bit = Long.numberOfTrailingZeros(bits);
+                    bits &= bits - 1;
+                    int index = bitsStart + bit - pageStart;
+                    int current;
+                    int previous;
+                    if (isByteMode) {
+                        int shift = (index & 1) << 3;
+                        current = (currentData[index >> 1] >> shift) & 0377;
+                        previous = (previousData[index >> 1] >> shift) & 0377;
+                    } else {
+                        current = currentData[index] & 0177777;
+                        previous = previousData[index] & 0177777;
+                    }
+                    if (isMatched(condition, current, previous, value, valueMask)) {
+                        count++;
+                    } else {
+                        remainingBits &= ~(1L << bit);
+                    }
+                }
+                // Keep bits of positions of other pages unchanged
+                candidates[bitsIndex] = (candidates[bitsIndex] & ~pageBitsMask) | remainingBits;
+            }
+        }
+        candidateCount = count;
+        takeSnapshot();
+        return count;
+    }
+
+    private static boolean isMatched(Condition condition, int current, int previous,
+            int value, int valueMask) {
+        switch (condition) {
+            case EQUAL:
+                return current == value;
+            case NOT_EQUAL:
+                return current != value;
+            case CHANGED:
+                return current != previous;
+            case UNCHANGED:
+                return current == previous;
+            case INCREASED:
+                return current > previous;
+            case DECREASED:
+                return current < previous;
+            case INCREASED_BY:
+                return ((current - previous) & valueMask) == value;
+            case DECREASED_BY:
+                return ((previous - current) & valueMask) == value;
+            default:
+                return false;
+        }
+    }
+
+    /**
+     * Get number of candidate positions.
+     * @return candidate positions number
+     */
+    public synchronized int getCandidateCount() {
+        return candidateCount;
+    }
+
+    /**
+     * Get candidate positions search space byte offsets.
+     * @param maxCount maximum number of offsets to get
+     * @return array of candidate positions search space byte offsets
+     */
+    public synchronized int[] getCandidates(int maxCount) {
+        int[] result = new int[Math.min(maxCount, candidateCount)];
+        int count = 0;
+        for (int bitsIndex = 0; bitsIndex < candidates.length && count < result.length;
+                bitsIndex++) {
+            long bits = candidates[bitsIndex];
+            while (bits != 0 && count < result.length) {
+                int position = (bitsIndex << 6) + Long.numberOfTrailingZeros(bits);
+                bits &= bits - 1;
+                result[count++] = isByteMode ? position : (position << 1);
+            }
+        }
+        return result;
+    }
+
+    private int getPageIndex(int offset) {
+        int wordOffset = offset >> 1;
+        int pageIndex = pages.length - 1;
+        while (pageIndex > 0 && pageWordOffsets[pageIndex] > wordOffset) {
+            pageIndex--;
+        }
+        return pageIndex;
+    }
+
+    /**
+     * Get RAM page containing given search space offset.
+     * @param offset search space byte offset
+     * @return RAM page containing given offset
+     */
+    public RandomAccessMemory getPage(int offset) {
+        return pages[getPageIndex(offset)];
+    }
+
+    /**
+     * Get RAM page address for given search space offset.
+     * @param offset search space byte offset
+     * @return address in RAM page containing given offset
+     */
+    public int getPageAddress(int offset) {
+        int pageIndex = getPageIndex(offset);
+        return pages[pageIndex].getStartAddress() + offset - (pageWordOffsets[pageIndex] << 1);
+    }
+
+    /**
+     * Read current value at given search space offset.
+     * @param isByteMode <code>true</code> to read byte, <code>false</code> to read word
+     * @param offset search space byte offset
+     * @return current value
+     */
+    public int readValue(boolean isByteMode, int offset) {
+        return getPage(offset).read(isByteMode, getPageAddress(offset));
+    }
+
+    /**
+     * Pin value at given search space offset. Pinned value is written at each
+     * computer timer tick.
+     * @param isByteMode <code>true</code> to pin byte, <code>false</code> to pin word
+     * @param offset search space byte offset
+     * @param value value to pin
+     */
+    public synchronized void pin(boolean isByteMode, int offset, int value) {
+        unpin(offset);
+        int count = pinOffsets.length;
+        pinOffsets = Arrays.copyOf(pinOffsets, count + 1);
+        pinValues = Arrays.copyOf(pinValues, count + 1);
+        pinByteModes = Arrays.copyOf(pinByteModes, count + 1);
+        pinOffsets[count] = offset;
+        pinValues[count] = value;
+        pinByteModes[count] = isByteMode;
+        writePin(count);
+    }
+
+    /**
+     * Unpin value at given search space offset.
+     * @param offset search space byte offset
+     */
+    public synchronized void unpin(int offset) {
+        for (int pinIndex = 0; pinIndex < pinOffsets.length; pinIndex++) {
+            if (pinOffsets[pinIndex] == offset) {
+                int count = pinOffsets.length - 1;
+                int moveCount = count - pinIndex;
+                System.arraycopy(pinOffsets, pinIndex + 1, pinOffsets, pinIndex, moveCount);
+                System.arraycopy(pinValues, pinIndex + 1, pinValues, pinIndex, moveCount);
+                System.arraycopy(pinByteModes, pinIndex + 1, pinByteModes, pinIndex, moveCount);
+                pinOffsets = Arrays.copyOf(pinOffsets, count);
+                pinValues = Arrays.copyOf(pinValues, count);
+                pinByteModes = Arrays.copyOf(pinByteModes, count);
+                return;
+            }
+        }
+    }
+
+    /**
+     * Unpin all pinned values.
+     */
+    public synchronized void clearPins() {
+        pinOffsets = new int[0];
+        pinValues = new int[0];
+        pinByteModes = new boolean[0];
+    }
+
+    /**
+     * Get pinned values search space byte offsets.
+     * @return array of pinned values offsets
+     */
+    public synchronized int[] getPins() {
+        return pinOffsets.clone();
+    }
+
+    private void writePin(int pinIndex) {
+        int offset = pinOffsets[pinIndex];
+        RandomAccessMemory page = getPage(offset);
+        int pageAddress = getPageAddress(offset);
+        int address = computer.getMappedAddress(page, pageAddress);
+        if (address >= 0) {
+            computer.writeMemory(pinByteModes[pinIndex], address, pinValues[pinIndex]);
+        } else {
+            page.write(pinByteModes[pinIndex], pageAddress, pinValues[pinIndex]);
+        }
+    }
+
+    @Override
+    public int[] getAddresses() {
+        return ADDRESSES;
+    }
+
+    @Override
+    public void init(long cpuTime) {
+        // Do nothing
+    }
+
+    @Override
+    public void saveState(DataOutput out) {
+        // Do nothing
+    }
+
+    @Override
+    public void restoreState(DataInput in) {
+        // Do nothing
+    }
+
+    @Override
+    public void timer(long cpuTime) {
+        if (pinOffsets.length > 0) {
+            synchronized (this) {
+                for (int pinIndex = 0; pinIndex < pinOffsets.length; pinIndex++) {
+                    writePin(pinIndex);
+                }
+            }
+        }
+    }
+
+    @Override
+    public int read(long cpuTime, int address) {
+        return 0;
+    }
+
+    @Override
+    public boolean write(long cpuTime, boolean isByteMode, int address, int value) {
+        return false;
+    }
+
+}
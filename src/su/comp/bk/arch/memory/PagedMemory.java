@@ -19,7 +19,10 @@
  */
 package su.comp.bk.arch.memory;
 
-import android.os.Bundle;
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
 import su.comp.bk.arch.Computer;
 
 /**
@@ -142,13 +145,34 @@ public class PagedMemory implements Memory {
     }
 
     @Override
-    public void saveState(Bundle outState) {
-        outState.putInt(toString(), getActivePageIndex());
+    public int readBlock(int address, byte[] buffer, int offset, int length) {
+        Memory page = activePage;
+        return (page != null && isRelatedAddress(address)) ? page.readBlock(address - startAddress,
+                buffer, offset, Math.min(length, endAddress - address + 1)) : 0;
+    }
+
+    @Override
+    public int writeBlock(int address, byte[] buffer, int offset, int length) {
+        Memory page = activePage;
+        return (page != null && isRelatedAddress(address)) ? page.writeBlock(address - startAddress,
+                buffer, offset, Math.min(length, endAddress - address + 1)) : 0;
+    }
+
+    @Override
+    public void saveState(DataOutput out) throws IOException {
+        out.writeByte(getActivePageIndex());
     }
 
     @Override
-    public void restoreState(Bundle inState) {
-        setActivePageIndex(inState.getInt(toString()));
+    public void restoreState(DataInput in) throws IOException {
+        int pageIndex = in.readUnsignedByte();
+        // Unset active page index (-1) is saved as 0377
+        if (pageIndex == 0377) {
+            pageIndex = -1;
+        } else if (pageIndex >= pages.length) {
+            throw new IOException("Invalid active page index: " + pageIndex);
+        }
+        setActivePageIndex(pageIndex);
     }
 
     @Override
@@ -18,7 +18,12 @@
  */
 package su.comp.bk.arch.memory;
 
-import android.os.Bundle;
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+import su.comp.bk.arch.state.RunLengthCodec;
 
 /**
  * RAM (read/write) class.
@@ -28,10 +33,21 @@ public class RandomAccessMemory implements Memory {
     private final String id;
     private final int startAddress;
     private final int size;
-    private final short[] data;
+    private short[] data;
 
     private final int endAddress;
 
+    private final Type type;
+
+    // Data array shared for state saving (copied on write until released)
+    private short[] sharedData;
+    // Number of shared data array holders
+    private int sharedDataCount;
+
+    // State data to restore RAM data from (if state restoring is pending, guarded by
+    // computer lock)
+    private ByteBuffer pendingStateData;
+
     /**
      * RAM types enumeration.
      */
@@ -53,6 +69,7 @@ public class RandomAccessMemory implements Memory {
         this.startAddress = startAddress;
         this.endAddress = startAddress + (size << 1) - 1;
         this.size = size;
+        this.type = type;
         this.data = new short[getSize()];
         initMemoryData(type);
     }
@@ -92,21 +109,27 @@ public class RandomAccessMemory implements Memory {
     }
 
     protected void initMemoryData(Type type) {
+        for (int idx = 0; idx < getSize(); idx++) {
+            data[idx] = getPowerOnPatternWord(type, idx);
+        }
+    }
+
+    /**
+     * Get RAM power-on pattern word value.
+     * @param type RAM {@link Type}
+     * @param idx word index
+     * @return power-on pattern word value at given index
+     */
+    protected static short getPowerOnPatternWord(Type type, int idx) {
         switch (type) {
             case K565RU6:
                 // K565RU6 power-on pattern: 0177777/0000000 sequence, order switched every 0100 words
-                for (int idx = 0; idx < getSize(); idx++) {
-                    data[idx] = (short) (((idx & 1) == ((idx >> 6) & 1) ? 0177777 : 0));
-                }
-                break;
+                return (short) (((idx & 1) == ((idx >> 6) & 1) ? 0177777 : 0));
             case K565RU5:
                 // FIXME K565RU5 power-on pattern
-                for (int idx = 0; idx < getSize(); idx++) {
-                    data[idx] = (short) (((idx & 4) == ((idx >> 6) & 1) ? 0177777 : 0));
-                }
-                break;
+                return (short) (((idx & 4) == ((idx >> 6) & 1) ? 0177777 : 0));
             default:
-                break;
+                return 0;
         }
     }
 
@@ -126,14 +149,109 @@ public class RandomAccessMemory implements Memory {
     }
 
     @Override
-    public short[] getData() {
+    public synchronized short[] getData() {
+        checkStateRestorePending();
         return data;
     }
 
     public void putData(short[] dataToPut) {
+        checkStateRestorePending();
+        checkDataShared();
         System.arraycopy(dataToPut, 0, data, 0, dataToPut.length);
     }
 
+    /**
+     * Share current data array for state saving. Shared data array content is kept
+     * unchanged until released, RAM data is copied on first write after sharing.
+     * @return shared data array
+     */
+    public synchronized short[] shareData() {
+        checkStateRestorePending();
+        if (sharedData != data) {
+            sharedData = data;
+            sharedDataCount = 0;
+        }
+        sharedDataCount++;
+        return sharedData;
+    }
+
+    /**
+     * Release data array shared by {@link #shareData()}.
+     * @param dataToRelease shared data array to release
+     */
+    public synchronized void releaseData(short[] dataToRelease) {
+        if (sharedData == dataToRelease && --sharedDataCount == 0) {
+            sharedData = null;
+        }
+    }
+
+    private void checkDataShared() {
+        if (sharedData == data) {
+            copyData();
+        }
+    }
+
+    private synchronized void copyData() {
+        if (sharedData == data) {
+            data = data.clone();
+        }
+    }
+
+    /**
+     * Restore RAM data state lazily. Given state data (in {@link #saveState(DataOutput)}
+     * format) is decoded by {@link #restorePendingState()} (called by computer on first
+     * bus access to this RAM page) or on first RAM data block access, so restoring
+     * of large states (i.e. from memory-mapped file) doesn't wait for all RAM pages
+     * to be decoded. Single word/byte reads and writes don't check pending state.
+     * @param stateData {@link ByteBuffer} with RAM data state (must be kept unchanged
+     * until decoded)
+     */
+    public synchronized void restoreStateLazily(ByteBuffer stateData) {
+        pendingStateData = stateData;
+    }
+
+    /**
+     * Check is lazy RAM data state restoring pending.
+     * @return <code>true</code> if RAM data state is not decoded yet,
+     * <code>false</code> otherwise
+     */
+    public boolean isStateRestorePending() {
+        return pendingStateData != null;
+    }
+
+    private void checkStateRestorePending() {
+        if (pendingStateData != null) {
+            restorePendingState();
+        }
+    }
+
+    /**
+     * Decode RAM data state restored by {@link #restoreStateLazily(ByteBuffer)}
+     * (if restoring is pending).
+     */
+    public synchronized void restorePendingState() {
+        ByteBuffer stateData = pendingStateData;
+        if (stateData != null) {
+            short[] restoredData = new short[getSize()];
+            try {
+                decodeStateData(stateData.duplicate(), restoredData);
+            } catch (IOException e) {
+                throw new IllegalStateException("Can't restore RAM data state: " + id, e);
+            }
+            checkDataShared();
+            data = restoredData;
+            pendingStateData = null;
+        }
+    }
+
+    private void decodeStateData(ByteBuffer stateData, short[] restoredData)
+            throws IOException {
+        RunLengthCodec.decode(stateData, restoredData, 0, restoredData.length);
+        for (int idx = 0; idx < restoredData.length; idx++) {
+            restoredData[idx] ^= getPowerOnPatternWord(type, idx);
+        }
+    }
+
     private int getWordIndex(int address) {
         return (address - startAddress) >> 1;
     }
@@ -163,6 +281,7 @@ public class RandomAccessMemory implements Memory {
     }
 
     private void writeWord(int address, int wordData) {
+        checkDataShared();
         data[getWordIndex(address)] = (short) wordData;
     }
 
@@ -181,19 +300,97 @@ public class RandomAccessMemory implements Memory {
         return true;
     }
 
+    private int getBlockLength(int address, int length) {
+        return isRelatedAddress(address) ? Math.min(length, endAddress - address + 1) : 0;
+    }
+
+    @Override
+    public int readBlock(int address, byte[] buffer, int offset, int length) {
+        checkStateRestorePending();
+        int count = getBlockLength(address, length);
+        int bufferIndex = offset;
+        int bufferEndIndex = offset + count;
+        int wordIndex = getWordIndex(address);
+        // Leading odd address byte
+        if ((address & 1) != 0 && bufferIndex < bufferEndIndex) {
+            buffer[bufferIndex++] = (byte) (data[wordIndex++] >> 8);
+        }
+        // Little-endian words
+        while (bufferIndex + 1 < bufferEndIndex) {
+            short wordData = data[wordIndex++];
+            buffer[bufferIndex++] = (byte) wordData;
+            buffer[bufferIndex++] = (byte) (wordData >> 8);
+        }
+        // Trailing even address byte
+        if (bufferIndex < bufferEndIndex) {
+            buffer[bufferIndex] = (byte) data[wordIndex];
+        }
+        return count;
+    }
+
+    @Override
+    public int writeBlock(int address, byte[] buffer, int offset, int length) {
+        checkStateRestorePending();
+        int count = getBlockLength(address, length);
+        checkDataShared();
+        int bufferIndex = offset;
+        int bufferEndIndex = offset + count;
+        int wordIndex = getWordIndex(address);
+        // Leading odd address byte
+        if ((address & 1) != 0 && bufferIndex < bufferEndIndex) {
+            data[wordIndex] = (short) ((data[wordIndex] & 0377) | (buffer[bufferIndex++] << 8));
+            wordIndex++;
+        }
+        // Little-endian words
+        while (bufferIndex + 1 < bufferEndIndex) {
+            data[wordIndex++] = (short) ((buffer[bufferIndex] & 0377)
+                    | (buffer[bufferIndex + 1] << 8));
+            bufferIndex += 2;
+        }
+        // Trailing even address byte
+        if (bufferIndex < bufferEndIndex) {
+            data[wordIndex] = (short) ((data[wordIndex] & 0177400) | (buffer[bufferIndex] & 0377));
+        }
+        return count;
+    }
+
     @Override
     public boolean isRelatedAddress(int address) {
         return (address >= startAddress) && (address <= endAddress);
     }
 
     @Override
-    public void saveState(Bundle outState) {
-        outState.putShortArray(toString(), getData());
+    public void saveState(DataOutput out) throws IOException {
+        checkStateRestorePending();
+        saveState(out, data);
+    }
+
+    /**
+     * Save given RAM data array state (may be called from any thread for data
+     * array shared by {@link #shareData()}).
+     * @param out {@link DataOutput} to write state data to
+     * @param dataToSave RAM data array to save
+     * @throws IOException in case of state data writing error
+     */
+    public void saveState(DataOutput out, short[] dataToSave) throws IOException {
+        // Save data as difference with power-on pattern, which is mostly zeroes
+        short[] stateData = new short[getSize()];
+        for (int idx = 0; idx < stateData.length; idx++) {
+            stateData[idx] = (short) (dataToSave[idx] ^ getPowerOnPatternWord(type, idx));
+        }
+        RunLengthCodec.encode(out, stateData, 0, stateData.length);
     }
 
     @Override
-    public void restoreState(Bundle inState) {
-        putData(inState.getShortArray(toString()));
+    public void restoreState(DataInput in) throws IOException {
+        short[] stateData = new short[getSize()];
+        RunLengthCodec.decode(in, stateData, 0, stateData.length);
+        for (int idx = 0; idx < stateData.length; idx++) {
+            stateData[idx] ^= getPowerOnPatternWord(type, idx);
+        }
+        // Restored state replaces pending state data
+        pendingStateData = null;
+        putData(stateData);
     }
 
     @Override
@@ -18,6 +18,9 @@
  */
 package su.comp.bk.arch.memory;
 
+import java.io.DataInput;
+import java.io.DataOutput;
+
 /**
  * ROM (read only) memory class.
  */
@@ -46,4 +49,19 @@ public class ReadOnlyMemory extends RandomAccessMemory {
     public boolean write(boolean isByteMode, int address, int value) {
         return false;
     }
+
+    @Override
+    public int writeBlock(int address, byte[] buffer, int offset, int length) {
+        return 0;
+    }
+
+    @Override
+    public void saveState(DataOutput out) {
+        // Do nothing, ROM data is loaded on computer configuration
+    }
+
+    @Override
+    public void restoreState(DataInput in) {
+        // Do nothing
+    }
 }
@@ -0,0 +1,131 @@
+/*
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package su.comp.bk.arch.state;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+
+/**
+ * Zero run-length codec for word arrays. Encoded data is a sequence of
+ * (zero words count, literal words count, literal words) chunks, counts are unsigned
+ * 16-bit values.
+ */
+public class RunLengthCodec {
+
+    // Maximum chunk run length (in words)
+    private final static int MAX_RUN_LENGTH = 0177777;
+
+    private RunLengthCodec() {
+    }
+
+    /**
+     * Encode words from given array.
+     * @param out {@link DataOutput} to write encoded data to
+     * @param data words to encode
+     * @param offset offset of first word to encode
+     * @param length number of words to encode
+     * @throws IOException in case of writing error
+     */
+    public static void encode(DataOutput out, short[] data, int offset, int length)
+            throws IOException {
+        int index = offset;
+        int endIndex = offset + length;
+        while (index < endIndex) {
+            // Count zero words
+            int zeroRunStart = index;
+            while (index < endIndex && data[index] == 0
+                    && index - zeroRunStart < MAX_RUN_LENGTH) {
+                index++;
+            }
+            int zeroRunLength = index - zeroRunStart;
+            // Count literal words, literal run is ended by two successive zero words
+            int literalRunStart = index;
+            while (index < endIndex && index - literalRunStart < MAX_RUN_LENGTH
+                    && (data[index] != 0 || (index + 1 < endIndex && data[index + 1] != 0))) {
+                index++;
+            }
+            int literalRunLength = index - literalRunStart;
+            out.writeShort(zeroRunLength);
+            out.writeShort(literalRunLength);
+            for (int i = literalRunStart; i < index; i++) {
+                out.writeShort(data[i]);
+            }
+        }
+    }
+
+    /**
+     * Decode words to given array.
+     * @param in {@link DataInput} to read encoded data from
+     * @param data array to decode words to
+     * @param offset offset of first word to decode
+     * @param length number of words to decode
+     * @throws IOException in case of reading error or invalid encoded data
+     */
+    public static void decode(DataInput in, short[] data, int offset, int length)
+            throws IOException {
+        int index = offset;
+        int endIndex = offset + length;
+        while (index < endIndex) {
+            int zeroRunLength = in.readUnsignedShort();
+            int literalRunLength = in.readUnsignedShort();
+            if (zeroRunLength + literalRunLength == 0
+                    || index + zeroRunLength + literalRunLength > endIndex) {
+                throw new IOException("Invalid run-length encoded data");
+            }
+            for (int i = 0; i < zeroRunLength; i++) {
+                data[index++] = 0;
+            }
+            for (int i = 0; i < literalRunLength; i++) {
+                data[index++] = in.readShort();
+            }
+        }
+    }
+
+    /**
+     * Decode words to given array from buffer (i.e. from memory-mapped state file).
+     * @param in {@link ByteBuffer} to read encoded data from (in big-endian byte order)
+     * @param data array to decode words to
+     * @param offset offset of first word to decode
+     * @param length number of words to decode
+     * @throws IOException in case of invalid or truncated encoded data
+     */
+    public static void decode(ByteBuffer in, short[] data, int offset, int length)
+            throws IOException {
+        int index = offset;
+        int endIndex = offset + length;
+        try {
+            while (index < endIndex) {
+                int zeroRunLength = in.getShort() & 0177777;
+                int literalRunLength = in.getShort() & 0177777;
+                if (zeroRunLength + literalRunLength == 0
+                        || index + zeroRunLength + literalRunLength > endIndex) {
+                    throw new IOException("Invalid run-length encoded data");
+                }
+                for (int i = 0; i < zeroRunLength; i++) {
+                    data[index++] = 0;
+                }
+                for (int i = 0; i < literalRunLength; i++) {
+                    data[index++] = in.getShort();
+                }
+            }
+        } catch (BufferUnderflowException e) {
+            throw new IOException("Run-length encoded data is truncated", e);
+        }
+    }
+
+}
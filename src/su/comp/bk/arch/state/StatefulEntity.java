@@ -0,0 +1,41 @@
+/*
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package su.comp.bk.arch.state;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+/**
+ * Emulated entity (CPU, memory, device) with binary saved and restored state.
+ * State data is written and read in the same fixed order, without keys.
+ */
+public interface StatefulEntity {
+
+    /**
+     * Save entity state.
+     * @param out {@link DataOutput} to write state data to
+     * @throws IOException in case of state data writing error
+     */
+    void saveState(DataOutput out) throws IOException;
+
+    /**
+     * Restore entity state.
+     * @param in {@link DataInput} to read state data from
+     * @throws IOException in case of state data reading error or invalid state data
+     */
+    void restoreState(DataInput in) throws IOException;
+
+}
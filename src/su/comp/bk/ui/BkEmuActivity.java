@@ -21,33 +21,48 @@ package su.comp.bk.ui;
 
 import java.io.BufferedInputStream;
 import java.io.BufferedOutputStream;
-import java.io.ByteArrayInputStream;
-import java.io.ByteArrayOutputStream;
-import java.io.DataInputStream;
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.StringWriter;
 import java.io.UnsupportedEncodingException;
 import java.net.URL;
+import java.text.DateFormat;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Date;
 import java.util.List;
 
 import org.apache.commons.lang.StringUtils;
 
 import su.comp.bk.R;
+import su.comp.bk.arch.BootSnapshotCache;
+import su.comp.bk.arch.BusStatistics;
+import su.comp.bk.arch.CheckpointWriter;
 import su.comp.bk.arch.Computer;
 import su.comp.bk.arch.Computer.Configuration;
+import su.comp.bk.arch.EmtEmulator;
+import su.comp.bk.arch.InputJournal;
+import su.comp.bk.arch.RewindBuffer;
+import su.comp.bk.arch.RunAhead;
+import su.comp.bk.arch.SaveSlots;
+import su.comp.bk.arch.VideoRecorder;
 import su.comp.bk.arch.cpu.Cpu;
 import su.comp.bk.arch.cpu.addressing.IndexDeferredAddressingMode;
 import su.comp.bk.arch.cpu.opcode.EmtOpcode;
 import su.comp.bk.arch.cpu.opcode.JsrOpcode;
+import su.comp.bk.arch.io.Autotype;
 import su.comp.bk.arch.io.FloppyController;
 import su.comp.bk.arch.io.FloppyController.FloppyDriveIdentifier;
 import su.comp.bk.arch.io.KeyboardController;
 import su.comp.bk.arch.io.PeripheralPort;
 import su.comp.bk.arch.io.VideoController;
+import su.comp.bk.util.BinImageLoader;
+import su.comp.bk.util.VideoPostProcessor;
 import android.app.Activity;
+import android.app.ActivityManager;
 import android.app.AlertDialog;
 import android.app.Dialog;
 import android.content.DialogInterface;
@@ -56,6 +71,7 @@ import android.content.DialogInterface.OnKeyListener;
 import android.content.Intent;
 import android.content.SharedPreferences;
 import android.content.pm.PackageManager.NameNotFoundException;
+import android.graphics.Bitmap;
 import android.net.Uri;
 import android.os.Bundle;
 import android.os.Environment;
@@ -73,6 +89,7 @@ import android.view.MotionEvent;
 import android.view.View;
 import android.view.ViewGroup;
 import android.view.Window;
+import android.widget.BaseAdapter;
 import android.widget.ImageView;
 import android.widget.ListView;
 import android.widget.TextView;
@@ -110,9 +127,29 @@ public class BkEmuActivity extends AppCompatActivity {
     private static final String ON_SCREEN_KEYBOARD_VISIBLE =  BkEmuActivity.class.getName() +
             "#on_screen_keyboard_visible";
 
+    // Computer state file name
+    private static final String COMPUTER_STATE_FILE_NAME = "computer_state.bin";
+    // Input journal file name
+    private static final String INPUT_JOURNAL_FILE_NAME = "input_journal.bin";
+    // Video recording file name
+    private static final String VIDEO_RECORDING_FILE_NAME = "video_recording.bin";
 
     public final static int STACK_TOP_ADDRESS = 01000;
 
+    // Rewind step delay (in milliseconds)
+    private static final long REWIND_STEP_DELAY = 100L;
+    // Rewind time of rewind menu action (in nanoseconds)
+    private static final long REWIND_MENU_TIME = 5000L * Computer.NANOSECS_IN_MSEC;
+
+    // Number of video frames to run ahead when run-ahead is enabled
+    private static final int RUN_AHEAD_FRAMES = 1;
+
+    // Boot snapshot capture check delay (in milliseconds)
+    private static final long BOOT_SNAPSHOT_CHECK_DELAY = 250L;
+
+    // Maximum application memory class (in megabytes) of low memory devices
+    private static final int LOW_MEMORY_CLASS = 32;
+
     // Dialog IDs
     private static final int DIALOG_COMPUTER_MODEL = 1;
     private static final int DIALOG_ABOUT = 2;
@@ -155,6 +192,24 @@ public class BkEmuActivity extends AppCompatActivity {
 
     protected Computer computer;
 
+    protected BinImageLoader binImageLoader;
+
+    protected CheckpointWriter checkpointWriter;
+
+    protected BootSnapshotCache bootSnapshotCache;
+
+    protected BootSnapshotTask bootSnapshotTask;
+
+    protected SaveSlots saveSlots;
+
+    // Active video recorder, <code>null</code> if video is not recorded
+    private VideoRecorder videoRecorder;
+
+    // Snapshot file to save loaded and started intent data program image state to
+    protected File intentDataProgramImageSnapshotFile;
+
+    protected RewindTask rewindTask;
+
     protected String intentDataProgramImageUri;
 
     protected String intentDataDiskImagePath;
@@ -198,7 +253,14 @@ public class BkEmuActivity extends AppCompatActivity {
                         // Loaded manually starting image
                         computer.getCpu().writeRegister(false, Cpu.PC, startAddress);
                     }
+                    // Cache loaded and started image state
+                    if (intentDataProgramImageSnapshotFile != null) {
+                        checkpointWriter.submit(computer.createCheckpoint(),
+                                intentDataProgramImageSnapshotFile);
+                        intentDataProgramImageSnapshotFile = null;
+                    }
                 }
+                computer.getInputJournal().recordState();
             } catch (Exception e) {
                 Log.e(TAG, "Can't load bootstrap emulator program image", e);
             }
@@ -253,12 +315,61 @@ public class BkEmuActivity extends AppCompatActivity {
         }
     }
 
+    /**
+     * Computer state rewind task (runs while rewind button is held).
+     */
+    class RewindTask implements Runnable {
+        @Override
+        public void run() {
+            try {
+                if (computer.getRewindBuffer().rewind()) {
+                    activityHandler.postDelayed(this, REWIND_STEP_DELAY);
+                }
+            } catch (IOException e) {
+                Log.e(TAG, "Can't rewind computer state", e);
+            }
+        }
+    }
+
+    /**
+     * Boot snapshot capture task (runs until computer is booted).
+     */
+    class BootSnapshotTask implements Runnable {
+        private final File bootSnapshotFile;
+        public BootSnapshotTask(File bootSnapshotFile) {
+            this.bootSnapshotFile = bootSnapshotFile;
+        }
+        @Override
+        public void run() {
+            if (computer.getUptime() < BootSnapshotCache.BOOT_SNAPSHOT_UPTIME) {
+                activityHandler.postDelayed(this, BOOT_SNAPSHOT_CHECK_DELAY);
+                return;
+            }
+            bootSnapshotTask = null;
+            try {
+                Log.d(TAG, "caching boot snapshot: " + bootSnapshotFile.getName());
+                checkpointWriter.submit(computer.createCheckpoint(), bootSnapshotFile);
+            } catch (IOException e) {
+                Log.e(TAG, "Can't cache boot snapshot", e);
+            }
+        }
+    }
+
     /**
      * BK0010 tape operations handler.
      */
     class TapeOperations10Handler implements Cpu.OnTrapListener {
         @Override
         public void onTrap(Cpu cpu, int trapVectorAddress) {
+            if (trapVectorAddress == Cpu.TRAP_VECTOR_EMT
+                    && computer.getEmtEmulator().onEmtTrap(cpu)) {
+                // EMT call is performed natively
+                return;
+            }
+            if (computer.isRunningAhead()) {
+                // Tape operations are not emulated while running ahead
+                return;
+            }
             switch (trapVectorAddress) {
                 case Cpu.TRAP_VECTOR_EMT:
                     onEmtTrap(cpu);
@@ -347,7 +458,7 @@ public class BkEmuActivity extends AppCompatActivity {
     class TapeOperations11Handler implements Cpu.OnOpcodeListener {
         @Override
         public void onOpcodeExecuted(Cpu cpu, int opcode) {
-            if (cpu.readRegister(false, Cpu.PC) == 0154620) {
+            if (cpu.readRegister(false, Cpu.PC) == 0154620 && !computer.isRunningAhead()) {
                 // .BMB10 BK0011 system call
                 tapeParamsBlockAddr = cpu.readRegister(false, Cpu.R0);
                 handleTapeOperation(cpu);
@@ -459,9 +570,17 @@ public class BkEmuActivity extends AppCompatActivity {
         mainView = (ViewGroup) findViewById(R.id.main_view);
         bkEmuView = (BkEmuView) findViewById(R.id.emu_view);
         bkEmuView.setGestureListener(new GestureListener());
+        // Use RGB_565 video buffer bitmap on low memory devices
+        ActivityManager activityManager = (ActivityManager) getSystemService(ACTIVITY_SERVICE);
+        bkEmuView.setVideoBufferRgb565(activityManager.getMemoryClass() <= LOW_MEMORY_CLASS);
+        bkEmuView.setVideoFilter(getVideoFilter());
 
         checkIntentData();
+        this.bootSnapshotCache = new BootSnapshotCache(getCacheDir());
+        this.checkpointWriter = new CheckpointWriter(getComputerStateFile());
+        this.saveSlots = new SaveSlots(getFilesDir());
         initializeComputer(savedInstanceState);
+        computer.getRewindBuffer().setEnabled(isRewindEnabled());
         mountIntentDataDiskImage();
 
         TransitionSet ts = new TransitionSet();
@@ -546,11 +665,18 @@ public class BkEmuActivity extends AppCompatActivity {
 
     private void initializeComputer(Bundle savedInstanceState) {
         this.computer = new Computer();
+        this.binImageLoader = new BinImageLoader(computer);
         boolean isComputerInitialized = false;
         if (savedInstanceState != null) {
             // Trying to restore computer state
             try {
-                this.computer.restoreState(getResources(), savedInstanceState);
+                InputStream stateInput = new BufferedInputStream(
+                        new FileInputStream(getComputerStateFile()));
+                try {
+                    this.computer.restoreState(getResources(), stateInput);
+                } finally {
+                    stateInput.close();
+                }
                 isComputerInitialized = true;
             } catch (Exception e) {
                 Log.d(TAG, "Can't restore computer state", e);
@@ -566,7 +692,10 @@ public class BkEmuActivity extends AppCompatActivity {
                     configuration = Configuration.BK_0010_KNGMD;
                 }
                 this.computer.configure(getResources(), configuration);
-                this.computer.reset();
+                if (!restoreCachedSnapshot()) {
+                    this.computer.reset();
+                    startBootSnapshotCapture();
+                }
                 isComputerInitialized = true;
             } catch (Exception e) {
                 Log.e(TAG, "Error while computer configuring", e);
@@ -586,6 +715,70 @@ public class BkEmuActivity extends AppCompatActivity {
         }
     }
 
+    /**
+     * Try to restore cached snapshot of booted computer (or of loaded and started
+     * program image from intent data) to configured computer.
+     * @return <code>true</code> if snapshot was restored, <code>false</code> if computer
+     * must be booted
+     */
+    private boolean restoreCachedSnapshot() {
+        intentDataProgramImageSnapshotFile = null;
+        if (intentDataProgramImageUri != null) {
+            File imageSnapshotFile;
+            try {
+                InputStream imageInput = new URL(intentDataProgramImageUri).openStream();
+                try {
+                    imageSnapshotFile = bootSnapshotCache.getImageSnapshotFile(computer,
+                            BootSnapshotCache.getImageChecksum(imageInput));
+                } finally {
+                    imageInput.close();
+                }
+            } catch (IOException e) {
+                Log.d(TAG, "Can't read program image: " + intentDataProgramImageUri, e);
+                return false;
+            }
+            if (bootSnapshotCache.restore(computer, imageSnapshotFile)) {
+                lastBinImageFileUri = intentDataProgramImageUri;
+                intentDataProgramImageUri = null;
+                return true;
+            }
+            // Cache image snapshot after image loading and starting
+            intentDataProgramImageSnapshotFile = imageSnapshotFile;
+            return false;
+        }
+        // Disk image booting from intent data can't be skipped
+        return intentDataDiskImagePath == null && bootSnapshotCache.restore(computer,
+                bootSnapshotCache.getBootSnapshotFile(computer));
+    }
+
+    /**
+     * Start boot snapshot capture task, if booted computer state is not cached yet.
+     * Task is cancelled on user interaction, so snapshot contains unattended boot only.
+     */
+    private void startBootSnapshotCapture() {
+        cancelBootSnapshotCapture();
+        if (intentDataProgramImageUri == null && intentDataDiskImagePath == null) {
+            File bootSnapshotFile = bootSnapshotCache.getBootSnapshotFile(computer);
+            if (!bootSnapshotFile.exists()) {
+                bootSnapshotTask = new BootSnapshotTask(bootSnapshotFile);
+                activityHandler.postDelayed(bootSnapshotTask, BOOT_SNAPSHOT_CHECK_DELAY);
+            }
+        }
+    }
+
+    private void cancelBootSnapshotCapture() {
+        if (bootSnapshotTask != null) {
+            activityHandler.removeCallbacks(bootSnapshotTask);
+            bootSnapshotTask = null;
+        }
+    }
+
+    @Override
+    public void onUserInteraction() {
+        cancelBootSnapshotCapture();
+        super.onUserInteraction();
+    }
+
     @Override
     protected void onStart() {
         Log.d(TAG, "onStart()");
@@ -609,6 +802,8 @@ public class BkEmuActivity extends AppCompatActivity {
     @Override
     protected void onPause() {
         Log.d(TAG, "onPause()");
+        stopRewind();
+        cancelBootSnapshotCapture();
         this.computer.pause();
         super.onPause();
     }
@@ -623,6 +818,14 @@ public class BkEmuActivity extends AppCompatActivity {
     @Override
     protected void onDestroy() {
         Log.d(TAG, "onDestroy()");
+        if (computer.getInputJournal().isRecording()) {
+            toggleInputJournalRecording();
+        }
+        if (videoRecorder != null) {
+            toggleVideoRecording();
+        }
+        // Wait for computer state checkpoint writing completion
+        this.checkpointWriter.close();
         this.computer.release();
         super.onDestroy();
     }
@@ -639,11 +842,19 @@ public class BkEmuActivity extends AppCompatActivity {
         // Save on-screen control states
         outState.putBoolean(ON_SCREEN_JOYSTICK_VISIBLE, isOnScreenJoystickVisible());
         outState.putBoolean(ON_SCREEN_KEYBOARD_VISIBLE, isOnScreenKeyboardVisible());
-        // Save computer state
-        this.computer.saveState(getResources(), outState);
+        // Save computer state (state file is written in background)
+        try {
+            this.checkpointWriter.submit(this.computer.createCheckpoint());
+        } catch (IOException e) {
+            Log.e(TAG, "Can't save computer state", e);
+        }
         super.onSaveInstanceState(outState);
     }
 
+    private File getComputerStateFile() {
+        return new File(getFilesDir(), COMPUTER_STATE_FILE_NAME);
+    }
+
     @Override
     protected void onRestoreInstanceState(Bundle inState) {
         Log.d(TAG, "onRestoreInstanceState()");
@@ -661,16 +872,81 @@ public class BkEmuActivity extends AppCompatActivity {
 
     @Override
     public boolean onKeyDown(int keyCode, KeyEvent event) {
+        if (keyCode == KeyEvent.KEYCODE_MEDIA_REWIND) {
+            if (event.getRepeatCount() == 0) {
+                startRewind();
+            }
+            return true;
+        }
         return this.computer.getKeyboardController().handleKeyCode(keyCode, true)
                 || super.onKeyDown(keyCode, event);
     }
 
     @Override
     public boolean onKeyUp(int keyCode, KeyEvent event) {
+        if (keyCode == KeyEvent.KEYCODE_MEDIA_REWIND) {
+            stopRewind();
+            return true;
+        }
         return this.computer.getKeyboardController().handleKeyCode(keyCode, false)
                 || super.onKeyUp(keyCode, event);
     }
 
+    /**
+     * Start running computer backwards (computer is paused while rewinding).
+     */
+    private void startRewind() {
+        if (rewindTask == null && computer.getRewindBuffer() != null) {
+            Log.d(TAG, "starting rewind");
+            computer.pause();
+            rewindTask = new RewindTask();
+            activityHandler.post(rewindTask);
+        }
+    }
+
+    private void toggleRewind() {
+        boolean isEnabled = !isRewindEnabled();
+        Log.d(TAG, "toggling rewind buffer: " + isEnabled);
+        setRewindEnabled(isEnabled);
+        computer.getRewindBuffer().setEnabled(isEnabled);
+    }
+
+    /**
+     * Rewind computer state by {@link #REWIND_MENU_TIME} (or to the oldest snapshot).
+     */
+    private void rewindComputer() {
+        RewindBuffer rewindBuffer = computer.getRewindBuffer();
+        computer.pause();
+        try {
+            long rewindUptime = computer.getUptime() - REWIND_MENU_TIME;
+            int snapshotNumber = rewindBuffer.getSnapshotCount() - 1;
+            while (snapshotNumber > 0
+                    && rewindBuffer.getSnapshotUptime(snapshotNumber) > rewindUptime) {
+                snapshotNumber--;
+            }
+            if (snapshotNumber >= 0) {
+                Log.d(TAG, "rewinding to snapshot " + snapshotNumber);
+                rewindBuffer.restoreSnapshot(snapshotNumber);
+            }
+        } catch (IOException e) {
+            Log.e(TAG, "Can't rewind computer state", e);
+        } finally {
+            computer.resume();
+        }
+    }
+
+    /**
+     * Stop running computer backwards and resume computer.
+     */
+    private void stopRewind() {
+        if (rewindTask != null) {
+            Log.d(TAG, "stopping rewind");
+            activityHandler.removeCallbacks(rewindTask);
+            rewindTask = null;
+            computer.resume();
+        }
+    }
+
     @Override
     public void onBackPressed() {
         KeyboardController keyboardController = this.computer.getKeyboardController();
@@ -735,6 +1011,22 @@ public class BkEmuActivity extends AppCompatActivity {
         boolean isFloppyControllerAttached = computer.getConfiguration().isFloppyControllerPresent();
         menu.findItem(R.id.menu_disk_manager).setEnabled(isFloppyControllerAttached);
         menu.findItem(R.id.menu_disk_manager).setVisible(isFloppyControllerAttached);
+        boolean isInputJournalRecording = computer.getInputJournal().isRecording();
+        menu.findItem(R.id.menu_toggle_input_journal).setChecked(isInputJournalRecording);
+        menu.findItem(R.id.menu_replay_input_journal).setEnabled(!isInputJournalRecording);
+        menu.findItem(R.id.menu_autotype).setChecked(
+                computer.getKeyboardController().isAutotypeActive());
+        boolean isEmtEmulationSupported = !computer.getConfiguration().isMemoryManagerPresent();
+        MenuItem emtEmulationItem = menu.findItem(R.id.menu_toggle_emt_emulation);
+        emtEmulationItem.setVisible(isEmtEmulationSupported);
+        emtEmulationItem.setChecked(computer.getEmtEmulator().isEnabled());
+        menu.findItem(R.id.menu_toggle_raster_mode).setChecked(
+                computer.getVideoController().isRasterMode());
+        menu.findItem(R.id.menu_toggle_video_recording).setChecked(videoRecorder != null);
+        RewindBuffer rewindBuffer = computer.getRewindBuffer();
+        menu.findItem(R.id.menu_toggle_rewind).setChecked(rewindBuffer.isEnabled());
+        menu.findItem(R.id.menu_rewind).setEnabled(rewindBuffer.isEnabled()
+                && rewindBuffer.getSnapshotCount() > 0);
         return true;
     }
 
@@ -750,6 +1042,45 @@ public class BkEmuActivity extends AppCompatActivity {
             case R.id.menu_toggle_screen_mode:
                 toggleScreenMode();
                 return true;
+            case R.id.menu_toggle_bus_statistics:
+                toggleBusStatistics();
+                return true;
+            case R.id.menu_toggle_run_ahead:
+                toggleRunAhead();
+                return true;
+            case R.id.menu_toggle_input_journal:
+                toggleInputJournalRecording();
+                return true;
+            case R.id.menu_replay_input_journal:
+                replayInputJournal();
+                return true;
+            case R.id.menu_autotype:
+                toggleAutotype();
+                return true;
+            case R.id.menu_toggle_emt_emulation:
+                toggleEmtEmulation();
+                return true;
+            case R.id.menu_toggle_raster_mode:
+                toggleRasterMode();
+                return true;
+            case R.id.menu_toggle_video_recording:
+                toggleVideoRecording();
+                return true;
+            case R.id.menu_screen_filter:
+                showVideoFilterDialog();
+                return true;
+            case R.id.menu_toggle_rewind:
+                toggleRewind();
+                return true;
+            case R.id.menu_rewind:
+                rewindComputer();
+                return true;
+            case R.id.menu_save_slot:
+                showSaveSlotsDialog(true);
+                return true;
+            case R.id.menu_load_slot:
+                showSaveSlotsDialog(false);
+                return true;
             case R.id.menu_reset:
                 resetComputer();
                 return true;
@@ -783,9 +1114,7 @@ public class BkEmuActivity extends AppCompatActivity {
                 final CharSequence[] models;
                 List<String> modelList = new ArrayList<String>();
                 for (Configuration model: Configuration.values()) {
-                    int modelNameId = getResources().getIdentifier(model.name().toLowerCase(),
-                            "string", getPackageName());
-                    modelList.add((modelNameId != 0) ? getString(modelNameId) : model.name());
+                    modelList.add(getConfigurationName(model));
                 }
                 models = modelList.toArray(new String[modelList.size()]);
                 return new AlertDialog.Builder(this)
@@ -852,6 +1181,12 @@ public class BkEmuActivity extends AppCompatActivity {
         return null;
     }
 
+    private String getConfigurationName(Configuration config) {
+        int configNameId = getResources().getIdentifier(config.name().toLowerCase(),
+                "string", getPackageName());
+        return (configNameId != 0) ? getString(configNameId) : config.name();
+    }
+
     @Override
     protected void onPrepareDialog(int id, Dialog dialog) {
         switch (id) {
@@ -1123,12 +1458,14 @@ public class BkEmuActivity extends AppCompatActivity {
                 computer.getCpu().writeRegister(false, Cpu.PC, computer.getCpu().pop());
             }
         }
+        computer.getInputJournal().recordState();
     }
 
     protected boolean binImageFileLoad(String binImageFilePath) {
         String binImageFileUri = "file:" + binImageFilePath;
         boolean isImageLoaded = doBinImageFileLoad(binImageFileUri);
         if (isImageLoaded) {
+            computer.getInputJournal().recordState();
             Toast.makeText(getApplicationContext(),
                     getResources().getString(R.string.toast_image_load_info,
                         lastBinImageAddress, lastBinImageLength),
@@ -1199,6 +1536,7 @@ public class BkEmuActivity extends AppCompatActivity {
                             tapeParamsBlockAddrNameIdx + idx, tapeFileNameData[idx]);
                 }
             }
+            computer.getInputJournal().recordState();
         }
     }
 
@@ -1235,6 +1573,48 @@ public class BkEmuActivity extends AppCompatActivity {
         prefsEditor.commit();
     }
 
+    /**
+     * Get selected video post-processing filter.
+     * @return filter enum value
+     */
+    protected VideoPostProcessor.Filter getVideoFilter() {
+        SharedPreferences prefs = getPreferences(MODE_PRIVATE);
+        String filterName = prefs.getString(VideoPostProcessor.Filter.class.getName(), null);
+        return (filterName == null) ? VideoPostProcessor.Filter.NONE
+                : VideoPostProcessor.Filter.valueOf(filterName);
+    }
+
+    /**
+     * Set selected video post-processing filter.
+     * @param filter filter enum value to set
+     */
+    protected void setVideoFilter(VideoPostProcessor.Filter filter) {
+        SharedPreferences prefs = getPreferences(MODE_PRIVATE);
+        SharedPreferences.Editor prefsEditor = prefs.edit();
+        prefsEditor.putString(VideoPostProcessor.Filter.class.getName(), filter.name());
+        prefsEditor.commit();
+    }
+
+    /**
+     * Check is rewind buffer enabled.
+     * @return <code>true</code> if rewind buffer snapshots taking is enabled
+     */
+    protected boolean isRewindEnabled() {
+        SharedPreferences prefs = getPreferences(MODE_PRIVATE);
+        return prefs.getBoolean(RewindBuffer.class.getName(), false);
+    }
+
+    /**
+     * Set rewind buffer enabled state.
+     * @param isEnabled <code>true</code> to enable rewind buffer snapshots taking
+     */
+    protected void setRewindEnabled(boolean isEnabled) {
+        SharedPreferences prefs = getPreferences(MODE_PRIVATE);
+        SharedPreferences.Editor prefsEditor = prefs.edit();
+        prefsEditor.putBoolean(RewindBuffer.class.getName(), isEnabled);
+        prefsEditor.commit();
+    }
+
     /**
      * Load program image in bin format (address/length/data) from given path.
      * @param binImageFileUri emulator image file URI
@@ -1243,52 +1623,10 @@ public class BkEmuActivity extends AppCompatActivity {
      */
     protected int loadBinImageFile(String binImageFileUri) throws Exception {
         Log.d(TAG, "loading image: " + binImageFileUri);
-        ByteArrayOutputStream binImageOutput = new ByteArrayOutputStream();
-        BufferedInputStream binImageInput = null;
-        try {
-            binImageInput = new BufferedInputStream(new URL(binImageFileUri).openStream());
-            int readByte;
-            while ((readByte = binImageInput.read()) != -1) {
-                binImageOutput.write(readByte);
-            }
-        } finally {
-            try {
-                if (binImageInput != null) {
-                    binImageInput.close();
-                }
-            } catch (Exception e) {
-                // Do nothing
-            }
-        }
+        binImageLoader.load(new URL(binImageFileUri));
         this.lastBinImageFileUri = binImageFileUri;
-        return loadBinImage(binImageOutput.toByteArray());
-    }
-
-    /**
-     * Load image in bin format (address/length/data) from byte array.
-     * @param imageData image data byte array
-     * @return image load address
-     * @throws IOException in case of loading error
-     */
-    public int loadBinImage(byte[] imageData) throws IOException {
-        if (imageData.length < 5 || imageData.length > 01000000) {
-            throw new IllegalArgumentException("Invalid binary image file length: " +
-                    imageData.length);
-        }
-        DataInputStream imageDataInputStream = new DataInputStream(
-                new ByteArrayInputStream(imageData, 0, imageData.length));
-        lastBinImageAddress = (imageDataInputStream.readByte() & 0377)
-                | ((imageDataInputStream.readByte() & 0377) << 8);
-        lastBinImageLength = (imageDataInputStream.readByte() & 0377)
-                | ((imageDataInputStream.readByte() & 0377) << 8);
-        synchronized (computer) {
-            for (int imageIndex = 0; imageIndex < lastBinImageLength; imageIndex++) {
-                if (!computer.writeMemory(true, lastBinImageAddress + imageIndex, imageDataInputStream.read())) {
-                    throw new IllegalStateException("Can't write binary image data to address: 0" +
-                            Integer.toOctalString(lastBinImageAddress + imageIndex));
-                }
-            }
-        }
+        lastBinImageAddress = binImageLoader.getLastImageAddress();
+        lastBinImageLength = binImageLoader.getLastImageLength();
         Log.d(TAG, "loaded bin image file: address 0" + Integer.toOctalString(lastBinImageAddress) +
                 ", length: " + lastBinImageLength);
         return lastBinImageAddress;
@@ -1301,22 +1639,20 @@ public class BkEmuActivity extends AppCompatActivity {
      */
     protected void saveBinImageFile(String binImageFilePath) throws Exception {
         Log.d(TAG, "saving image: " + binImageFilePath);
-        ByteArrayOutputStream binImageOutput = new ByteArrayOutputStream();
-        binImageOutput.write(lastBinImageAddress & 0377);
-        binImageOutput.write((lastBinImageAddress >> 8) & 0377);
-        binImageOutput.write(lastBinImageLength & 0377);
-        binImageOutput.write((lastBinImageLength >> 8) & 0377);
+        byte[] imageData = new byte[4 + lastBinImageLength];
+        imageData[0] = (byte) lastBinImageAddress;
+        imageData[1] = (byte) (lastBinImageAddress >> 8);
+        imageData[2] = (byte) lastBinImageLength;
+        imageData[3] = (byte) (lastBinImageLength >> 8);
         synchronized (computer) {
-            for (int imageIndex = 0; imageIndex < lastBinImageLength; imageIndex++) {
-                int imageData = computer.readMemory(true, lastBinImageAddress + imageIndex);
-                if (imageData == Computer.BUS_ERROR) {
-                    throw new IllegalStateException("Can't read binary image data from address: 0" +
-                            Integer.toOctalString(lastBinImageAddress + imageIndex));
-                }
-                binImageOutput.write(imageData);
+            int readLength = computer.readBlock(lastBinImageAddress, imageData, 4,
+                    lastBinImageLength);
+            if (readLength < lastBinImageLength) {
+                throw new IllegalStateException("Can't read binary image data from address: 0" +
+                        Integer.toOctalString(lastBinImageAddress + readLength));
             }
         }
-        saveBinImage(binImageFilePath, binImageOutput.toByteArray());
+        saveBinImage(binImageFilePath, imageData);
         this.lastBinImageFileUri = "file:" + binImageFilePath;
     }
 
@@ -1415,6 +1751,308 @@ public class BkEmuActivity extends AppCompatActivity {
         videoController.setColorMode(!videoController.isColorMode());
     }
 
+    private void toggleBusStatistics() {
+        boolean isEnabled = !bkEmuView.isBusStatisticsDrawingEnabled();
+        Log.d(TAG, "toggling bus statistics: " + isEnabled);
+        if (!isEnabled) {
+            // Dump collected statistics to log
+            BusStatistics.Snapshot snapshot = computer.getBusStatisticsSnapshot();
+            if (snapshot != null) {
+                StringWriter report = new StringWriter();
+                snapshot.writeReport(report);
+                Log.d(TAG, "bus statistics:\n" + report);
+            }
+        }
+        bkEmuView.setBusStatisticsDrawingEnabled(isEnabled);
+    }
+
+    private void toggleRunAhead() {
+        RunAhead runAhead = computer.getRunAhead();
+        if (runAhead != null) {
+            // Dump run-ahead statistics to log
+            Log.d(TAG, "disabling run-ahead, frames: " + runAhead.getRunAheadFrameCount()
+                    + ", skipped: " + runAhead.getSkippedFrameCount()
+                    + ", average time: " + runAhead.getAverageRunAheadTime() + " ns");
+            computer.setRunAheadFrames(0);
+        } else {
+            Log.d(TAG, "enabling run-ahead");
+            computer.setRunAheadFrames(RUN_AHEAD_FRAMES);
+        }
+    }
+
+    private File getInputJournalFile() {
+        return new File(getFilesDir(), INPUT_JOURNAL_FILE_NAME);
+    }
+
+    private void toggleInputJournalRecording() {
+        InputJournal inputJournal = computer.getInputJournal();
+        try {
+            if (inputJournal.isRecording()) {
+                long ramChecksum = inputJournal.stopRecording();
+                Log.d(TAG, "input journal recorded, RAM checksum: "
+                        + Long.toHexString(ramChecksum));
+            } else {
+                inputJournal.startRecording(new FileOutputStream(getInputJournalFile()));
+            }
+        } catch (IOException e) {
+            Log.e(TAG, "Input journal recording error", e);
+        }
+    }
+
+    /**
+     * Replay recorded input journal (computer is paused while replaying).
+     */
+    private void replayInputJournal() {
+        final File inputJournalFile = getInputJournalFile();
+        if (computer.getInputJournal().isRecording() || !inputJournalFile.isFile()) {
+            return;
+        }
+        computer.pause();
+        new Thread(new Runnable() {
+            @Override
+            public void run() {
+                String result;
+                try {
+                    InputStream journalInput = new BufferedInputStream(
+                            new FileInputStream(inputJournalFile));
+                    try {
+                        long ramChecksum = computer.getInputJournal().replay(journalInput);
+                        result = getString(R.string.toast_input_journal_replayed, ramChecksum);
+                    } finally {
+                        journalInput.close();
+                    }
+                } catch (Exception e) {
+                    Log.e(TAG, "Input journal replay error", e);
+                    result = getString(R.string.toast_input_journal_replay_error,
+                            e.getMessage());
+                }
+                final String replayResult = result;
+                activityHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        computer.resume();
+                        Toast.makeText(getApplicationContext(), replayResult,
+                                Toast.LENGTH_LONG).show();
+                    }
+                });
+            }
+        }, "InputJournalReplayThread").start();
+    }
+
+    /**
+     * Start typing clipboard text to emulated keyboard or cancel active autotype.
+     */
+    @SuppressWarnings("deprecation")
+    private void toggleAutotype() {
+        KeyboardController keyboardController = computer.getKeyboardController();
+        if (keyboardController.isAutotypeActive()) {
+            Log.d(TAG, "cancelling autotype");
+            keyboardController.cancelAutotype();
+            return;
+        }
+        android.text.ClipboardManager clipboardManager =
+                (android.text.ClipboardManager) getSystemService(CLIPBOARD_SERVICE);
+        CharSequence text = clipboardManager.getText();
+        if (text == null || text.length() == 0) {
+            Toast.makeText(getApplicationContext(), R.string.toast_autotype_no_text,
+                    Toast.LENGTH_SHORT).show();
+            return;
+        }
+        Autotype autotype = keyboardController.startAutotype(text.toString());
+        Log.d(TAG, "starting autotype, key codes: " + autotype.getKeyCodes().length);
+        Toast.makeText(getApplicationContext(), getString(R.string.toast_autotype_started,
+                text.length()), Toast.LENGTH_SHORT).show();
+    }
+
+    private void toggleEmtEmulation() {
+        EmtEmulator emtEmulator = computer.getEmtEmulator();
+        boolean isEnabled = !emtEmulator.isEnabled();
+        Log.d(TAG, "toggling EMT emulation: " + isEnabled + ", emulated calls: "
+                + emtEmulator.getEmulatedCallCount() + ", chars: "
+                + emtEmulator.getEmulatedCharCount());
+        emtEmulator.setEnabled(isEnabled);
+    }
+
+    private void toggleRasterMode() {
+        VideoController videoController = computer.getVideoController();
+        boolean isRasterMode = !videoController.isRasterMode();
+        Log.d(TAG, "toggling raster mode: " + isRasterMode);
+        videoController.setRasterMode(isRasterMode);
+    }
+
+    private File getVideoRecordingFile() {
+        File recordingDir = getExternalFilesDir(null);
+        return new File((recordingDir != null) ? recordingDir : getFilesDir(),
+                VIDEO_RECORDING_FILE_NAME);
+    }
+
+    /**
+     * Start or stop video recording of published video frames.
+     */
+    private void toggleVideoRecording() {
+        VideoController videoController = computer.getVideoController();
+        File recordingFile = getVideoRecordingFile();
+        String result;
+        try {
+            if (videoRecorder != null) {
+                VideoRecorder recorder = videoRecorder;
+                videoRecorder = null;
+                synchronized (computer) {
+                    videoController.setOnFramePublishedListener(null);
+                }
+                recorder.close();
+                result = getString(R.string.toast_video_recording_saved, recordingFile,
+                        recorder.getCapturedFrameCount());
+            } else {
+                VideoRecorder recorder = new VideoRecorder(new FileOutputStream(recordingFile),
+                        RunAhead.FRAME_PERIOD);
+                synchronized (computer) {
+                    videoController.setOnFramePublishedListener(recorder);
+                }
+                videoRecorder = recorder;
+                return;
+            }
+        } catch (IOException e) {
+            Log.e(TAG, "Video recording error", e);
+            result = getString(R.string.toast_video_recording_error, e.getMessage());
+        }
+        Toast.makeText(getApplicationContext(), result, Toast.LENGTH_LONG).show();
+    }
+
+    /**
+     * Show screen post-processing filter selection dialog.
+     */
+    private void showVideoFilterDialog() {
+        final VideoPostProcessor.Filter[] filters = VideoPostProcessor.Filter.values();
+        // Filter names are listed in filters declaration order
+        String[] filterNames = getResources().getStringArray(R.array.screen_filters);
+        new AlertDialog.Builder(this)
+            .setTitle(R.string.menu_screen_filter)
+            .setSingleChoiceItems(filterNames, bkEmuView.getVideoFilter().ordinal(),
+                    new DialogInterface.OnClickListener() {
+                @Override
+                public void onClick(DialogInterface dialog, int which) {
+                    Log.d(TAG, "selected screen filter: " + filters[which]);
+                    setVideoFilter(filters[which]);
+                    bkEmuView.setVideoFilter(filters[which]);
+                    dialog.dismiss();
+                }
+            })
+            .setNegativeButton(R.string.cancel, null)
+            .show();
+    }
+
+    /**
+     * Show save slots browser dialog.
+     * @param isSaving <code>true</code> to save computer state to selected slot,
+     * <code>false</code> to load computer state from selected slot
+     */
+    private void showSaveSlotsDialog(final boolean isSaving) {
+        // Only slot headers (with thumbnails) are read here
+        final SaveSlots.SlotInfo[] slotInfos = saveSlots.readSlotInfos();
+        final DateFormat saveTimeFormat = DateFormat.getDateTimeInstance();
+        BaseAdapter slotsAdapter = new BaseAdapter() {
+            @Override
+            public int getCount() {
+                return slotInfos.length;
+            }
+
+            @Override
+            public Object getItem(int position) {
+                return slotInfos[position];
+            }
+
+            @Override
+            public long getItemId(int position) {
+                return position;
+            }
+
+            @Override
+            public View getView(int position, View convertView, ViewGroup parent) {
+                View slotView = (convertView != null) ? convertView
+                        : getLayoutInflater().inflate(R.layout.save_slot_item, parent, false);
+                ImageView thumbnailView = (ImageView) slotView.findViewById(
+                        R.id.save_slot_thumbnail);
+                TextView infoView = (TextView) slotView.findViewById(R.id.save_slot_info);
+                SaveSlots.SlotInfo slotInfo = slotInfos[position];
+                Bitmap thumbnail = null;
+                if (slotInfo != null) {
+                    if (slotInfo.getThumbnailPixels() != null) {
+                        thumbnail = Bitmap.createBitmap(slotInfo.getThumbnailPixels(),
+                                slotInfo.getThumbnailWidth(), slotInfo.getThumbnailHeight(),
+                                Bitmap.Config.ARGB_8888);
+                    }
+                    infoView.setText(getString(R.string.save_slot_info, position + 1,
+                            getConfigurationName(slotInfo.getConfiguration()),
+                            saveTimeFormat.format(new Date(slotInfo.getSaveTime()))));
+                } else {
+                    infoView.setText(getString(R.string.save_slot_empty, position + 1));
+                }
+                thumbnailView.setImageBitmap(thumbnail);
+                return slotView;
+            }
+        };
+        new AlertDialog.Builder(this)
+            .setTitle(isSaving ? R.string.menu_save_slot : R.string.menu_load_slot)
+            .setAdapter(slotsAdapter, new DialogInterface.OnClickListener() {
+                @Override
+                public void onClick(DialogInterface dialog, int which) {
+                    if (isSaving) {
+                        saveSlot(which);
+                    } else if (slotInfos[which] != null) {
+                        loadSlot(which);
+                    }
+                }
+            })
+            .setNegativeButton(R.string.cancel, null)
+            .show();
+    }
+
+    /**
+     * Save computer state to slot (slot file is written in background).
+     * @param slotIndex slot index
+     */
+    private void saveSlot(final int slotIndex) {
+        new Thread(new Runnable() {
+            @Override
+            public void run() {
+                String result;
+                try {
+                    saveSlots.save(computer, slotIndex);
+                    result = getString(R.string.toast_slot_saved, slotIndex + 1);
+                } catch (Exception e) {
+                    Log.e(TAG, "Save slot " + slotIndex + " writing error", e);
+                    result = getString(R.string.toast_slot_error, e.getMessage());
+                }
+                final String saveResult = result;
+                activityHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        Toast.makeText(getApplicationContext(), saveResult,
+                                Toast.LENGTH_SHORT).show();
+                    }
+                });
+            }
+        }, "SaveSlotWriterThread").start();
+    }
+
+    /**
+     * Load computer state from slot.
+     * @param slotIndex slot index
+     */
+    private void loadSlot(int slotIndex) {
+        String result;
+        try {
+            saveSlots.load(computer, slotIndex);
+            computer.getInputJournal().recordState();
+            result = getString(R.string.toast_slot_loaded, slotIndex + 1);
+        } catch (IOException e) {
+            Log.e(TAG, "Save slot " + slotIndex + " loading error", e);
+            result = getString(R.string.toast_slot_error, e.getMessage());
+        }
+        Toast.makeText(getApplicationContext(), result, Toast.LENGTH_SHORT).show();
+    }
+
     private void resetComputer() {
         Log.d(TAG, "resetting computer");
         Configuration config = getComputerConfiguration();
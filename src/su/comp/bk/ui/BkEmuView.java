@@ -18,18 +18,26 @@
  */
 package su.comp.bk.ui;
 
+import java.nio.ShortBuffer;
 import java.util.concurrent.atomic.AtomicBoolean;
 
 import su.comp.bk.R;
+import su.comp.bk.arch.BusStatistics;
 import su.comp.bk.arch.Computer;
+import su.comp.bk.arch.RunAhead;
 import su.comp.bk.arch.io.FloppyController;
 import su.comp.bk.arch.io.VideoController;
 import su.comp.bk.ui.BkEmuActivity.GestureListener;
+import su.comp.bk.util.FramePacer;
+import su.comp.bk.util.VideoPostProcessor;
 import android.content.Context;
 import android.graphics.Bitmap;
 import android.graphics.Canvas;
 import android.graphics.Color;
 import android.graphics.Matrix;
+import android.graphics.Paint;
+import android.graphics.Typeface;
+import android.os.Build;
 import android.os.Handler;
 import android.support.v4.content.ContextCompat;
 import android.util.AttributeSet;
@@ -38,6 +46,7 @@ import android.view.GestureDetector;
 import android.view.MotionEvent;
 import android.view.SurfaceHolder;
 import android.view.SurfaceView;
+import android.view.WindowManager;
 import android.widget.FrameLayout;
 import android.widget.ImageView;
 import android.widget.TextView;
@@ -49,32 +58,47 @@ public class BkEmuView extends SurfaceView implements SurfaceHolder.Callback {
 
     private static final String TAG = BkEmuView.class.getName();
 
-    // Rendering framerate, in frames per second
-    private static final int RENDERING_FRAMERATE = 15;
-    // Rendering period, in milliseconds.
-    // RENDERING_FRAMERATE = 1000 / RENDERING_PERIOD
-    private static final int RENDERING_PERIOD = (1000 / RENDERING_FRAMERATE);
+    // Default display refresh rate, in frames per second
+    private static final float DEFAULT_DISPLAY_REFRESH_RATE = 60f;
 
     // FPS value averaging time, in milliseconds
     private static final int FPS_AVERAGING_TIME = 1000;
     // FPS counters last update timestamp
     protected long fpsCountersUpdateTimestamp;
-    // FPS frame counter
-    protected int fpsFrameCounter;
-    // FPS accumulated time counter
-    protected int fpsAccumulatedTime;
+    // Drawn frames count at last FPS counters update
+    protected long fpsDrawnFrameCount;
     // FPS current value
-    protected int fpsValue;
+    protected volatile int fpsValue;
+    // Frame time percentiles reported with FPS value
+    private final static int[] FRAME_TIME_PERCENTILES = { 50, 95, 99 };
+    // Frame time current percentile values, in nanoseconds
+    protected volatile long[] frameTimePercentileValues = new long[FRAME_TIME_PERCENTILES.length];
 
     // FPS drawing enabled flag
     protected static boolean isFpsDrawingEnabled = false;
-    // Low FPS value
-    private final static int FPS_LOW_VALUE = 10;
-    // Low FPS drawing color
+    // High frame time value (frames aren't drawn at emulated computer frame rate)
+    private final static long FRAME_TIME_HIGH_VALUE = RunAhead.FRAME_PERIOD;
+    // High frame time drawing color
     private final static int FPS_COLOR_LOW = Color.RED;
     // Normal FPS drawing color
     private final static int FPS_COLOR_NORMAL = Color.GREEN;
 
+    // Bus statistics overlay update period, in milliseconds
+    private static final int BUS_STATISTICS_UPDATE_PERIOD = 1000;
+    // Bus statistics overlay maximum number of shown I/O registers
+    private static final int BUS_STATISTICS_MAX_IO_REGISTERS = 6;
+    // Bus statistics overlay text size, in pixels
+    private static final float BUS_STATISTICS_TEXT_SIZE = 20f;
+    // Bus statistics drawing enabled flag
+    protected volatile boolean isBusStatisticsDrawingEnabled;
+    // Bus statistics overlay last update timestamp
+    protected long busStatisticsUpdateTimestamp;
+    // Bus statistics snapshot taken at last overlay update
+    protected BusStatistics.Snapshot lastBusStatisticsSnapshot;
+    // Bus statistics overlay text lines
+    protected volatile String[] busStatisticsLines = new String[0];
+    private final Paint busStatisticsPaint;
+
     // Computer screen aspect ratio
     private final static float COMPUTER_SCREEN_ASPECT_RATIO = (4f / 3f);
 
@@ -82,6 +106,8 @@ public class BkEmuView extends SurfaceView implements SurfaceHolder.Callback {
     			new FpsIndicatorUpdateRunnable();
     protected TextView fpsIndicator;
     protected String fpsIndicatorString;
+    protected String frameTimeIndicatorString;
+    protected String runAheadIndicatorString;
 
     // Floppy controller activity indicator timeout (in milliseconds)
     private static final int FLOPPY_ACTIVITY_INDICATOR_TIMEOUT = 250;
@@ -100,11 +126,25 @@ public class BkEmuView extends SurfaceView implements SurfaceHolder.Callback {
     // UI surface render thread
     private BkEmuViewRenderingThread renderingThread;
 
+    // Rendering frame pacer
+    protected volatile FramePacer framePacer;
+
     private GestureDetector gestureDetector;
 
     private AtomicBoolean isOnScreenControlsTransitionStarted = new AtomicBoolean();
 
     protected volatile Matrix videoBufferBitmapTransformMatrix;
+    // Video buffer bitmap scale factors (from transform matrix)
+    protected volatile float videoBufferBitmapScaleX = 1f;
+    protected volatile float videoBufferBitmapScaleY = 1f;
+
+    // Video buffer bitmap (updated from rendered video buffer pixels)
+    private Bitmap videoBufferBitmap;
+    // Video buffer bitmap RGB_565 format flag (ARGB_8888 format is used otherwise)
+    private volatile boolean isVideoBufferRgb565;
+
+    // Video post-processing filter
+    private volatile VideoPostProcessor.Filter videoFilter = VideoPostProcessor.Filter.NONE;
 
     protected Computer computer;
 
@@ -116,7 +156,14 @@ public class BkEmuView extends SurfaceView implements SurfaceHolder.Callback {
 	 */
 	class BkEmuViewRenderingThread extends Thread {
 		private final SurfaceHolder surfaceHolder;
-		private boolean isRunning = true;
+		private volatile boolean isRunning = true;
+
+		// Video post-processor (null if post-processing is not used)
+		private VideoPostProcessor postProcessor;
+		// Post-processed video frame bitmap and its drawing transform matrix and paint
+		private Bitmap postProcessedBitmap;
+		private final Matrix postProcessedBitmapTransformMatrix = new Matrix();
+		private final Paint postProcessedBitmapPaint = new Paint(Paint.FILTER_BITMAP_FLAG);
 
 		public BkEmuViewRenderingThread(SurfaceHolder holder) {
 			this.surfaceHolder = holder;
@@ -124,48 +171,187 @@ public class BkEmuView extends SurfaceView implements SurfaceHolder.Callback {
 
 		public void stopRendering() {
 			isRunning = false;
+			interrupt();
 		}
 
 		@Override
 		public void run() {
-	        long timeStamp;
-	        long timeDelta;
 	        Canvas canvas;
 	        VideoController videoController = computer.getVideoController();
 	        int bgColor = ContextCompat.getColor(getContext(), R.color.theme_window_background);
-			while (isRunning) {
-				timeStamp = System.currentTimeMillis();
-				if (computer != null && !computer.isPaused()) {
-				    // Repaint surface
-				    canvas = surfaceHolder.lockCanvas(null);
-				    if (canvas != null) {
-				        try {
-				            synchronized (surfaceHolder) {
-				                canvas.drawColor(bgColor);
-				                canvas.drawBitmap(videoController.renderVideoBuffer(),
-				                        videoBufferBitmapTransformMatrix, null);
-				            }
-				        } finally {
-				            surfaceHolder.unlockCanvasAndPost(canvas);
-				        }
-				    }
-				}
-	            long currentTime = System.currentTimeMillis();
-	            updateFpsCounters(currentTime);
-	            updateFloppyActivityIndicator(currentTime);
-	            // Calculate time spent to canvas repaint
-                timeDelta = currentTime - timeStamp;
-                if (timeDelta < RENDERING_PERIOD) {
-                    try {
-                        Thread.sleep(RENDERING_PERIOD - timeDelta);
-                    } catch (InterruptedException e) {
-                    }
-                } else {
-                    Thread.yield();
-                }
-                // Calculate full elapsed time
-                timeDelta = (int) (System.currentTimeMillis() - timeStamp);
-			}
+	        FramePacer.FrameClock frameClock = createFrameClock();
+	        FramePacer pacer = new FramePacer(frameClock);
+	        framePacer = pacer;
+	        videoController.invalidateVideoBuffer();
+	        try {
+	            while (isRunning) {
+	                try {
+	                    pacer.waitForNextFrame();
+	                } catch (InterruptedException e) {
+	                    continue;
+	                }
+	                if (computer != null && !computer.isPaused()) {
+	                    checkVideoBufferBitmap(videoController);
+	                    VideoPostProcessor processor = checkPostProcessor(videoController);
+	                    // Repaint surface only if its content is changed
+	                    boolean isVideoBufferChanged = videoController.renderVideoBuffer();
+	                    boolean isFrameChanged;
+	                    if (processor != null) {
+	                        boolean isFirstFrame = (postProcessedBitmap == null);
+	                        if (isVideoBufferChanged) {
+	                            processor.submitFrame(videoController.getVideoBuffer());
+	                            if (isFirstFrame) {
+	                                // First frame is processed at once, so there is
+	                                // processed frame to draw until worker delivers next one
+	                                processFirstFrame(processor,
+	                                        videoController.getVideoBuffer());
+	                            }
+	                        }
+	                        // Frame is processed in background, last processed frame
+	                        // is drawn until next one is ready
+	                        VideoPostProcessor.Frame frame = processor.takeOutputFrame();
+	                        isFrameChanged = (frame != null)
+	                                || (isFirstFrame && isVideoBufferChanged);
+	                        if (frame != null) {
+	                            updatePostProcessedBitmap(frame);
+	                        }
+	                    } else {
+	                        isFrameChanged = isVideoBufferChanged;
+	                        if (isVideoBufferChanged) {
+	                            updateVideoBufferBitmap(videoController);
+	                        }
+	                    }
+	                    if (pacer.isFrameDrawRequired(isFrameChanged)) {
+	                        canvas = surfaceHolder.lockCanvas(null);
+	                        if (canvas != null) {
+	                            try {
+	                                drawFrame(canvas, bgColor);
+	                            } finally {
+	                                surfaceHolder.unlockCanvasAndPost(canvas);
+	                            }
+	                            pacer.onFrameDrawn(System.nanoTime());
+	                        } else {
+	                            pacer.requestRedraw();
+	                        }
+	                    }
+	                }
+	                long currentTime = System.currentTimeMillis();
+	                updateFpsCounters(currentTime, pacer);
+	                updateFloppyActivityIndicator(currentTime);
+	                if (isBusStatisticsDrawingEnabled) {
+	                    updateBusStatistics(currentTime);
+	                }
+	            }
+	        } finally {
+	            if (postProcessor != null) {
+	                postProcessor.release();
+	            }
+	            frameClock.release();
+	        }
+		}
+
+		/**
+		 * Create video buffer bitmap if it's not created yet or its format is changed.
+		 * @param videoController video controller to set video buffer format
+		 */
+		private void checkVideoBufferBitmap(VideoController videoController) {
+		    boolean isRgb565 = isVideoBufferRgb565;
+		    if (videoBufferBitmap == null || isRgb565 != videoController.isVideoBufferRgb565()) {
+		        videoController.setVideoBufferRgb565(isRgb565);
+		        videoBufferBitmap = Bitmap.createBitmap(VideoController.VIDEO_BUFFER_WIDTH,
+		                VideoController.VIDEO_BUFFER_HEIGHT, isRgb565 ? Bitmap.Config.RGB_565
+		                        : Bitmap.Config.ARGB_8888);
+		    }
+		}
+
+		private void updateVideoBufferBitmap(VideoController videoController) {
+		    if (videoController.isVideoBufferRgb565()) {
+		        // RGB_565 pixels are copied as is
+		        videoBufferBitmap.copyPixelsFromBuffer(ShortBuffer.wrap(
+		                videoController.getVideoBufferRgb565()));
+		    } else {
+		        videoBufferBitmap.setPixels(videoController.getVideoBuffer(), 0,
+		                VideoController.VIDEO_BUFFER_WIDTH, 0, 0,
+		                VideoController.VIDEO_BUFFER_WIDTH,
+		                VideoController.VIDEO_BUFFER_HEIGHT);
+		    }
+		}
+
+		/**
+		 * Create or release video post-processor according to selected filter and
+		 * update its output scale to fit current view size. Post-processing is not
+		 * used with RGB_565 video buffer format.
+		 * @param videoController video controller to invalidate video buffer
+		 * (to process or redraw current frame after post-processing switching)
+		 * @return video post-processor or <code>null</code> if it's not used
+		 */
+		private VideoPostProcessor checkPostProcessor(VideoController videoController) {
+		    VideoPostProcessor.Filter filter = videoFilter;
+		    if (filter == VideoPostProcessor.Filter.NONE
+		            || videoController.isVideoBufferRgb565()) {
+		        if (postProcessor != null) {
+		            postProcessor.release();
+		            postProcessor = null;
+		            postProcessedBitmap = null;
+		            videoController.invalidateVideoBuffer();
+		        }
+		        return null;
+		    }
+		    if (postProcessor == null) {
+		        postProcessor = new VideoPostProcessor(VideoController.VIDEO_BUFFER_WIDTH,
+		                VideoController.VIDEO_BUFFER_HEIGHT);
+		        videoController.invalidateVideoBuffer();
+		    }
+		    postProcessor.setFilter(filter);
+		    // Remaining fractional scaling is made while drawing
+		    postProcessor.setOutputScale((int) videoBufferBitmapScaleX,
+		            (int) videoBufferBitmapScaleY);
+		    return postProcessor;
+		}
+
+		private void processFirstFrame(VideoPostProcessor processor, int[] videoBuffer) {
+		    int width = VideoController.VIDEO_BUFFER_WIDTH * processor.getOutputScaleX();
+		    int height = VideoController.VIDEO_BUFFER_HEIGHT * processor.getOutputScaleY();
+		    int[] pixels = new int[width * height];
+		    processor.process(videoBuffer, pixels);
+		    updatePostProcessedBitmap(pixels, width, height);
+		}
+
+		private void updatePostProcessedBitmap(VideoPostProcessor.Frame frame) {
+		    updatePostProcessedBitmap(frame.getPixels(), frame.getWidth(), frame.getHeight());
+		}
+
+		private void updatePostProcessedBitmap(int[] pixels, int width, int height) {
+		    if (postProcessedBitmap == null || postProcessedBitmap.getWidth() != width
+		            || postProcessedBitmap.getHeight() != height) {
+		        // Bitmap is created only after output scale change
+		        postProcessedBitmap = Bitmap.createBitmap(width, height,
+		                Bitmap.Config.ARGB_8888);
+		    }
+		    postProcessedBitmap.setPixels(pixels, 0, width, 0, 0, width, height);
+		}
+
+		private void drawFrame(Canvas canvas, int bgColor) {
+		    synchronized (surfaceHolder) {
+		        canvas.drawColor(bgColor);
+		        Bitmap bitmap = postProcessedBitmap;
+		        if (postProcessor != null) {
+		            // Video buffer bitmap isn't updated while post-processing is used
+		            if (bitmap != null) {
+		                Matrix m = postProcessedBitmapTransformMatrix;
+		                m.set(videoBufferBitmapTransformMatrix);
+		                m.preScale((float) VideoController.VIDEO_BUFFER_WIDTH
+		                        / bitmap.getWidth(), (float) VideoController.VIDEO_BUFFER_HEIGHT
+		                        / bitmap.getHeight());
+		                canvas.drawBitmap(bitmap, m, postProcessedBitmapPaint);
+		            }
+		        } else {
+		            canvas.drawBitmap(videoBufferBitmap, videoBufferBitmapTransformMatrix, null);
+		        }
+		        if (isBusStatisticsDrawingEnabled) {
+		            drawBusStatistics(canvas);
+		        }
+		    }
 		}
 	}
 
@@ -175,11 +361,25 @@ public class BkEmuView extends SurfaceView implements SurfaceHolder.Callback {
 	class FpsIndicatorUpdateRunnable implements Runnable {
 	    @Override
 	    public void run() {
-	        // Set indicator color based on FPS value
-	        fpsIndicator.setTextColor((fpsValue > FPS_LOW_VALUE) ?
+	        long[] frameTimes = frameTimePercentileValues;
+	        // Set indicator color based on frame time 95th percentile value
+	        fpsIndicator.setTextColor((frameTimes[1] <= FRAME_TIME_HIGH_VALUE) ?
 	                FPS_COLOR_NORMAL : FPS_COLOR_LOW);
-	        // Set indicator FPS value text
-	        fpsIndicator.setText(String.format(fpsIndicatorString, fpsValue));
+	        // Set indicator FPS value and frame time percentiles text
+	        String fpsIndicatorText = String.format(fpsIndicatorString, fpsValue)
+	                + String.format(frameTimeIndicatorString,
+	                        frameTimes[0] / (float) Computer.NANOSECS_IN_MSEC,
+	                        frameTimes[1] / (float) Computer.NANOSECS_IN_MSEC,
+	                        frameTimes[2] / (float) Computer.NANOSECS_IN_MSEC);
+	        // Add run-ahead statistics, if run-ahead is enabled
+	        RunAhead runAhead = (computer != null) ? computer.getRunAhead() : null;
+	        if (runAhead != null) {
+	            fpsIndicatorText += String.format(runAheadIndicatorString,
+	                    runAhead.getFrames(),
+	                    runAhead.getAverageRunAheadTime() / (float) Computer.NANOSECS_IN_MSEC,
+	                    runAhead.getLatencyReduction() / Computer.NANOSECS_IN_MSEC);
+	        }
+	        fpsIndicator.setText(fpsIndicatorText);
 	        // Set FPS indicator visibility
 	        if (isFpsDrawingEnabled()) {
 	            fpsIndicator.setVisibility(VISIBLE);
@@ -218,6 +418,10 @@ public class BkEmuView extends SurfaceView implements SurfaceHolder.Callback {
         // Set surface events listener
         SurfaceHolder surfaceHolder = getHolder();
         surfaceHolder.addCallback(this);
+        this.busStatisticsPaint = new Paint(Paint.ANTI_ALIAS_FLAG);
+        busStatisticsPaint.setColor(FPS_COLOR_NORMAL);
+        busStatisticsPaint.setTypeface(Typeface.MONOSPACE);
+        busStatisticsPaint.setTextSize(BUS_STATISTICS_TEXT_SIZE);
 	}
 
 	public void setGestureListener(GestureListener listener) {
@@ -243,31 +447,102 @@ public class BkEmuView extends SurfaceView implements SurfaceHolder.Callback {
         return isFpsDrawingEnabled;
     }
 
+    /**
+     * Enable or disable bus access statistics overlay drawing. Computer bus access
+     * statistics collection is enabled or disabled accordingly.
+     * @param isEnabled <code>true</code> to enable overlay, <code>false</code> to disable
+     */
+    public void setBusStatisticsDrawingEnabled(boolean isEnabled) {
+        computer.setBusStatisticsEnabled(isEnabled);
+        lastBusStatisticsSnapshot = null;
+        busStatisticsLines = new String[0];
+        isBusStatisticsDrawingEnabled = isEnabled;
+        requestRedraw();
+    }
+
+    public boolean isBusStatisticsDrawingEnabled() {
+        return isBusStatisticsDrawingEnabled;
+    }
+
+    /**
+     * Set video buffer bitmap format.
+     * @param isRgb565 <code>true</code> to use RGB_565 bitmap format (half of memory
+     * bandwidth, for low-end devices), <code>false</code> to use ARGB_8888 bitmap format
+     */
+    public void setVideoBufferRgb565(boolean isRgb565) {
+        this.isVideoBufferRgb565 = isRgb565;
+    }
+
+    public boolean isVideoBufferRgb565() {
+        return isVideoBufferRgb565;
+    }
+
+    /**
+     * Set video post-processing filter. Frames are post-processed in background
+     * and scaled by integer factors before drawing.
+     * @param filter filter to set ({@link VideoPostProcessor.Filter#NONE} to draw
+     * video buffer bitmap as is)
+     */
+    public void setVideoFilter(VideoPostProcessor.Filter filter) {
+        this.videoFilter = filter;
+        requestRedraw();
+    }
+
+    public VideoPostProcessor.Filter getVideoFilter() {
+        return videoFilter;
+    }
+
     public void setOnScreenControlsTransitionStarted() {
         this.isOnScreenControlsTransitionStarted.set(true);
     }
 
-    protected void updateFpsCounters(long currentTime) {
+    protected void updateFpsCounters(long currentTime, FramePacer pacer) {
+        // Calculate time elapsed from last FPS counters update
+        int timeDelta = (int) (currentTime - fpsCountersUpdateTimestamp);
+        if (fpsCountersUpdateTimestamp > 0 && timeDelta < FPS_AVERAGING_TIME) {
+            return;
+        }
+        long drawnFrameCount = pacer.getDrawnFrameCount();
         if (fpsCountersUpdateTimestamp > 0) {
-        	fpsFrameCounter++;
-            // Calculate time elapsed from last FPS counters update
-            int timeDelta = (int) (currentTime - fpsCountersUpdateTimestamp);
-            // Calculate FPS value
-            fpsAccumulatedTime += timeDelta;
-            if (fpsAccumulatedTime >= FPS_AVERAGING_TIME) {
-                // Update FPS value
-                fpsValue = 1000 * fpsFrameCounter / fpsAccumulatedTime;
-                // Clear accumulated FPS frame and time
-                fpsFrameCounter = 0;
-                fpsAccumulatedTime = 0;
-                if (isFpsDrawingEnabled()) {
-                	// Update FPS indicator
-                	uiUpdateHandler.post(fpsIndicatorUpdateRunnable);
-                }
+            // Update FPS value (only drawn frames are counted) and frame time percentiles
+            fpsValue = (int) (1000 * (drawnFrameCount - fpsDrawnFrameCount) / timeDelta);
+            frameTimePercentileValues = pacer.getFrameTimePercentiles(FRAME_TIME_PERCENTILES);
+            if (isFpsDrawingEnabled()) {
+                // Update FPS indicator
+                uiUpdateHandler.post(fpsIndicatorUpdateRunnable);
             }
         }
-        // Store new timestamp value
+        // Store new timestamp and drawn frames count values
         fpsCountersUpdateTimestamp = currentTime;
+        fpsDrawnFrameCount = drawnFrameCount;
+    }
+
+    /**
+     * Create rendering frame clock, ticking on display vertical synchronization
+     * if it's supported or with display refresh rate otherwise.
+     * @return created frame clock
+     */
+    private FramePacer.FrameClock createFrameClock() {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN) {
+            return new VsyncFrameClock();
+        }
+        float refreshRate = ((WindowManager) getContext().getSystemService(
+                Context.WINDOW_SERVICE)).getDefaultDisplay().getRefreshRate();
+        if (refreshRate <= 0f) {
+            refreshRate = DEFAULT_DISPLAY_REFRESH_RATE;
+        }
+        return new FramePacer.SleepFrameClock((long) (1000 * Computer.NANOSECS_IN_MSEC
+                / refreshRate));
+    }
+
+    /**
+     * Request emulator screen redraw on next frame (even if its content is not changed).
+     */
+    protected void requestRedraw() {
+        FramePacer pacer = framePacer;
+        if (pacer != null) {
+            pacer.requestRedraw();
+        }
     }
 
     protected void updateFloppyActivityIndicator(long currentTime) {
@@ -278,13 +553,58 @@ public class BkEmuView extends SurfaceView implements SurfaceHolder.Callback {
         }
     }
 
+    protected void updateBusStatistics(long currentTime) {
+        if (currentTime - busStatisticsUpdateTimestamp < BUS_STATISTICS_UPDATE_PERIOD) {
+            return;
+        }
+        busStatisticsUpdateTimestamp = currentTime;
+        BusStatistics.Snapshot snapshot = computer.getBusStatisticsSnapshot();
+        if (snapshot == null) {
+            return;
+        }
+        BusStatistics.Snapshot previousSnapshot = lastBusStatisticsSnapshot;
+        lastBusStatisticsSnapshot = snapshot;
+        if (previousSnapshot == null) {
+            return;
+        }
+        // Show statistics for the last update period only
+        BusStatistics.Snapshot periodSnapshot = snapshot.since(previousSnapshot);
+        long totalReads = periodSnapshot.getTotalReads();
+        long totalWrites = periodSnapshot.getTotalWrites();
+        long totalAccesses = Math.max(1, totalReads + totalWrites);
+        int[] ioRegisterAddresses = periodSnapshot.getMostAccessedIoRegisters(
+                BUS_STATISTICS_MAX_IO_REGISTERS);
+        String[] lines = new String[ioRegisterAddresses.length + 1];
+        lines[0] = String.format("R:%d W:%d E:%d", totalReads, totalWrites,
+                periodSnapshot.getTotalBusErrors());
+        for (int i = 0; i < ioRegisterAddresses.length; i++) {
+            int address = ioRegisterAddresses[i];
+            long reads = periodSnapshot.getIoRegisterReads(address);
+            long writes = periodSnapshot.getIoRegisterWrites(address);
+            lines[i + 1] = String.format("%06o R:%d W:%d %.1f%%", address, reads, writes,
+                    100f * (reads + writes) / totalAccesses);
+        }
+        busStatisticsLines = lines;
+        requestRedraw();
+    }
+
+    protected void drawBusStatistics(Canvas canvas) {
+        String[] lines = busStatisticsLines;
+        float lineHeight = busStatisticsPaint.getFontSpacing();
+        float y = getHeight() - lineHeight * lines.length;
+        for (String line : lines) {
+            y += lineHeight;
+            canvas.drawText(line, lineHeight / 2, y - busStatisticsPaint.descent(),
+                    busStatisticsPaint);
+        }
+    }
+
     private void updateVideoBufferBitmapTransformMatrix(int viewWidth, int viewHeight) {
         Log.d(TAG, "update transform matrix, w:" + viewWidth + ", h:" + viewHeight);
         lastViewWidth = viewWidth;
         lastViewHeight = viewHeight;
-        Bitmap videoBufferBitmap = computer.getVideoController().getVideoBuffer();
-        int bitmapWidth = videoBufferBitmap.getWidth();
-        int bitmapHeight = videoBufferBitmap.getHeight();
+        int bitmapWidth = VideoController.VIDEO_BUFFER_WIDTH;
+        int bitmapHeight = VideoController.VIDEO_BUFFER_HEIGHT;
         float bitmapAspectRatio = (float) bitmapWidth / bitmapHeight;
         float bitmapTranslateX;
         float bitmapTranslateY;
@@ -304,7 +624,10 @@ public class BkEmuView extends SurfaceView implements SurfaceHolder.Callback {
         Matrix m = new Matrix();
         m.setScale(bitmapScaleX, bitmapScaleY);
         m.postTranslate(bitmapTranslateX, bitmapTranslateY);
+        videoBufferBitmapScaleX = bitmapScaleX;
+        videoBufferBitmapScaleY = bitmapScaleY;
         videoBufferBitmapTransformMatrix = m;
+        requestRedraw();
     }
 
 	/* (non-Javadoc)
@@ -330,6 +653,8 @@ public class BkEmuView extends SurfaceView implements SurfaceHolder.Callback {
 	    updateVideoBufferBitmapTransformMatrix(getWidth(), getHeight());
         // Get FPS indicator resources
         this.fpsIndicatorString = getContext().getString(R.string.fps_string);
+        this.runAheadIndicatorString = getContext().getString(R.string.run_ahead_string);
+        this.frameTimeIndicatorString = getContext().getString(R.string.frame_time_string);
         this.fpsIndicator = (TextView) ((FrameLayout) getParent())
         		.findViewById(R.id.fps_indicator);
         this.floppyActivityIndicator = (ImageView) ((FrameLayout) getParent())
@@ -0,0 +1,89 @@
+/*
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package su.comp.bk.ui;
+
+import su.comp.bk.util.FramePacer;
+import android.annotation.TargetApi;
+import android.os.Build;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.view.Choreographer;
+
+/**
+ * Frame clock ticking on display vertical synchronization ({@link Choreographer}
+ * frame callbacks, available since Android 4.1).
+ */
+@TargetApi(Build.VERSION_CODES.JELLY_BEAN)
+class VsyncFrameClock implements FramePacer.FrameClock, Choreographer.FrameCallback {
+
+    // Maximum frame clock tick waiting time (in milliseconds), frame clock ticks
+    // without vertical synchronization after timeout (for example, if display is off)
+    private final static long FRAME_WAIT_TIMEOUT = 100L;
+
+    // Frame callbacks thread
+    private final HandlerThread callbackThread;
+
+    private Choreographer choreographer;
+
+    // Last frame callback time (in nanoseconds)
+    private long lastFrameTime;
+    // Frame callbacks counter
+    private long frameCount;
+
+    VsyncFrameClock() {
+        callbackThread = new HandlerThread(VsyncFrameClock.class.getSimpleName());
+        callbackThread.start();
+        new Handler(callbackThread.getLooper()).post(new Runnable() {
+            @Override
+            public void run() {
+                // Choreographer instance is bound to callbacks thread looper
+                setChoreographer(Choreographer.getInstance());
+            }
+        });
+    }
+
+    private synchronized void setChoreographer(Choreographer choreographer) {
+        this.choreographer = choreographer;
+        notifyAll();
+    }
+
+    /**
+     * Stop frame callbacks thread.
+     */
+    @Override
+    public void release() {
+        callbackThread.quit();
+    }
+
+    @Override
+    public synchronized void doFrame(long frameTimeNanos) {
+        lastFrameTime = frameTimeNanos;
+        frameCount++;
+        notifyAll();
+    }
+
+    @Override
+    public synchronized long waitForNextFrame() throws InterruptedException {
+        long waitStartFrameCount = frameCount;
+        if (choreographer != null) {
+            // Frame callback may be still pending after wait timeout
+            choreographer.removeFrameCallback(this);
+            choreographer.postFrameCallback(this);
+        }
+        wait(FRAME_WAIT_TIMEOUT);
+        return (frameCount != waitStartFrameCount) ? lastFrameTime : System.nanoTime();
+    }
+
+}
@@ -0,0 +1,153 @@
+/*
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package su.comp.bk.util;
+
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URL;
+import java.net.URLDecoder;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+
+import su.comp.bk.arch.Computer;
+
+/**
+ * Program image in bin format (address/length/data) loader. Whole image data is read
+ * from channel and validated into reusable buffer before computer is locked to copy
+ * it to memory, so truncated images don't change memory and emulation isn't blocked
+ * by channel reading.
+ */
+public class BinImageLoader {
+
+    /** Bin image header length (address and length words) */
+    public final static int HEADER_LENGTH = 4;
+
+    // Image data buffer initial size (in bytes, grown to loaded image length if needed)
+    private final static int BUFFER_SIZE = 020000;
+
+    private final Computer computer;
+
+    private ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+
+    // Last loaded image address
+    private int lastImageAddress;
+    // Last loaded image length
+    private int lastImageLength;
+
+    public BinImageLoader(Computer computer) {
+        this.computer = computer;
+    }
+
+    /**
+     * Get last loaded image address.
+     * @return image load address
+     */
+    public int getLastImageAddress() {
+        return lastImageAddress;
+    }
+
+    /**
+     * Get last loaded image length.
+     * @return image length (without header)
+     */
+    public int getLastImageLength() {
+        return lastImageLength;
+    }
+
+    /**
+     * Load image from given URL. Images from <code>file:</code> URLs are read
+     * using file channel.
+     * @param imageUrl image URL
+     * @return image load address
+     * @throws IOException in case of image reading error
+     */
+    public int load(URL imageUrl) throws IOException {
+        if ("file".equals(imageUrl.getProtocol())) {
+            return load(new File(URLDecoder.decode(imageUrl.getPath().replace("+", "%2B"),
+                    "UTF-8")));
+        }
+        InputStream imageInput = imageUrl.openStream();
+        try {
+            return load(Channels.newChannel(imageInput));
+        } finally {
+            imageInput.close();
+        }
+    }
+
+    /**
+     * Load image from given file.
+     * @param imageFile image file
+     * @return image load address
+     * @throws IOException in case of image reading error
+     */
+    public int load(File imageFile) throws IOException {
+        FileInputStream imageInput = new FileInputStream(imageFile);
+        try {
+            return load(imageInput.getChannel());
+        } finally {
+            imageInput.close();
+        }
+    }
+
+    /**
+     * Load image from given channel.
+     * @param imageChannel channel to read image from
+     * @return image load address
+     * @throws IOException in case of image reading error
+     * @throws IllegalStateException in case of image data can't be written to memory
+     */
+    public synchronized int load(ReadableByteChannel imageChannel) throws IOException {
+        buffer.clear();
+        buffer.limit(HEADER_LENGTH);
+        readFully(imageChannel);
+        byte[] data = buffer.array();
+        int imageAddress = (data[0] & 0377) | ((data[1] & 0377) << 8);
+        int imageLength = (data[2] & 0377) | ((data[3] & 0377) << 8);
+        if (imageLength == 0 || imageAddress + imageLength > 0200000) {
+            throw new IOException("Invalid binary image length: " + imageLength);
+        }
+        if (buffer.capacity() < imageLength) {
+            buffer = ByteBuffer.allocate(imageLength);
+            data = buffer.array();
+        }
+        buffer.clear();
+        buffer.limit(imageLength);
+        readFully(imageChannel);
+        synchronized (computer) {
+            int writtenLength = computer.writeBlock(imageAddress, data, 0, imageLength);
+            if (writtenLength < imageLength) {
+                throw new IllegalStateException("Can't write binary image data to address: 0"
+                        + Integer.toOctalString(imageAddress + writtenLength));
+            }
+        }
+        lastImageAddress = imageAddress;
+        lastImageLength = imageLength;
+        return imageAddress;
+    }
+
+    // Fill buffer up to its limit, short read is reported by EOFException
+    private void readFully(ReadableByteChannel channel) throws IOException {
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer) < 0) {
+                throw new EOFException("Binary image data is truncated");
+            }
+        }
+    }
+
+}
@@ -0,0 +1,184 @@
+/*
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package su.comp.bk.util;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import su.comp.bk.arch.Computer;
+
+/**
+ * Content driven frame pacer. Frames are paced by {@link FrameClock} ticks (up to the
+ * display refresh rate), but drawn only while displayed content is changed or redraw
+ * is requested explicitly. Time from frame clock tick to drawn frame posting is
+ * collected to report frame time percentiles.
+ */
+public class FramePacer {
+
+    // Number of last drawn frames to calculate frame time percentiles
+    private final static int FRAME_TIMES_SIZE = 128;
+
+    /**
+     * Frame clock interface.
+     */
+    public interface FrameClock {
+        /**
+         * Wait for next frame clock tick.
+         * @return frame clock tick time (in nanoseconds, {@link System#nanoTime()} based)
+         * @throws InterruptedException if waiting thread is interrupted
+         */
+        long waitForNextFrame() throws InterruptedException;
+
+        /**
+         * Release frame clock resources.
+         */
+        void release();
+    }
+
+    /**
+     * Frame clock ticking with fixed period, used if no display vertical
+     * synchronization callback is available.
+     */
+    public static class SleepFrameClock implements FrameClock {
+
+        private final long framePeriod;
+
+        // Next frame clock tick time (in nanoseconds)
+        private long nextFrameTime;
+
+        /**
+         * Create frame clock ticking with given period.
+         * @param framePeriod frame period (in nanoseconds)
+         */
+        public SleepFrameClock(long framePeriod) {
+            this.framePeriod = framePeriod;
+        }
+
+        @Override
+        public long waitForNextFrame() throws InterruptedException {
+            long currentTime = System.nanoTime();
+            long delay = nextFrameTime - currentTime;
+            if (delay > 0) {
+                Thread.sleep(delay / Computer.NANOSECS_IN_MSEC,
+                        (int) (delay % Computer.NANOSECS_IN_MSEC));
+            } else if (-delay > framePeriod) {
+                // Frame ticks are missed, resynchronize clock
+                nextFrameTime = currentTime;
+            }
+            long frameTime = nextFrameTime;
+            nextFrameTime += framePeriod;
+            return frameTime;
+        }
+
+        @Override
+        public void release() {
+            // Do nothing
+        }
+    }
+
+    private final FrameClock frameClock;
+
+    // Redraw request flag: true to draw next frame even if content is not changed
+    private final AtomicBoolean isRedrawRequested = new AtomicBoolean(true);
+
+    // Current frame clock tick time (in nanoseconds)
+    private long frameTime;
+
+    // Drawn and skipped (due to unchanged content) frames counters
+    private long drawnFrameCount;
+    private long skippedFrameCount;
+
+    // Last drawn frame times ring buffer (in nanoseconds)
+    private final long[] frameTimes = new long[FRAME_TIMES_SIZE];
+    private int frameTimesCount;
+    private int frameTimesIndex;
+
+    public FramePacer(FrameClock frameClock) {
+        this.frameClock = frameClock;
+    }
+
+    /**
+     * Wait for next frame clock tick.
+     * @return frame clock tick time (in nanoseconds)
+     * @throws InterruptedException if waiting thread is interrupted
+     */
+    public long waitForNextFrame() throws InterruptedException {
+        frameTime = frameClock.waitForNextFrame();
+        return frameTime;
+    }
+
+    /**
+     * Request to draw next frame even if its content is not changed (for example,
+     * after overlays or view size change). Can be called from any thread.
+     */
+    public void requestRedraw() {
+        isRedrawRequested.set(true);
+    }
+
+    /**
+     * Check current frame should be drawn.
+     * @param isContentChanged <code>true</code> if frame content is changed since
+     * last drawn frame
+     * @return <code>true</code> if frame should be drawn, <code>false</code> if frame
+     * is skipped
+     */
+    public boolean isFrameDrawRequired(boolean isContentChanged) {
+        if (isRedrawRequested.getAndSet(false) | isContentChanged) {
+            return true;
+        }
+        skippedFrameCount++;
+        return false;
+    }
+
+    /**
+     * Notify current frame is drawn and posted to display.
+     * @param frameEndTime frame posting time (in nanoseconds)
+     */
+    public void onFrameDrawn(long frameEndTime) {
+        drawnFrameCount++;
+        frameTimes[frameTimesIndex] = frameEndTime - frameTime;
+        frameTimesIndex = (frameTimesIndex + 1) % FRAME_TIMES_SIZE;
+        frameTimesCount = Math.min(frameTimesCount + 1, FRAME_TIMES_SIZE);
+    }
+
+    public long getDrawnFrameCount() {
+        return drawnFrameCount;
+    }
+
+    public long getSkippedFrameCount() {
+        return skippedFrameCount;
+    }
+
+    /**
+     * Get frame time percentiles for last drawn frames.
+     * @param percentiles percentiles to get (0-100)
+     * @return frame times (in nanoseconds) for given percentiles (0 if no frames
+     * were drawn yet)
+     */
+    public long[] getFrameTimePercentiles(int... percentiles) {
+        long[] values = new long[percentiles.length];
+        if (frameTimesCount > 0) {
+            long[] sortedFrameTimes = Arrays.copyOf(frameTimes, frameTimesCount);
+            Arrays.sort(sortedFrameTimes);
+            for (int i = 0; i < percentiles.length; i++) {
+                int index = (percentiles[i] * frameTimesCount + 99) / 100 - 1;
+                values[i] = sortedFrameTimes[Math.max(0, Math.min(frameTimesCount - 1,
+                        index))];
+            }
+        }
+        return values;
+    }
+
+}
@@ -0,0 +1,280 @@
+/*
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package su.comp.bk.util;
+
+import java.util.Arrays;
+
+import su.comp.bk.arch.io.VideoController;
+
+/**
+ * Screen text decoder. Maps each text screen char cell of displayed video memory data
+ * back to char code by looking up its glyph bytes in glyphs index built from ROM fonts,
+ * without any rendering. Text screen layout is the same as used by monitor text output
+ * routines: {@link #ROWS} rows of {@link #GLYPH_HEIGHT} lines height below 16 lines
+ * high service line, {@link #COLUMNS_BW} one byte wide columns in black and white mode
+ * or {@link #COLUMNS_COLOR} one word wide columns in color mode. Current scroll register
+ * value is taken into account, inversed (and cursor) char cells are also recognized.
+ */
+public class ScreenTextDecoder {
+
+    /** Text screen rows */
+    public final static int ROWS = 24;
+    /** Text screen columns in black and white mode */
+    public final static int COLUMNS_BW = 64;
+    /** Text screen columns in color mode */
+    public final static int COLUMNS_COLOR = 32;
+    /** Char glyph height (in lines) */
+    public final static int GLYPH_HEIGHT = 10;
+
+    /** Char code of unrecognized char cell */
+    public final static int UNKNOWN_CHAR_CODE = -1;
+    /** Char used for unrecognized char cells in decoded text */
+    public final static char UNKNOWN_CHAR = '\ufffd';
+
+    /** BK0010 monitor ROM font offset (glyphs of chars 040-0177 and 0240-0377) */
+    public final static int MONITOR_FONT_OFFSET = 012276;
+    /** BK0011M BOS extension ROM font offset (glyphs of chars 040-0377) */
+    public final static int EXTENSION_FONT_OFFSET = 013436;
+
+    // Screen line of first text row top line
+    private final static int FIRST_ROW_SCREEN_LINE = 16;
+
+    // Glyphs index size (power of two, at least twice the maximum number of glyphs)
+    private final static int GLYPHS_INDEX_SIZE = 01000;
+
+    // Color mode videoRAM byte (four pixels) to glyph bits (nibble) table
+    private final static int[] COLOR_BYTE_TO_GLYPH_BITS = new int[0400];
+
+    static {
+        for (int colorByte = 0; colorByte < 0400; colorByte++) {
+            int glyphBits = 0;
+            for (int pixel = 0; pixel < 4; pixel++) {
+                if (((colorByte >> (pixel * 2)) & 3) != 0) {
+                    glyphBits |= 1 << pixel;
+                }
+            }
+            COLOR_BYTE_TO_GLYPH_BITS[colorByte] = glyphBits;
+        }
+    }
+
+    // Glyphs index (open addressing hash table): glyph lines 0-7 bytes, glyph lines 8-9
+    // bytes and char codes (UNKNOWN_CHAR_CODE for free entries)
+    private final long[] glyphsIndexTopLines = new long[GLYPHS_INDEX_SIZE];
+    private final int[] glyphsIndexBottomLines = new int[GLYPHS_INDEX_SIZE];
+    private final int[] glyphsIndexCharCodes = new int[GLYPHS_INDEX_SIZE];
+    private int glyphsCount;
+
+    // Decoded char codes (by rows) and columns count
+    private final int[] charCodes = new int[ROWS * COLUMNS_BW];
+    private int columns = COLUMNS_BW;
+
+    // Displayed video data lines of currently decoded text row
+    private final int[] rowVideoDataLines = new int[GLYPH_HEIGHT];
+
+    public ScreenTextDecoder() {
+        Arrays.fill(glyphsIndexCharCodes, UNKNOWN_CHAR_CODE);
+        Arrays.fill(charCodes, ' ');
+    }
+
+    /**
+     * Add font glyphs to glyphs index. Glyphs are stored one after another, each glyph
+     * is {@link #GLYPH_HEIGHT} bytes (one byte per line, low bit is leftmost pixel).
+     * If glyph is already indexed, its previously added char code is kept.
+     * @param fontData font data
+     * @param offset font data offset of first glyph
+     * @param firstCharCode char code of first glyph
+     * @param lastCharCode char code of last glyph
+     */
+    public void addFont(byte[] fontData, int offset, int firstCharCode, int lastCharCode) {
+        for (int charCode = firstCharCode; charCode <= lastCharCode; charCode++) {
+            int glyphOffset = offset + (charCode - firstCharCode) * GLYPH_HEIGHT;
+            long topLines = 0;
+            for (int line = 0; line < 8; line++) {
+                topLines |= (long) (fontData[glyphOffset + line] & 0377) << (line * 8);
+            }
+            int bottomLines = (fontData[glyphOffset + 8] & 0377)
+                    | ((fontData[glyphOffset + 9] & 0377) << 8);
+            addGlyph(topLines, bottomLines, charCode);
+        }
+    }
+
+    /**
+     * Add BK0010 monitor ROM font glyphs to glyphs index.
+     * @param monitorRomData monitor ROM data
+     */
+    public void addMonitorFont(byte[] monitorRomData) {
+        addFont(monitorRomData, MONITOR_FONT_OFFSET, 040, 0177);
+        addFont(monitorRomData, MONITOR_FONT_OFFSET + 0140 * GLYPH_HEIGHT, 0240, 0377);
+    }
+
+    /**
+     * Add BK0011M BOS extension ROM font glyphs to glyphs index.
+     * @param extensionRomData BOS extension ROM data
+     */
+    public void addExtensionFont(byte[] extensionRomData) {
+        addFont(extensionRomData, EXTENSION_FONT_OFFSET, 040, 0377);
+    }
+
+    /**
+     * Get number of indexed glyphs.
+     * @return indexed glyphs count
+     */
+    public int getGlyphsCount() {
+        return glyphsCount;
+    }
+
+    private void addGlyph(long topLines, int bottomLines, int charCode) {
+        if (glyphsCount >= GLYPHS_INDEX_SIZE / 2) {
+            throw new IllegalStateException("Glyphs index is full");
+        }
+        int index = getGlyphIndex(topLines, bottomLines);
+        if (glyphsIndexCharCodes[index] == UNKNOWN_CHAR_CODE) {
+            glyphsIndexTopLines[index] = topLines;
+            glyphsIndexBottomLines[index] = bottomLines;
+            glyphsIndexCharCodes[index] = charCode;
+            glyphsCount++;
+        }
+    }
+
+    /**
+     * Find glyphs index entry for given glyph.
+     * @return index entry with given glyph or free entry if glyph is not indexed
+     */
+    private int getGlyphIndex(long topLines, int bottomLines) {
+        long hash = (topLines ^ (topLines >>> 29) ^ bottomLines) * 0x9e3779b97f4a7c15L;
+        int index = (int) (hash >>> 40) & (GLYPHS_INDEX_SIZE - 1);
+        while (glyphsIndexCharCodes[index] != UNKNOWN_CHAR_CODE
+                && (glyphsIndexTopLines[index] != topLines
+                        || glyphsIndexBottomLines[index] != bottomLines)) {
+            index = (index + 1) & (GLYPHS_INDEX_SIZE - 1);
+        }
+        return index;
+    }
+
+    private int findCharCode(long topLines, int bottomLines) {
+        int charCode = glyphsIndexCharCodes[getGlyphIndex(topLines, bottomLines)];
+        if (charCode == UNKNOWN_CHAR_CODE) {
+            // Check for inversed glyph
+            charCode = glyphsIndexCharCodes[getGlyphIndex(~topLines, ~bottomLines & 0177777)];
+        }
+        return charCode;
+    }
+
+    /**
+     * Decode text screen currently displayed by given video controller.
+     * @param videoController {@link VideoController} to decode displayed text screen
+     * @return number of unrecognized char cells
+     */
+    public int decode(VideoController videoController) {
+        short[] videoData = videoController.getVideoData();
+        boolean isColorMode = videoController.isColorMode();
+        columns = isColorMode ? COLUMNS_COLOR : COLUMNS_BW;
+        int unknownCharsCount = 0;
+        for (int row = 0; row < ROWS; row++) {
+            for (int line = 0; line < GLYPH_HEIGHT; line++) {
+                rowVideoDataLines[line] = videoController.getDisplayedVideoDataLine(
+                        FIRST_ROW_SCREEN_LINE + row * GLYPH_HEIGHT + line);
+            }
+            for (int column = 0; column < columns; column++) {
+                long topLines = 0;
+                int bottomLines = 0;
+                for (int line = 0; line < GLYPH_HEIGHT; line++) {
+                    int videoDataLine = rowVideoDataLines[line];
+                    if (videoDataLine < 0) {
+                        continue;
+                    }
+                    int glyphByte;
+                    if (isColorMode) {
+                        int videoDataWord = videoData[videoDataLine
+                                * VideoController.INDEXED_FRAME_LINE_LENGTH + column];
+                        glyphByte = COLOR_BYTE_TO_GLYPH_BITS[videoDataWord & 0377]
+                                | (COLOR_BYTE_TO_GLYPH_BITS[(videoDataWord >> 8) & 0377] << 4);
+                    } else {
+                        int videoDataWord = videoData[videoDataLine
+                                * VideoController.INDEXED_FRAME_LINE_LENGTH + (column >> 1)];
+                        // Low byte pixels are displayed first
+                        glyphByte = ((column & 1) == 0 ? videoDataWord : videoDataWord >> 8)
+                                & 0377;
+                    }
+                    if (line < 8) {
+                        topLines |= (long) glyphByte << (line * 8);
+                    } else {
+                        bottomLines |= glyphByte << ((line - 8) * 8);
+                    }
+                }
+                int charCode = findCharCode(topLines, bottomLines);
+                if (charCode == UNKNOWN_CHAR_CODE) {
+                    unknownCharsCount++;
+                }
+                charCodes[row * COLUMNS_BW + column] = charCode;
+            }
+        }
+        return unknownCharsCount;
+    }
+
+    /**
+     * Get number of columns of last decoded text screen.
+     * @return {@link #COLUMNS_BW} or {@link #COLUMNS_COLOR}
+     */
+    public int getColumns() {
+        return columns;
+    }
+
+    /**
+     * Get last decoded text screen char code.
+     * @param row text screen row (0 - top row)
+     * @param column text screen column (0 - leftmost column)
+     * @return char code or {@link #UNKNOWN_CHAR_CODE} if char cell is not recognized
+     */
+    public int getCharCode(int row, int column) {
+        return charCodes[row * COLUMNS_BW + column];
+    }
+
+    /**
+     * Get last decoded text screen row text. Char codes are converted to chars as is.
+     * @param row text screen row (0 - top row)
+     * @return row text (without trailing spaces), unrecognized char cells are
+     * replaced by {@link #UNKNOWN_CHAR}
+     */
+    public String getRowText(int row) {
+        int length = columns;
+        while (length > 0 && getCharCode(row, length - 1) == ' ') {
+            length--;
+        }
+        StringBuilder rowText = new StringBuilder(length);
+        for (int column = 0; column < length; column++) {
+            int charCode = getCharCode(row, column);
+            rowText.append((charCode != UNKNOWN_CHAR_CODE) ? (char) charCode : UNKNOWN_CHAR);
+        }
+        return rowText.toString();
+    }
+
+    /**
+     * Get last decoded text screen text.
+     * @return text screen rows text (see {@link #getRowText(int)}) separated by
+     * <code>'\n'</code> chars
+     */
+    public String getText() {
+        StringBuilder text = new StringBuilder();
+        for (int row = 0; row < ROWS; row++) {
+            if (row > 0) {
+                text.append('\n');
+            }
+            text.append(getRowText(row));
+        }
+        return text.toString();
+    }
+
+}
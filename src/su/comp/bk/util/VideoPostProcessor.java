@@ -0,0 +1,391 @@
+/*
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package su.comp.bk.util;
+
+import android.util.Log;
+
+/**
+ * Video frame post-processor. Input frames (ARGB pixels) are scaled by integer factors
+ * using nearest neighbor scaling and shaded by selected {@link Filter} on dedicated
+ * worker thread. Filters are applied using lookup tables precomputed for each output
+ * row and column phase, processed frames are written to reusable output frames (no
+ * allocations are made per frame). Last input frame is kept, so it's processed again
+ * only if filter or output scale is changed.
+ */
+public class VideoPostProcessor implements Runnable {
+
+    private static final String TAG = VideoPostProcessor.class.getName();
+
+    /**
+     * Post-processing filters. Filter names are listed in <code>screen_filters</code>
+     * string array resource in the same order.
+     */
+    public enum Filter {
+        /** No post-processing */
+        NONE,
+        /** Integer nearest neighbor scaling only */
+        NEAREST,
+        /** Nearest neighbor scaling with darkened gaps between scan lines */
+        SCANLINES,
+        /** Scan lines with CRT aperture grille (vertical RGB stripes) mask */
+        CRT
+    }
+
+    /** Maximum output scale factor */
+    public final static int MAX_OUTPUT_SCALE = 3;
+
+    // Scan line gap brightness (for output rows between input lines)
+    private final static float SCANLINE_GAP_BRIGHTNESS = 0.55f;
+    // CRT mask brightness of color channels not passed by mask stripe
+    private final static float CRT_MASK_BRIGHTNESS = 0.65f;
+    // CRT mask period (in output pixels)
+    private final static int CRT_MASK_PERIOD = 3;
+
+    /**
+     * Processed output frame. Output frames are reused, frame pixels are valid until
+     * next output frame taking.
+     */
+    public static class Frame {
+        private int[] pixels = new int[0];
+        private int width;
+        private int height;
+
+        public int[] getPixels() {
+            return pixels;
+        }
+
+        public int getWidth() {
+            return width;
+        }
+
+        public int getHeight() {
+            return height;
+        }
+
+        private void setSize(int width, int height) {
+            if (pixels.length < width * height) {
+                pixels = new int[width * height];
+            }
+            this.width = width;
+            this.height = height;
+        }
+    }
+
+    /**
+     * Lookup tables precomputed for filter and output scale. Lookup table values
+     * are already shifted to color channel position in ARGB pixel.
+     */
+    private static class LookupTables {
+        final int scaleX;
+        final int scaleY;
+        // Column phases count
+        final int columnPhases;
+        // Lookup tables by output row phase and column phase
+        final int[][][] red;
+        final int[][][] green;
+        final int[][][] blue;
+        // Output row phases with identity lookup tables (no shading)
+        final boolean[] isIdentityRowPhase;
+
+        LookupTables(Filter filter, int scaleX, int scaleY) {
+            this.scaleX = scaleX;
+            this.scaleY = scaleY;
+            columnPhases = (filter == Filter.CRT) ? CRT_MASK_PERIOD : 1;
+            red = new int[scaleY][columnPhases][];
+            green = new int[scaleY][columnPhases][];
+            blue = new int[scaleY][columnPhases][];
+            isIdentityRowPhase = new boolean[scaleY];
+            for (int rowPhase = 0; rowPhase < scaleY; rowPhase++) {
+                // Last output row of each input line is scan line gap (if scaled vertically)
+                float rowBrightness = (filter != Filter.SCANLINES && filter != Filter.CRT)
+                        || scaleY < 2 || rowPhase < scaleY - 1 ? 1f : SCANLINE_GAP_BRIGHTNESS;
+                isIdentityRowPhase[rowPhase] = (rowBrightness == 1f && columnPhases == 1);
+                for (int columnPhase = 0; columnPhase < columnPhases; columnPhase++) {
+                    float redBrightness = rowBrightness;
+                    float greenBrightness = rowBrightness;
+                    float blueBrightness = rowBrightness;
+                    if (filter == Filter.CRT) {
+                        // Each mask stripe passes one color channel
+                        redBrightness *= (columnPhase == 0) ? 1f : CRT_MASK_BRIGHTNESS;
+                        greenBrightness *= (columnPhase == 1) ? 1f : CRT_MASK_BRIGHTNESS;
+                        blueBrightness *= (columnPhase == 2) ? 1f : CRT_MASK_BRIGHTNESS;
+                    }
+                    red[rowPhase][columnPhase] = createLookupTable(redBrightness, 16);
+                    green[rowPhase][columnPhase] = createLookupTable(greenBrightness, 8);
+                    blue[rowPhase][columnPhase] = createLookupTable(blueBrightness, 0);
+                }
+            }
+        }
+
+        private static int[] createLookupTable(float brightness, int shift) {
+            int[] table = new int[0400];
+            for (int value = 0; value < table.length; value++) {
+                table[value] = Math.min(0377, Math.round(value * brightness)) << shift;
+            }
+            return table;
+        }
+    }
+
+    private final int inputWidth;
+    private final int inputHeight;
+
+    private final Thread workerThread;
+
+    // Pending input frame pixels (copied from submitted frame) and worker thread
+    // input pixels (last processed input frame)
+    private int[] pendingInputPixels;
+    private int[] workerInputPixels;
+    // New input frame is submitted flag (cleared when taken by worker thread)
+    private boolean isInputSubmitted;
+    // Last input frame processing is requested flag (after settings change)
+    private boolean isReprocessingRequested;
+    // Worker thread input frame is valid flag
+    private boolean isWorkerInputValid;
+
+    // Output frames: processing by worker thread, last processed and taken for drawing
+    private Frame processingFrame = new Frame();
+    private Frame processedFrame = new Frame();
+    private Frame takenFrame = new Frame();
+    // Processed frame is updated since last taking flag
+    private boolean isProcessedFrameUpdated;
+
+    // Filter and output scale settings
+    private Filter filter = Filter.NEAREST;
+    private int outputScaleX = 1;
+    private int outputScaleY = 1;
+
+    // Lookup tables for current filter and output scale
+    private LookupTables lookupTables = new LookupTables(filter, outputScaleX, outputScaleY);
+
+    // Processed frames counter
+    private long processedFrameCount;
+
+    private boolean isReleased;
+
+    /**
+     * Create post-processor and start its worker thread.
+     * @param inputWidth input frame width (in pixels)
+     * @param inputHeight input frame height (in pixels)
+     */
+    public VideoPostProcessor(int inputWidth, int inputHeight) {
+        this.inputWidth = inputWidth;
+        this.inputHeight = inputHeight;
+        this.pendingInputPixels = new int[inputWidth * inputHeight];
+        this.workerInputPixels = new int[inputWidth * inputHeight];
+        workerThread = new Thread(this, "VideoPostProcessorThread");
+        workerThread.start();
+    }
+
+    public synchronized Filter getFilter() {
+        return filter;
+    }
+
+    /**
+     * Set post-processing filter. Last input frame is processed again with new filter.
+     * @param filter filter to set ({@link Filter#NONE} is processed as
+     * {@link Filter#NEAREST})
+     */
+    public synchronized void setFilter(Filter filter) {
+        if (this.filter != filter) {
+            this.filter = filter;
+            lookupTables = new LookupTables(filter, outputScaleX, outputScaleY);
+            reprocessInput();
+        }
+    }
+
+    public synchronized int getOutputScaleX() {
+        return outputScaleX;
+    }
+
+    public synchronized int getOutputScaleY() {
+        return outputScaleY;
+    }
+
+    /**
+     * Set output frame scale. Last input frame is processed again with new scale.
+     * @param scaleX horizontal scale factor (1 to {@link #MAX_OUTPUT_SCALE})
+     * @param scaleY vertical scale factor (1 to {@link #MAX_OUTPUT_SCALE})
+     */
+    public synchronized void setOutputScale(int scaleX, int scaleY) {
+        scaleX = Math.max(1, Math.min(MAX_OUTPUT_SCALE, scaleX));
+        scaleY = Math.max(1, Math.min(MAX_OUTPUT_SCALE, scaleY));
+        if (outputScaleX != scaleX || outputScaleY != scaleY) {
+            outputScaleX = scaleX;
+            outputScaleY = scaleY;
+            lookupTables = new LookupTables(filter, outputScaleX, outputScaleY);
+            reprocessInput();
+        }
+    }
+
+    /**
+     * Get number of frames processed by worker thread.
+     * @return processed frames count
+     */
+    public synchronized long getProcessedFrameCount() {
+        return processedFrameCount;
+    }
+
+    /**
+     * Submit input frame for processing. Input pixels are copied, so caller can reuse
+     * them immediately. If previously submitted frame is not processed yet, it's replaced.
+     * @param inputPixels input frame pixels (ARGB)
+     */
+    public synchronized void submitFrame(int[] inputPixels) {
+        System.arraycopy(inputPixels, 0, pendingInputPixels, 0, pendingInputPixels.length);
+        isInputSubmitted = true;
+        notifyAll();
+    }
+
+    private void reprocessInput() {
+        isReprocessingRequested = true;
+        notifyAll();
+    }
+
+    /**
+     * Take last processed output frame (if it was updated after previous taking).
+     * Taken frame is kept unchanged until next taking.
+     * @return processed output frame or <code>null</code> if no frame was processed
+     * since previous taking
+     */
+    public synchronized Frame takeOutputFrame() {
+        if (!isProcessedFrameUpdated) {
+            return null;
+        }
+        Frame frame = processedFrame;
+        processedFrame = takenFrame;
+        takenFrame = frame;
+        isProcessedFrameUpdated = false;
+        return frame;
+    }
+
+    /**
+     * Stop worker thread.
+     */
+    public void release() {
+        synchronized (this) {
+            isReleased = true;
+            notifyAll();
+        }
+        while (workerThread.isAlive()) {
+            try {
+                workerThread.join();
+            } catch (InterruptedException e) {
+            }
+        }
+        Log.d(TAG, "post-processor released, frames processed: " + processedFrameCount);
+    }
+
+    @Override
+    public void run() {
+        while (true) {
+            Frame frame;
+            LookupTables tables;
+            synchronized (this) {
+                while (!isInputSubmitted && !(isReprocessingRequested && isWorkerInputValid)
+                        && !isReleased) {
+                    try {
+                        wait();
+                    } catch (InterruptedException e) {
+                    }
+                }
+                if (isReleased) {
+                    break;
+                }
+                if (isInputSubmitted) {
+                    // Swap input buffers, pending input buffer is free for next frame
+                    int[] inputPixels = pendingInputPixels;
+                    pendingInputPixels = workerInputPixels;
+                    workerInputPixels = inputPixels;
+                    isWorkerInputValid = true;
+                    isInputSubmitted = false;
+                }
+                isReprocessingRequested = false;
+                tables = lookupTables;
+                frame = processingFrame;
+            }
+            frame.setSize(inputWidth * tables.scaleX, inputHeight * tables.scaleY);
+            process(workerInputPixels, frame.pixels, tables);
+            synchronized (this) {
+                processingFrame = processedFrame;
+                processedFrame = frame;
+                isProcessedFrameUpdated = true;
+                processedFrameCount++;
+            }
+        }
+    }
+
+    /**
+     * Process input frame to output pixels using current filter and output scale.
+     * @param inputPixels input frame pixels (ARGB)
+     * @param outputPixels output frame pixels (at least input frame size multiplied
+     * by output scale factors)
+     */
+    public void process(int[] inputPixels, int[] outputPixels) {
+        LookupTables tables;
+        synchronized (this) {
+            tables = lookupTables;
+        }
+        process(inputPixels, outputPixels, tables);
+    }
+
+    private void process(int[] inputPixels, int[] outputPixels, LookupTables tables) {
+        int scaleX = tables.scaleX;
+        int scaleY = tables.scaleY;
+        int outputWidth = inputWidth * scaleX;
+        int columnPhases = tables.columnPhases;
+        boolean[] isIdentityRowPhase = tables.isIdentityRowPhase;
+        for (int inputY = 0; inputY < inputHeight; inputY++) {
+            int inputOffset = inputY * inputWidth;
+            for (int rowPhase = 0; rowPhase < scaleY; rowPhase++) {
+                int outputOffset = (inputY * scaleY + rowPhase) * outputWidth;
+                if (isIdentityRowPhase[rowPhase]) {
+                    if (rowPhase > 0 && isIdentityRowPhase[rowPhase - 1]) {
+                        // Output row is the same as previous one
+                        System.arraycopy(outputPixels, outputOffset - outputWidth,
+                                outputPixels, outputOffset, outputWidth);
+                    } else {
+                        for (int x = 0; x < inputWidth; x++) {
+                            int pixel = inputPixels[inputOffset + x];
+                            for (int i = 0; i < scaleX; i++) {
+                                outputPixels[outputOffset++] = pixel;
+                            }
+                        }
+                    }
+                    continue;
+                }
+                int[][] redTables = tables.red[rowPhase];
+                int[][] greenTables = tables.green[rowPhase];
+                int[][] blueTables = tables.blue[rowPhase];
+                int columnPhase = 0;
+                for (int x = 0; x < inputWidth; x++) {
+                    int pixel = inputPixels[inputOffset + x];
+                    int red = (pixel >> 16) & 0377;
+                    int green = (pixel >> 8) & 0377;
+                    int blue = pixel & 0377;
+                    for (int i = 0; i < scaleX; i++) {
+                        outputPixels[outputOffset++] = 0xff000000
+                                | redTables[columnPhase][red]
+                                | greenTables[columnPhase][green]
+                                | blueTables[columnPhase][blue];
+                        if (++columnPhase == columnPhases) {
+                            columnPhase = 0;
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+}
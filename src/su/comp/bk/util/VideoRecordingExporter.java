@@ -0,0 +1,163 @@
+/*
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package su.comp.bk.util;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.zip.CRC32;
+import java.util.zip.DeflaterOutputStream;
+
+import su.comp.bk.arch.VideoRecordingReader;
+import su.comp.bk.arch.io.VideoController;
+
+/**
+ * Offline video recording exporter. Recording frames are exported as sequence
+ * of PNG images ({@link VideoController#VIDEO_BUFFER_WIDTH} x
+ * {@link VideoController#VIDEO_BUFFER_HEIGHT} RGB pixels), frames dropped while
+ * recording are exported as copies of previous frame.
+ */
+public class VideoRecordingExporter {
+
+    /** Exported image file name format (with frame number) */
+    public final static String IMAGE_FILE_NAME_FORMAT = "frame%06d.png";
+
+    // PNG file signature
+    private final static byte[] PNG_SIGNATURE = { (byte) 0x89, 'P', 'N', 'G',
+        '\r', '\n', 0x1a, '\n' };
+    // PNG image bit depth and color type (8 bits per sample RGB)
+    private final static int PNG_BIT_DEPTH = 8;
+    private final static int PNG_COLOR_TYPE_RGB = 2;
+    // PNG scanline filter type (none)
+    private final static int PNG_FILTER_NONE = 0;
+
+    private final int frameStep;
+
+    // Last read frame image RGB scanlines (with filter type bytes)
+    private final byte[] imageData = new byte[VideoController.VIDEO_BUFFER_HEIGHT
+            * (1 + VideoController.VIDEO_BUFFER_WIDTH * 3)];
+
+    /**
+     * Create video recording exporter.
+     * @param frameStep export every N-th frame (1 to export all frames)
+     */
+    public VideoRecordingExporter(int frameStep) {
+        if (frameStep < 1) {
+            throw new IllegalArgumentException("Invalid frame step: " + frameStep);
+        }
+        this.frameStep = frameStep;
+    }
+
+    /**
+     * Export recording to image files sequence.
+     * @param recordingInput {@link InputStream} to read recording from
+     * @param outputDir directory to write image files to
+     * @return number of written image files
+     * @throws IOException in case of recording reading or image writing error
+     */
+    public int export(InputStream recordingInput, File outputDir) throws IOException {
+        VideoRecordingReader reader = new VideoRecordingReader(recordingInput);
+        int frameNumber = 0;
+        int imageCount = 0;
+        while (reader.readFrame()) {
+            // Dropped frames are copies of previous frame
+            for (int i = 0; i < reader.getDroppedFrameCount(); i++) {
+                imageCount += writeImage(frameNumber++, outputDir);
+            }
+            expandFrame(reader);
+            imageCount += writeImage(frameNumber++, outputDir);
+        }
+        return imageCount;
+    }
+
+    private int writeImage(int frameNumber, File outputDir) throws IOException {
+        if (frameNumber % frameStep != 0) {
+            return 0;
+        }
+        OutputStream imageOutput = new FileOutputStream(new File(outputDir,
+                String.format(IMAGE_FILE_NAME_FORMAT, frameNumber)));
+        try {
+            imageOutput.write(encodeImage());
+        } finally {
+            imageOutput.close();
+        }
+        return 1;
+    }
+
+    private void expandFrame(VideoRecordingReader reader) throws IOException {
+        int imageDataIndex = 0;
+        for (int line = 0; line < VideoController.VIDEO_BUFFER_HEIGHT; line++) {
+            imageData[imageDataIndex++] = PNG_FILTER_NONE;
+            int palette = reader.getLinePalette(line);
+            if (palette < 0 || palette > VideoController.INDEXED_FRAME_PALETTE_BW) {
+                throw new IOException("Invalid video recording line palette: " + palette);
+            }
+            int[] paletteColors = VideoController.getIndexedFramePaletteColors(palette);
+            // Color mode screen pixels are displayed as two video buffer pixels
+            int bitsPerPixel = (palette == VideoController.INDEXED_FRAME_PALETTE_BW) ? 1 : 2;
+            int pixelMask = (1 << bitsPerPixel) - 1;
+            for (int x = 0; x < VideoController.VIDEO_BUFFER_WIDTH; x++) {
+                int pixelBitIndex = (x >> (bitsPerPixel - 1)) * bitsPerPixel;
+                int word = reader.getIndexedFrameDataWord(line
+                        * VideoController.INDEXED_FRAME_LINE_LENGTH + pixelBitIndex / 16);
+                int color = paletteColors[(word >> (pixelBitIndex % 16)) & pixelMask];
+                imageData[imageDataIndex++] = (byte) (color >> 16);
+                imageData[imageDataIndex++] = (byte) (color >> 8);
+                imageData[imageDataIndex++] = (byte) color;
+            }
+        }
+    }
+
+    private byte[] encodeImage() throws IOException {
+        ByteArrayOutputStream image = new ByteArrayOutputStream();
+        image.write(PNG_SIGNATURE);
+        ByteArrayOutputStream chunkData = new ByteArrayOutputStream();
+        DataOutputStream header = new DataOutputStream(chunkData);
+        header.writeInt(VideoController.VIDEO_BUFFER_WIDTH);
+        header.writeInt(VideoController.VIDEO_BUFFER_HEIGHT);
+        header.writeByte(PNG_BIT_DEPTH);
+        header.writeByte(PNG_COLOR_TYPE_RGB);
+        // Compression, filter and interlace methods
+        header.writeByte(0);
+        header.writeByte(0);
+        header.writeByte(0);
+        writePngChunk(image, "IHDR", chunkData.toByteArray());
+        chunkData.reset();
+        DeflaterOutputStream compressedData = new DeflaterOutputStream(chunkData);
+        compressedData.write(imageData);
+        compressedData.close();
+        writePngChunk(image, "IDAT", chunkData.toByteArray());
+        writePngChunk(image, "IEND", new byte[0]);
+        return image.toByteArray();
+    }
+
+    private static void writePngChunk(ByteArrayOutputStream image, String type, byte[] data)
+            throws IOException {
+        DataOutputStream out = new DataOutputStream(image);
+        byte[] typeBytes = type.getBytes("US-ASCII");
+        out.writeInt(data.length);
+        out.write(typeBytes);
+        out.write(data);
+        CRC32 crc = new CRC32();
+        crc.update(typeBytes);
+        crc.update(data);
+        out.writeInt((int) crc.getValue());
+    }
+
+}
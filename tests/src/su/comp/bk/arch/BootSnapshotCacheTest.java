@@ -0,0 +1,95 @@
+/*
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package su.comp.bk.arch;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import su.comp.bk.arch.Computer.Configuration;
+import su.comp.bk.arch.cpu.Cpu;
+
+/**
+ * {@link BootSnapshotCache} class unit tests.
+ */
+public class BootSnapshotCacheTest {
+
+    @Rule
+    public TemporaryFolder cacheFolder = new TemporaryFolder();
+
+    private BootSnapshotCache cache;
+
+    @Before
+    public void setUp() {
+        cache = new BootSnapshotCache(cacheFolder.getRoot());
+    }
+
+    private static Computer createComputer(Configuration config) {
+        return TestComputers.create(config, 1);
+    }
+
+    private static void saveState(Computer computer, File file) throws IOException {
+        OutputStream output = new FileOutputStream(file);
+        try {
+            computer.saveState(output);
+        } finally {
+            output.close();
+        }
+    }
+
+    @Test
+    public void testSnapshotFiles() throws IOException {
+        Computer computer = createComputer(Configuration.BK_0010_BASIC);
+        File bootSnapshotFile = cache.getBootSnapshotFile(computer);
+        assertEquals(bootSnapshotFile, cache.getBootSnapshotFile(
+                createComputer(Configuration.BK_0010_BASIC)));
+        assertFalse(bootSnapshotFile.equals(cache.getBootSnapshotFile(
+                createComputer(Configuration.BK_0010_MONITOR))));
+        long imageChecksum = BootSnapshotCache.getImageChecksum(
+                new ByteArrayInputStream(new byte[] { 0, 2, 2, 0, 1, 2 }));
+        File imageSnapshotFile = cache.getImageSnapshotFile(computer, imageChecksum);
+        assertFalse(bootSnapshotFile.equals(imageSnapshotFile));
+        assertFalse(imageSnapshotFile.equals(cache.getImageSnapshotFile(computer,
+                imageChecksum + 1)));
+    }
+
+    @Test
+    public void testRestore() throws IOException {
+        Computer computer = createComputer(Configuration.BK_0010_BASIC);
+        File bootSnapshotFile = cache.getBootSnapshotFile(computer);
+        assertFalse(cache.restore(computer, bootSnapshotFile));
+        computer.writeMemory(false, 01000, 0123456);
+        computer.getCpu().writeRegister(false, Cpu.PC, 01000);
+        saveState(computer, bootSnapshotFile);
+        Computer restoredComputer = createComputer(Configuration.BK_0010_BASIC);
+        assertTrue(cache.restore(restoredComputer, bootSnapshotFile));
+        assertEquals(0123456, restoredComputer.readMemory(false, 01000));
+        assertEquals(01000, restoredComputer.getCpu().readRegister(false, Cpu.PC));
+        // Snapshot of other configuration is not restored and deleted
+        assertFalse(cache.restore(createComputer(Configuration.BK_0010_MONITOR),
+                bootSnapshotFile));
+        assertFalse(bootSnapshotFile.exists());
+    }
+
+}
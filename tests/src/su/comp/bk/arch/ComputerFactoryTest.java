@@ -21,6 +21,8 @@ package su.comp.bk.arch;
 
 import static org.junit.Assert.*;
 
+import java.io.DataInput;
+import java.io.DataOutput;
 import java.io.File;
 
 import org.apache.commons.io.FileUtils;
@@ -30,8 +32,6 @@ import org.junit.Before;
 import org.junit.Ignore;
 import org.junit.Test;
 
-import android.os.Bundle;
-
 import su.comp.bk.arch.cpu.Cpu;
 import su.comp.bk.arch.io.Device;
 import su.comp.bk.arch.memory.RandomAccessMemory;
@@ -90,12 +90,12 @@ public class ComputerFactoryTest {
         }
 
         @Override
-        public void saveState(Bundle outState) {
+        public void saveState(DataOutput out) {
             // Do nothing
         }
 
         @Override
-        public void restoreState(Bundle inState) {
+        public void restoreState(DataInput in) {
             // Do nothing
         }
 
@@ -143,9 +143,7 @@ public class ComputerFactoryTest {
 
     private void setupTestData(String testName) throws Exception {
         byte[] testData = FileUtils.readFileToByteArray(new File(TEST_BASEDIR + testName));
-        for (int idx = 0; idx < testData.length; idx++) {
-            workMemory.write(true, workMemory.getStartAddress() + idx, testData[idx]);
-        }
+        workMemory.writeBlock(workMemory.getStartAddress(), testData, 0, testData.length);
     }
 
     protected boolean execute(int address, String expectedOutput) {
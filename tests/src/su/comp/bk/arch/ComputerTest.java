@@ -20,11 +20,21 @@ package su.comp.bk.arch;
 
 import static org.junit.Assert.*;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
 import org.junit.Test;
 
 import su.comp.bk.arch.cpu.Cpu;
 import su.comp.bk.arch.io.Sel1RegisterSystemBits;
+import su.comp.bk.arch.io.SystemTimer;
 import su.comp.bk.arch.memory.RandomAccessMemory;
+import su.comp.bk.arch.memory.ReadOnlyMemory;
 
 /**
  * {@link Computer} class unit tests.
@@ -96,4 +106,144 @@ public class ComputerTest {
         assertEquals(0340, computer.getCpu().getPswState());
     }
 
+    @Test
+    public void testWatchpoints() {
+        Computer computer = new Computer();
+        byte[] ramData = new byte[] { 0, 1, 2, 3 };
+        RandomAccessMemory ram = new RandomAccessMemory("TestMemory", 01000, ramData);
+        computer.addMemory(ram);
+        final List<Integer> hits = new ArrayList<Integer>();
+        computer.setOnWatchpointListener(new Computer.OnWatchpointListener() {
+            @Override
+            public boolean onWatchpoint(Computer computer, boolean isWriteAccess,
+                    boolean isByteMode, int address, int value, int pc, long cpuTime) {
+                hits.add(isWriteAccess ? -address : address);
+                return isWriteAccess;
+            }
+        });
+        computer.addWatchpoint(01002, Computer.WATCHPOINT_WRITE);
+        computer.addWatchpoint(01000, Computer.WATCHPOINT_READ);
+        assertTrue(computer.isWatchpointSet(01001, Computer.WATCHPOINT_READ));
+        assertFalse(computer.isWatchpointSet(01001, Computer.WATCHPOINT_WRITE));
+        // Unwatched accesses
+        assertEquals((3 << 8) + 2, computer.readMemory(false, 01002));
+        assertTrue(computer.writeMemory(true, 01001, 5));
+        assertTrue(hits.isEmpty());
+        assertFalse(computer.checkWatchpointBreak());
+        // Watched accesses
+        assertEquals(5, computer.readMemory(true, 01001));
+        assertFalse(computer.checkWatchpointBreak());
+        assertTrue(computer.writeMemory(false, 01002, 7));
+        assertTrue(computer.checkWatchpointBreak());
+        assertFalse(computer.checkWatchpointBreak());
+        assertEquals(2, hits.size());
+        assertEquals(01001, hits.get(0).intValue());
+        assertEquals(-01002, hits.get(1).intValue());
+        // Removed watchpoints
+        computer.removeWatchpoint(01002, Computer.WATCHPOINT_ACCESS);
+        computer.clearWatchpoints();
+        assertEquals(7, computer.readMemory(false, 01002));
+        assertTrue(computer.writeMemory(false, 01000, 0));
+        assertEquals(2, hits.size());
+    }
+
+    @Test
+    public void testBusStatistics() {
+        Computer computer = new Computer();
+        byte[] ramData = new byte[] { 0, 1, 2, 3 };
+        RandomAccessMemory ram = new RandomAccessMemory("TestMemory", 01000, ramData);
+        computer.addMemory(ram);
+        computer.addDevice(new Sel1RegisterSystemBits(0100000));
+        computer.addDevice(new SystemTimer(computer));
+        assertNull(computer.getBusStatisticsSnapshot());
+        computer.setBusStatisticsEnabled(true);
+        computer.readMemory(false, 01000);
+        computer.readMemory(true, 01003);
+        computer.writeMemory(false, 01002, 0);
+        computer.readMemory(false, Cpu.REG_SEL1);
+        computer.readMemory(false, Cpu.REG_SEL1);
+        computer.readMemory(false, 0400);
+        computer.writeMemory(true, 0401, 0);
+        // Not accepted I/O register write is counted as bus error only
+        computer.writeMemory(true, SystemTimer.STATE_REGISTER_ADDRESS, 0);
+        BusStatistics.Snapshot snapshot = computer.getBusStatisticsSnapshot();
+        assertEquals(2, snapshot.getBlockReads(01000 / BusStatistics.BLOCK_SIZE));
+        assertEquals(1, snapshot.getBlockWrites(01000 / BusStatistics.BLOCK_SIZE));
+        assertEquals(2, snapshot.getIoRegisterReads(Cpu.REG_SEL1));
+        assertEquals(0, snapshot.getIoRegisterWrites(Cpu.REG_SEL1));
+        assertEquals(2, snapshot.getBusErrors(0400));
+        assertEquals(0, snapshot.getIoRegisterWrites(SystemTimer.STATE_REGISTER_ADDRESS));
+        assertEquals(1, snapshot.getBusErrors(SystemTimer.STATE_REGISTER_ADDRESS));
+        assertEquals(4, snapshot.getTotalReads());
+        assertEquals(1, snapshot.getTotalWrites());
+        assertArrayEquals(new int[] { Cpu.REG_SEL1 },
+                snapshot.getMostAccessedIoRegisters(2));
+        computer.readMemory(false, 01000);
+        assertEquals(1, computer.getBusStatisticsSnapshot().since(snapshot).getTotalReads());
+        // Block transfers are counted by words
+        snapshot = computer.getBusStatisticsSnapshot();
+        byte[] buffer = new byte[3];
+        assertEquals(3, computer.readBlock(01001, buffer, 0, buffer.length));
+        assertEquals(2, computer.writeBlock(01002, buffer, 0, 2));
+        BusStatistics.Snapshot blockSnapshot = computer.getBusStatisticsSnapshot().since(snapshot);
+        assertEquals(2, blockSnapshot.getTotalReads());
+        assertEquals(1, blockSnapshot.getTotalWrites());
+        computer.setBusStatisticsEnabled(false);
+        assertNull(computer.getBusStatisticsSnapshot());
+    }
+
+    @Test
+    public void testBlockTransfer() {
+        Computer computer = new Computer();
+        computer.addMemory(new RandomAccessMemory("TestMemory0", 0, 010000));
+        computer.addMemory(new RandomAccessMemory("TestMemory1", 020000, 010000));
+        computer.addMemory(new ReadOnlyMemory("TestMemory2", 040000, new short[010000]));
+        computer.addDevice(new Sel1RegisterSystemBits(0100000));
+        byte[] data = new byte[6];
+        for (int i = 0; i < data.length; i++) {
+            data[i] = (byte) (i + 1);
+        }
+        // Write across RAM blocks boundary
+        assertEquals(data.length, computer.writeBlock(017775, data, 0, data.length));
+        assertEquals(1, computer.readMemory(true, 017775));
+        assertEquals((5 << 8) + 4, computer.readMemory(false, 020000));
+        byte[] buffer = new byte[data.length];
+        assertEquals(data.length, computer.readBlock(017775, buffer, 0, buffer.length));
+        assertArrayEquals(data, buffer);
+        // Write to ROM fails at ROM start address
+        assertEquals(2, computer.writeBlock(037776, data, 0, data.length));
+        // Read from unmapped location fails at its address
+        assertEquals(4, computer.readBlock(057774, buffer, 0, buffer.length));
+        // I/O registers are read by words
+        assertEquals(2, computer.readBlock(Cpu.REG_SEL1, buffer, 0, buffer.length));
+        assertEquals(0200, buffer[1] & 0377);
+    }
+
+    private static Computer createStateTestComputer() {
+        return TestComputers.create();
+    }
+
+    @Test
+    public void testCheckpoint() throws IOException {
+        Computer computer = createStateTestComputer();
+        computer.writeMemory(false, 01000, 0123456);
+        computer.getCpu().writeRegister(false, Cpu.PC, 01000);
+        computer.getCpu().setPswState(0);
+        computer.setUptime(12345L);
+        Checkpoint checkpoint = computer.createCheckpoint();
+        // Changes after checkpoint creation are not saved
+        computer.writeMemory(false, 01000, 0654321);
+        ByteArrayOutputStream stateOutput = new ByteArrayOutputStream();
+        checkpoint.writeData(new DataOutputStream(stateOutput));
+        checkpoint.release();
+        Computer restoredComputer = createStateTestComputer();
+        restoredComputer.readStateData(new DataInputStream(
+                new ByteArrayInputStream(stateOutput.toByteArray())));
+        assertEquals(12345L, restoredComputer.getUptime());
+        assertEquals(0123456, restoredComputer.readMemory(false, 01000));
+        assertEquals(01000, restoredComputer.getCpu().readRegister(false, Cpu.PC));
+        assertEquals(0, restoredComputer.getCpu().getPswState());
+        assertEquals(computer.getCpu().getTime(), restoredComputer.getCpu().getTime());
+    }
+
 }
@@ -0,0 +1,107 @@
+/*
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package su.comp.bk.arch;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+import su.comp.bk.arch.cpu.Cpu;
+
+/**
+ * {@link EmtEmulator} class unit tests.
+ */
+public class EmtEmulatorTest {
+
+    private final static int PROGRAM_ADDRESS = 01000;
+    private final static int STRING_ADDRESS = 02000;
+
+    // Test program: print string, print chars, print string with line feed in the middle
+    private final static int[] PROGRAM = {
+        012701, STRING_ADDRESS, 012702, 0400 * '!' + 040, 0104020,
+        012700, 'B', 0104016, 012700, 'K', 0104016,
+        012701, STRING_ADDRESS, 012702, 020, 0104020,
+        0777
+    };
+
+    private final static String STRING = "Hello\nWorld! Second string, with terminator";
+
+    private static Computer createComputer(boolean isEmtEmulationEnabled) throws Exception {
+        final Computer computer = TestComputers.createMonitor(
+                TestComputers.createVideoMemory(), null);
+        computer.getCpu().setOnTrapListener(new Cpu.OnTrapListener() {
+            @Override
+            public void onTrap(Cpu cpu, int trapVectorAddress) {
+                if (trapVectorAddress == Cpu.TRAP_VECTOR_EMT) {
+                    computer.getEmtEmulator().onEmtTrap(cpu);
+                }
+            }
+        });
+        computer.getEmtEmulator().setEnabled(isEmtEmulationEnabled);
+        for (int i = 0; i < PROGRAM.length; i++) {
+            computer.writeMemory(false, PROGRAM_ADDRESS + i * 2, PROGRAM[i]);
+        }
+        for (int i = 0; i < STRING.length(); i++) {
+            computer.writeMemory(true, STRING_ADDRESS + i, STRING.charAt(i));
+        }
+        computer.getCpu().writeRegister(false, Cpu.PC, PROGRAM_ADDRESS);
+        return computer;
+    }
+
+    private static void assertComputerStatesEqual(Computer expected, Computer actual) {
+        for (int address = 0; address < 0100000; address += 2) {
+            assertEquals("address 0" + Integer.toOctalString(address),
+                    expected.readMemory(false, address), actual.readMemory(false, address));
+        }
+        for (int register = Cpu.R0; register <= Cpu.PC; register++) {
+            assertEquals("register " + register, expected.getCpu().readRegister(false, register),
+                    actual.getCpu().readRegister(false, register));
+        }
+        assertEquals(expected.getCpu().getPswState(), actual.getCpu().getPswState());
+    }
+
+    @Test
+    public void testEmulatedCalls() throws Exception {
+        Computer romComputer = createComputer(false);
+        Computer emulatedComputer = createComputer(true);
+        int programEndAddress = PROGRAM_ADDRESS + (PROGRAM.length - 1) * 2;
+        long romStartTime = romComputer.getCpu().getTime();
+        assertTrue(TestComputers.runUntil(romComputer, programEndAddress));
+        long romExecutionTime = romComputer.getCpu().getTime() - romStartTime;
+        long emulatedStartTime = emulatedComputer.getCpu().getTime();
+        assertTrue(TestComputers.runUntil(emulatedComputer, programEndAddress));
+        long emulatedExecutionTime = emulatedComputer.getCpu().getTime() - emulatedStartTime;
+        assertComputerStatesEqual(romComputer, emulatedComputer);
+        assertEquals(0, romComputer.getEmtEmulator().getEmulatedCallCount());
+        // All calls are emulated, strings are printed by ROM starting from line feed char
+        assertEquals(4, emulatedComputer.getEmtEmulator().getEmulatedCallCount());
+        assertEquals(STRING.indexOf('\n') * 2 + 2,
+                emulatedComputer.getEmtEmulator().getEmulatedCharCount());
+        // Execution time is approximated
+        assertEquals(romExecutionTime, emulatedExecutionTime, romExecutionTime / 10);
+    }
+
+    @Test
+    public void testHookedEmtVector() throws Exception {
+        Computer computer = createComputer(true);
+        // Hook EMT vector with handler which calls ROM EMT dispatcher
+        computer.writeMemory(false, 03000, 0137);
+        computer.writeMemory(false, 03002, EmtEmulator.EMT_DISPATCHER_ADDRESS);
+        computer.writeMemory(false, Cpu.TRAP_VECTOR_EMT, 03000);
+        assertTrue(TestComputers.runUntil(computer, PROGRAM_ADDRESS + (PROGRAM.length - 1) * 2));
+        assertEquals(0, computer.getEmtEmulator().getEmulatedCallCount());
+    }
+
+}
@@ -0,0 +1,81 @@
+/*
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package su.comp.bk.arch;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+
+import org.junit.Test;
+
+import su.comp.bk.arch.cpu.Cpu;
+
+/**
+ * {@link InputJournal} class unit tests.
+ */
+public class InputJournalTest {
+
+    private static Computer createComputer() {
+        return TestComputers.create();
+    }
+
+    private static byte[] recordJournal(Computer computer) throws IOException {
+        // INC @#2000; BR .-4
+        computer.writeMemory(false, 01000, 005237);
+        computer.writeMemory(false, 01002, 002000);
+        computer.writeMemory(false, 01004, 000775);
+        computer.writeMemory(false, 02000, 0);
+        computer.getCpu().writeRegister(false, Cpu.PC, 01000);
+        ByteArrayOutputStream journalOutput = new ByteArrayOutputStream();
+        InputJournal inputJournal = computer.getInputJournal();
+        inputJournal.startRecording(journalOutput);
+        assertTrue(inputJournal.isRecording());
+        assertTrue(computer.isDeterministicUptime());
+        computer.executeInstructionsUntil(computer.getCpu().getTime() + 100000, false);
+        // State change made from outside of emulation
+        computer.writeMemory(false, 02000, 0100);
+        inputJournal.recordState();
+        computer.executeInstructionsUntil(computer.getCpu().getTime() + 50000, false);
+        assertEquals(1, inputJournal.getEventCount());
+        assertEquals(InputJournal.getRamChecksum(computer), inputJournal.stopRecording());
+        assertFalse(inputJournal.isRecording());
+        assertFalse(computer.isDeterministicUptime());
+        return journalOutput.toByteArray();
+    }
+
+    @Test
+    public void testReplay() throws IOException {
+        Computer computer = createComputer();
+        byte[] journalData = recordJournal(computer);
+        Computer replayComputer = createComputer();
+        long ramChecksum = replayComputer.getInputJournal().replay(
+                new ByteArrayInputStream(journalData));
+        assertEquals(InputJournal.getRamChecksum(computer), ramChecksum);
+        assertEquals(computer.readMemory(false, 02000), replayComputer.readMemory(false, 02000));
+        assertEquals(computer.getCpu().getTime(), replayComputer.getCpu().getTime());
+        assertEquals(computer.getUptime(), replayComputer.getUptime());
+    }
+
+    @Test(expected = IOException.class)
+    public void testReplayChecksumMismatch() throws IOException {
+        byte[] journalData = recordJournal(createComputer());
+        // Corrupt recorded final RAM checksum
+        journalData[journalData.length - 1] ^= 1;
+        createComputer().getInputJournal().replay(new ByteArrayInputStream(journalData));
+    }
+
+}
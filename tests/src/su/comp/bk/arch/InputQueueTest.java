@@ -0,0 +1,60 @@
+/*
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package su.comp.bk.arch;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+import su.comp.bk.arch.io.PeripheralPort.JoystickButton;
+
+/**
+ * {@link InputQueue} class unit tests.
+ */
+public class InputQueueTest {
+
+    @Test
+    public void testPostDrain() {
+        InputQueue inputQueue = new Computer().getInputQueue();
+        assertFalse(inputQueue.isEventPending());
+        assertTrue(inputQueue.postKey('A', true));
+        assertTrue(inputQueue.postKey(0, false));
+        assertTrue(inputQueue.postStopButtonPress());
+        assertTrue(inputQueue.postJoystickButton(JoystickButton.ONE, true));
+        assertTrue(inputQueue.isEventPending());
+        assertEquals(4, inputQueue.getPendingEventCount());
+        // Events without target devices are drained and ignored
+        inputQueue.drain();
+        assertFalse(inputQueue.isEventPending());
+        assertTrue(inputQueue.getLastInputLatency() >= 0);
+    }
+
+    @Test
+    public void testOverflow() {
+        InputQueue inputQueue = new Computer().getInputQueue();
+        for (int i = 0; i < InputQueue.CAPACITY; i++) {
+            assertTrue(inputQueue.postKey(i, true));
+        }
+        assertFalse(inputQueue.postKey(0, false));
+        assertEquals(1, inputQueue.getDroppedEventCount());
+        inputQueue.drain();
+        // Ring positions are reused after draining
+        for (int i = 0; i < InputQueue.CAPACITY; i++) {
+            assertTrue(inputQueue.postKey(0, false));
+        }
+        assertEquals(InputQueue.CAPACITY, inputQueue.getPendingEventCount());
+    }
+
+}
@@ -0,0 +1,113 @@
+/*
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package su.comp.bk.arch;
+
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import su.comp.bk.arch.Computer.Configuration;
+import su.comp.bk.arch.cpu.Cpu;
+
+/**
+ * {@link RewindBuffer} class unit tests.
+ */
+public class RewindBufferTest {
+
+    private Computer computer;
+
+    @Before
+    public void setUp() {
+        computer = TestComputers.create(Configuration.BK_0010_MONITOR, 2);
+    }
+
+    private void takeSnapshot(RewindBuffer rewindBuffer, int value) throws IOException {
+        computer.setUptime(computer.getUptime() + 1000L);
+        computer.writeMemory(false, 020000 + value * 2, value);
+        computer.getCpu().writeRegister(false, Cpu.PC, value);
+        rewindBuffer.takeSnapshot();
+    }
+
+    @Test
+    public void testRestoreSnapshot() throws IOException {
+        RewindBuffer rewindBuffer = new RewindBuffer(computer, 1000L, 16, 4, 1 << 20);
+        for (int value = 1; value <= 10; value++) {
+            takeSnapshot(rewindBuffer, value);
+        }
+        assertEquals(10, rewindBuffer.getSnapshotCount());
+        rewindBuffer.restoreSnapshot(5);
+        assertEquals(6, computer.getCpu().readRegister(false, Cpu.PC));
+        assertEquals(6, computer.readMemory(false, 020014));
+        assertEquals(0, computer.readMemory(false, 020016));
+        assertEquals(rewindBuffer.getSnapshotUptime(5), computer.getUptime());
+        // Scrubbing forward
+        rewindBuffer.restoreSnapshot(8);
+        assertEquals(9, computer.readMemory(false, 020022));
+        // Rewinding
+        assertTrue(rewindBuffer.rewind());
+        assertEquals(8, computer.getCpu().readRegister(false, Cpu.PC));
+        assertEquals(0, computer.readMemory(false, 020022));
+        // Snapshots after restored one are dropped on next snapshot taking
+        takeSnapshot(rewindBuffer, 11);
+        assertEquals(9, rewindBuffer.getSnapshotCount());
+        rewindBuffer.restoreSnapshot(8);
+        assertEquals(11, computer.readMemory(false, 020026));
+        assertEquals(0, computer.readMemory(false, 020022));
+    }
+
+    @Test
+    public void testLimits() throws IOException {
+        RewindBuffer rewindBuffer = new RewindBuffer(computer, 1000L, 8, 4, 1 << 20);
+        for (int value = 1; value <= 10; value++) {
+            takeSnapshot(rewindBuffer, value);
+        }
+        // Oldest keyframe group is dropped
+        assertEquals(6, rewindBuffer.getSnapshotCount());
+        rewindBuffer.restoreSnapshot(0);
+        assertEquals(5, computer.getCpu().readRegister(false, Cpu.PC));
+        assertEquals(5, computer.readMemory(false, 020012));
+        // Memory budget
+        int snapshotsSize = rewindBuffer.getTotalSize();
+        rewindBuffer = new RewindBuffer(computer, 1000L, 8, 4, snapshotsSize / 2);
+        for (int value = 1; value <= 10; value++) {
+            takeSnapshot(rewindBuffer, value);
+        }
+        assertTrue(rewindBuffer.getTotalSize() <= snapshotsSize / 2
+                || rewindBuffer.getSnapshotCount() <= 4);
+    }
+
+    @Test
+    public void testTimer() {
+        RewindBuffer rewindBuffer = new RewindBuffer(computer, 1000L, 8, 4, 1 << 20);
+        // Snapshots taking is disabled by default
+        assertFalse(rewindBuffer.isEnabled());
+        rewindBuffer.timer(0L);
+        assertEquals(0, rewindBuffer.getSnapshotCount());
+        rewindBuffer.setEnabled(true);
+        rewindBuffer.timer(0L);
+        rewindBuffer.timer(999L);
+        assertEquals(1, rewindBuffer.getSnapshotCount());
+        rewindBuffer.timer(1000L);
+        assertEquals(2, rewindBuffer.getSnapshotCount());
+        rewindBuffer.setEnabled(false);
+        assertEquals(0, rewindBuffer.getSnapshotCount());
+        rewindBuffer.timer(5000L);
+        assertEquals(0, rewindBuffer.getSnapshotCount());
+    }
+
+}
@@ -0,0 +1,69 @@
+/*
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package su.comp.bk.arch;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+import su.comp.bk.arch.cpu.Cpu;
+
+/**
+ * {@link RunAhead} class unit tests.
+ */
+public class RunAheadTest {
+
+    @Test
+    public void testRunAheadFrame() {
+        Computer computer = TestComputers.create();
+        // INC @#2000; BR .-4
+        computer.writeMemory(false, 01000, 005237);
+        computer.writeMemory(false, 01002, 002000);
+        computer.writeMemory(false, 01004, 000775);
+        computer.writeMemory(false, 02000, 0);
+        computer.getCpu().writeRegister(false, Cpu.PC, 01000);
+        long uptime = computer.getUptime();
+        long cpuTime = computer.getCpu().getTime();
+        computer.setRunAheadFrames(2);
+        RunAhead runAhead = computer.getRunAhead();
+        assertEquals(0, runAhead.getLastLatencyReduction());
+        computer.getInputQueue().postStopButtonPress();
+        computer.getInputQueue().drain();
+        runAhead.checkFrame();
+        assertEquals(1, runAhead.getRunAheadFrameCount());
+        assertTrue(runAhead.getLastRunAheadTime() > 0);
+        // Latency reduction is measured for input applied before run-ahead frame
+        assertTrue(runAhead.getLastLatencyReduction() != 0);
+        assertTrue(runAhead.getLastLatencyReduction() < 3 * RunAhead.FRAME_PERIOD);
+        assertFalse(computer.isRunningAhead());
+        // Computer state is rolled back after running ahead
+        assertEquals(0, computer.readMemory(false, 02000));
+        assertEquals(01000, computer.getCpu().readRegister(false, Cpu.PC));
+        assertEquals(cpuTime, computer.getCpu().getTime());
+        assertEquals(uptime, computer.getUptime());
+        // Next frame is not started yet
+        runAhead.checkFrame();
+        assertEquals(1, runAhead.getRunAheadFrameCount());
+        // Run-ahead is skipped while watchpoints are set
+        computer.getCpu().setTime(cpuTime + computer.nanosToCpuTime(RunAhead.FRAME_PERIOD));
+        computer.addWatchpoint(02000, Computer.WATCHPOINT_WRITE);
+        runAhead.checkFrame();
+        assertEquals(1, runAhead.getRunAheadFrameCount());
+        assertEquals(1, runAhead.getSkippedFrameCount());
+        computer.setRunAheadFrames(0);
+        assertNull(computer.getRunAhead());
+    }
+
+}
@@ -0,0 +1,136 @@
+/*
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package su.comp.bk.arch;
+
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import su.comp.bk.arch.Computer.Configuration;
+import su.comp.bk.arch.cpu.Cpu;
+import su.comp.bk.arch.memory.RandomAccessMemory;
+
+/**
+ * {@link SaveSlots} class unit tests.
+ */
+public class SaveSlotsTest {
+
+    @Rule
+    public TemporaryFolder slotsFolder = new TemporaryFolder();
+
+    private SaveSlots saveSlots;
+
+    @Before
+    public void setUp() {
+        saveSlots = new SaveSlots(slotsFolder.getRoot());
+    }
+
+    private static Computer createComputer(Configuration config) {
+        return TestComputers.create(config, 2);
+    }
+
+    @Test
+    public void testSaveLoad() throws IOException {
+        Computer computer = createComputer(Configuration.BK_0010_BASIC);
+        computer.writeMemory(false, 01000, 0123456);
+        computer.writeMemory(false, 021000, 0154321);
+        computer.getCpu().writeRegister(false, Cpu.PC, 01000);
+        computer.setUptime(12345L);
+        assertNull(saveSlots.readSlotInfo(2));
+        saveSlots.save(computer, 2);
+        // Changes after slot saving are not saved
+        computer.writeMemory(false, 01000, 0);
+        SaveSlots.SlotInfo slotInfo = saveSlots.readSlotInfo(2);
+        assertEquals(Configuration.BK_0010_BASIC, slotInfo.getConfiguration());
+        assertEquals(12345L, slotInfo.getUptime());
+        assertNull(slotInfo.getThumbnailPixels());
+        SaveSlots.SlotInfo[] slotInfos = saveSlots.readSlotInfos();
+        assertEquals(SaveSlots.NUM_SLOTS, slotInfos.length);
+        assertNull(slotInfos[0]);
+        assertEquals(2, slotInfos[2].getSlotIndex());
+        // Restore to other computer, RAM pages are restored on first access
+        Computer restoredComputer = createComputer(Configuration.BK_0010_BASIC);
+        saveSlots.load(restoredComputer, 2);
+        assertEquals(12345L, restoredComputer.getUptime());
+        assertEquals(01000, restoredComputer.getCpu().readRegister(false, Cpu.PC));
+        List<RandomAccessMemory> memoryPages = restoredComputer.getRandomAccessMemoryList();
+        assertTrue(memoryPages.get(0).isStateRestorePending());
+        assertTrue(memoryPages.get(1).isStateRestorePending());
+        assertEquals(0123456, restoredComputer.readMemory(false, 01000));
+        assertFalse(memoryPages.get(0).isStateRestorePending());
+        assertTrue(memoryPages.get(1).isStateRestorePending());
+        assertEquals(0154321, memoryPages.get(1).getData()[01000 >> 1] & 0177777);
+        assertFalse(memoryPages.get(1).isStateRestorePending());
+        assertEquals(0154321, restoredComputer.readMemory(false, 021000));
+        // Slot can be overwritten while previous slot RAM pages are not restored
+        saveSlots.load(computer, 2);
+        computer.writeMemory(false, 01000, 0777);
+        saveSlots.save(computer, 2);
+        assertEquals(0154321, computer.readMemory(false, 021000));
+        saveSlots.load(restoredComputer, 2);
+        assertEquals(0777, restoredComputer.readMemory(false, 01000));
+        // Pending RAM pages can be decoded all at once
+        saveSlots.load(restoredComputer, 2);
+        restoredComputer.restorePendingMemoryStates();
+        assertFalse(memoryPages.get(0).isStateRestorePending());
+        assertFalse(memoryPages.get(1).isStateRestorePending());
+        assertEquals(0154321, restoredComputer.readMemory(false, 021000));
+    }
+
+    @Test
+    public void testCorruptedPageData() throws IOException {
+        Computer computer = createComputer(Configuration.BK_0010_BASIC);
+        computer.writeMemory(false, 021000, 0154321);
+        computer.setUptime(12345L);
+        saveSlots.save(computer, 1);
+        // Corrupt last RAM page state data byte
+        RandomAccessFile slotFile = new RandomAccessFile(saveSlots.getSlotFile(1), "rw");
+        try {
+            slotFile.seek(slotFile.length() - 1);
+            int lastByte = slotFile.read();
+            slotFile.seek(slotFile.length() - 1);
+            slotFile.write(lastByte ^ 0377);
+        } finally {
+            slotFile.close();
+        }
+        Computer restoredComputer = createComputer(Configuration.BK_0010_BASIC);
+        restoredComputer.writeMemory(false, 021000, 0777);
+        try {
+            saveSlots.load(restoredComputer, 1);
+            fail("corrupted slot loaded");
+        } catch (IOException e) {
+            // Computer state is kept unchanged
+        }
+        assertEquals(0L, restoredComputer.getUptime());
+        for (RandomAccessMemory memoryPage : restoredComputer.getRandomAccessMemoryList()) {
+            assertFalse(memoryPage.isStateRestorePending());
+        }
+        assertEquals(0777, restoredComputer.readMemory(false, 021000));
+    }
+
+    @Test(expected = IOException.class)
+    public void testConfigurationMismatch() throws IOException {
+        saveSlots.save(createComputer(Configuration.BK_0010_BASIC), 0);
+        saveSlots.load(createComputer(Configuration.BK_0010_MONITOR), 0);
+    }
+
+}
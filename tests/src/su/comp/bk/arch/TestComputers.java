@@ -0,0 +1,183 @@
+/*
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package su.comp.bk.arch;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.File;
+import java.io.IOException;
+
+import org.apache.commons.io.FileUtils;
+
+import su.comp.bk.arch.Computer.Configuration;
+import su.comp.bk.arch.cpu.Cpu;
+import su.comp.bk.arch.io.Device;
+import su.comp.bk.arch.io.Sel1RegisterSystemBits;
+import su.comp.bk.arch.io.VideoController;
+import su.comp.bk.arch.memory.RandomAccessMemory;
+import su.comp.bk.arch.memory.ReadOnlyMemory;
+
+/**
+ * Test computers for unit tests: minimal ones (RAM pages and SEL1 register only, no ROM)
+ * and BK0010 monitor ones (with monitor ROM and I/O registers stubs).
+ */
+public class TestComputers {
+
+    /** BK0010 monitor ROM file name */
+    public final static String MONITOR_ROM_FILE_NAME = "res/raw/monit10.rom";
+
+    /** Monitor keyboard input waiting loop address */
+    public final static int MONITOR_KEYBOARD_WAIT_ADDRESS = 0101020;
+
+    // Maximum number of CPU operations to run until given address
+    private final static int MAX_CPU_OPS = 10000000;
+
+    // Test computer RAM page size (in words)
+    private final static int MEMORY_PAGE_SIZE = 010000;
+
+    private TestComputers() {
+    }
+
+    /**
+     * Create reset BK0010 monitor configuration test computer with single RAM page.
+     * @return created {@link Computer}
+     */
+    public static Computer create() {
+        return create(Configuration.BK_0010_MONITOR, 1);
+    }
+
+    /**
+     * Create reset test computer. RAM pages ("TestMemory0", "TestMemory1", ...) are
+     * mapped one after another from address 0, SEL1 register start address is 0100000.
+     * @param config computer configuration to set
+     * @param numMemoryPages number of RAM pages
+     * @return created {@link Computer}
+     */
+    public static Computer create(Configuration config, int numMemoryPages) {
+        Computer computer = new Computer();
+        computer.setConfiguration(config);
+        computer.setClockFrequency(Computer.CLOCK_FREQUENCY_BK0010);
+        for (int pageIndex = 0; pageIndex < numMemoryPages; pageIndex++) {
+            computer.addMemory(new RandomAccessMemory("TestMemory" + pageIndex,
+                    pageIndex * (MEMORY_PAGE_SIZE << 1), MEMORY_PAGE_SIZE));
+        }
+        computer.addDevice(new Sel1RegisterSystemBits(0100000));
+        computer.reset();
+        return computer;
+    }
+
+    /**
+     * Keyboard, peripheral port and (if no video controller is present) video scroll
+     * registers stub.
+     */
+    static class RegistersStub implements Device {
+        private final boolean isScrollRegisterStubbed;
+
+        RegistersStub(boolean isScrollRegisterStubbed) {
+            this.isScrollRegisterStubbed = isScrollRegisterStubbed;
+        }
+
+        @Override
+        public int[] getAddresses() {
+            return isScrollRegisterStubbed ? new int[] { 0177660, 0177662, 0177664, 0177714 }
+                    : new int[] { 0177660, 0177662, 0177714 };
+        }
+
+        @Override
+        public void init(long cpuTime) {
+        }
+
+        @Override
+        public void timer(long cpuTime) {
+        }
+
+        @Override
+        public int read(long cpuTime, int address) {
+            return (address == 0177664) ? 01330 : 0;
+        }
+
+        @Override
+        public boolean write(long cpuTime, boolean isByteMode, int address, int value) {
+            return true;
+        }
+
+        @Override
+        public void saveState(DataOutput out) {
+        }
+
+        @Override
+        public void restoreState(DataInput in) {
+        }
+    }
+
+    /**
+     * Create BK0010 monitor test computer with work RAM, given video RAM, monitor ROM,
+     * SEL1 register and I/O registers stub. Computer is reset and monitor initialization
+     * is run until keyboard input waiting.
+     * @param videoMemory video RAM (mapped from address 040000)
+     * @param videoController {@link VideoController} of given video RAM (or
+     * <code>null</code> to stub video scroll register)
+     * @return created {@link Computer}
+     * @throws IOException in case of monitor ROM reading error
+     */
+    public static Computer createMonitor(RandomAccessMemory videoMemory,
+            VideoController videoController) throws IOException {
+        Computer computer = new Computer();
+        computer.setConfiguration(Configuration.BK_0010_MONITOR);
+        computer.setClockFrequency(Computer.CLOCK_FREQUENCY_BK0010);
+        computer.addMemory(new RandomAccessMemory("TestWorkMemory", 0, 020000));
+        computer.addMemory(videoMemory);
+        computer.addMemory(new ReadOnlyMemory("TestMonitorRom", 0100000,
+                FileUtils.readFileToByteArray(new File(MONITOR_ROM_FILE_NAME))));
+        computer.addDevice(new Sel1RegisterSystemBits(0100000));
+        computer.addDevice(new RegistersStub(videoController == null));
+        if (videoController != null) {
+            computer.addDevice(videoController);
+        }
+        computer.reset();
+        if (!runUntil(computer, MONITOR_KEYBOARD_WAIT_ADDRESS)) {
+            throw new IllegalStateException("Monitor initialization is not finished");
+        }
+        return computer;
+    }
+
+    /**
+     * Create test video RAM (to pass to {@link #createMonitor(RandomAccessMemory,
+     * VideoController)}).
+     * @return video {@link RandomAccessMemory}
+     */
+    public static RandomAccessMemory createVideoMemory() {
+        return new RandomAccessMemory("TestVideoMemory", 040000, 020000);
+    }
+
+    /**
+     * Execute computer CPU operations until given PC address is reached.
+     * @param computer {@link Computer} to execute operations of
+     * @param address address to run until
+     * @return <code>true</code> if address is reached, <code>false</code> if
+     * maximum number of operations is executed
+     */
+    public static boolean runUntil(Computer computer, int address) {
+        Cpu cpu = computer.getCpu();
+        for (int i = 0; i < MAX_CPU_OPS; i++) {
+            if (cpu.readRegister(false, Cpu.PC) == address) {
+                return true;
+            }
+            cpu.executeNextOperation();
+        }
+        return false;
+    }
+
+}
@@ -0,0 +1,83 @@
+/*
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package su.comp.bk.arch;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+
+import org.junit.Test;
+
+import su.comp.bk.arch.io.VideoController;
+import su.comp.bk.arch.memory.RandomAccessMemory;
+
+/**
+ * {@link VideoRecorder} and {@link VideoRecordingReader} classes unit tests.
+ */
+public class VideoRecorderTest {
+
+    private static final long FRAME_PERIOD = 20000000L;
+
+    @Test
+    public void testRecording() throws IOException {
+        RandomAccessMemory videoMemory = new RandomAccessMemory("VideoMemory", 040000, 020000);
+        VideoController videoController = new VideoController(videoMemory);
+        ByteArrayOutputStream recordingOutput = new ByteArrayOutputStream();
+        VideoRecorder recorder = new VideoRecorder(recordingOutput, FRAME_PERIOD);
+        videoController.write(0L, false, VideoController.CONTROL_REGISTER_ADDRESS, 01330);
+        videoController.setOnFramePublishedListener(recorder);
+        // First frame: first screen word set, color mode
+        videoMemory.write(false, 040000, 0123456);
+        videoController.publishFrame();
+        // Second frame: no changes
+        videoController.publishFrame();
+        // Third frame: black and white mode
+        videoController.setColorMode(false);
+        videoController.publishFrame();
+        videoController.setOnFramePublishedListener(null);
+        // Frames published without listener are not recorded
+        videoController.publishFrame();
+        recorder.close();
+        assertEquals(3, recorder.getCapturedFrameCount() + recorder.getDroppedFrameCount());
+        byte[] recording = recordingOutput.toByteArray();
+        // Unchanged frame takes only few bytes
+        assertTrue(recording.length < 2 * (VideoRecorder.FRAME_LENGTH * 2));
+        VideoRecordingReader reader = new VideoRecordingReader(
+                new ByteArrayInputStream(recording));
+        assertEquals(FRAME_PERIOD, reader.getFramePeriod());
+        int frameCount = 0;
+        int lastPalette = -1;
+        while (reader.readFrame()) {
+            frameCount += reader.getDroppedFrameCount() + 1;
+            assertEquals(0123456, reader.getIndexedFrameDataWord(0));
+            assertEquals(0, reader.getIndexedFrameDataWord(1));
+            lastPalette = reader.getLinePalette(0);
+            if (frameCount == 1) {
+                assertEquals(videoController.getColorPaletteIndex(), lastPalette);
+            }
+        }
+        reader.close();
+        assertEquals(3, frameCount);
+        assertEquals(VideoController.INDEXED_FRAME_PALETTE_BW, lastPalette);
+    }
+
+    @Test(expected = IOException.class)
+    public void testInvalidRecording() throws IOException {
+        new VideoRecordingReader(new ByteArrayInputStream(new byte[] { 1, 2, 3, 4, 5, 6 }));
+    }
+
+}
@@ -21,6 +21,9 @@ package su.comp.bk.arch.cpu.opcode;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertTrue;
 
+import java.io.DataInput;
+import java.io.DataOutput;
+
 import org.junit.Before;
 import org.junit.Test;
 import org.junit.runner.RunWith;
@@ -32,7 +35,6 @@ import su.comp.bk.arch.cpu.Cpu;
 import su.comp.bk.arch.io.Device;
 import su.comp.bk.arch.io.Sel1RegisterSystemBits;
 import su.comp.bk.arch.memory.ReadOnlyMemory;
-import android.os.Bundle;
 
 /**
  * Control opcodes (RESET/WAIT/HALT) tests.
@@ -113,10 +115,10 @@ public class ControlOpcodesTest {
             public void timer(long cpuTime) {
             }
             @Override
-            public void saveState(Bundle outState) {
+            public void saveState(DataOutput out) {
             }
             @Override
-            public void restoreState(Bundle inState) {
+            public void restoreState(DataInput in) {
             }
         };
 
@@ -142,10 +144,10 @@ public class ControlOpcodesTest {
             public void timer(long cpuTime) {
             }
             @Override
-            public void saveState(Bundle outState) {
+            public void saveState(DataOutput out) {
             }
             @Override
-            public void restoreState(Bundle inState) {
+            public void restoreState(DataInput in) {
             }
         };
 
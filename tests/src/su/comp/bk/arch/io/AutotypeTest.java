@@ -0,0 +1,73 @@
+/*
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package su.comp.bk.arch.io;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+import su.comp.bk.arch.Computer;
+import su.comp.bk.arch.Computer.Configuration;
+
+/**
+ * {@link Autotype} class unit tests.
+ */
+public class AutotypeTest {
+
+    @Test
+    public void testKeyCodes() {
+        Autotype autotype = new Autotype("10 ?\"Да\"\r\nok\tЁ~", true);
+        assertArrayEquals(new int[] { '1', '0', ' ', '?', '"', 0016, 0144, 0101, '"', 0012,
+                0017, 'o', 'k', 0211, 0016, 0145, 0017, '~' }, autotype.getKeyCodes());
+        assertTrue(autotype.isLatinModeAtEnd());
+        assertFalse(new Autotype("Щ", true).isLatinModeAtEnd());
+        assertEquals(0, new Autotype("☺", false).getKeyCodes().length);
+    }
+
+    @Test
+    public void testKeyboardInjection() {
+        Computer computer = new Computer();
+        computer.setConfiguration(Configuration.BK_0010_MONITOR);
+        KeyboardController keyboardController = new KeyboardController(computer);
+        computer.addDevice(keyboardController);
+        computer.reset();
+        keyboardController.startAutotype("Hi");
+        assertTrue(keyboardController.isAutotypeActive());
+        // Started autotype text is picked up on timer only
+        keyboardController.checkAutotype();
+        assertTrue((computer.readMemory(false, KeyboardController.STATUS_REGISTER_ADDRESS)
+                & 0200) == 0);
+        keyboardController.timer(computer.getCpu().getTime());
+        assertEquals('H', computer.readMemory(false, KeyboardController.DATA_REGISTER_ADDRESS));
+        // Next key code is typed at the next instruction boundary after data register read
+        assertTrue((computer.readMemory(false, KeyboardController.STATUS_REGISTER_ADDRESS)
+                & 0200) == 0);
+        keyboardController.checkAutotype();
+        assertTrue((computer.readMemory(false, KeyboardController.STATUS_REGISTER_ADDRESS)
+                & 0200) != 0);
+        // Key code is not typed until previous one is read
+        keyboardController.checkAutotype();
+        assertEquals('i', computer.readMemory(false, KeyboardController.DATA_REGISTER_ADDRESS));
+        keyboardController.checkAutotype();
+        assertFalse(keyboardController.isAutotypeActive());
+        assertTrue((computer.readMemory(false, KeyboardController.STATUS_REGISTER_ADDRESS)
+                & 0200) == 0);
+        // Active autotype can be cancelled
+        keyboardController.startAutotype("Test");
+        keyboardController.cancelAutotype();
+        assertFalse(keyboardController.isAutotypeActive());
+    }
+
+}
@@ -21,7 +21,12 @@ package su.comp.bk.arch.io;
 
 import static org.junit.Assert.*;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
 import java.io.File;
+import java.nio.ByteBuffer;
 
 import org.apache.commons.io.FileUtils;
 import org.junit.After;
@@ -245,6 +250,23 @@ public class FloppyControllerTest {
         }
     }
 
+    @Test
+    public void testStateRestoreKeepsMountedDiskImage() throws Exception {
+        mountTestDiskImage();
+        FloppyDrive drive = floppyController.getFloppyDrive(FloppyDriveIdentifier.A);
+        ByteBuffer diskImageBuffer = drive.getMountedDiskImageBuffer();
+        drive.setCurrentTrack(1, FloppyDriveSide.UP);
+        ByteArrayOutputStream stateOutput = new ByteArrayOutputStream();
+        floppyController.saveState(new DataOutputStream(stateOutput));
+        drive.setCurrentTrack(0, FloppyDriveSide.DOWN);
+        floppyController.restoreState(new DataInputStream(
+                new ByteArrayInputStream(stateOutput.toByteArray())));
+        // Same disk image is not remounted
+        assertSame(diskImageBuffer, drive.getMountedDiskImageBuffer());
+        assertEquals(1, drive.getCurrentTrackNumber());
+        assertEquals(FloppyDriveSide.UP, drive.getCurrentTrackSide());
+    }
+
     private byte[] mountTestDiskImage() throws Exception {
         File testDiskImageFile = new File(TEST_DISK_IMAGE_FILE_NAME);
         byte[] testDiskImageData = FileUtils.readFileToByteArray(testDiskImageFile);
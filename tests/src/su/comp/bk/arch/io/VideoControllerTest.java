@@ -0,0 +1,353 @@
+/*
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package su.comp.bk.arch.io;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import su.comp.bk.arch.memory.PagedMemory;
+import su.comp.bk.arch.memory.RandomAccessMemory;
+import android.graphics.Color;
+
+/**
+ * {@link VideoController} class unit tests.
+ */
+public class VideoControllerTest {
+
+    private final static int VIDEO_MEMORY_ADDRESS = 040000;
+
+    private RandomAccessMemory videoMemory;
+    private VideoController videoController;
+
+    @Before
+    public void setUp() {
+        videoMemory = new RandomAccessMemory("TestVideoMemory", VIDEO_MEMORY_ADDRESS, 020000);
+        Arrays.fill(videoMemory.getData(), (short) 0);
+        videoController = new VideoController(videoMemory);
+        videoController.write(0L, false, VideoController.CONTROL_REGISTER_ADDRESS, 01330);
+        videoController.setColorMode(false);
+    }
+
+    private boolean render() {
+        videoController.publishFrame();
+        return videoController.renderVideoBuffer();
+    }
+
+    private int getPixel(int x, int y) {
+        return videoController.getVideoBuffer()[y * VideoController.VIDEO_BUFFER_WIDTH + x];
+    }
+
+    @Test
+    public void testChangedLinesRendering() {
+        assertTrue(render());
+        assertEquals(VideoController.VIDEO_BUFFER_HEIGHT,
+                videoController.getLastRenderedLineCount());
+        // Nothing changed
+        assertFalse(render());
+        assertEquals(0, videoController.getLastRenderedLineCount());
+        // Low byte pixels are displayed first
+        videoMemory.write(false, VIDEO_MEMORY_ADDRESS + 5 * 0100 + 2, 0401);
+        assertTrue(render());
+        assertEquals(1, videoController.getLastRenderedLineCount());
+        assertEquals(Color.WHITE, getPixel(16, 5));
+        assertEquals(Color.BLACK, getPixel(17, 5));
+        assertEquals(Color.WHITE, getPixel(24, 5));
+        assertEquals(Color.BLACK, getPixel(15, 5));
+        // Same value written
+        videoMemory.write(false, VIDEO_MEMORY_ADDRESS + 5 * 0100 + 2, 0401);
+        assertFalse(render());
+        // Pixels are cleared
+        videoMemory.write(false, VIDEO_MEMORY_ADDRESS + 5 * 0100 + 2, 0);
+        assertTrue(render());
+        assertEquals(Color.BLACK, getPixel(16, 5));
+    }
+
+    @Test
+    public void testChangedLinesDetectedByData() throws IOException {
+        render();
+        // Lines changed by block write are redrawn
+        byte[] block = new byte[3 * 0100];
+        Arrays.fill(block, (byte) 0377);
+        videoMemory.writeBlock(VIDEO_MEMORY_ADDRESS + 10 * 0100, block, 0, block.length);
+        assertTrue(render());
+        assertEquals(3, videoController.getLastRenderedLineCount());
+        assertEquals(Color.WHITE, getPixel(0, 12));
+        assertEquals(Color.BLACK, getPixel(0, 13));
+        // Lines changed and restored before rendering are not redrawn
+        videoMemory.write(false, VIDEO_MEMORY_ADDRESS + 20 * 0100, 1);
+        videoMemory.write(false, VIDEO_MEMORY_ADDRESS + 20 * 0100, 0);
+        assertFalse(render());
+        assertEquals(0, videoController.getLastRenderedLineCount());
+        // Lines changed by state restore are redrawn
+        ByteArrayOutputStream stateOutput = new ByteArrayOutputStream();
+        videoMemory.saveState(new DataOutputStream(stateOutput));
+        Arrays.fill(videoMemory.getData(), (short) 0);
+        assertTrue(render());
+        assertEquals(3, videoController.getLastRenderedLineCount());
+        videoMemory.restoreState(new DataInputStream(
+                new ByteArrayInputStream(stateOutput.toByteArray())));
+        assertTrue(render());
+        assertEquals(3, videoController.getLastRenderedLineCount());
+        assertEquals(Color.WHITE, getPixel(0, 10));
+    }
+
+    @Test
+    public void testFullRedraw() {
+        videoMemory.write(false, VIDEO_MEMORY_ADDRESS + 5 * 0100, 1);
+        render();
+        // Scrolling
+        videoController.write(0L, false, VideoController.CONTROL_REGISTER_ADDRESS, 01331);
+        assertTrue(render());
+        assertEquals(VideoController.VIDEO_BUFFER_HEIGHT,
+                videoController.getLastRenderedLineCount());
+        assertEquals(Color.WHITE, getPixel(0, 4));
+        assertEquals(Color.BLACK, getPixel(0, 5));
+        // Color mode change
+        videoController.setColorMode(true);
+        assertTrue(render());
+        assertEquals(VideoController.VIDEO_BUFFER_HEIGHT,
+                videoController.getLastRenderedLineCount());
+        assertEquals(Color.BLUE, getPixel(0, 4));
+        assertEquals(Color.BLUE, getPixel(1, 4));
+        assertEquals(Color.BLACK, getPixel(2, 4));
+        // Explicit invalidation
+        videoController.invalidateVideoBuffer();
+        assertTrue(render());
+        assertEquals(VideoController.VIDEO_BUFFER_HEIGHT,
+                videoController.getLastRenderedLineCount());
+    }
+
+    @Test
+    public void testExtendedMemoryMode() {
+        videoMemory.write(false, VIDEO_MEMORY_ADDRESS + 5 * 0100, 1);
+        videoMemory.write(false, VIDEO_MEMORY_ADDRESS + 0300 * 0100, 1);
+        videoController.write(0L, false, VideoController.CONTROL_REGISTER_ADDRESS, 0230);
+        assertTrue(render());
+        // Only last 64 lines of video memory are rendered to top of screen
+        assertEquals(64, videoController.getLastRenderedLineCount());
+        assertEquals(Color.WHITE, getPixel(0, 0));
+        assertEquals(Color.BLACK, getPixel(0, 5));
+        // Changes in invisible lines are not rendered
+        videoMemory.write(false, VIDEO_MEMORY_ADDRESS + 6 * 0100, 1);
+        assertFalse(render());
+    }
+
+    @Test
+    public void testPaletteSwitch() {
+        videoController.setColorMode(true);
+        videoMemory.write(false, VIDEO_MEMORY_ADDRESS, 1);
+        render();
+        assertEquals(Color.BLUE, getPixel(0, 0));
+        // Palette switch redraws whole frame
+        videoController.setColorPaletteIndex(1);
+        assertTrue(render());
+        assertEquals(VideoController.VIDEO_BUFFER_HEIGHT,
+                videoController.getLastRenderedLineCount());
+        assertEquals(Color.YELLOW, getPixel(0, 0));
+        // Palette is applied to published frame only
+        videoController.setColorPaletteIndex(2);
+        assertFalse(videoController.renderVideoBuffer());
+        assertEquals(Color.YELLOW, getPixel(0, 0));
+        videoController.setColorPaletteIndex(1);
+        assertFalse(render());
+        // Palette index is ignored in black and white mode
+        videoController.setColorMode(false);
+        assertTrue(render());
+        assertEquals(Color.WHITE, getPixel(0, 0));
+        videoController.setColorPaletteIndex(3);
+        assertFalse(render());
+    }
+
+    @Test
+    public void testFrameHandoff() {
+        render();
+        // Unpublished changes are not rendered
+        videoMemory.write(false, VIDEO_MEMORY_ADDRESS, 1);
+        assertFalse(videoController.renderVideoBuffer());
+        // Last published frame is rendered
+        videoController.publishFrame();
+        videoMemory.write(false, VIDEO_MEMORY_ADDRESS, 0);
+        videoMemory.write(false, VIDEO_MEMORY_ADDRESS + 0100, 1);
+        videoController.publishFrame();
+        videoMemory.write(false, VIDEO_MEMORY_ADDRESS + 0200, 1);
+        assertTrue(videoController.renderVideoBuffer());
+        assertEquals(1, videoController.getLastRenderedLineCount());
+        assertEquals(Color.BLACK, getPixel(0, 0));
+        assertEquals(Color.WHITE, getPixel(0, 1));
+        assertEquals(Color.BLACK, getPixel(0, 2));
+        // Rendered frame is not changed by publishing
+        videoController.publishFrame();
+        videoController.publishFrame();
+        assertTrue(videoController.renderVideoBuffer());
+        assertEquals(Color.WHITE, getPixel(0, 2));
+        assertFalse(videoController.renderVideoBuffer());
+    }
+
+    @Test
+    public void testIndexedFrame() {
+        videoMemory.write(false, VIDEO_MEMORY_ADDRESS + 5 * 0100 + 2, 0401);
+        videoController.write(0L, false, VideoController.CONTROL_REGISTER_ADDRESS, 0230);
+        render();
+        // Indexed frame contains displayed lines video data only
+        short[] indexedFrameData = videoController.getIndexedFrameData();
+        assertEquals(0, indexedFrameData[5 * VideoController.INDEXED_FRAME_LINE_LENGTH + 1]);
+        videoController.write(0L, false, VideoController.CONTROL_REGISTER_ADDRESS, 01330);
+        render();
+        assertEquals(0401, indexedFrameData[5 * VideoController.INDEXED_FRAME_LINE_LENGTH + 1]);
+        assertEquals(VideoController.INDEXED_FRAME_PALETTE_BW,
+                videoController.getIndexedFrameLinePalette(5));
+        assertArrayEquals(new int[] { Color.BLACK, Color.WHITE },
+                VideoController.getIndexedFramePaletteColors(
+                        VideoController.INDEXED_FRAME_PALETTE_BW));
+        // Palette switch changes indexed frame line palettes only
+        videoController.setColorMode(true);
+        videoController.setColorPaletteIndex(3);
+        render();
+        assertEquals(0401, indexedFrameData[5 * VideoController.INDEXED_FRAME_LINE_LENGTH + 1]);
+        assertEquals(3, videoController.getIndexedFrameLinePalette(5));
+    }
+
+    @Test
+    public void testRgb565Output() {
+        videoMemory.write(false, VIDEO_MEMORY_ADDRESS, 1);
+        render();
+        videoController.setVideoBufferRgb565(true);
+        assertNull(videoController.getVideoBufferRgb565());
+        assertTrue(render());
+        assertEquals(VideoController.VIDEO_BUFFER_HEIGHT,
+                videoController.getLastRenderedLineCount());
+        short[] rgb565Pixels = videoController.getVideoBufferRgb565();
+        assertEquals((short) 0xffff, rgb565Pixels[0]);
+        assertEquals(0, rgb565Pixels[1]);
+        videoController.setColorMode(true);
+        render();
+        // Blue color pixels
+        assertEquals(0x001f, rgb565Pixels[0]);
+        assertEquals(0x001f, rgb565Pixels[1]);
+        assertEquals(0, rgb565Pixels[2]);
+    }
+
+    @Test
+    public void testRasterMode() {
+        videoMemory.write(false, VIDEO_MEMORY_ADDRESS + 5 * 0100, 1);
+        videoMemory.write(false, VIDEO_MEMORY_ADDRESS + 150 * 0100, 1);
+        render();
+        // Scroll register change at scan line 100 is applied to whole frame
+        videoController.write(100L, false, VideoController.CONTROL_REGISTER_ADDRESS, 01331);
+        videoController.publishFrame(0L, VideoController.RASTER_FRAME_LINES);
+        videoController.renderVideoBuffer();
+        assertEquals(Color.WHITE, getPixel(0, 4));
+        assertEquals(Color.WHITE, getPixel(0, 149));
+        // Scroll register change at scan line 100 is applied from that line in raster mode
+        videoController.setRasterMode(true);
+        videoController.write(0L, false, VideoController.CONTROL_REGISTER_ADDRESS, 01330);
+        videoController.write(100L, false, VideoController.CONTROL_REGISTER_ADDRESS, 01331);
+        videoController.publishFrame(0L, VideoController.RASTER_FRAME_LINES);
+        assertTrue(videoController.renderVideoBuffer());
+        assertEquals(Color.WHITE, getPixel(0, 5));
+        assertEquals(Color.BLACK, getPixel(0, 4));
+        assertEquals(Color.WHITE, getPixel(0, 149));
+        assertEquals(Color.BLACK, getPixel(0, 150));
+        // Only lines before scroll register change are redrawn
+        assertEquals(100,
+                videoController.getLastRenderedLineCount());
+        // Frames without mid-frame changes are rendered as usual
+        videoController.publishFrame(0L, VideoController.RASTER_FRAME_LINES);
+        videoController.renderVideoBuffer();
+        assertFalse(render());
+        assertEquals(0, videoController.getLastRenderedLineCount());
+        assertEquals(Color.WHITE, getPixel(0, 4));
+    }
+
+    @Test
+    public void testFrameClock() {
+        // 20 ms frame period at 3 MHz CPU clock
+        final long frameCpuTicks = 60000L;
+        // Scroll register change at fixed time after frame start (timer IRQ2)
+        final long scrollChangeCpuTicks = frameCpuTicks * 100 / VideoController.RASTER_FRAME_LINES;
+        // Frames are checked at irregular times (as uptime is synced)
+        final long[] frameCheckCpuTicks = { 2L, 30000L, 7000L, 59999L, 21000L, 40000L };
+        // Odd video data lines have white first pixel
+        for (int line = 1; line < VideoController.VIDEO_BUFFER_HEIGHT; line += 2) {
+            videoMemory.getData()[line * 040] = 1;
+        }
+        videoController.setRasterMode(true);
+        for (int frame = 0; frame < frameCheckCpuTicks.length; frame++) {
+            long frameStartCpuTime = frame * frameCpuTicks;
+            long checkCpuTime = frameStartCpuTime + frameCheckCpuTicks[frame];
+            // Scroll register changes and frame check are done in CPU time order
+            videoController.write(frameStartCpuTime + 1, false,
+                    VideoController.CONTROL_REGISTER_ADDRESS, 01330);
+            if (checkCpuTime < frameStartCpuTime + scrollChangeCpuTicks) {
+                assertTrue(videoController.checkFrame(checkCpuTime, frameCpuTicks));
+            }
+            videoController.write(frameStartCpuTime + scrollChangeCpuTicks, false,
+                    VideoController.CONTROL_REGISTER_ADDRESS, 01331);
+            if (checkCpuTime >= frameStartCpuTime + scrollChangeCpuTicks) {
+                assertTrue(videoController.checkFrame(checkCpuTime, frameCpuTicks));
+            }
+            assertFalse(videoController.checkFrame(checkCpuTime, frameCpuTicks));
+            if (frame > 0) {
+                // Previous frame is published, scroll is changed at the same scan line
+                videoController.renderVideoBuffer();
+                assertEquals(Color.BLACK, getPixel(0, 98));
+                assertEquals(Color.WHITE, getPixel(0, 99));
+                assertEquals(Color.WHITE, getPixel(0, 100));
+                assertEquals(Color.BLACK, getPixel(0, 101));
+            }
+        }
+    }
+
+    @Test
+    public void testRasterModePageSwitch() {
+        PagedMemory pagedVideoMemory = new PagedMemory("TestPagedVideoMemory",
+                VIDEO_MEMORY_ADDRESS, 020000, 2);
+        for (int pageIndex = 0; pageIndex < 2; pageIndex++) {
+            RandomAccessMemory page = new RandomAccessMemory("TestVideoMemoryPage" + pageIndex,
+                    VIDEO_MEMORY_ADDRESS, 020000);
+            Arrays.fill(page.getData(), (short) 0);
+            pagedVideoMemory.setPage(pageIndex, page);
+        }
+        pagedVideoMemory.getPage(1).getData()[0200 * 040] = 1;
+        VideoController pagedVideoController = new VideoController(pagedVideoMemory);
+        VideoControllerManager videoControllerManager = new VideoControllerManager(
+                pagedVideoController, pagedVideoMemory);
+        pagedVideoController.write(0L, false, VideoController.CONTROL_REGISTER_ADDRESS, 01330);
+        pagedVideoController.setRasterMode(true);
+        // Second screen page with second palette is displayed from scan line 0100
+        videoControllerManager.write(0100L, false,
+                VideoControllerManager.PALETTE_REGISTER_ADDRESS, 0100400);
+        pagedVideoController.publishFrame(0L, VideoController.RASTER_FRAME_LINES);
+        assertTrue(pagedVideoController.renderVideoBuffer());
+        int[] videoBuffer = pagedVideoController.getVideoBuffer();
+        assertEquals(Color.YELLOW, videoBuffer[0200 * VideoController.VIDEO_BUFFER_WIDTH]);
+        // Screen page and palette are applied to whole next frame
+        pagedVideoController.publishFrame(0L, VideoController.RASTER_FRAME_LINES);
+        assertTrue(pagedVideoController.renderVideoBuffer());
+        assertEquals(0100, pagedVideoController.getLastRenderedLineCount());
+        pagedVideoController.publishFrame(0L, VideoController.RASTER_FRAME_LINES);
+        assertFalse(pagedVideoController.renderVideoBuffer());
+    }
+
+}
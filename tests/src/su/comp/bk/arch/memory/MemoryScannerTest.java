@@ -0,0 +1,131 @@
+/*
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package su.comp.bk.arch.memory;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Test;
+
+import su.comp.bk.arch.Computer;
+import su.comp.bk.arch.memory.MemoryScanner.Condition;
+
+/**
+ * {@link MemoryScanner} class unit tests.
+ */
+public class MemoryScannerTest {
+
+    private static MemoryScanner createScanner(RandomAccessMemory... pages) {
+        return new MemoryScanner(new Computer(), Arrays.asList(pages));
+    }
+
+    @Test
+    public void testWordSearch() {
+        RandomAccessMemory firstPage = new RandomAccessMemory("Page0", 01000, new short[100]);
+        RandomAccessMemory secondPage = new RandomAccessMemory("Page1", 0, new short[50]);
+        MemoryScanner scanner = createScanner(firstPage, secondPage);
+        assertEquals(300, scanner.getSearchSpaceSize());
+        scanner.start(false);
+        assertEquals(150, scanner.getCandidateCount());
+        firstPage.write(false, 01010, 5);
+        secondPage.write(false, 0, 5);
+        secondPage.write(false, 0142, 5);
+        assertEquals(3, scanner.narrow(Condition.EQUAL, 5));
+        assertArrayEquals(new int[] { 010, 0310, 0452 }, scanner.getCandidates(10));
+        assertEquals(3, scanner.narrow(Condition.UNCHANGED, 0));
+        firstPage.write(false, 01010, 3);
+        secondPage.write(false, 0142, 7);
+        assertEquals(1, scanner.narrow(Condition.DECREASED_BY, 2));
+        assertArrayEquals(new int[] { 010 }, scanner.getCandidates(10));
+        assertSame(firstPage, scanner.getPage(010));
+        assertEquals(01010, scanner.getPageAddress(010));
+        assertSame(secondPage, scanner.getPage(0452));
+        assertEquals(0142, scanner.getPageAddress(0452));
+    }
+
+    @Test
+    public void testByteSearch() {
+        RandomAccessMemory page = new RandomAccessMemory("Page", 01000, new short[40]);
+        MemoryScanner scanner = createScanner(page);
+        scanner.start(true);
+        assertEquals(80, scanner.getCandidateCount());
+        page.write(true, 01001, 0377);
+        page.write(true, 01117, 1);
+        assertEquals(2, scanner.narrow(Condition.CHANGED, 0));
+        page.write(true, 01001, 0);
+        page.write(true, 01117, 2);
+        assertEquals(1, scanner.narrow(Condition.INCREASED, 0));
+        assertArrayEquals(new int[] { 0117 }, scanner.getCandidates(10));
+        assertEquals(0, scanner.narrow(Condition.NOT_EQUAL, 2));
+    }
+
+    @Test
+    public void testPins() {
+        RandomAccessMemory page = new RandomAccessMemory("Page", 01000, new short[4]);
+        MemoryScanner scanner = createScanner(page);
+        scanner.pin(true, 3, 042);
+        scanner.pin(false, 4, 0123456);
+        assertEquals(042, page.read(true, 01003));
+        page.write(false, 01002, 0);
+        page.write(false, 01004, 0);
+        scanner.timer(0);
+        assertEquals(042 << 8, page.read(false, 01002));
+        assertEquals(0123456, page.read(false, 01004));
+        scanner.unpin(3);
+        assertArrayEquals(new int[] { 4 }, scanner.getPins());
+        page.write(false, 01002, 0);
+        scanner.timer(0);
+        assertEquals(0, page.read(false, 01002));
+        scanner.clearPins();
+        assertEquals(0, scanner.getPins().length);
+    }
+
+    @Test
+    public void testMappedPins() {
+        Computer computer = new Computer();
+        RandomAccessMemory page = new RandomAccessMemory("Page", 01000, new short[4]);
+        computer.addMemory(page);
+        PagedMemory pagedMemory = new PagedMemory("PagedMemory", 040000, 4, 2);
+        RandomAccessMemory memoryPage = new RandomAccessMemory("MemoryPage", 0, new short[4]);
+        pagedMemory.setPage(1, memoryPage);
+        computer.addMemory(pagedMemory);
+        MemoryScanner scanner = new MemoryScanner(computer, Arrays.asList(page, memoryPage));
+        // Pinned values of mapped pages are written via computer bus
+        final List<Integer> writeAddresses = new ArrayList<Integer>();
+        computer.setOnWatchpointListener(new Computer.OnWatchpointListener() {
+            @Override
+            public boolean onWatchpoint(Computer computer, boolean isWriteAccess,
+                    boolean isByteMode, int address, int value, int pc, long cpuTime) {
+                writeAddresses.add(address);
+                return false;
+            }
+        });
+        computer.addWatchpoint(01004, Computer.WATCHPOINT_WRITE);
+        computer.addWatchpoint(040002, Computer.WATCHPOINT_WRITE);
+        scanner.pin(false, 4, 0123456);
+        assertEquals(Arrays.asList(01004), writeAddresses);
+        // Pinned value of not mapped page is written directly
+        scanner.pin(false, 012, 054321);
+        assertEquals(054321, memoryPage.read(false, 2));
+        assertEquals(1, writeAddresses.size());
+        pagedMemory.setActivePageIndex(1);
+        scanner.timer(0);
+        assertEquals(Arrays.asList(01004, 01004, 040002), writeAddresses);
+    }
+
+}
@@ -0,0 +1,79 @@
+/*
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package su.comp.bk.arch.memory;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * {@link PagedMemory} class unit tests.
+ */
+public class PagedMemoryTest {
+
+    private PagedMemory pagedMemory;
+
+    @Before
+    public void setUp() {
+        pagedMemory = new PagedMemory("TestPagedMemory", 040000, 020000, 2);
+        pagedMemory.setPage(0, new RandomAccessMemory("TestPage0", 040000, 020000));
+        pagedMemory.setPage(1, new RandomAccessMemory("TestPage1", 040000, 020000));
+    }
+
+    private static byte[] saveState(PagedMemory memory) throws IOException {
+        ByteArrayOutputStream stateOutput = new ByteArrayOutputStream();
+        memory.saveState(new DataOutputStream(stateOutput));
+        return stateOutput.toByteArray();
+    }
+
+    private static void restoreState(PagedMemory memory, byte[] state) throws IOException {
+        memory.restoreState(new DataInputStream(new ByteArrayInputStream(state)));
+    }
+
+    @Test
+    public void testStateSaveRestore() throws IOException {
+        pagedMemory.setActivePageIndex(1);
+        byte[] state = saveState(pagedMemory);
+        pagedMemory.setActivePageIndex(0);
+        restoreState(pagedMemory, state);
+        assertEquals(1, pagedMemory.getActivePageIndex());
+        assertSame(pagedMemory.getPage(1), pagedMemory.getActivePage());
+        // Unset active page is restored
+        pagedMemory.setActivePageIndex(-1);
+        state = saveState(pagedMemory);
+        pagedMemory.setActivePageIndex(0);
+        restoreState(pagedMemory, state);
+        assertEquals(-1, pagedMemory.getActivePageIndex());
+        assertNull(pagedMemory.getActivePage());
+    }
+
+    @Test(expected = IOException.class)
+    public void testRestoreInvalidPageIndex() throws IOException {
+        restoreState(pagedMemory, new byte[] { 2 });
+    }
+
+    @Test(expected = IOException.class)
+    public void testRestoreInvalidHighPageIndex() throws IOException {
+        restoreState(pagedMemory, new byte[] { (byte) 0200 });
+    }
+
+}
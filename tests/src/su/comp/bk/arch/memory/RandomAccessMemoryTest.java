@@ -20,6 +20,12 @@ package su.comp.bk.arch.memory;
 
 import static org.junit.Assert.*;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
 import org.junit.Test;
 
 /**
@@ -113,4 +119,63 @@ public class RandomAccessMemoryTest {
         assertEquals((0377 << 8) + 1, ram.read(false, 01000));
     }
 
+    @Test
+    public void testReadBlock() {
+        byte[] ramData = new byte[] { 1, 2, 3, 4, 5, (byte) 0376 };
+        RandomAccessMemory ram = new RandomAccessMemory("TestRam", 01000, ramData);
+        byte[] buffer = new byte[8];
+        assertEquals(6, ram.readBlock(01000, buffer, 1, 7));
+        assertArrayEquals(new byte[] { 0, 1, 2, 3, 4, 5, (byte) 0376, 0 }, buffer);
+        buffer = new byte[3];
+        assertEquals(3, ram.readBlock(01001, buffer, 0, 3));
+        assertArrayEquals(new byte[] { 2, 3, 4 }, buffer);
+        assertEquals(0, ram.readBlock(01006, buffer, 0, 3));
+    }
+
+    @Test
+    public void testWriteBlock() {
+        RandomAccessMemory ram = new RandomAccessMemory("TestRam", 01000, new short[3]);
+        assertEquals(3, ram.writeBlock(01001, new byte[] { 1, (byte) 0377, 3 }, 0, 3));
+        assertArrayEquals(new short[] { 1 << 8, (3 << 8) + 0377, 0 }, ram.getData());
+        assertEquals(2, ram.writeBlock(01004, new byte[] { 0, 5, 6, 7 }, 1, 3));
+        assertArrayEquals(new short[] { 1 << 8, (3 << 8) + 0377, (6 << 8) + 5 }, ram.getData());
+        assertEquals(0, ram.writeBlock(0776, new byte[] { 0 }, 0, 1));
+    }
+
+    @Test
+    public void testSaveRestoreState() throws IOException {
+        RandomAccessMemory ram = new RandomAccessMemory("TestRam", 01000, 020000);
+        short[] powerOnData = ram.getData().clone();
+        ram.write(false, 01000, 0123456);
+        ram.write(true, 040777, 0377);
+        ByteArrayOutputStream stateOutput = new ByteArrayOutputStream();
+        ram.saveState(new DataOutputStream(stateOutput));
+        // Unchanged power-on pattern words are not stored
+        assertTrue(stateOutput.size() < 32);
+        short[] savedData = ram.getData().clone();
+        RandomAccessMemory restoredRam = new RandomAccessMemory("TestRam", 01000, 020000);
+        restoredRam.write(false, 02000, 1);
+        restoredRam.restoreState(new DataInputStream(
+                new ByteArrayInputStream(stateOutput.toByteArray())));
+        assertArrayEquals(savedData, restoredRam.getData());
+        assertEquals(powerOnData[(02000 - 01000) >> 1], restoredRam.getData()[(02000 - 01000) >> 1]);
+    }
+
+    @Test
+    public void testSharedData() {
+        RandomAccessMemory ram = new RandomAccessMemory("TestRam", 01000, new short[2]);
+        short[] sharedData = ram.shareData();
+        assertSame(sharedData, ram.getData());
+        // Shared data is copied on write
+        ram.write(false, 01000, 1);
+        assertEquals(0, sharedData[0]);
+        assertEquals(1, ram.read(false, 01000));
+        ram.releaseData(sharedData);
+        // Released data is not copied on write
+        short[] data = ram.getData();
+        ram.writeBlock(01002, new byte[] { 2, 0 }, 0, 2);
+        assertSame(data, ram.getData());
+        assertArrayEquals(new short[] { 1, 2 }, data);
+    }
+
 }
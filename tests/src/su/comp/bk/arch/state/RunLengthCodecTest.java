@@ -0,0 +1,84 @@
+/*
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package su.comp.bk.arch.state;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+import org.junit.Test;
+
+/**
+ * {@link RunLengthCodec} class unit tests.
+ */
+public class RunLengthCodecTest {
+
+    private static byte[] encode(short[] data) throws IOException {
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        RunLengthCodec.encode(new DataOutputStream(output), data, 0, data.length);
+        return output.toByteArray();
+    }
+
+    private static short[] decode(byte[] encodedData, int length) throws IOException {
+        short[] data = new short[length];
+        RunLengthCodec.decode(new DataInputStream(new ByteArrayInputStream(encodedData)),
+                data, 0, length);
+        return data;
+    }
+
+    @Test
+    public void testEncodeDecode() throws IOException {
+        short[] data = new short[] { 0, 0, 0, 1, 0, 2, 0, 0, (short) 0177777, 0 };
+        byte[] encodedData = encode(data);
+        // Chunks: (3 zeros, 3 literals), (2 zeros, 1 literal), (1 zero, 0 literals)
+        assertEquals(4 + 6 + 4 + 2 + 4, encodedData.length);
+        assertArrayEquals(data, decode(encodedData, data.length));
+    }
+
+    @Test
+    public void testLongZeroRun() throws IOException {
+        short[] data = new short[0400000];
+        data[data.length - 1] = 1;
+        byte[] encodedData = encode(data);
+        // Chunks: (0177777 zeros, 0 literals), (0177777 zeros, 2 literals)
+        assertEquals(4 + 4 + 4, encodedData.length);
+        assertArrayEquals(data, decode(encodedData, data.length));
+    }
+
+    @Test(expected = IOException.class)
+    public void testInvalidData() throws IOException {
+        decode(new byte[] { 0, 2, 0, 0 }, 1);
+    }
+
+    @Test
+    public void testBufferDecode() throws IOException {
+        short[] data = new short[] { 0, 0, 5, 0, 0, 0, 6 };
+        short[] decodedData = new short[data.length];
+        RunLengthCodec.decode(ByteBuffer.wrap(encode(data)), decodedData, 0, data.length);
+        assertArrayEquals(data, decodedData);
+    }
+
+    @Test(expected = IOException.class)
+    public void testTruncatedBufferData() throws IOException {
+        RunLengthCodec.decode(ByteBuffer.wrap(new byte[] { 0, 0, 0, 2, 0, 1 }),
+                new short[2], 0, 2);
+    }
+
+}
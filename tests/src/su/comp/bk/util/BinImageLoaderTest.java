@@ -0,0 +1,112 @@
+/*
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+package su.comp.bk.util;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.nio.channels.Channels;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.Before;
+import org.junit.Test;
+
+import su.comp.bk.arch.Computer;
+import su.comp.bk.arch.memory.RandomAccessMemory;
+
+/**
+ * {@link BinImageLoader} tests.
+ */
+public class BinImageLoaderTest {
+
+    private Computer computer;
+    private BinImageLoader loader;
+
+    @Before
+    public void setUp() {
+        computer = new Computer();
+        computer.addMemory(new RandomAccessMemory("TestMemory", 0, 040000));
+        loader = new BinImageLoader(computer);
+    }
+
+    private static byte[] createImage(int address, int length) {
+        byte[] image = new byte[BinImageLoader.HEADER_LENGTH + length];
+        image[0] = (byte) address;
+        image[1] = (byte) (address >> 8);
+        image[2] = (byte) length;
+        image[3] = (byte) (length >> 8);
+        for (int i = 0; i < length; i++) {
+            image[BinImageLoader.HEADER_LENGTH + i] = (byte) (i * 7);
+        }
+        return image;
+    }
+
+    @Test
+    public void testLoadFile() throws Exception {
+        // Image data is larger than loader buffer
+        byte[] image = createImage(01001, 030001);
+        File imageFile = File.createTempFile("test", ".bin");
+        try {
+            FileUtils.writeByteArrayToFile(imageFile, image);
+            assertEquals(01001, loader.load(imageFile.toURI().toURL()));
+        } finally {
+            imageFile.delete();
+        }
+        assertEquals(01001, loader.getLastImageAddress());
+        assertEquals(030001, loader.getLastImageLength());
+        for (int i = 0; i < 030001; i++) {
+            assertEquals(image[BinImageLoader.HEADER_LENGTH + i] & 0377,
+                    computer.readMemory(true, 01001 + i));
+        }
+    }
+
+    @Test(expected = EOFException.class)
+    public void testLoadTruncated() throws Exception {
+        byte[] image = createImage(01000, 10);
+        loader.load(Channels.newChannel(new ByteArrayInputStream(image, 0, image.length - 1)));
+    }
+
+    @Test
+    public void testLoadTruncatedNotWritten() throws Exception {
+        // Image data is larger than loader initial buffer
+        byte[] image = createImage(01000, 030000);
+        int memoryValue = computer.readMemory(false, 01002);
+        try {
+            loader.load(Channels.newChannel(new ByteArrayInputStream(image, 0,
+                    image.length - 1)));
+            fail("Truncated image is loaded");
+        } catch (EOFException e) {
+            // Expected
+        }
+        assertEquals(memoryValue, computer.readMemory(false, 01002));
+    }
+
+    @Test(expected = IOException.class)
+    public void testLoadInvalidLength() throws Exception {
+        byte[] image = createImage(0177000, 01001);
+        loader.load(Channels.newChannel(new ByteArrayInputStream(image)));
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testLoadUnmapped() throws Exception {
+        byte[] image = createImage(077776, 4);
+        loader.load(Channels.newChannel(new ByteArrayInputStream(image)));
+    }
+
+}
@@ -0,0 +1,111 @@
+/*
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package su.comp.bk.util;
+
+import static org.junit.Assert.*;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import su.comp.bk.arch.Computer;
+
+/**
+ * {@link FramePacer} class unit tests.
+ */
+public class FramePacerTest {
+
+    // Virtual frame clock period (in nanoseconds)
+    private final static long FRAME_PERIOD = 16 * Computer.NANOSECS_IN_MSEC;
+
+    /**
+     * Virtual frame clock, ticks without waiting.
+     */
+    private static class VirtualFrameClock implements FramePacer.FrameClock {
+        private long frameTime;
+
+        @Override
+        public long waitForNextFrame() {
+            frameTime += FRAME_PERIOD;
+            return frameTime;
+        }
+
+        @Override
+        public void release() {
+            // Do nothing
+        }
+    }
+
+    private FramePacer framePacer;
+
+    @Before
+    public void setUp() {
+        framePacer = new FramePacer(new VirtualFrameClock());
+    }
+
+    private boolean drawFrame(boolean isContentChanged, long frameTime)
+            throws InterruptedException {
+        long frameStartTime = framePacer.waitForNextFrame();
+        if (framePacer.isFrameDrawRequired(isContentChanged)) {
+            framePacer.onFrameDrawn(frameStartTime + frameTime);
+            return true;
+        }
+        return false;
+    }
+
+    @Test
+    public void testContentDrivenDrawing() throws InterruptedException {
+        // First frame is always drawn
+        assertTrue(drawFrame(false, 0));
+        // Unchanged frames are skipped
+        for (int i = 0; i < 10; i++) {
+            assertFalse(drawFrame(false, 0));
+        }
+        assertEquals(1, framePacer.getDrawnFrameCount());
+        assertEquals(10, framePacer.getSkippedFrameCount());
+        // Changed frames are drawn on every frame clock tick
+        for (int i = 0; i < 10; i++) {
+            assertTrue(drawFrame(true, 0));
+        }
+        assertEquals(11, framePacer.getDrawnFrameCount());
+        // Redraw request
+        framePacer.requestRedraw();
+        assertTrue(drawFrame(false, 0));
+        assertFalse(drawFrame(false, 0));
+    }
+
+    @Test
+    public void testFrameTimePercentiles() throws InterruptedException {
+        assertArrayEquals(new long[] { 0, 0 }, framePacer.getFrameTimePercentiles(50, 99));
+        for (int i = 1; i <= 100; i++) {
+            drawFrame(true, i * Computer.NANOSECS_IN_MSEC);
+            // Skipped frames are not counted
+            drawFrame(false, 1000 * Computer.NANOSECS_IN_MSEC);
+        }
+        assertArrayEquals(new long[] { 1 * Computer.NANOSECS_IN_MSEC,
+                50 * Computer.NANOSECS_IN_MSEC, 95 * Computer.NANOSECS_IN_MSEC,
+                100 * Computer.NANOSECS_IN_MSEC },
+                framePacer.getFrameTimePercentiles(0, 50, 95, 100));
+    }
+
+    @Test
+    public void testSleepFrameClock() throws InterruptedException {
+        FramePacer.SleepFrameClock frameClock = new FramePacer.SleepFrameClock(FRAME_PERIOD);
+        long firstFrameTime = frameClock.waitForNextFrame();
+        long secondFrameTime = frameClock.waitForNextFrame();
+        assertEquals(FRAME_PERIOD, secondFrameTime - firstFrameTime);
+        assertTrue(System.nanoTime() >= secondFrameTime);
+    }
+
+}
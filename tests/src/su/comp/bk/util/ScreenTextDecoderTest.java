@@ -0,0 +1,144 @@
+/*
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package su.comp.bk.util;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.Before;
+import org.junit.Test;
+
+import su.comp.bk.arch.Computer;
+import su.comp.bk.arch.TestComputers;
+import su.comp.bk.arch.cpu.Cpu;
+import su.comp.bk.arch.io.VideoController;
+import su.comp.bk.arch.memory.RandomAccessMemory;
+
+/**
+ * {@link ScreenTextDecoder} class unit tests.
+ */
+public class ScreenTextDecoderTest {
+
+    private final static String EXTENSION_ROM_FILE_NAME = "res/raw/ext11m.rom";
+
+    private final static int PROGRAM_ADDRESS = 01000;
+
+    private byte[] monitorRomData;
+
+    private Computer computer;
+
+    private RandomAccessMemory videoMemory;
+
+    private VideoController videoController;
+
+    @Before
+    public void setUp() throws Exception {
+        monitorRomData = FileUtils.readFileToByteArray(
+                new File(TestComputers.MONITOR_ROM_FILE_NAME));
+        videoMemory = TestComputers.createVideoMemory();
+        videoController = new VideoController(videoMemory);
+        videoController.setColorMode(false);
+        computer = TestComputers.createMonitor(videoMemory, videoController);
+    }
+
+    /**
+     * Print text using monitor print char routine (EMT 16).
+     */
+    private void print(String text) {
+        int address = PROGRAM_ADDRESS;
+        for (int i = 0; i < text.length(); i++) {
+            computer.writeMemory(false, address, 012700);
+            computer.writeMemory(false, address + 2, text.charAt(i));
+            computer.writeMemory(false, address + 4, 0104016);
+            address += 6;
+        }
+        computer.writeMemory(false, address, 0777);
+        computer.getCpu().writeRegister(false, Cpu.PC, PROGRAM_ADDRESS);
+        assertTrue(TestComputers.runUntil(computer, address));
+    }
+
+    @Test
+    public void testMonitorText() {
+        ScreenTextDecoder decoder = new ScreenTextDecoder();
+        decoder.addMonitorFont(monitorRomData);
+        assertEquals(0, decoder.decode(videoController));
+        assertEquals("?", decoder.getRowText(1));
+        print("\014Hello, World!\n\n0123 abc");
+        assertEquals(0, decoder.decode(videoController));
+        assertEquals(ScreenTextDecoder.COLUMNS_BW, decoder.getColumns());
+        assertEquals("Hello, World!\n\n0123 abc", decoder.getText().trim());
+        // Cursor char cell is recognized as inversed space
+        assertEquals(' ', decoder.getCharCode(2, 8));
+        // Scrolled screen
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; i < 30; i++) {
+            text.append("\nLine ").append(i);
+        }
+        print(text.toString());
+        assertTrue(videoController.read(0L, VideoController.CONTROL_REGISTER_ADDRESS) != 01330);
+        assertEquals(0, decoder.decode(videoController));
+        assertEquals("Line 6", decoder.getRowText(0));
+        assertEquals("Line 29", decoder.getRowText(ScreenTextDecoder.ROWS - 1));
+    }
+
+    @Test
+    public void testColorModeText() {
+        ScreenTextDecoder decoder = new ScreenTextDecoder();
+        decoder.addMonitorFont(monitorRomData);
+        videoController.setColorMode(true);
+        // Char glyph in color mode is drawn by two bits per pixel
+        int glyphOffset = ScreenTextDecoder.MONITOR_FONT_OFFSET + ('K' - 040)
+                * ScreenTextDecoder.GLYPH_HEIGHT;
+        for (int line = 0; line < ScreenTextDecoder.GLYPH_HEIGHT; line++) {
+            int glyphByte = monitorRomData[glyphOffset + line] & 0377;
+            int colorWord = 0;
+            for (int pixel = 0; pixel < 8; pixel++) {
+                if ((glyphByte & (1 << pixel)) != 0) {
+                    colorWord |= 2 << (pixel * 2);
+                }
+            }
+            videoMemory.write(false, 040000 + (16 + ScreenTextDecoder.GLYPH_HEIGHT * 3
+                    + line) * 0100 + 2, colorWord);
+        }
+        decoder.decode(videoController);
+        assertEquals(ScreenTextDecoder.COLUMNS_COLOR, decoder.getColumns());
+        assertEquals('K', decoder.getCharCode(3, 1));
+        // Half of char glyph can't be recognized in black and white mode
+        videoController.setColorMode(false);
+        assertTrue(decoder.decode(videoController) > 0);
+        assertEquals(ScreenTextDecoder.UNKNOWN_CHAR_CODE, decoder.getCharCode(3, 2));
+    }
+
+    @Test
+    public void testExtensionFont() throws Exception {
+        byte[] extensionRomData = FileUtils.readFileToByteArray(
+                new File(EXTENSION_ROM_FILE_NAME));
+        ScreenTextDecoder decoder = new ScreenTextDecoder();
+        decoder.addExtensionFont(extensionRomData);
+        assertTrue(decoder.getGlyphsCount() > 0200);
+        int glyphOffset = ScreenTextDecoder.EXTENSION_FONT_OFFSET + ('A' - 040)
+                * ScreenTextDecoder.GLYPH_HEIGHT;
+        for (int line = 0; line < ScreenTextDecoder.GLYPH_HEIGHT; line++) {
+            videoMemory.write(true, 040000 + (16 + line) * 0100 + 1,
+                    extensionRomData[glyphOffset + line]);
+        }
+        videoMemory.write(true, 040000 + 17 * 0100 + 2, 0377);
+        decoder.decode(videoController);
+        assertEquals(" A" + ScreenTextDecoder.UNKNOWN_CHAR, decoder.getRowText(0));
+    }
+
+}
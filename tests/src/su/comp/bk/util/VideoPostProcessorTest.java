@@ -0,0 +1,140 @@
+/*
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package su.comp.bk.util;
+
+import static org.junit.Assert.*;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * {@link VideoPostProcessor} class unit tests.
+ */
+public class VideoPostProcessorTest {
+
+    private final static int INPUT_WIDTH = 8;
+    private final static int INPUT_HEIGHT = 4;
+
+    private final static int WHITE = 0xffffffff;
+
+    // Maximum time to wait for output frame processing (in milliseconds)
+    private final static long MAX_PROCESSING_TIME = 5000L;
+
+    private VideoPostProcessor postProcessor;
+
+    private int[] inputPixels;
+
+    @Before
+    public void setUp() {
+        postProcessor = new VideoPostProcessor(INPUT_WIDTH, INPUT_HEIGHT);
+        inputPixels = new int[INPUT_WIDTH * INPUT_HEIGHT];
+        for (int i = 0; i < inputPixels.length; i++) {
+            inputPixels[i] = ((i & 1) == 0) ? WHITE : 0xff000000 | i;
+        }
+    }
+
+    @After
+    public void tearDown() {
+        postProcessor.release();
+    }
+
+    private VideoPostProcessor.Frame waitForOutputFrame() throws InterruptedException {
+        long startTime = System.currentTimeMillis();
+        VideoPostProcessor.Frame frame;
+        while ((frame = postProcessor.takeOutputFrame()) == null) {
+            assertTrue(System.currentTimeMillis() - startTime < MAX_PROCESSING_TIME);
+            Thread.sleep(1);
+        }
+        return frame;
+    }
+
+    @Test
+    public void testNearestScaling() {
+        postProcessor.setOutputScale(2, 3);
+        int outputWidth = INPUT_WIDTH * 2;
+        int[] outputPixels = new int[outputWidth * INPUT_HEIGHT * 3];
+        postProcessor.process(inputPixels, outputPixels);
+        for (int y = 0; y < INPUT_HEIGHT * 3; y++) {
+            for (int x = 0; x < outputWidth; x++) {
+                assertEquals(inputPixels[(y / 3) * INPUT_WIDTH + x / 2],
+                        outputPixels[y * outputWidth + x]);
+            }
+        }
+        // Output scale is limited
+        postProcessor.setOutputScale(0, VideoPostProcessor.MAX_OUTPUT_SCALE + 1);
+        assertEquals(1, postProcessor.getOutputScaleX());
+        assertEquals(VideoPostProcessor.MAX_OUTPUT_SCALE, postProcessor.getOutputScaleY());
+    }
+
+    @Test
+    public void testScanlines() {
+        postProcessor.setFilter(VideoPostProcessor.Filter.SCANLINES);
+        postProcessor.setOutputScale(1, 2);
+        int[] outputPixels = new int[INPUT_WIDTH * INPUT_HEIGHT * 2];
+        postProcessor.process(inputPixels, outputPixels);
+        // Scan line rows are kept, gap rows are darkened
+        assertEquals(WHITE, outputPixels[0]);
+        int gapPixel = outputPixels[INPUT_WIDTH];
+        assertEquals(0xff, gapPixel >>> 24);
+        assertTrue((gapPixel & 0xff) < 0xff && (gapPixel & 0xff) > 0);
+        assertEquals(gapPixel & 0xff, (gapPixel >> 16) & 0xff);
+        // No scan line gaps without vertical scaling
+        postProcessor.setOutputScale(1, 1);
+        postProcessor.process(inputPixels, outputPixels);
+        assertEquals(WHITE, outputPixels[INPUT_WIDTH * 2]);
+    }
+
+    @Test
+    public void testCrtMask() {
+        postProcessor.setFilter(VideoPostProcessor.Filter.CRT);
+        postProcessor.setOutputScale(3, 2);
+        int outputWidth = INPUT_WIDTH * 3;
+        int[] outputPixels = new int[outputWidth * INPUT_HEIGHT * 2];
+        postProcessor.process(inputPixels, outputPixels);
+        // Each mask stripe passes its color channel only
+        assertEquals(0xffff0000, outputPixels[0] & 0xffff0000);
+        assertTrue((outputPixels[0] & 0xff) < 0xff);
+        assertEquals(0xff00ff00, outputPixels[1] & 0xff00ff00);
+        assertEquals(0xff0000ff, outputPixels[2] & 0xff0000ff);
+        assertTrue((outputPixels[outputWidth] >> 16 & 0xff)
+                < (outputPixels[0] >> 16 & 0xff));
+    }
+
+    @Test
+    public void testBackgroundProcessing() throws InterruptedException {
+        assertNull(postProcessor.takeOutputFrame());
+        postProcessor.setOutputScale(2, 2);
+        postProcessor.submitFrame(inputPixels);
+        // Input pixels are copied on submission
+        int firstPixel = inputPixels[0];
+        inputPixels[0] = 0;
+        VideoPostProcessor.Frame frame = waitForOutputFrame();
+        assertEquals(INPUT_WIDTH * 2, frame.getWidth());
+        assertEquals(INPUT_HEIGHT * 2, frame.getHeight());
+        assertEquals(firstPixel, frame.getPixels()[0]);
+        assertEquals(1, postProcessor.getProcessedFrameCount());
+        // Processed frame is reused until input frame or settings are changed
+        Thread.sleep(10);
+        assertNull(postProcessor.takeOutputFrame());
+        // Last input frame is processed again after settings change
+        postProcessor.setOutputScale(1, 1);
+        frame = waitForOutputFrame();
+        assertEquals(INPUT_WIDTH, frame.getWidth());
+        assertEquals(firstPixel, frame.getPixels()[0]);
+        assertEquals(2, postProcessor.getProcessedFrameCount());
+    }
+
+}
@@ -0,0 +1,59 @@
+/*
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package su.comp.bk.util;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Desktop command line tool to export video recording file with
+ * {@link VideoRecordingExporter} (kept out of application sources), i.e.:
+ * <pre>
+ * mvn exec:java -Dexec.classpathScope=test \
+ *     -Dexec.mainClass=su.comp.bk.util.VideoRecordingExportTool \
+ *     -Dexec.args="video_recording.bin frames"
+ * </pre>
+ */
+public class VideoRecordingExportTool {
+
+    /**
+     * Export video recording file to image files sequence.
+     * @param args recording file, output directory and optional frame step
+     * @throws IOException in case of export error
+     */
+    public static void main(String[] args) throws IOException {
+        if (args.length < 2) {
+            System.err.println("Usage: VideoRecordingExportTool <recording file>"
+                    + " <output directory> [frame step]");
+            System.exit(1);
+        }
+        File outputDir = new File(args[1]);
+        if (!outputDir.isDirectory() && !outputDir.mkdirs()) {
+            throw new IOException("Can't create output directory: " + outputDir);
+        }
+        int frameStep = (args.length > 2) ? Integer.parseInt(args[2]) : 1;
+        InputStream recordingInput = new FileInputStream(args[0]);
+        try {
+            int imageCount = new VideoRecordingExporter(frameStep).export(recordingInput,
+                    outputDir);
+            System.out.println(imageCount + " images exported");
+        } finally {
+            recordingInput.close();
+        }
+    }
+
+}
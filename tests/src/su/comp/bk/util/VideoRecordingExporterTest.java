@@ -0,0 +1,71 @@
+/*
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package su.comp.bk.util;
+
+import static org.junit.Assert.*;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+
+import javax.imageio.ImageIO;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import su.comp.bk.arch.VideoRecorder;
+import su.comp.bk.arch.io.VideoController;
+import su.comp.bk.arch.memory.RandomAccessMemory;
+
+/**
+ * {@link VideoRecordingExporter} class unit tests.
+ */
+public class VideoRecordingExporterTest {
+
+    @Rule
+    public TemporaryFolder outputDir = new TemporaryFolder();
+
+    @Test
+    public void testExport() throws IOException {
+        RandomAccessMemory videoMemory = new RandomAccessMemory("VideoMemory", 040000, 020000);
+        VideoController videoController = new VideoController(videoMemory);
+        videoController.write(0L, false, VideoController.CONTROL_REGISTER_ADDRESS, 01330);
+        videoController.setColorMode(false);
+        ByteArrayOutputStream recordingOutput = new ByteArrayOutputStream();
+        VideoRecorder recorder = new VideoRecorder(recordingOutput, 20000000L);
+        videoController.setOnFramePublishedListener(recorder);
+        videoMemory.write(false, 040000, 1);
+        for (int i = 0; i < 3; i++) {
+            videoController.publishFrame();
+        }
+        recorder.close();
+        // Every second frame is exported
+        int imageCount = new VideoRecordingExporter(2).export(
+                new ByteArrayInputStream(recordingOutput.toByteArray()), outputDir.getRoot());
+        assertEquals(2, imageCount);
+        assertFalse(new File(outputDir.getRoot(), String.format(
+                VideoRecordingExporter.IMAGE_FILE_NAME_FORMAT, 1)).exists());
+        BufferedImage image = ImageIO.read(new File(outputDir.getRoot(), String.format(
+                VideoRecordingExporter.IMAGE_FILE_NAME_FORMAT, 2)));
+        assertEquals(VideoController.VIDEO_BUFFER_WIDTH, image.getWidth());
+        assertEquals(VideoController.VIDEO_BUFFER_HEIGHT, image.getHeight());
+        assertEquals(0xffffff, image.getRGB(0, 0) & 0xffffff);
+        assertEquals(0, image.getRGB(1, 0) & 0xffffff);
+    }
+
+}